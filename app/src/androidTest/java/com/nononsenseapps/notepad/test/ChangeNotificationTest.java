@@ -0,0 +1,252 @@
+/*
+ * Copyright (c) 2014 Jonas Kalderstam.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.nononsenseapps.notepad.test;
+
+import android.content.Context;
+import android.database.ContentObserver;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.SystemClock;
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.MediumTest;
+
+import com.nononsenseapps.notepad.database.ChangeCoalescer;
+import com.nononsenseapps.notepad.database.Task;
+import com.nononsenseapps.notepad.database.TaskList;
+
+import java.util.ArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Counts how often cursors, registered the way loaders register them, are
+ * told to reload when a task is written.
+ */
+public class ChangeNotificationTest extends AndroidTestCase {
+
+	private Context context;
+	private TaskList listA;
+	private TaskList listB;
+	private Task taskA;
+	private final ArrayList<Cursor> cursors = new ArrayList<Cursor>();
+
+	/**
+	 * Counts reloads. Without a handler, it is called on the binder thread.
+	 */
+	private static class ReloadCounter extends ContentObserver {
+		final CountDownLatch first = new CountDownLatch(1);
+		volatile int reloads = 0;
+
+		ReloadCounter() {
+			super(null);
+		}
+
+		@Override
+		public void onChange(boolean selfChange) {
+			reloads++;
+			first.countDown();
+		}
+	}
+
+	@Override
+	public void setUp() throws Exception {
+		super.setUp();
+		context = getContext();
+
+		// Send the notifications of the setup right away
+		final ChangeCoalescer changes = ChangeCoalescer.getInstance(context);
+		changes.beginScope();
+		try {
+			listA = new TaskList();
+			listA.title = "111aaTestingListA";
+			listA.save(context);
+			listB = new TaskList();
+			listB.title = "111aaTestingListB";
+			listB.save(context);
+
+			taskA = new Task();
+			taskA.title = "task in A";
+			taskA.dblist = listA._id;
+			taskA.save(context);
+		}
+		finally {
+			changes.endScope();
+		}
+		// And let them arrive before the tests register
+		Thread.sleep(200);
+	}
+
+	@Override
+	public void tearDown() throws Exception {
+		for (Cursor c : cursors) {
+			c.close();
+		}
+		listA.delete(context);
+		listB.delete(context);
+		super.tearDown();
+	}
+
+	/**
+	 * Same as a CursorLoader does with the result of its query
+	 */
+	private ReloadCounter register(final Uri uri, final String where,
+			final String[] whereArgs) {
+		final Cursor c = context.getContentResolver().query(uri,
+				Task.Columns.FIELDS, where, whereArgs, null);
+		assertNotNull(c);
+		cursors.add(c);
+		final ReloadCounter counter = new ReloadCounter();
+		c.registerContentObserver(counter);
+		return counter;
+	}
+
+	@MediumTest
+	public void testWriteOnlyReloadsItsList() throws InterruptedException {
+		final ReloadCounter pageA = register(Task.getListUri(listA._id), null,
+				null);
+		final ReloadCounter pageB = register(Task.getListUri(listB._id), null,
+				null);
+		final ReloadCounter datesB = register(Task.URI_SECTIONED_BY_DATE,
+				Task.Columns.DBLIST + " IS ?",
+				new String[] { Long.toString(listB._id) });
+		final ReloadCounter all = register(Task.URI, null, null);
+
+		taskA.title = "changed";
+		taskA.save(context);
+
+		assertTrue("List A was not reloaded",
+				pageA.first.await(5, TimeUnit.SECONDS));
+		assertTrue("All tasks was not reloaded",
+				all.first.await(5, TimeUnit.SECONDS));
+		// Give any wrong notifications time to arrive
+		Thread.sleep(500);
+
+		assertEquals("Expected a single reload per write", 1, pageA.reloads);
+		assertEquals(0, pageB.reloads);
+		assertEquals(0, datesB.reloads);
+	}
+
+	@MediumTest
+	public void testMoveReloadsBothLists() throws InterruptedException {
+		final ReloadCounter pageA = register(Task.getListUri(listA._id), null,
+				null);
+		final ReloadCounter pageB = register(Task.getListUri(listB._id), null,
+				null);
+
+		taskA.dblist = listB._id;
+		taskA.save(context);
+
+		assertTrue(pageA.first.await(5, TimeUnit.SECONDS));
+		assertTrue(pageB.first.await(5, TimeUnit.SECONDS));
+	}
+
+	@MediumTest
+	public void testScopeCoalescesWrites() throws InterruptedException {
+		final ChangeCoalescer changes = ChangeCoalescer.getInstance(context);
+		final ReloadCounter pageA = register(Task.getListUri(listA._id), null,
+				null);
+		final long suppressed = changes.getSuppressedCount();
+
+		changes.beginScope();
+		try {
+			for (int i = 0; i < 5; i++) {
+				taskA.title = "changed " + i;
+				taskA.save(context);
+			}
+			// Longer than the window
+			Thread.sleep(2 * ChangeCoalescer.DEFAULT_WINDOW_MS);
+			assertEquals("Notified before the scope ended", 0, pageA.reloads);
+		}
+		finally {
+			changes.endScope();
+		}
+
+		assertTrue(pageA.first.await(5, TimeUnit.SECONDS));
+		Thread.sleep(500);
+		assertEquals("Expected a single reload for all writes", 1,
+				pageA.reloads);
+		assertTrue(changes.getSuppressedCount() - suppressed >= 4);
+	}
+
+	@MediumTest
+	public void testScopeHoldsInserts() throws InterruptedException {
+		final ChangeCoalescer changes = ChangeCoalescer.getInstance(context);
+		final ReloadCounter all = register(Task.URI, null, null);
+
+		changes.beginScope();
+		try {
+			final Task task = new Task();
+			task.title = "inserted";
+			task.dblist = listA._id;
+			task.save(context);
+			Thread.sleep(2 * ChangeCoalescer.DEFAULT_WINDOW_MS);
+			assertEquals("Insert notified before the scope ended", 0,
+					all.reloads);
+		}
+		finally {
+			changes.endScope();
+		}
+
+		assertTrue(all.first.await(5, TimeUnit.SECONDS));
+	}
+
+	@MediumTest
+	public void testSteadyWritesAreNotHeldForever()
+			throws InterruptedException {
+		final ReloadCounter pageA = register(Task.getListUri(listA._id), null,
+				null);
+
+		// Each write restarts the window, but the first is sent anyway
+		final long end = SystemClock.uptimeMillis() + 2
+				* ChangeCoalescer.MAX_DELAY_MS;
+		for (int i = 0; SystemClock.uptimeMillis() < end; i++) {
+			taskA.title = "changed " + i;
+			taskA.save(context);
+			Thread.sleep(ChangeCoalescer.DEFAULT_WINDOW_MS / 2);
+			if (pageA.first.getCount() == 0) {
+				break;
+			}
+		}
+		assertEquals("Not notified within the maximum delay", 0,
+				pageA.first.getCount());
+	}
+
+	@MediumTest
+	public void testScopeOnlyHoldsItsThread() throws InterruptedException {
+		final ChangeCoalescer changes = ChangeCoalescer.getInstance(context);
+		final ReloadCounter pageA = register(Task.getListUri(listA._id), null,
+				null);
+
+		changes.beginScope();
+		try {
+			final Thread writer = new Thread() {
+				@Override
+				public void run() {
+					taskA.title = "changed by other thread";
+					taskA.save(context);
+				}
+			};
+			writer.start();
+			writer.join();
+			assertTrue("Held by the scope of another thread",
+					pageA.first.await(5, TimeUnit.SECONDS));
+		}
+		finally {
+			changes.endScope();
+		}
+	}
+}
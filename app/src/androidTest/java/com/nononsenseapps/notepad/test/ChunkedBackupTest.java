@@ -0,0 +1,110 @@
+/*
+ * Copyright (c) 2014 Jonas Kalderstam.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.nononsenseapps.notepad.test;
+
+import android.content.Context;
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.MediumTest;
+
+import com.nononsenseapps.notepad.database.Task;
+import com.nononsenseapps.notepad.database.TaskList;
+import com.nononsenseapps.notepad.sync.files.ChunkedBackup;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.List;
+
+public class ChunkedBackupTest extends AndroidTestCase {
+
+	private Context context;
+	private File dir;
+	private TaskList list;
+	private Task task;
+
+	@Override
+	public void setUp() throws Exception {
+		super.setUp();
+		context = getContext();
+		dir = new File(context.getCacheDir(), "chunkedbackuptest");
+
+		list = new TaskList();
+		list.title = "111aaTestingChunkedBackup";
+		list.save(context);
+		task = new Task();
+		task.title = "task";
+		task.dblist = list._id;
+		task.save(context);
+	}
+
+	@Override
+	public void tearDown() throws Exception {
+		list.delete(context);
+		final File[] files = dir.listFiles();
+		if (files != null) {
+			for (File file : files) {
+				file.delete();
+			}
+		}
+		dir.delete();
+		super.tearDown();
+	}
+
+	@MediumTest
+	public void testWritesChangedListsOnly() throws Exception {
+		final ChunkedBackup backup = new ChunkedBackup(context, dir);
+		assertTrue(backup.writeBackup() > 0);
+		assertTrue(backup.verify().isEmpty());
+
+		// Nothing changed
+		assertEquals(0, backup.writeBackup());
+
+		task.title = "changed";
+		task.save(context);
+		assertEquals(1, backup.writeBackup());
+		assertTrue(backup.verify().isEmpty());
+	}
+
+	@MediumTest
+	public void testVerifyFindsDamage() throws Exception {
+		final ChunkedBackup backup = new ChunkedBackup(context, dir);
+		backup.writeBackup();
+
+		File chunk = null;
+		for (File file : dir.listFiles()) {
+			if (file.getName().startsWith("list-" + list._id + "-")) {
+				chunk = file;
+			}
+		}
+		assertNotNull(chunk);
+
+		// Same size, one byte changed
+		final RandomAccessFile raf = new RandomAccessFile(chunk, "rw");
+		try {
+			raf.seek(raf.length() / 2);
+			final int b = raf.read();
+			raf.seek(raf.length() / 2);
+			raf.write(b ^ 0xff);
+		}
+		finally {
+			raf.close();
+		}
+
+		final List<String> damaged = backup.verify();
+		assertEquals(1, damaged.size());
+		assertEquals(chunk.getName(), damaged.get(0));
+	}
+}
@@ -462,6 +462,93 @@ public class DBProviderMovementTest extends AndroidTestCase {
 		deleteList(tl2);
 	}
 
+	public void testBulkMoveToList() {
+		final TaskList tl = insertList();
+		final TaskList tl2 = insertList();
+		final TaskList tl3 = insertList();
+		final int count = 10;
+		final ArrayList<Task> tasks1 = insertTasks(tl._id, count);
+		insertTasks(tl2._id, count);
+		final ArrayList<Task> tasks3 = insertTasks(tl3._id, count);
+
+		// From two lists, and one already in the target list
+		final ArrayList<Task> moving = new ArrayList<Task>();
+		for (int i = 0; i < count; i += 3) {
+			moving.add(tasks1.get(i));
+			moving.add(tasks3.get(i));
+		}
+		final long[] ids = new long[moving.size() + 1];
+		for (int i = 0; i < moving.size(); i++) {
+			ids[i] = moving.get(i)._id;
+		}
+		ids[moving.size()] = getTasks(tl2._id).get(0)._id;
+
+		assertEquals(moving.size(),
+				Task.moveToListSynced(mContext, tl2._id, ids));
+
+		assertTasksCountIs(tl._id, count - count / 3 - 1);
+		assertTasksCountIs(tl3._id, count - count / 3 - 1);
+		assertTasksCountIs(tl2._id, count + moving.size());
+		assertTaskLeftRightAreSequential(tl._id);
+		assertTaskLeftRightAreSequential(tl2._id);
+		assertTaskLeftRightAreSequential(tl3._id);
+
+		// The triggers are back
+		moveTasksToList(tl, getTasks(tl2._id).get(0));
+		assertTaskLeftRightAreSequential(tl2._id);
+
+		// Clean up
+		deleteList(tl);
+		deleteList(tl2);
+		deleteList(tl3);
+	}
+
+	public void testPurgeCompleted() {
+		final TaskList tl = insertList();
+		final TaskList tl2 = insertList();
+		final int count = 10;
+		final ArrayList<Task> tasks1 = insertTasks(tl._id, count);
+		final ArrayList<Task> tasks2 = insertTasks(tl2._id, count);
+
+		final long[] ids = new long[count];
+		for (int i = 0; i < count / 2; i++) {
+			ids[2 * i] = tasks1.get(2 * i)._id;
+			ids[2 * i + 1] = tasks2.get(3 * i % count)._id;
+		}
+		Task.setCompletedSynced(mContext, true, ids);
+
+		// Only the first list
+		assertEquals(count / 2, resolver.delete(Task.URI_PURGE_COMPLETED,
+				Task.Columns.DBLIST + " IS ?",
+				new String[] { Long.toString(tl._id) }));
+		assertTasksCountIs(tl._id, count - count / 2);
+		assertTasksCountIs(tl2._id, count);
+		assertTaskLeftRightAreSequential(tl._id);
+
+		// Archived as by the delete trigger
+		final Cursor c = resolver.query(Task.URI_DELETED_QUERY,
+				Task.Columns.DELETEFIELDS, Task.Columns.DBLIST + " IS ?",
+				new String[] { Long.toString(tl._id) }, null);
+		assertCursorGood(c);
+		assertEquals(count / 2, c.getCount());
+		c.close();
+
+		// Everywhere
+		assertEquals(count / 2,
+				resolver.delete(Task.URI_PURGE_COMPLETED, null, null));
+		assertTasksCountIs(tl2._id, count - count / 2);
+		assertTaskLeftRightAreSequential(tl2._id);
+
+		// The triggers are back
+		resolver.delete(getTasks(tl2._id).get(1).getUri(), null, null);
+		assertTasksCountIs(tl2._id, count - count / 2 - 1);
+		assertTaskLeftRightAreSequential(tl2._id);
+
+		// Clean up
+		deleteList(tl);
+		deleteList(tl2);
+	}
+
 //	public void testIndents() {
 //		final TaskList tl = insertList();
 //		int count = 7;
@@ -4,8 +4,10 @@ import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.List;
 
+import com.nononsenseapps.notepad.database.LegacyDBHelper;
 import com.nononsenseapps.notepad.database.Task;
 import com.nononsenseapps.notepad.database.TaskList;
+import com.nononsenseapps.utils.time.RFC3339Date;
 
 import android.content.ContentResolver;
 import android.content.Context;
@@ -105,13 +107,16 @@ public class DBProviderTest extends AndroidTestCase {
 						+ " IS ?", new String[] { Long.toString(t._id) },
 				histCount + 1);
 
-		// TODO remember legacy uris
-		// TODO need a projection mapper
-		// assertUriReturnsResult(LegacyDBHelper.NotePad.Notes.CONTENT_URI,
-		// new String[] { LegacyDBHelper.NotePad.Notes.COLUMN_NAME_TITLE });
-		// assertUriReturnsResult(
-		// LegacyDBHelper.NotePad.Notes.CONTENT_VISIBLE_URI,
-		// new String[] { LegacyDBHelper.NotePad.Notes.COLUMN_NAME_TITLE });
+		// Legacy uris, with legacy columns
+		assertUriReturnsResult(LegacyDBHelper.NotePad.Notes.CONTENT_URI,
+				new String[] { LegacyDBHelper.NotePad.Notes.COLUMN_NAME_TITLE },
+				LegacyDBHelper.NotePad.Notes.COLUMN_NAME_LIST + " IS ?",
+				new String[] { Long.toString(list._id) }, taskCount);
+		assertUriReturnsResult(
+				LegacyDBHelper.NotePad.Notes.CONTENT_VISIBLE_URI,
+				new String[] { LegacyDBHelper.NotePad.Notes.COLUMN_NAME_TITLE },
+				LegacyDBHelper.NotePad.Notes.COLUMN_NAME_LIST + " IS ?",
+				new String[] { Long.toString(list._id) }, taskCount);
 
 		list.delete(context);
 
@@ -120,4 +125,33 @@ public class DBProviderTest extends AndroidTestCase {
 				Task.Columns.HISTORY_COLUMNS, Task.Columns.HIST_TASK_ID
 						+ " IS ?", new String[] { Long.toString(t._id) }, 0);
 	}
+
+	@MediumTest
+	public void testLegacyTaskValues() {
+		final TaskList list = getNewList();
+		final List<Task> tasks = insertSomeTasks(list, 2);
+		final Task completed = tasks.get(1);
+		completed.setAsCompleted();
+		completed.save(context);
+
+		final Cursor c = resolver.query(
+				LegacyDBHelper.NotePad.Notes.CONTENT_URI, new String[] {
+						LegacyDBHelper.NotePad.Notes.COLUMN_NAME_TITLE,
+						LegacyDBHelper.NotePad.Notes.COLUMN_NAME_DUE_DATE,
+						LegacyDBHelper.NotePad.Notes.COLUMN_NAME_GTASKS_STATUS },
+				LegacyDBHelper.NotePad.Notes.COLUMN_NAME_LIST + " IS ?",
+				new String[] { Long.toString(list._id) },
+				LegacyDBHelper.NotePad.Notes.COLUMN_NAME_TITLE);
+		assertEquals(2, c.getCount());
+		for (Task task : tasks) {
+			assertTrue(c.moveToNext());
+			assertEquals(task.title, c.getString(0));
+			assertEquals(RFC3339Date.asRFC3339(task.due), c.getString(1));
+			assertEquals(task == completed ? "completed" : "needsAction",
+					c.getString(2));
+		}
+		c.close();
+
+		list.delete(context);
+	}
 }
@@ -6,6 +6,7 @@ import com.nononsenseapps.notepad.R;
 import com.nononsenseapps.notepad.database.DatabaseHandler;
 import com.nononsenseapps.notepad.database.LegacyDBHelper;
 import com.nononsenseapps.notepad.database.LegacyDBHelper.NotePad;
+import com.nononsenseapps.notepad.database.LegacyMigration;
 import com.nononsenseapps.notepad.database.Notification;
 import com.nononsenseapps.notepad.database.Task;
 import com.nononsenseapps.notepad.database.TaskList;
@@ -15,6 +16,7 @@ import android.content.ContentValues;
 import android.content.Context;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
+import android.preference.PreferenceManager;
 import android.provider.BaseColumns;
 import android.test.AndroidTestCase;
 import android.test.RenamingDelegatingContext;
@@ -252,8 +254,7 @@ public class DBUpgradeTest extends AndroidTestCase {
 	@MediumTest
 	public void testExistingUpgrade() {
 		// First delete test databases if they exist
-		context.deleteDatabase(PREFIX + LegacyDBHelper.LEGACY_DATABASE_NAME);
-		context.deleteDatabase(PREFIX + DatabaseHandler.DATABASE_NAME);
+		deleteDBs();
 
 		final SQLiteDatabase legacyDB = new LegacyDBHelper(context, PREFIX)
 				.getWritableDatabase();
@@ -277,7 +278,11 @@ public class DBUpgradeTest extends AndroidTestCase {
 		c.close();
 
 		// Check that new database correctly converts old
-		final SQLiteDatabase db = new DatabaseHandler(context, PREFIX).getReadableDatabase();
+		final DatabaseHandler handler = new DatabaseHandler(context, PREFIX);
+		assertTrue(LegacyMigration.isPending(context, PREFIX));
+		handler.migrateLegacyDatabase();
+		assertFalse(LegacyMigration.isPending(context, PREFIX));
+		final SQLiteDatabase db = handler.getReadableDatabase();
 		
 		c = db.query(TaskList.TABLE_NAME, TaskList.Columns.FIELDS, null, null,
 				null, null, null);
@@ -312,4 +317,108 @@ public class DBUpgradeTest extends AndroidTestCase {
 		assertTrue("Could not delete database",
 				context.deleteDatabase(PREFIX + DatabaseHandler.DATABASE_NAME));
 	}
+
+	private void createLegacyDB() {
+		deleteDBs();
+
+		final SQLiteDatabase legacyDB = new LegacyDBHelper(context, PREFIX)
+				.getWritableDatabase();
+		initializeDB(legacyDB);
+		legacyDB.close();
+	}
+
+	private void deleteDBs() {
+		context.deleteDatabase(PREFIX + LegacyDBHelper.LEGACY_DATABASE_NAME);
+		context.deleteDatabase(PREFIX + DatabaseHandler.DATABASE_NAME);
+		PreferenceManager.getDefaultSharedPreferences(context).edit()
+				.remove(PREFIX + LegacyMigration.PREF_DONE).commit();
+	}
+
+	private long count(final SQLiteDatabase db, final String table) {
+		final Cursor c = db.rawQuery("SELECT COUNT(*) FROM " + table, null);
+		c.moveToFirst();
+		final long count = c.getLong(0);
+		c.close();
+		return count;
+	}
+
+	@MediumTest
+	public void testInterruptedMigrationResumes() {
+		// More than one batch
+		numOfLegacyNotes = 600;
+		createLegacyDB();
+
+		// Killed after the first batch
+		LegacyMigration.setProgressListener(new LegacyMigration.ProgressListener() {
+			@Override
+			public void onProgress(int done, int total) {
+				if (done > 0) {
+					throw new IllegalStateException("Killed");
+				}
+			}
+		});
+		try {
+			new DatabaseHandler(context, PREFIX).migrateLegacyDatabase();
+			fail("Migration was not interrupted");
+		}
+		catch (IllegalStateException e) {
+			// Expected
+		}
+		finally {
+			LegacyMigration.setProgressListener(null);
+		}
+
+		// Opening alone does not continue
+		assertTrue(LegacyMigration.isPending(context, PREFIX));
+		final DatabaseHandler handler = new DatabaseHandler(context, PREFIX);
+		handler.migrateLegacyDatabase();
+		assertFalse(LegacyMigration.isPending(context, PREFIX));
+		final SQLiteDatabase db = handler.getWritableDatabase();
+		final long notes = numOfLegacyLists * numOfLegacyNotes;
+		assertEquals(numOfLegacyLists, count(db, TaskList.TABLE_NAME));
+		assertEquals(notes, count(db, Task.TABLE_NAME));
+		assertEquals(notes, count(db, Task.FTS3_TABLE_NAME));
+		assertEquals(notes, count(db, Notification.TABLE_NAME));
+
+		// Same order as before, the first note at the bottom
+		final Cursor c = db.query(Task.TABLE_NAME, new String[] {
+				Task.Columns.LEFT, Task.Columns.RIGHT }, Task.Columns.TITLE
+				+ " IS ?", new String[] { "default0" }, null, null, null);
+		assertEquals(numOfLegacyLists, c.getCount());
+		while (c.moveToNext()) {
+			assertEquals(2 * numOfLegacyNotes - 1, c.getLong(0));
+			assertEquals(2 * numOfLegacyNotes, c.getLong(1));
+		}
+		c.close();
+
+		db.close();
+		deleteDBs();
+	}
+
+	/**
+	 * An old file which shows up after the new database was created has
+	 * nothing to copy, and must not keep the migration pending
+	 */
+	@MediumTest
+	public void testLegacyFileAfterMigration() {
+		deleteDBs();
+		final DatabaseHandler handler = new DatabaseHandler(context, PREFIX);
+		final SQLiteDatabase db = handler.getWritableDatabase();
+		final long lists = count(db, TaskList.TABLE_NAME);
+		final long tasks = count(db, Task.TABLE_NAME);
+
+		final SQLiteDatabase legacyDB = new LegacyDBHelper(context, PREFIX)
+				.getWritableDatabase();
+		initializeDB(legacyDB);
+		legacyDB.close();
+		assertTrue(LegacyMigration.isPending(context, PREFIX));
+
+		handler.migrateLegacyDatabase();
+		assertFalse(LegacyMigration.isPending(context, PREFIX));
+		assertEquals(lists, count(db, TaskList.TABLE_NAME));
+		assertEquals(tasks, count(db, Task.TABLE_NAME));
+
+		db.close();
+		deleteDBs();
+	}
 }
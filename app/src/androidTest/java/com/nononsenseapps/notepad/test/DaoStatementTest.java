@@ -0,0 +1,145 @@
+/*
+ * Copyright (c) 2014 Jonas Kalderstam.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.nononsenseapps.notepad.test;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.MediumTest;
+
+import com.nononsenseapps.notepad.database.DatabaseHandler;
+import com.nononsenseapps.notepad.database.Task;
+import com.nononsenseapps.notepad.database.TaskList;
+
+public class DaoStatementTest extends AndroidTestCase {
+	private static final String PREFIX = "daostatement_test_";
+
+	private Context context;
+	private DatabaseHandler helper;
+	private SQLiteDatabase db;
+	private TaskList list;
+
+	@Override
+	public void setUp() throws Exception {
+		super.setUp();
+		context = getContext();
+		getContext().deleteDatabase(PREFIX + DatabaseHandler.DATABASE_NAME);
+		helper = new DatabaseHandler(getContext(), PREFIX);
+		db = helper.getWritableDatabase();
+
+		list = new TaskList();
+		list.title = "list";
+		list.insert(context, db);
+	}
+
+	@Override
+	public void tearDown() throws Exception {
+		helper.close();
+		getContext().deleteDatabase(PREFIX + DatabaseHandler.DATABASE_NAME);
+		super.tearDown();
+	}
+
+	private Task newTask(final int i) {
+		final Task task = new Task();
+		task.title = "task " + i;
+		task.note = "note " + i;
+		task.dblist = list._id;
+		return task;
+	}
+
+	private Task read(final long id) {
+		final Cursor c = db.query(Task.TABLE_NAME, Task.Columns.FIELDS,
+				Task.whereIdIs(null), Task.whereIdArg(id), null, null, null);
+		try {
+			return c.moveToFirst() ? new Task(c) : null;
+		}
+		finally {
+			c.close();
+		}
+	}
+
+	@MediumTest
+	public void testWritesRows() {
+		final Task task = newTask(1);
+		task.due = 1234L;
+		assertNotNull(task.insert(context, db));
+
+		Task saved = read(task._id);
+		assertEquals("task 1", saved.title);
+		assertEquals(Long.valueOf(1234L), saved.due);
+		assertNotNull(saved.left);
+
+		// Without a note, the note is left alone
+		final Task partial = new Task();
+		partial._id = task._id;
+		partial.title = "changed";
+		assertTrue(partial.update(context, db));
+		saved = read(task._id);
+		assertEquals("changed", saved.title);
+		assertEquals("note 1", saved.note);
+		assertNull(saved.due);
+
+		assertEquals(1, saved.remove(context, db));
+		assertNull(read(task._id));
+	}
+
+	@MediumTest
+	public void testWritesAfterReopen() {
+		assertNotNull(newTask(1).insert(context, db));
+		helper.close();
+
+		// The statements of the closed database must not be used
+		helper = new DatabaseHandler(getContext(), PREFIX);
+		db = helper.getWritableDatabase();
+		final Task task = newTask(2);
+		assertNotNull(task.insert(context, db));
+		assertEquals("task 2", read(task._id).title);
+	}
+
+	/**
+	 * Writes with different columns alternate, each must bind its own
+	 * columns
+	 */
+	@MediumTest
+	public void testMixedColumns() {
+		final int rows = 20;
+		final long[] ids = new long[rows];
+		for (int i = 0; i < rows; i++) {
+			final Task task = newTask(i);
+			if (i % 2 == 0) {
+				task.due = (long) i;
+			}
+			if (i % 3 == 0) {
+				task.note = null;
+			}
+			assertNotNull(task.insert(context, db));
+			ids[i] = task._id;
+		}
+
+		for (int i = 0; i < rows; i++) {
+			final Task saved = read(ids[i]);
+			assertEquals("task " + i, saved.title);
+			assertEquals(i % 3 == 0 ? "" : "note " + i, saved.note);
+			if (i % 2 == 0) {
+				assertEquals(Long.valueOf(i), saved.due);
+			} else {
+				assertNull(saved.due);
+			}
+		}
+	}
+}
@@ -0,0 +1,171 @@
+/*
+ * Copyright (c) 2014 Jonas Kalderstam.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.nononsenseapps.notepad.test;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.MediumTest;
+
+import com.nononsenseapps.notepad.database.Notification;
+import com.nononsenseapps.notepad.database.Task;
+import com.nononsenseapps.notepad.database.TaskList;
+import com.nononsenseapps.notepad.sync.files.JSONBackupReader;
+import com.nononsenseapps.notepad.sync.files.JSONBackupWriter;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.ArrayList;
+
+public class JSONBackupReaderTest extends AndroidTestCase {
+
+	private static final String LIST_TITLE = "111aaTestingBackupReader";
+	private static final int TASK_COUNT = 5;
+
+	private Context context;
+	private File backup;
+	private TaskList extra;
+
+	@Override
+	public void setUp() throws Exception {
+		super.setUp();
+		context = getContext();
+
+		final TaskList list = new TaskList();
+		list.title = LIST_TITLE;
+		list.save(context);
+		for (int i = 0; i < TASK_COUNT; i++) {
+			final Task task = new Task();
+			task.title = "task " + i;
+			task.dblist = list._id;
+			task.save(context);
+			if (i == 0) {
+				final Notification reminder = new Notification(task._id);
+				reminder.time = 1000L;
+				reminder.save(context);
+			}
+		}
+
+		backup = new File(context.getCacheDir(), "backupreadertest.json");
+		final FileOutputStream out = new FileOutputStream(backup);
+		try {
+			new JSONBackupWriter(context).write(out);
+		}
+		finally {
+			out.close();
+		}
+
+		// Not in the backup
+		extra = new TaskList();
+		extra.title = "111aaTestingBackupReaderExtra";
+		extra.save(context);
+	}
+
+	@Override
+	public void tearDown() throws Exception {
+		context.getContentResolver().delete(TaskList.URI,
+				TaskList.Columns.TITLE + " LIKE ?",
+				new String[] { "111aaTestingBackupReader%" });
+		backup.delete();
+		super.tearDown();
+	}
+
+	private ArrayList<Long> getListIds(final String title) {
+		final ArrayList<Long> ids = new ArrayList<Long>();
+		final Cursor c = context.getContentResolver().query(TaskList.URI,
+				TaskList.Columns.FIELDS, TaskList.Columns.TITLE + " IS ?",
+				new String[] { title }, null);
+		while (c.moveToNext()) {
+			ids.add(c.getLong(0));
+		}
+		c.close();
+		return ids;
+	}
+
+	@MediumTest
+	public void testRestoreReplacesDatabase() throws Exception {
+		new JSONBackupReader(context).restore(backup);
+
+		assertTrue(getListIds(extra.title).isEmpty());
+		final ArrayList<Long> lists = getListIds(LIST_TITLE);
+		assertEquals(1, lists.size());
+
+		// Same order, sequential positions. Reminder on the last task.
+		final Cursor c = context.getContentResolver().query(Task.URI,
+				Task.Columns.FIELDS, Task.Columns.DBLIST + " IS ?",
+				new String[] { Long.toString(lists.get(0)) },
+				Task.Columns.LEFT);
+		assertEquals(TASK_COUNT, c.getCount());
+		long position = 1;
+		Task last = null;
+		while (c.moveToNext()) {
+			final Task task = new Task(c);
+			assertEquals("task " + (TASK_COUNT - 1 - c.getPosition()),
+					task.title);
+			assertEquals(position, (long) task.left);
+			assertEquals(position + 1, (long) task.right);
+			position += 2;
+			last = task;
+		}
+		c.close();
+
+		final Cursor r = context.getContentResolver().query(Notification.URI,
+				Notification.Columns.FIELDS, Notification.Columns.TASKID
+						+ " IS ?", new String[] { Long.toString(last._id) },
+				null);
+		assertEquals(1, r.getCount());
+		r.close();
+
+		// Triggers are back, a new task goes on top
+		final Task task = new Task();
+		task.title = "after restore";
+		task.dblist = lists.get(0);
+		task.save(context);
+		final Cursor t = context.getContentResolver().query(
+				Task.getUri(last._id), Task.Columns.FIELDS, null, null, null);
+		assertTrue(t.moveToFirst());
+		assertEquals(2 * TASK_COUNT + 1, (long) new Task(t).left);
+		t.close();
+	}
+
+	@MediumTest
+	public void testInvalidBackupChangesNothing() throws Exception {
+		// Cut in the middle
+		final File broken = new File(context.getCacheDir(),
+				"backupreadertest_broken.json");
+		final FileOutputStream out = new FileOutputStream(broken);
+		try {
+			out.write("{\"lists\": [{\"title\": \"a\", \"tasks\": [{\"title\""
+					.getBytes("UTF-8"));
+		}
+		finally {
+			out.close();
+		}
+
+		try {
+			new JSONBackupReader(context).restore(broken);
+			fail("Restored a broken backup");
+		}
+		catch (Exception e) {
+			// Expected
+		}
+		finally {
+			broken.delete();
+		}
+		assertEquals(1, getListIds(extra.title).size());
+	}
+}
@@ -0,0 +1,121 @@
+/*
+ * Copyright (c) 2014 Jonas Kalderstam.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.nononsenseapps.notepad.test;
+
+import android.content.Context;
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.MediumTest;
+
+import com.nononsenseapps.notepad.database.Notification;
+import com.nononsenseapps.notepad.database.RemoteTask;
+import com.nononsenseapps.notepad.database.Task;
+import com.nononsenseapps.notepad.database.TaskList;
+import com.nononsenseapps.notepad.sync.files.JSONBackupWriter;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.io.ByteArrayOutputStream;
+
+public class JSONBackupWriterTest extends AndroidTestCase {
+
+	private Context context;
+	private TaskList list;
+	private Task[] tasks;
+
+	@Override
+	public void setUp() throws Exception {
+		super.setUp();
+		context = getContext();
+
+		list = new TaskList();
+		list.title = "111aaTestingBackupWriter";
+		list.save(context);
+
+		tasks = new Task[3];
+		for (int i = 0; i < tasks.length; i++) {
+			tasks[i] = new Task();
+			tasks[i].title = "task " + i;
+			tasks[i].note = "note \"" + i + "\"\n";
+			tasks[i].dblist = list._id;
+			tasks[i].save(context);
+		}
+
+		// Remotes and reminders on the middle task only
+		for (String service : new String[] { "b", "a" }) {
+			final RemoteTask remote = new RemoteTask(tasks[1]._id, list._id,
+					"remote" + service, 0L, "account");
+			remote.service = service;
+			remote.save(context);
+		}
+		final Notification reminder = new Notification(tasks[1]._id);
+		reminder.time = 1000L;
+		reminder.save(context);
+	}
+
+	@Override
+	public void tearDown() throws Exception {
+		list.delete(context);
+		super.tearDown();
+	}
+
+	private JSONObject findList(final JSONArray lists) throws Exception {
+		for (int i = 0; i < lists.length(); i++) {
+			if (lists.getJSONObject(i).getLong(TaskList.Columns._ID) == list._id) {
+				return lists.getJSONObject(i);
+			}
+		}
+		fail("List not in backup");
+		return null;
+	}
+
+	@MediumTest
+	public void testWritesListsTasksRemotesAndReminders() throws Exception {
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		new JSONBackupWriter(context).write(out);
+		final JSONObject backup = new JSONObject(out.toString("UTF-8"));
+
+		final JSONObject jsonlist = findList(backup.getJSONArray("lists"));
+		assertEquals(list.title, jsonlist.getString(TaskList.Columns.TITLE));
+
+		// Reverse order, first added last
+		final JSONArray jsontasks = jsonlist.getJSONArray("tasks");
+		assertEquals(tasks.length, jsontasks.length());
+		for (int i = 0; i < tasks.length; i++) {
+			final JSONObject jsontask = jsontasks.getJSONObject(i);
+			final Task task = tasks[tasks.length - 1 - i];
+			assertEquals(task._id, jsontask.getLong(Task.Columns._ID));
+			assertEquals(task.note, jsontask.getString(Task.Columns.NOTE));
+			assertTrue(jsontask.has(Task.Columns.LEFT));
+
+			final JSONArray remotes = jsontask.getJSONArray("remotes");
+			final JSONArray reminders = jsontask.getJSONArray("reminders");
+			if (task == tasks[1]) {
+				assertEquals(2, remotes.length());
+				assertEquals("a", remotes.getJSONObject(0).getString(
+						RemoteTask.Columns.SERVICE));
+				assertEquals(1, reminders.length());
+				assertEquals(1000L, reminders.getJSONObject(0).getLong(
+						Notification.Columns.TIME));
+			}
+			else {
+				assertEquals(0, remotes.length());
+				assertEquals(0, reminders.length());
+			}
+		}
+	}
+}
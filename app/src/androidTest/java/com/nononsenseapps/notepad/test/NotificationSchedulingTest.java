@@ -0,0 +1,227 @@
+/*
+ * Copyright (c) 2014 Jonas Kalderstam.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.nononsenseapps.notepad.test;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.MediumTest;
+import android.test.suitebuilder.annotation.SmallTest;
+
+import com.nononsenseapps.notepad.database.DatabaseHandler;
+import com.nononsenseapps.notepad.database.Notification;
+import com.nononsenseapps.notepad.database.Task;
+import com.nononsenseapps.notepad.database.TaskList;
+
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.GregorianCalendar;
+import java.util.List;
+
+/**
+ * Verifies the queries used to schedule reminders.
+ */
+public class NotificationSchedulingTest extends AndroidTestCase {
+
+	private static final int REMINDER_COUNT = 100;
+
+	private Context context;
+	private TaskList list;
+	private Task task;
+
+	@Override
+	public void setUp() throws Exception {
+		super.setUp();
+		context = getContext();
+
+		list = new TaskList();
+		list.title = "111aaTestingList";
+		list.save(context);
+
+		task = new Task();
+		task.title = "reminders";
+		task.dblist = list._id;
+		task.save(context);
+	}
+
+	@Override
+	public void tearDown() throws Exception {
+		// Cascades to tasks and notifications
+		list.delete(context);
+		super.tearDown();
+	}
+
+	/**
+	 * Inserts reminders directly in the database, in reverse time order, to
+	 * avoid waking up the scheduler for each one.
+	 */
+	private void insertReminders(final long firstTime, final int count) {
+		final SQLiteDatabase db = DatabaseHandler.getInstance(context)
+				.getWritableDatabase();
+		final Notification not = new Notification(task._id);
+		db.beginTransaction();
+		try {
+			for (int i = count - 1; i >= 0; i--) {
+				// One minute apart
+				not.time = firstTime + i * 60000L;
+				db.insert(Notification.TABLE_NAME, null, not.getContent());
+			}
+			db.setTransactionSuccessful();
+		}
+		finally {
+			db.endTransaction();
+		}
+	}
+
+	@MediumTest
+	public void testNextTime() {
+		// Far enough in the future to not fire during the test
+		final long firstTime = System.currentTimeMillis() + 365 * 24 * 60 *
+				60 * 1000L;
+		insertReminders(firstTime, REMINDER_COUNT);
+
+		final long after = firstTime - 1;
+		// Same as the full list the scheduler used to read
+		final List<Notification> all = Notification.getNotificationsWithTime(
+				context, after, false);
+		final Long next = Notification.getNextTime(context, after);
+
+		assertTrue(all.size() >= REMINDER_COUNT);
+		assertNotNull(next);
+		assertEquals(all.get(0).time, next);
+		assertEquals(firstTime, next.longValue());
+
+		// Nothing after the end of time
+		assertNull(Notification.getNextTime(context, Long.MAX_VALUE - 1));
+	}
+
+	/**
+	 * A reminder left behind by a deleted task must not schedule an alarm
+	 */
+	@SmallTest
+	public void testNextTimeSkipsOrphans() {
+		final SQLiteDatabase db = DatabaseHandler.getInstance(context)
+				.getWritableDatabase();
+		final long time = Long.MAX_VALUE / 2;
+		final Notification orphan = new Notification(-task._id);
+		orphan.time = time;
+		long id = -1;
+		db.execSQL("PRAGMA foreign_keys=OFF");
+		try {
+			id = db.insert(Notification.TABLE_NAME, null, orphan.getContent());
+			assertTrue(id > 0);
+
+			final Long next = Notification.getNextTime(context, time - 1);
+			assertTrue(next == null || next != time);
+		}
+		finally {
+			db.delete(Notification.TABLE_NAME, Notification.Columns._ID
+					+ " IS ?", new String[] { Long.toString(id) });
+			db.execSQL("PRAGMA foreign_keys=ON");
+		}
+	}
+
+	/**
+	 * The next time is looked up in the time index, not by reading all
+	 * reminders
+	 */
+	@SmallTest
+	public void testNextTimeUsesIndex() {
+		final SQLiteDatabase db = DatabaseHandler.getInstance(context)
+				.getReadableDatabase();
+		final Cursor c = db.rawQuery("EXPLAIN QUERY PLAN SELECT "
+				+ Notification.Columns.TIME + " FROM "
+				+ Notification.TABLE_NAME + " WHERE "
+				+ Notification.NEXT_TIME_WHERE + " ORDER BY "
+				+ Notification.Columns.TIME + " LIMIT 1",
+				new String[] { "0" });
+		final StringBuilder plan = new StringBuilder();
+		while (c.moveToNext()) {
+			plan.append(c.getString(c.getColumnIndex("detail"))).append('\n');
+		}
+		c.close();
+
+		assertTrue(plan.toString(), plan.indexOf(Notification.TABLE_NAME
+				+ "_time_index") >= 0);
+		assertTrue(plan.toString(), plan.indexOf("TEMP B-TREE") < 0);
+	}
+
+	@SmallTest
+	public void testDayBits() {
+		assertEquals(Notification.mon, Notification.getDayBit(Calendar.MONDAY));
+		assertEquals(Notification.sat, Notification.getDayBit(Calendar.SATURDAY));
+		assertEquals(Notification.sun, Notification.getDayBit(Calendar.SUNDAY));
+
+		// Repeating on mondays and fridays. From monday, the same day, or at
+		// least a day later the friday. From saturday, the next monday.
+		final long repeats = Notification.mon | Notification.fri;
+		assertEquals(0, Notification.daysUntilRepeat(repeats, Calendar.MONDAY, 0));
+		assertEquals(4, Notification.daysUntilRepeat(repeats, Calendar.MONDAY, 1));
+		assertEquals(2, Notification.daysUntilRepeat(repeats, Calendar.SATURDAY, 0));
+		assertEquals(-1, Notification.daysUntilRepeat(Notification.locationRepeat,
+				Calendar.MONDAY, 0));
+	}
+
+	@SmallTest
+	public void testNextOccurrence() {
+		final Calendar cal = new GregorianCalendar();
+		// 2013-05-13 was a monday
+		final long time = new GregorianCalendar(2013, Calendar.MAY, 13, 9, 0)
+				.getTimeInMillis();
+		final long friday = new GregorianCalendar(2013, Calendar.MAY, 17, 9, 0)
+				.getTimeInMillis();
+		final long nextMonday = new GregorianCalendar(2013, Calendar.MAY, 20, 9,
+				0).getTimeInMillis();
+
+		assertEquals(friday, Notification.getNextOccurrence(cal, time,
+				Notification.mon | Notification.fri, time));
+		assertEquals(nextMonday, Notification.getNextOccurrence(cal, time,
+				Notification.mon, time));
+		// Same day if the time of day has not passed yet
+		assertEquals(time, Notification.getNextOccurrence(cal, time,
+				Notification.mon, time - 1));
+		assertEquals(-1, Notification.getNextOccurrence(cal, time, 0, time));
+	}
+
+	@MediumTest
+	public void testBatchDeleteOrReschedule() {
+		final long past = System.currentTimeMillis() - 60 * 60 * 1000L;
+		final ArrayList<Notification> notifications = new ArrayList<Notification>();
+		for (int i = 0; i < 3; i++) {
+			final Notification not = new Notification(task._id);
+			not.time = past - i;
+			not.save(context);
+			notifications.add(not);
+		}
+		// Last one repeats every day
+		final Notification repeating = notifications.get(2);
+		repeating.repeats = Notification.mon | Notification.tue |
+				Notification.wed | Notification.thu | Notification.fri |
+				Notification.sat | Notification.sun;
+		repeating.save(context);
+
+		Notification.deleteOrReschedule(context, notifications);
+
+		final List<Notification> left = Notification.getNotificationsOfTask(
+				context, task._id);
+		assertEquals(1, left.size());
+		assertEquals(repeating._id, left.get(0)._id);
+		assertTrue(left.get(0).time > System.currentTimeMillis());
+		assertNotNull(left.get(0).nextFire);
+	}
+}
@@ -0,0 +1,77 @@
+/*
+ * Copyright (c) 2014 Jonas Kalderstam.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.nononsenseapps.notepad.test;
+
+import android.database.Cursor;
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.SmallTest;
+
+import com.nononsenseapps.notepad.database.QueryProfiler;
+import com.nononsenseapps.notepad.database.Task;
+
+import org.json.JSONObject;
+
+public class QueryProfilerTest extends AndroidTestCase {
+
+	private boolean wasEnabled;
+
+	@Override
+	public void setUp() throws Exception {
+		super.setUp();
+		wasEnabled = QueryProfiler.isEnabled();
+		QueryProfiler.reset();
+	}
+
+	@Override
+	public void tearDown() throws Exception {
+		QueryProfiler.setEnabled(wasEnabled);
+		QueryProfiler.setSlowThreshold(QueryProfiler.DEFAULT_SLOW_MS);
+		QueryProfiler.reset();
+		super.tearDown();
+	}
+
+	private void query() {
+		final Cursor c = getContext().getContentResolver().query(Task.URI,
+				Task.Columns.FIELDS, Task.Columns.DBLIST + " IS ?",
+				new String[] { "-1" }, null);
+		c.close();
+	}
+
+	@SmallTest
+	public void testRecordsOnlyWhenEnabled() throws Exception {
+		QueryProfiler.setEnabled(false);
+		query();
+		assertEquals(0, QueryProfiler.getCalls(QueryProfiler.QUERY,
+				Task.BASEURICODE));
+
+		QueryProfiler.setEnabled(true);
+		// Everything is slow, so the plan is recorded
+		QueryProfiler.setSlowThreshold(0);
+		query();
+		query();
+		assertEquals(2, QueryProfiler.getCalls(QueryProfiler.QUERY,
+				Task.BASEURICODE));
+
+		final String report = QueryProfiler.getReport();
+		assertTrue(report, report.contains("query /task"));
+		assertTrue(report, report.contains("Slow queries"));
+
+		final JSONObject json = QueryProfiler.toJSON();
+		assertEquals(1, json.getJSONArray("calls").length());
+		assertEquals(2, json.getJSONArray("slowQueries").length());
+	}
+}
@@ -0,0 +1,142 @@
+package com.nononsenseapps.notepad.test;
+
+import android.test.suitebuilder.annotation.SmallTest;
+
+import com.nononsenseapps.notepad.sync.orgsync.ReadyFileQueue;
+import com.nononsenseapps.notepad.sync.orgsync.RemoteFileCache;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+
+/**
+ * Tests the order in which files are handed out to the synchronizer, using a
+ * fake file system where downloads are finished by hand.
+ */
+public class ReadyFileQueueTest extends TestCase {
+
+    /**
+     * Files are cached if they are in the set. Downloads finish when
+     * {@link #finish(String)} is called.
+     */
+    private static class FakeFileCache implements RemoteFileCache {
+        final HashSet<String> cached = new HashSet<String>();
+        final HashMap<String, Listener> listeners = new HashMap<String,
+                Listener>();
+
+        FakeFileCache(final String... cached) {
+            this.cached.addAll(Arrays.asList(cached));
+        }
+
+        void finish(final String filename) {
+            cached.add(filename);
+            final Listener listener = listeners.get(filename);
+            if (listener != null) {
+                listener.onFileReady(filename);
+            }
+        }
+
+        @Override
+        public boolean isLatestCached(final String filename) {
+            return cached.contains(filename);
+        }
+
+        @Override
+        public void listen(final String filename, final Listener listener) {
+            listeners.put(filename, listener);
+        }
+
+        @Override
+        public void stopListening() {
+            listeners.clear();
+        }
+    }
+
+    private static List<String> drain(final ReadyFileQueue queue) throws
+            InterruptedException {
+        final ArrayList<String> result = new ArrayList<String>();
+        String filename;
+        while ((filename = queue.next()) != null) {
+            result.add(filename);
+        }
+        return result;
+    }
+
+    @SmallTest
+    public void testCachedFilesFirst() throws Exception {
+        final FakeFileCache cache = new FakeFileCache("b.org");
+        final ReadyFileQueue queue = new ReadyFileQueue(cache,
+                Arrays.asList("a.org", "b.org"), 10000);
+
+        assertEquals("b.org", queue.next());
+        cache.finish("a.org");
+        assertEquals("a.org", queue.next());
+        assertNull(queue.next());
+    }
+
+    @SmallTest
+    public void testDownloadOrder() throws Exception {
+        final FakeFileCache cache = new FakeFileCache();
+        final ReadyFileQueue queue = new ReadyFileQueue(cache,
+                Arrays.asList("a.org", "b.org", "c.org"), 10000);
+
+        cache.finish("c.org");
+        cache.finish("a.org");
+        cache.finish("b.org");
+
+        assertEquals(Arrays.asList("c.org", "a.org", "b.org"), drain(queue));
+    }
+
+    @SmallTest
+    public void testDuplicateReadyCallbacks() throws Exception {
+        final FakeFileCache cache = new FakeFileCache();
+        final ReadyFileQueue queue = new ReadyFileQueue(cache,
+                Arrays.asList("a.org"), 10000);
+
+        cache.finish("a.org");
+        cache.finish("a.org");
+
+        assertEquals(Arrays.asList("a.org"), drain(queue));
+    }
+
+    @SmallTest
+    public void testTimeoutReturnsSlowFiles() throws Exception {
+        final FakeFileCache cache = new FakeFileCache("a.org");
+        final ReadyFileQueue queue = new ReadyFileQueue(cache,
+                Arrays.asList("a.org", "b.org"), 50);
+
+        final long start = System.currentTimeMillis();
+        assertEquals(Arrays.asList("a.org", "b.org"), drain(queue));
+        // Should not wait much longer than the timeout
+        assertTrue(System.currentTimeMillis() - start < 5000);
+
+        // A late download must not produce duplicates
+        cache.finish("b.org");
+        assertNull(queue.next());
+    }
+
+    @SmallTest
+    public void testBackgroundDownload() throws Exception {
+        final FakeFileCache cache = new FakeFileCache();
+        final ReadyFileQueue queue = new ReadyFileQueue(cache,
+                Arrays.asList("a.org"), 10000);
+
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    Thread.sleep(50);
+                } catch (InterruptedException ignored) {
+                }
+                cache.finish("a.org");
+            }
+        }).start();
+
+        assertEquals("a.org", queue.next());
+        assertNull(queue.next());
+    }
+}
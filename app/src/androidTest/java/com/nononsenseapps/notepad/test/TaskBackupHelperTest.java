@@ -0,0 +1,134 @@
+/*
+ * Copyright (c) 2014 Jonas Kalderstam.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.nononsenseapps.notepad.test;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.MediumTest;
+
+import com.nononsenseapps.notepad.database.Task;
+import com.nononsenseapps.notepad.database.TaskList;
+import com.nononsenseapps.notepad.sync.files.TaskBackupHelper;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.HashMap;
+import java.util.Map;
+
+public class TaskBackupHelperTest extends AndroidTestCase {
+
+	private static final String LIST_TITLE = "111aaTestingTaskBackupHelper";
+
+	/**
+	 * Keeps the entities written, null for deleted ones
+	 */
+	private static class Entities implements TaskBackupHelper.EntityOutput {
+		final Map<String, byte[]> written = new HashMap<String, byte[]>();
+
+		@Override
+		public void writeEntity(final String key, final byte[] data,
+				final int size) {
+			written.put(key, size < 0 ? null : data);
+		}
+	}
+
+	private Context context;
+	private TaskBackupHelper helper;
+	private TaskList list;
+	private Task task;
+	private byte[] state;
+
+	@Override
+	public void setUp() throws Exception {
+		super.setUp();
+		context = getContext();
+		helper = new TaskBackupHelper(context);
+
+		list = new TaskList();
+		list.title = LIST_TITLE;
+		list.save(context);
+		task = new Task();
+		task.title = "task";
+		task.dblist = list._id;
+		task.save(context);
+	}
+
+	@Override
+	public void tearDown() throws Exception {
+		context.getContentResolver().delete(TaskList.URI,
+				TaskList.Columns.TITLE + " IS ?", new String[] { LIST_TITLE });
+		super.tearDown();
+	}
+
+	private Entities backup() throws Exception {
+		final Entities entities = new Entities();
+		final ByteArrayOutputStream newState = new ByteArrayOutputStream();
+		helper.performBackup(state == null ? null : new ByteArrayInputStream(
+				state), entities, newState);
+		state = newState.toByteArray();
+		return entities;
+	}
+
+	private int countLists() {
+		final Cursor c = context.getContentResolver().query(TaskList.URI,
+				TaskList.Columns.FIELDS, TaskList.Columns.TITLE + " IS ?",
+				new String[] { LIST_TITLE }, null);
+		final int count = c.getCount();
+		c.close();
+		return count;
+	}
+
+	@MediumTest
+	public void testBacksUpChangedListsOnly() throws Exception {
+		final String key = "list-" + list._id;
+		assertNotNull(backup().written.get(key));
+
+		// Nothing changed
+		assertTrue(backup().written.isEmpty());
+
+		task.title = "changed";
+		task.save(context);
+		final Entities changed = backup();
+		assertEquals(1, changed.written.size());
+		assertNotNull(changed.written.get(key));
+
+		list.delete(context);
+		final Entities deleted = backup();
+		assertTrue(deleted.written.containsKey(key));
+		assertNull(deleted.written.get(key));
+	}
+
+	@MediumTest
+	public void testRestoreAddsList() throws Exception {
+		final String key = "list-" + list._id;
+		final byte[] data = backup().written.get(key);
+		assertNotNull(data);
+
+		// Added once all entities are received
+		helper.restoreEntity(key, data);
+		assertEquals(1, countLists());
+		helper.finishRestore();
+		assertEquals(2, countLists());
+
+		// The restored entity is replaced by the next backup
+		final ByteArrayOutputStream restoredState = new ByteArrayOutputStream();
+		helper.writeRestoredState(restoredState);
+		state = restoredState.toByteArray();
+		assertNotNull(backup().written.get(key));
+	}
+}
@@ -0,0 +1,136 @@
+/*
+ * Copyright (c) 2014 Jonas Kalderstam.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.nononsenseapps.notepad.test;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.Bundle;
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.MediumTest;
+
+import com.nononsenseapps.notepad.database.DAO;
+import com.nononsenseapps.notepad.database.DatabaseHandler;
+import com.nononsenseapps.notepad.database.Task;
+import com.nononsenseapps.notepad.database.TaskList;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+
+public class TaskBulkCompleteTest extends AndroidTestCase {
+
+	// More than two chunks of bound ids
+	private static final int TASK_COUNT = 2 * DAO.MAX_BOUND_IDS + 100;
+
+	private Context context;
+	private TaskList listA;
+	private TaskList listB;
+	private long[] ids;
+
+	@Override
+	public void setUp() throws Exception {
+		super.setUp();
+		context = getContext();
+
+		listA = new TaskList();
+		listA.title = "111aaTestingBulkA";
+		listA.save(context);
+		listB = new TaskList();
+		listB.title = "111aaTestingBulkB";
+		listB.save(context);
+
+		final SQLiteDatabase db = DatabaseHandler.getInstance(context)
+				.getWritableDatabase();
+		final Task task = new Task();
+		task.dblist = listA._id;
+		ids = new long[TASK_COUNT];
+		db.beginTransaction();
+		try {
+			for (int i = 0; i < TASK_COUNT; i++) {
+				task.title = "task " + i;
+				ids[i] = db.insert(Task.TABLE_NAME, null, task.getContent());
+			}
+			db.setTransactionSuccessful();
+		}
+		finally {
+			db.endTransaction();
+		}
+	}
+
+	@Override
+	public void tearDown() throws Exception {
+		listA.delete(context);
+		listB.delete(context);
+		super.tearDown();
+	}
+
+	private int countCompleted(final TaskList list) {
+		final Cursor c = context.getContentResolver().query(Task.URI,
+				new String[] { Task.Columns._ID },
+				Task.Columns.DBLIST + " IS ? AND " + Task.Columns.COMPLETED
+						+ " IS NOT NULL",
+				new String[] { Long.toString(list._id) }, null);
+		final int count = c.getCount();
+		c.close();
+		return count;
+	}
+
+	@MediumTest
+	public void testCompletesInChunks() {
+		final Task other = new Task();
+		other.title = "not completed";
+		other.dblist = listB._id;
+		other.save(context);
+
+		HashMap<Long, ArrayList<Long>> changes = Task.setCompletedSynced(
+				context, true, ids);
+		assertEquals(1, changes.size());
+		assertEquals(TASK_COUNT, changes.get(listA._id).size());
+		assertEquals(TASK_COUNT, countCompleted(listA));
+		assertEquals(0, countCompleted(listB));
+
+		// Already completed, so nothing changes
+		changes = Task.setCompletedSynced(context, true, ids);
+		assertTrue(changes.isEmpty());
+
+		changes = Task.setCompletedSynced(context, false, ids[0], other._id);
+		assertEquals(1, changes.size());
+		assertEquals(ids[0], (long) changes.get(listA._id).get(0));
+		assertEquals(TASK_COUNT - 1, countCompleted(listA));
+	}
+
+	@MediumTest
+	public void testCallWithoutIdsFails() {
+		try {
+			context.getContentResolver().call(Task.URI,
+					Task.METHOD_SET_COMPLETED, null, null);
+			fail("Called without extras");
+		}
+		catch (IllegalArgumentException e) {
+			// Expected
+		}
+		try {
+			context.getContentResolver().call(Task.URI,
+					Task.METHOD_SET_COMPLETED, null, new Bundle());
+			fail("Called without ids");
+		}
+		catch (IllegalArgumentException e) {
+			// Expected
+		}
+		assertEquals(0, countCompleted(listA));
+	}
+}
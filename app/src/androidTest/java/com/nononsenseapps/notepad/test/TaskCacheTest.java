@@ -0,0 +1,194 @@
+/*
+ * Copyright (c) 2014 Jonas Kalderstam.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.nononsenseapps.notepad.test;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.MediumTest;
+import android.test.suitebuilder.annotation.SmallTest;
+
+import com.nononsenseapps.notepad.database.Notification;
+import com.nononsenseapps.notepad.database.QueryProfiler;
+import com.nononsenseapps.notepad.database.Task;
+import com.nononsenseapps.notepad.database.TaskCache;
+import com.nononsenseapps.notepad.database.TaskList;
+
+import java.util.Arrays;
+
+public class TaskCacheTest extends AndroidTestCase {
+	private static final String LIST_TITLE = "111aaTestingTaskCache";
+	private static final int OPENS = 10;
+
+	private Context context;
+	private TaskCache cache;
+	private TaskList list;
+	private Task task;
+
+	@Override
+	public void setUp() throws Exception {
+		super.setUp();
+		context = getContext();
+		cache = TaskCache.getInstance();
+		cache.invalidateAll();
+
+		list = new TaskList();
+		list.title = LIST_TITLE;
+		list.save(context);
+
+		task = new Task();
+		task.dblist = list._id;
+		task.title = "title";
+		task.note = "note";
+		task.save(context);
+	}
+
+	@Override
+	public void tearDown() throws Exception {
+		context.getContentResolver().delete(TaskList.URI,
+				TaskList.Columns.TITLE + " IS ?", new String[] { LIST_TITLE });
+		cache.invalidateAll();
+		super.tearDown();
+	}
+
+	private static Cursor row(final long id) {
+		final MatrixCursor c = new MatrixCursor(Task.Columns.FIELDS, 1);
+		c.addRow(new Object[] { id, "title " + id, "note", null, 100L, 200L,
+				1L, 2L, 1L, 0 });
+		c.moveToFirst();
+		return c;
+	}
+
+	@SmallTest
+	public void testPutAndGet() {
+		final Cursor c = row(1);
+		cache.putTask(1, c, cache.getGeneration());
+		c.close();
+
+		final Cursor cached = cache.getTask(1);
+		assertNotNull(cached);
+		assertTrue(cached.moveToFirst());
+		final Task t = new Task(cached);
+		assertEquals(1, t._id);
+		assertEquals("title 1", t.title);
+		assertNull(t.completed);
+		assertEquals(Long.valueOf(100), t.due);
+		cached.close();
+
+		assertNull(cache.getTask(2));
+		assertNull(cache.getReminders(1));
+	}
+
+	@SmallTest
+	public void testStaleRowsAreNotKept() {
+		final int gen = cache.getGeneration();
+		cache.onChange(Task.getUri(1));
+
+		final Cursor c = row(1);
+		cache.putTask(1, c, gen);
+		c.close();
+		assertNull(cache.getTask(1));
+	}
+
+	@SmallTest
+	public void testIsBounded() {
+		for (long id = 1; id <= TaskCache.MAX_TASKS + 1; id++) {
+			final Cursor c = row(id);
+			cache.putTask(id, c, cache.getGeneration());
+			c.close();
+		}
+		// The least recently used is gone
+		assertNull(cache.getTask(1));
+		final Cursor last = cache.getTask(TaskCache.MAX_TASKS + 1);
+		assertNotNull(last);
+		last.close();
+	}
+
+	@MediumTest
+	public void testProviderWritesInvalidate() {
+		cache.prefetch(context, Arrays.asList(task._id));
+		Cursor c = cache.getTask(task._id);
+		assertNotNull(c);
+		c.close();
+		c = cache.getReminders(task._id);
+		assertNotNull(c);
+		assertEquals(0, c.getCount());
+		c.close();
+
+		// Changes to other tasks do not matter
+		final Task other = new Task();
+		other.dblist = list._id;
+		other.title = "other";
+		other.save(context);
+		c = cache.getTask(task._id);
+		assertNotNull(c);
+		c.close();
+
+		final Notification not = new Notification(task._id);
+		not.time = 1000L;
+		not.save(context);
+		assertNull(cache.getReminders(task._id));
+		assertNotNull(cache.getTask(task._id));
+
+		task.title = "changed";
+		task.save(context);
+		assertNull(cache.getTask(task._id));
+
+		cache.prefetch(context, Arrays.asList(task._id));
+		c = cache.getTask(task._id);
+		assertTrue(c.moveToFirst());
+		assertEquals("changed", new Task(c).title);
+		c.close();
+		c = cache.getReminders(task._id);
+		assertEquals(1, c.getCount());
+		c.close();
+
+		// Deleting the list deletes its tasks
+		list.delete(context);
+		assertNull(cache.getTask(task._id));
+	}
+
+	/**
+	 * Opening a cached task does not query the provider
+	 */
+	@MediumTest
+	public void testHitsDoNotQuery() {
+		final boolean wasEnabled = QueryProfiler.isEnabled();
+		QueryProfiler.setEnabled(true);
+		try {
+			cache.prefetch(context, Arrays.asList(task._id));
+			QueryProfiler.reset();
+			for (int i = 0; i < OPENS; i++) {
+				final Cursor c = cache.getTask(task._id);
+				assertTrue(c.moveToFirst());
+				assertEquals("title", new Task(c).title);
+				c.close();
+				cache.getReminders(task._id).close();
+			}
+
+			assertEquals(0, QueryProfiler.getCalls(QueryProfiler.QUERY,
+					Task.BASEITEMCODE));
+			assertEquals(0, QueryProfiler.getCalls(QueryProfiler.QUERY,
+					Notification.BASEURICODE));
+		}
+		finally {
+			QueryProfiler.setEnabled(wasEnabled);
+			QueryProfiler.reset();
+		}
+	}
+}
@@ -0,0 +1,121 @@
+/*
+ * Copyright (c) 2014 Jonas Kalderstam.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.nononsenseapps.notepad.test;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.MediumTest;
+
+import com.nononsenseapps.notepad.database.QueryProfiler;
+import com.nononsenseapps.notepad.database.TaskList;
+import com.nononsenseapps.notepad.database.TaskListCache;
+
+public class TaskListCacheTest extends AndroidTestCase {
+	private static final String LIST_TITLE = "111aaTestingTaskListCache";
+	private static final int OPENS = 10;
+
+	private Context context;
+	private TaskListCache cache;
+	private TaskList list;
+
+	@Override
+	public void setUp() throws Exception {
+		super.setUp();
+		context = getContext();
+		cache = TaskListCache.getInstance();
+
+		list = new TaskList();
+		list.title = LIST_TITLE;
+		list.save(context);
+		cache.resetCounters();
+	}
+
+	@Override
+	public void tearDown() throws Exception {
+		context.getContentResolver().delete(TaskList.URI,
+				TaskList.Columns.TITLE + " IS ?", new String[] { LIST_TITLE });
+		super.tearDown();
+	}
+
+	@MediumTest
+	public void testCountsHitsAndMisses() {
+		assertEquals(LIST_TITLE, cache.getTitle(context, list._id));
+		assertEquals(1, cache.getMissCount());
+
+		assertEquals(LIST_TITLE, cache.getTitle(context, list._id));
+		assertNotNull(cache.peek(list._id));
+		assertEquals(2, cache.getHitCount());
+		assertEquals(1, cache.getMissCount());
+	}
+
+	@MediumTest
+	public void testProviderWritesInvalidate() {
+		assertEquals(LIST_TITLE, cache.get(context, list._id).title);
+
+		// Lists handed out are copies
+		cache.get(context, list._id).title = "changed";
+		assertEquals(LIST_TITLE, cache.getTitle(context, list._id));
+
+		list.sorting = "test";
+		list.save(context);
+		assertEquals("test", cache.get(context, list._id).sorting);
+
+		boolean found = false;
+		for (TaskList l : cache.getAll(context)) {
+			found |= l._id == list._id;
+		}
+		assertTrue(found);
+
+		list.delete(context);
+		assertNull(cache.get(context, list._id));
+		for (TaskList l : cache.getAll(context)) {
+			assertFalse(l._id == list._id);
+		}
+	}
+
+	/**
+	 * Once loaded, opening the list pickers does not query the provider
+	 */
+	@MediumTest
+	public void testHitsDoNotQuery() {
+		final boolean wasEnabled = QueryProfiler.isEnabled();
+		QueryProfiler.setEnabled(true);
+		try {
+			cache.getCursor(context).close();
+			QueryProfiler.reset();
+			cache.resetCounters();
+			for (int i = 0; i < OPENS; i++) {
+				final Cursor c = cache.getCursor(context);
+				assertTrue(c.getCount() > 0);
+				c.close();
+				assertEquals(LIST_TITLE, cache.getTitle(context, list._id));
+			}
+
+			assertEquals(2 * OPENS, cache.getHitCount());
+			assertEquals(0, cache.getMissCount());
+			assertEquals(0, QueryProfiler.getCalls(QueryProfiler.QUERY,
+					TaskList.BASEURICODE));
+			assertEquals(0, QueryProfiler.getCalls(QueryProfiler.QUERY,
+					TaskList.BASEITEMCODE));
+		}
+		finally {
+			QueryProfiler.setEnabled(wasEnabled);
+			QueryProfiler.reset();
+		}
+	}
+}
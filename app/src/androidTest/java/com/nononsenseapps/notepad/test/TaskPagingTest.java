@@ -0,0 +1,163 @@
+/*
+ * Copyright (c) 2014 Jonas Kalderstam.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.nononsenseapps.notepad.test;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.net.Uri;
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.MediumTest;
+
+import com.nononsenseapps.notepad.database.DatabaseHandler;
+import com.nononsenseapps.notepad.database.Task;
+import com.nononsenseapps.notepad.database.TaskList;
+import com.nononsenseapps.notepad.database.TaskPaging;
+
+import java.util.ArrayList;
+
+public class TaskPagingTest extends AndroidTestCase {
+
+	private static final int PAGE = 3;
+
+	private Context context;
+	private TaskList list;
+
+	@Override
+	public void setUp() throws Exception {
+		super.setUp();
+		context = getContext();
+
+		list = new TaskList();
+		list.title = "111aaTestingPaging";
+		list.save(context);
+
+		// Equal titles and missing dates, so ties must be broken on id
+		final String[] titles = { "b", "a", "B", "c", "a", "A", "d", "b" };
+		for (int i = 0; i < titles.length; i++) {
+			final Task t = new Task();
+			t.title = titles[i];
+			t.dblist = list._id;
+			if (i % 3 == 0) {
+				t.due = 1000L * (i % 2);
+			}
+			t.save(context);
+		}
+	}
+
+	@Override
+	public void tearDown() throws Exception {
+		list.delete(context);
+		super.tearDown();
+	}
+
+	private ArrayList<Long> readAll(final String sort) {
+		final ArrayList<Long> ids = new ArrayList<Long>();
+		final Cursor c = context.getContentResolver().query(
+				TaskPaging.getPageUri(list._id, sort, null, -1, 100),
+				Task.Columns.FIELDS, null, null, null);
+		while (c.moveToNext()) {
+			ids.add(c.getLong(0));
+		}
+		c.close();
+		return ids;
+	}
+
+	private ArrayList<Long> readPages(final String sort) {
+		final ArrayList<Long> ids = new ArrayList<Long>();
+		String afterKey = null;
+		long afterId = -1;
+		while (true) {
+			final Cursor c = context.getContentResolver().query(
+					TaskPaging.getPageUri(list._id, sort, afterKey, afterId,
+							PAGE), Task.Columns.FIELDS, null, null, null);
+			final int count = c.getCount();
+			while (c.moveToNext()) {
+				ids.add(c.getLong(0));
+				afterKey = TaskPaging.getKey(c, sort);
+				afterId = c.getLong(0);
+			}
+			c.close();
+			if (count < PAGE) {
+				return ids;
+			}
+		}
+	}
+
+	@MediumTest
+	public void testPagesMatchFullQuery() {
+		final String[] sorts = { TaskPaging.SORT_POSITION,
+				TaskPaging.SORT_TITLE, TaskPaging.SORT_DUE,
+				TaskPaging.SORT_UPDATED };
+		for (String sort : sorts) {
+			final ArrayList<Long> all = readAll(sort);
+			assertEquals(sort, 8, all.size());
+			assertEquals(sort, all, readPages(sort));
+		}
+	}
+
+	/**
+	 * Pages find the rows of the list with an index. Pages by position and
+	 * title are also read in the order of their index, without sorting.
+	 */
+	@MediumTest
+	public void testPagesUseIndexes() {
+		final SQLiteDatabase db = DatabaseHandler.getInstance(context)
+				.getReadableDatabase();
+		final String[] sorts = { TaskPaging.SORT_POSITION,
+				TaskPaging.SORT_TITLE, TaskPaging.SORT_DUE,
+				TaskPaging.SORT_UPDATED };
+		for (String sort : sorts) {
+			final Cursor c = db.rawQuery("EXPLAIN QUERY PLAN SELECT "
+					+ Task.Columns._ID + " FROM " + Task.TABLE_NAME
+					+ " WHERE " + Task.whereListIs(null) + " AND "
+					+ TaskPaging.getAfterWhere(sort) + " ORDER BY "
+					+ TaskPaging.getOrderBy(sort) + " LIMIT " + PAGE,
+					new String[] { Long.toString(list._id), "1", "1", "1" });
+			final StringBuilder plan = new StringBuilder();
+			while (c.moveToNext()) {
+				plan.append(c.getString(c.getColumnIndex("detail")))
+						.append('\n');
+			}
+			c.close();
+
+			assertTrue(sort + ": " + plan, plan.indexOf("INDEX") >= 0);
+			if (TaskPaging.SORT_POSITION.equals(sort)
+					|| TaskPaging.SORT_TITLE.equals(sort)) {
+				assertTrue(sort + ": " + plan,
+						plan.indexOf("TEMP B-TREE") < 0);
+			}
+		}
+	}
+
+	/**
+	 * A limit which is not a number gives a page of the default size, and
+	 * no projection gives the light list columns
+	 */
+	@MediumTest
+	public void testInvalidLimit() {
+		final Uri uri = Uri.parse(TaskPaging.getPageUri(list._id,
+				TaskPaging.SORT_TITLE, null, -1, PAGE).toString()
+				.replace(TaskPaging.PARAM_LIMIT + "=" + PAGE,
+						TaskPaging.PARAM_LIMIT + "=many"));
+		final Cursor c = context.getContentResolver().query(uri, null, null,
+				null, null);
+		assertEquals(Math.min(8, TaskPaging.DEFAULT_LIMIT), c.getCount());
+		assertEquals(Task.Columns.LIST_FIELDS.length, c.getColumnCount());
+		c.close();
+	}
+}
@@ -0,0 +1,142 @@
+/*
+ * Copyright (c) 2014 Jonas Kalderstam.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.nononsenseapps.notepad.test;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.MediumTest;
+
+import com.nononsenseapps.notepad.database.DatabaseHandler;
+import com.nononsenseapps.notepad.database.Task;
+import com.nononsenseapps.notepad.database.TaskList;
+
+/**
+ * Verifies the note preview, and that lists read it instead of the note.
+ */
+public class TaskPreviewTest extends AndroidTestCase {
+
+	private static final int TASK_COUNT = 20;
+	private static final int NOTE_LENGTH = 20 * 1024;
+
+	private Context context;
+	private TaskList list;
+
+	@Override
+	public void setUp() throws Exception {
+		super.setUp();
+		context = getContext();
+
+		list = new TaskList();
+		list.title = "111aaTestingPreview";
+		list.save(context);
+	}
+
+	@Override
+	public void tearDown() throws Exception {
+		list.delete(context);
+		super.tearDown();
+	}
+
+	private String getPreview(final long id) {
+		final Cursor c = DatabaseHandler
+				.getInstance(context)
+				.getReadableDatabase()
+				.query(Task.TABLE_NAME, new String[] { Task.Columns.PREVIEW },
+						Task.Columns._ID + " IS ?",
+						new String[] { Long.toString(id) }, null, null, null);
+		try {
+			assertTrue(c.moveToFirst());
+			return c.getString(0);
+		}
+		finally {
+			c.close();
+		}
+	}
+
+	private static String makeNote(final int length) {
+		final StringBuilder sb = new StringBuilder(length);
+		while (sb.length() < length) {
+			sb.append("Line ").append(sb.length()).append('\n');
+		}
+		sb.setLength(length);
+		return sb.toString();
+	}
+
+	@MediumTest
+	public void testTriggersKeepPreview() {
+		final Task task = new Task();
+		task.title = "preview";
+		task.note = makeNote(Task.PREVIEW_LENGTH * 2);
+		task.dblist = list._id;
+		task.save(context);
+
+		assertEquals(task.note.substring(0, Task.PREVIEW_LENGTH),
+				getPreview(task._id));
+
+		task.note = "short";
+		task.save(context);
+		assertEquals("short", getPreview(task._id));
+	}
+
+	/**
+	 * Reads every row of the list, like an adapter scrolled to the end, and
+	 * returns the number of characters read as note.
+	 */
+	private long readList(final String[] projection) {
+		final Cursor c = context.getContentResolver().query(
+				Task.getListUri(list._id), projection, null, null,
+				Task.Columns.LEFT);
+		long chars = 0;
+		while (c.moveToNext()) {
+			chars += c.getString(2).length();
+		}
+		c.close();
+		return chars;
+	}
+
+	/**
+	 * Lists read the preview in place of the note, the full note is not
+	 * read
+	 */
+	@MediumTest
+	public void testListQueryReadsPreview() {
+		final SQLiteDatabase db = DatabaseHandler.getInstance(context)
+				.getWritableDatabase();
+		final Task task = new Task();
+		task.dblist = list._id;
+		task.note = makeNote(NOTE_LENGTH);
+		db.beginTransaction();
+		try {
+			for (int i = 0; i < TASK_COUNT; i++) {
+				task.title = "task " + i;
+				db.insert(Task.TABLE_NAME, null, task.getContent());
+			}
+			db.setTransactionSuccessful();
+		}
+		finally {
+			db.endTransaction();
+		}
+
+		final long fullChars = readList(Task.Columns.FIELDS);
+		final long previewChars = readList(Task.Columns.LIST_FIELDS);
+
+		assertEquals((long) TASK_COUNT * NOTE_LENGTH, fullChars);
+		assertEquals((long) TASK_COUNT * Task.PREVIEW_LENGTH, previewChars);
+	}
+}
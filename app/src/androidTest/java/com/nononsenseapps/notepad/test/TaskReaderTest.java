@@ -0,0 +1,121 @@
+/*
+ * Copyright (c) 2014 Jonas Kalderstam.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.nononsenseapps.notepad.test;
+
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.os.Debug;
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.MediumTest;
+import android.test.suitebuilder.annotation.SmallTest;
+
+import com.nononsenseapps.notepad.database.Task;
+import com.nononsenseapps.notepad.database.TaskReader;
+
+public class TaskReaderTest extends AndroidTestCase {
+	private static final int ROWS = 1000;
+
+	/**
+	 * Rows with the columns of Task.Columns.FIELDS. Every other task is due,
+	 * every third completed.
+	 */
+	private static Cursor tasks(final int count) {
+		final MatrixCursor c = new MatrixCursor(Task.Columns.FIELDS, count);
+		for (int i = 0; i < count; i++) {
+			c.addRow(new Object[] { (long) count - i, "title " + i,
+					"note " + i, i % 3 == 0 ? 100L + i : null,
+					i % 2 == 0 ? 200L + i : null, 300L + i, 2L * i + 1,
+					2L * i + 2, 1L, i % 5 == 0 ? 1 : 0 });
+		}
+		return c;
+	}
+
+	@SmallTest
+	public void testReadsRows() {
+		final Cursor c = tasks(3);
+		final TaskReader reader = new TaskReader(c);
+
+		assertTrue(reader.moveToNext());
+		assertEquals(3, reader.id);
+		assertTrue(reader.isCompleted());
+		assertEquals(100, reader.completed);
+		assertTrue(reader.hasDue());
+		assertTrue(reader.locked);
+		assertEquals("title 0", reader.getTitle());
+
+		assertTrue(reader.moveToNext());
+		assertFalse(reader.isCompleted());
+		assertFalse(reader.hasDue());
+		assertEquals(0, reader.due);
+		assertTrue(reader.isNull(TaskReader.COMPLETED | TaskReader.DUE));
+
+		// Same values as reading a task
+		final Task task = reader.toTask();
+		final Task expected = new Task(c);
+		assertEquals(expected._id, task._id);
+		assertTrue(expected.equals(task));
+		assertNull(task.due);
+		assertEquals(expected.updated, task.updated);
+		assertEquals(expected.left, task.left);
+
+		assertTrue(reader.moveToNext());
+		assertFalse(reader.moveToNext());
+		c.close();
+	}
+
+	@SmallTest
+	public void testMissingColumnsAreNull() {
+		final MatrixCursor c = new MatrixCursor(new String[] {
+				Task.Columns._ID, Task.Columns.DUE });
+		c.addRow(new Object[] { 7L, 1000L });
+		final TaskReader reader = new TaskReader(c);
+
+		assertTrue(reader.moveToNext());
+		assertEquals(7, reader.id);
+		assertEquals(1000, reader.due);
+		assertFalse(reader.isCompleted());
+		assertTrue(reader.isNull(TaskReader.DBLIST));
+		assertNull(reader.getTitle());
+		assertNull(reader.toTask().dblist);
+		c.close();
+	}
+
+	/**
+	 * Going over the rows with the reader allocates nothing per row
+	 */
+	@MediumTest
+	public void testReaderDoesNotAllocatePerRow() {
+		final Cursor c = tasks(ROWS);
+		final TaskReader reader = new TaskReader(c);
+
+		Debug.resetThreadAllocCount();
+		Debug.startAllocCounting();
+		int due = 0;
+		while (reader.moveToNext()) {
+			if (reader.hasDue()) {
+				due++;
+			}
+		}
+		Debug.stopAllocCounting();
+		final int allocations = Debug.getThreadAllocCount();
+		c.close();
+
+		assertEquals(ROWS / 2, due);
+		assertTrue("Allocated " + allocations + " objects for " + ROWS
+				+ " rows", allocations < ROWS);
+	}
+}
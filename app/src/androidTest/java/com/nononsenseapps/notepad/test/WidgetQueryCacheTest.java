@@ -0,0 +1,97 @@
+package com.nononsenseapps.notepad.test;
+
+import android.test.suitebuilder.annotation.SmallTest;
+
+import com.nononsenseapps.notepad.widget.WidgetQueryCache;
+
+import junit.framework.TestCase;
+
+import java.util.Collections;
+
+/**
+ * Tests sharing and freeing of widget query results. Uses no database.
+ */
+public class WidgetQueryCacheTest extends TestCase {
+
+    private static final int WIDGET_A = 100001;
+    private static final int WIDGET_B = 100002;
+    private static final long LIST = 123456;
+    private static final int DAY = 2014001;
+
+    private static class CountingLoader implements WidgetQueryCache.Loader {
+        int loads = 0;
+
+        @Override
+        public WidgetQueryCache.Snapshot load() {
+            loads++;
+            return WidgetQueryCache.Snapshot.EMPTY;
+        }
+    }
+
+    private final WidgetQueryCache cache = WidgetQueryCache.getInstance();
+
+    @Override
+    public void tearDown() throws Exception {
+        cache.removeWidgets(new int[]{WIDGET_A, WIDGET_B});
+        super.tearDown();
+    }
+
+    @SmallTest
+    public void testShared() {
+        final int before = cache.size();
+        final String key = WidgetQueryCache.getKey(LIST, "test", DAY);
+        final CountingLoader loader = new CountingLoader();
+
+        cache.get(WIDGET_A, LIST, key, loader);
+        cache.get(WIDGET_B, LIST, key, loader);
+        assertEquals("Second widget should reuse the query", 1, loader.loads);
+        assertEquals(before + 1, cache.size());
+
+        // Other lists do not matter
+        cache.invalidate(Collections.singleton(LIST + 1), false);
+        cache.get(WIDGET_A, LIST, key, loader);
+        assertEquals(1, loader.loads);
+
+        cache.invalidate(Collections.singleton(LIST), false);
+        cache.get(WIDGET_A, LIST, key, loader);
+        cache.get(WIDGET_B, LIST, key, loader);
+        assertEquals(2, loader.loads);
+
+        // Freed with the last widget
+        cache.removeWidgets(new int[]{WIDGET_A});
+        assertEquals(before + 1, cache.size());
+        cache.removeWidgets(new int[]{WIDGET_B});
+        assertEquals(before, cache.size());
+    }
+
+    @SmallTest
+    public void testReconfigured() {
+        final int before = cache.size();
+        final CountingLoader loader = new CountingLoader();
+
+        cache.get(WIDGET_A, LIST, WidgetQueryCache.getKey(LIST, "test",
+                DAY), loader);
+        // Now showing another sort order, old query is freed
+        cache.get(WIDGET_A, LIST, WidgetQueryCache.getKey(LIST, "other",
+                DAY), loader);
+        assertEquals(2, loader.loads);
+        assertEquals(before + 1, cache.size());
+    }
+
+    @SmallTest
+    public void testNewDay() {
+        final int before = cache.size();
+        final CountingLoader loader = new CountingLoader();
+
+        cache.get(WIDGET_A, LIST, WidgetQueryCache.getKey(LIST, "test",
+                DAY), loader);
+        cache.get(WIDGET_A, LIST, WidgetQueryCache.getKey(LIST, "test",
+                DAY), loader);
+        assertEquals(1, loader.loads);
+        // Date sections changed at midnight
+        cache.get(WIDGET_A, LIST, WidgetQueryCache.getKey(LIST, "test",
+                DAY + 1), loader);
+        assertEquals(2, loader.loads);
+        assertEquals(before + 1, cache.size());
+    }
+}
@@ -0,0 +1,134 @@
+/*
+ * Copyright (c) 2014 Jonas Kalderstam.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.nononsenseapps.notepad.test;
+
+import android.content.Context;
+import android.os.SystemClock;
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.MediumTest;
+
+import com.nononsenseapps.notepad.database.ChangeCoalescer;
+import com.nononsenseapps.notepad.database.Task;
+import com.nononsenseapps.notepad.database.TaskList;
+import com.nononsenseapps.notepad.widget.WidgetRefreshCoordinator;
+
+/**
+ * Counts the widget refreshes sent when tasks are written through the
+ * provider.
+ */
+public class WidgetRefreshTest extends AndroidTestCase {
+
+	private static final int WRITES = 10;
+
+	private Context context;
+	private WidgetRefreshCoordinator widgets;
+	private TaskList listA;
+	private TaskList listB;
+	private TaskList listC;
+
+	@Override
+	public void setUp() throws Exception {
+		super.setUp();
+		context = getContext();
+		widgets = WidgetRefreshCoordinator.getInstance(context);
+
+		// Refresh for the setup right away
+		final ChangeCoalescer changes = ChangeCoalescer.getInstance(context);
+		changes.beginScope();
+		try {
+			listA = new TaskList();
+			listA.title = "111aaTestingListA";
+			listA.save(context);
+			listB = new TaskList();
+			listB.title = "111aaTestingListB";
+			listB.save(context);
+			listC = new TaskList();
+			listC.title = "111aaTestingListC";
+			listC.save(context);
+		}
+		finally {
+			changes.endScope();
+		}
+		widgets.resetCounters();
+	}
+
+	@Override
+	public void tearDown() throws Exception {
+		listA.delete(context);
+		listB.delete(context);
+		listC.delete(context);
+		super.tearDown();
+	}
+
+	private void addTask(final TaskList list, final String title) {
+		final Task task = new Task();
+		task.title = title;
+		task.dblist = list._id;
+		task.save(context);
+	}
+
+	/**
+	 * Waits until the list has been refreshed, or the time is up
+	 */
+	private void awaitRefresh(final long listId) throws InterruptedException {
+		final long end = SystemClock.uptimeMillis() + 5000;
+		while (widgets.getRefreshCount(listId) == 0
+				&& SystemClock.uptimeMillis() < end) {
+			Thread.sleep(50);
+		}
+	}
+
+	@MediumTest
+	public void testWritesAreRefreshedOnce() throws InterruptedException {
+		for (int i = 0; i < WRITES; i++) {
+			addTask(listA, "task " + i);
+		}
+		addTask(listB, "task");
+
+		awaitRefresh(listA._id);
+		// Give any extra refreshes time to arrive
+		Thread.sleep(ChangeCoalescer.MAX_DELAY_MS
+				+ WidgetRefreshCoordinator.THROTTLE_MS);
+
+		assertEquals("Expected a single refresh for all writes", 1,
+				widgets.getRefreshCount(listA._id));
+		assertEquals(1, widgets.getRefreshCount(listB._id));
+		assertEquals("Refreshed a list that did not change", 0,
+				widgets.getRefreshCount(listC._id));
+		assertEquals(0, widgets.getRefreshCount(
+				WidgetRefreshCoordinator.ALL_LISTS));
+	}
+
+	@MediumTest
+	public void testScopeRefreshesAtOnce() {
+		final ChangeCoalescer changes = ChangeCoalescer.getInstance(context);
+		changes.beginScope();
+		try {
+			for (int i = 0; i < WRITES; i++) {
+				addTask(listA, "task " + i);
+			}
+			assertEquals("Refreshed before the scope ended", 0,
+					widgets.getRefreshCount(listA._id));
+		}
+		finally {
+			changes.endScope();
+		}
+		// No waiting for the throttle when the batch is done
+		assertEquals(1, widgets.getRefreshCount(listA._id));
+		assertEquals(0, widgets.getRefreshCount(listB._id));
+	}
+}
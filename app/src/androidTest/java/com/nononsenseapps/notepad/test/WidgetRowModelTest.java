@@ -0,0 +1,96 @@
+package com.nononsenseapps.notepad.test;
+
+import android.test.suitebuilder.annotation.MediumTest;
+import android.test.suitebuilder.annotation.SmallTest;
+
+import com.nononsenseapps.notepad.database.Task;
+import com.nononsenseapps.notepad.widget.WidgetRowModel;
+
+import junit.framework.TestCase;
+
+import java.text.SimpleDateFormat;
+import java.util.HashMap;
+import java.util.Locale;
+
+/**
+ * Tests the row models of the list widget. Uses no Android classes.
+ */
+public class WidgetRowModelTest extends TestCase {
+
+    private static final WidgetRowModel.TextStyler STYLER = new
+            WidgetRowModel.TextStyler() {
+        @Override
+        public CharSequence style(final String title, final String note) {
+            return note == null ? title : title + "\n" + note;
+        }
+    };
+
+    private static WidgetRowModel.Builder getBuilder(final int rows) {
+        final HashMap<String, String> labels = new HashMap<String, String>();
+        labels.put(Task.HEADER_KEY_TODAY, "Today");
+        labels.put(Task.HEADER_KEY_NODATE, "No date");
+        return new WidgetRowModel.Builder(labels, new SimpleDateFormat("EEEE",
+                Locale.US), new SimpleDateFormat("yyyy-MM-dd", Locale.US),
+                STYLER, rows);
+    }
+
+    @SmallTest
+    public void testRows() {
+        // 2013-05-15 was a wednesday
+        final long wednesday = new SimpleDateFormat("yyyy-MM-dd", Locale.US)
+                .parse("2013-05-15", new java.text.ParsePosition(0)).getTime();
+
+        final WidgetRowModel[] rows = getBuilder(5)
+                .addHeader(Task.HEADER_KEY_TODAY, 0)
+                .addTask(1, "title", "note", true, wednesday, false)
+                .addHeader(Task.HEADER_KEY_PLUS2, wednesday)
+                .addTask(2, "locked", "secret", false, 0, true)
+                .addHeader("unknown", 0).build();
+
+        assertEquals(5, rows.length);
+
+        assertTrue(rows[0].isHeader());
+        assertEquals("Today", rows[0].text);
+        assertNull(rows[0].date);
+
+        assertFalse(rows[1].isHeader());
+        assertEquals(1, rows[1].id);
+        assertEquals("title\nnote", rows[1].text);
+        assertEquals("2013-05-15", rows[1].date);
+
+        assertEquals("Wednesday", rows[2].text);
+
+        assertEquals("locked", rows[3].text);
+        assertNull(rows[3].date);
+
+        assertEquals("unknown", rows[4].text);
+    }
+
+    @MediumTest
+    public void testManyRows() {
+        final int count = 1000;
+        final WidgetRowModel[] rows = buildRows(count,
+                System.currentTimeMillis());
+
+        assertEquals(count, rows.length);
+        for (int i = 0; i < count; i++) {
+            assertEquals(i % 50 == 0, rows[i].isHeader());
+            if (!rows[i].isHeader()) {
+                assertEquals(i, rows[i].id);
+            }
+        }
+    }
+
+    private static WidgetRowModel[] buildRows(final int count, final long now) {
+        final WidgetRowModel.Builder builder = getBuilder(count);
+        for (int i = 0; i < count; i++) {
+            if (i % 50 == 0) {
+                builder.addHeader(Task.HEADER_KEY_NODATE, 0);
+            } else {
+                builder.addTask(i, "Task " + i, "Some note text " + i, i % 3
+                        != 0, now + i * 60000L, i % 10 == 0);
+            }
+        }
+        return builder.build();
+    }
+}
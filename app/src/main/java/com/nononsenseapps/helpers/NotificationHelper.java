@@ -21,6 +21,7 @@ import android.app.Notification;
 import android.app.NotificationManager;
 import android.app.PendingIntent;
 import android.content.BroadcastReceiver;
+import android.content.ContentUris;
 import android.content.Context;
 import android.content.Intent;
 import android.content.SharedPreferences;
@@ -35,13 +36,17 @@ import android.support.v4.app.NotificationCompat;
 import com.nononsenseapps.notepad.ActivityMain;
 import com.nononsenseapps.notepad.R;
 import com.nononsenseapps.notepad.database.Task;
+import com.nononsenseapps.notepad.database.TaskList;
 import com.nononsenseapps.util.GeofenceRemover;
 
 import java.util.ArrayList;
 import java.util.Calendar;
-import java.util.Collection;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 public class NotificationHelper extends BroadcastReceiver {
 
@@ -50,14 +55,24 @@ public class NotificationHelper extends BroadcastReceiver {
 	// static final String ARG_MAX_TIME = "maxtime";
 	// static final String ARG_LISTID = "listid";
 	static final String ARG_TASKID = "taskid";
+	static final String ARG_IDS = "ids";
 	private static final String ACTION_COMPLETE = "com.nononsenseapps.notepad.ACTION.COMPLETE";
 	private static final String ACTION_SNOOZE = "com.nononsenseapps.notepad.ACTION.SNOOZE";
 	private static final String ACTION_RESCHEDULE = "com.nononsenseapps.notepad.ACTION.RESCHEDULE";
+	private static final String ACTION_DISMISS_LIST = "com.nononsenseapps.notepad.ACTION.DISMISS_LIST";
 
 	private static final String TAG = "nononsenseapps.NotificationHelper";
 
 	private static ContextObserver observer = null;
 
+	// Time of the currently scheduled alarm, null if none.
+	// Guarded by alarmLock
+	private static Long nextWakeUp = null;
+	private static final Object alarmLock = new Object();
+
+	// Lists currently showing a grouped notification. Guarded by itself
+	private static final HashSet<Long> groupedLists = new HashSet<Long>();
+
 	private static ContextObserver getObserver(final Context context) {
 		if (observer == null) {
 			observer = new ContextObserver(context, null);
@@ -75,9 +90,21 @@ public class NotificationHelper extends BroadcastReceiver {
 	@Override
 	public void onReceive(Context context, Intent intent) {
 		if (Intent.ACTION_BOOT_COMPLETED.equals(intent.getAction())
-				|| Intent.ACTION_RUN.equals(intent.getAction())) {
+				|| Intent.ACTION_TIMEZONE_CHANGED.equals(intent.getAction())) {
+			// Repeating reminders keep their time of day in the local zone
+			com.nononsenseapps.notepad.database.Notification
+					.recomputeNextFire(context);
+		}
+		else if (Intent.ACTION_RUN.equals(intent.getAction())) {
 			// Can't cancel anything. Just schedule and notify at end
 		}
+		else if (ACTION_DISMISS_LIST.equals(intent.getAction())) {
+			// Data is the list, not a notification
+			cancelNotification(context,
+					getListNotificationId(ContentUris.parseId(intent.getData())));
+			com.nononsenseapps.notepad.database.Notification.deleteOrReschedule(
+					context, intent.getLongArrayExtra(ARG_IDS));
+		}
 		else {
 			// Always cancel
 			cancelNotification(context, intent.getData());
@@ -131,19 +158,18 @@ public class NotificationHelper extends BroadcastReceiver {
 		idStrings = idStrings.substring(0, idStrings.length() - 1);
 		idStrings += ")";
 
+		// Only the task is needed, so only it is read, without the join
 		final Cursor c = context
 				.getContentResolver()
-				.query(com.nononsenseapps.notepad.database.Notification.URI_WITH_TASK_PATH,
-						com.nononsenseapps.notepad.database.Notification.ColumnsWithTask.FIELDS,
+				.query(com.nononsenseapps.notepad.database.Notification.URI,
+						new String[] { com.nononsenseapps.notepad.database.Notification.Columns.TASKID },
 						com.nononsenseapps.notepad.database.Notification.Columns._ID
 								+ " IN " + idStrings, null, null);
 
 		try {
 			while (c.moveToNext()) {
-				com.nononsenseapps.notepad.database.Notification not = new com.nononsenseapps.notepad.database.Notification(
-						c);
-				if (not.taskID != null) {
-					notificationManager.cancel(not.taskID.intValue());
+				if (!c.isNull(0)) {
+					notificationManager.cancel((int) c.getLong(0));
 				}
 			}
 		}
@@ -241,6 +267,9 @@ public class NotificationHelper extends BroadcastReceiver {
 
 		Log.d(TAG, "Number of notifications: " + notifications.size());
 
+		// Lists with a grouped notification
+		final HashSet<Long> groups = new HashSet<Long>();
+
 		// If empty, cancel
 		if (notifications.isEmpty()) {
 			// cancelAll permanent notifications here if/when that is
@@ -264,39 +293,9 @@ public class NotificationHelper extends BroadcastReceiver {
 			// otherwise
 			NotificationCompat.Builder builder;
 
-			// if (false)
-			// //
-			// prefs.getBoolean(context.getString(R.string.key_pref_group_on_lists),
-			// // false))
-			// {
-			// // Group together notes contained in the same list.
-			// // Always use listid
-			// for (long listId : getRelatedLists(notifications)) {
-			// builder = getNotificationBuilder(context,
-			// Integer.parseInt(prefs.getString(
-			// context.getString(R.string.key_pref_prio),
-			// "0")), lightAndVibrate,
-			// Uri.parse(prefs.getString(context
-			// .getString(R.string.key_pref_ringtone),
-			// "DEFAULT_NOTIFICATION_URI")), alertOnce);
-			//
-			// List<com.nononsenseapps.notepad.database.Notification> subList =
-			// getSubList(
-			// listId, notifications);
-			// if (subList.size() == 1) {
-			// // Notify as single
-			// notifyBigText(context, notificationManager, builder,
-			// listId, subList.get(0));
-			// }
-			// else {
-			// notifyInboxStyle(context, notificationManager, builder,
-			// listId, subList);
-			// }
-			// }
-			// }
-			// else {
-			// Notify for each individually
-			for (com.nononsenseapps.notepad.database.Notification note : notifications) {
+			// One notification per list
+			for (Map.Entry<Long, List<com.nononsenseapps.notepad.database.Notification>> entry : groupByList(
+					notifications).entrySet()) {
 				builder = getNotificationBuilder(
 						context,
 						Integer.parseInt(prefs.getString(
@@ -305,9 +304,33 @@ public class NotificationHelper extends BroadcastReceiver {
 								context.getString(R.string.key_pref_ringtone),
 								"DEFAULT_NOTIFICATION_URI")), alertOnce);
 
-				notifyBigText(context, notificationManager, builder, note);
+				final List<com.nononsenseapps.notepad.database.Notification> subList = entry
+						.getValue();
+				if (subList.size() == 1) {
+					notifyBigText(context, notificationManager, builder,
+							subList.get(0));
+				}
+				else {
+					// Replaces any previous single notifications
+					for (com.nononsenseapps.notepad.database.Notification note : subList) {
+						notificationManager.cancel((int) note._id);
+					}
+					notifyInboxStyle(context, notificationManager, builder,
+							entry.getKey(), subList);
+					groups.add(entry.getKey());
+				}
 			}
-			// }
+		}
+
+		// Remove groups which are no longer relevant
+		synchronized (groupedLists) {
+			for (Long listId : groupedLists) {
+				if (!groups.contains(listId)) {
+					notificationManager.cancel(getListNotificationId(listId));
+				}
+			}
+			groupedLists.clear();
+			groupedLists.addAll(groups);
 		}
 	}
 
@@ -333,7 +356,8 @@ public class NotificationHelper extends BroadcastReceiver {
 	/**
 	 * Remove from the database, and the specified list, duplicate
 	 * notifications. The result is that each note is only associated with ONE
-	 * EXPIRED notification.
+	 * EXPIRED notification, the latest one. The list must be sorted by time.
+	 * All duplicates are removed in a single batch.
 	 *
 	 * @param context
 	 * @param notifications
@@ -341,54 +365,34 @@ public class NotificationHelper extends BroadcastReceiver {
 	private static void makeUnique(
 			final Context context,
 			final List<com.nononsenseapps.notepad.database.Notification> notifications) {
-		// get duplicates and iterate over them
-		for (com.nononsenseapps.notepad.database.Notification noti : getLatestOccurence(notifications)) {
-			// remove all but the first one from database, and big list
-			for (com.nononsenseapps.notepad.database.Notification dupNoti : getDuplicates(
-					noti, notifications)) {
-				notifications.remove(dupNoti);
-				cancelNotification(context, dupNoti);
-				// Cancelled called in delete
-				dupNoti.deleteOrReschedule(context);
-			}
-		}
-
-	}
+		final HashMap<Long, com.nononsenseapps.notepad.database.Notification> latest = new HashMap<Long, com.nononsenseapps.notepad.database.Notification>();
+		final ArrayList<com.nononsenseapps.notepad.database.Notification> dups = new ArrayList<com.nononsenseapps.notepad.database.Notification>();
 
-	/**
-	 * Returns the first occurrence of each note's notification. Effectively the
-	 * returned list has unique elements with regard to the note id.
-	 *
-	 * @param notifications
-	 * @return
-	 */
-	private static List<com.nononsenseapps.notepad.database.Notification> getLatestOccurence(
-			final List<com.nononsenseapps.notepad.database.Notification> notifications) {
-		final ArrayList<Long> seenIds = new ArrayList<Long>();
-		final ArrayList<com.nononsenseapps.notepad.database.Notification> firsts = new ArrayList<com.nononsenseapps.notepad.database.Notification>();
-
-		com.nononsenseapps.notepad.database.Notification noti;
-		for (int i = notifications.size() - 1; i >= 0; i--) {
-			noti = notifications.get(i);
-			if (!seenIds.contains(noti.taskID)) {
-				seenIds.add(noti.taskID);
-				firsts.add(noti);
+		for (com.nononsenseapps.notepad.database.Notification noti : notifications) {
+			// Later ones replace earlier ones
+			final com.nononsenseapps.notepad.database.Notification previous = latest
+					.put(noti.taskID, noti);
+			if (previous != null) {
+				dups.add(previous);
 			}
 		}
-		return firsts;
-	}
 
-	private static List<com.nononsenseapps.notepad.database.Notification> getDuplicates(
-			final com.nononsenseapps.notepad.database.Notification first,
-			final List<com.nononsenseapps.notepad.database.Notification> notifications) {
-		final ArrayList<com.nononsenseapps.notepad.database.Notification> dups = new ArrayList<com.nononsenseapps.notepad.database.Notification>();
+		if (dups.isEmpty()) {
+			return;
+		}
 
-		for (com.nononsenseapps.notepad.database.Notification noti : notifications) {
-			if (noti.taskID == first.taskID && noti._id != first._id) {
-				dups.add(noti);
+		final Iterator<com.nononsenseapps.notepad.database.Notification> it = notifications
+				.iterator();
+		while (it.hasNext()) {
+			final com.nononsenseapps.notepad.database.Notification noti = it
+					.next();
+			if (latest.get(noti.taskID) != noti) {
+				it.remove();
 			}
 		}
-		return dups;
+		// Cancels the notifications as well
+		com.nononsenseapps.notepad.database.Notification.deleteOrReschedule(
+				context, dups);
 	}
 
 	/**
@@ -474,75 +478,66 @@ public class NotificationHelper extends BroadcastReceiver {
 		notificationManager.notify((int) note._id, noti);
 	}
 
-	// private static void notifyInboxStyle(
-	// final Context context,
-	// final NotificationManager notificationManager,
-	// final NotificationCompat.Builder builder,
-	// final Long idToUse,
-	// final List<com.nononsenseapps.notepad.database.Notification>
-	// notifications) {
-	// // Delete intent must delete all notifications
-	// Intent delint = new Intent(Intent.ACTION_DELETE,
-	// com.nononsenseapps.notepad.database.Notification.URI);
-	// // Add extra so we don't delete all
-	// final long maxTime = getLatestTime(notifications);
-	// delint.putExtra(ARG_MAX_TIME, maxTime);
-	// delint.putExtra(ARG_LISTID, idToUse);
-	// PendingIntent deleteIntent = PendingIntent.getBroadcast(context, 0,
-	// delint, PendingIntent.FLAG_UPDATE_CURRENT);
-	//
-	// // Open intent should open the list
-	// PendingIntent clickIntent = PendingIntent.getActivity(context, 0,
-	// new Intent(Intent.ACTION_VIEW, TaskList.getUri(idToUse),
-	// context, ActivityMain_.class),
-	// PendingIntent.FLAG_UPDATE_CURRENT);
-	//
-	// final String title = notifications.get(0).listTitle + " ("
-	// + notifications.size() + ")";
-	// // Build notification
-	// builder.setContentTitle(title).setNumber(notifications.size())
-	// .setContentText(notifications.get(0).taskTitle)
-	// .setContentIntent(clickIntent).setDeleteIntent(deleteIntent);
-	//
-	// // Action to snooze
-	// PendingIntent snoozeIntent = PendingIntent.getBroadcast(
-	// context,
-	// 0,
-	// new Intent(Intent.ACTION_EDIT, TaskList.getUri(idToUse))
-	// .putExtra(ARG_SNOOZE, true)
-	// .putExtra(ARG_LISTID, idToUse)
-	// .setClass(context, NotificationHelper.class),
-	// PendingIntent.FLAG_UPDATE_CURRENT);
-	// builder.addAction(R.drawable.ic_stat_snooze,
-	// context.getText(R.string.snooze), snoozeIntent);
-	//
-	// // Action to complete
-	// PendingIntent completeIntent = PendingIntent.getBroadcast(
-	// context,
-	// 0,
-	// new Intent(Intent.ACTION_DELETE, TaskList.getUri(idToUse))
-	// .putExtra(ARG_COMPLETE, true)
-	// .putExtra(ARG_LISTID, idToUse)
-	// .putExtra(ARG_MAX_TIME, maxTime)
-	// .setClass(context, NotificationHelper.class),
-	// PendingIntent.FLAG_UPDATE_CURRENT);
-	// builder.addAction(R.drawable.navigation_accept_dark,
-	// context.getText(R.string.completed), completeIntent);
-	//
-	// NotificationCompat.InboxStyle ib = new NotificationCompat.InboxStyle()
-	// .setBigContentTitle(title);
-	// if (notifications.size() > 6)
-	// ib.setSummaryText("+" + (notifications.size() - 6) + " "
-	// + context.getString(R.string.more));
-	//
-	// for (com.nononsenseapps.notepad.database.Notification e : notifications)
-	// {
-	// ib.addLine(e.taskTitle);
-	// }
-	//
-	// final Notification noti = builder.setStyle(ib).build();
-	// notificationManager.notify(idToUse.intValue(), noti);
-	// }
+	/**
+	 * Shows the notifications belonging to a list as one notification.
+	 * Dismissing or opening it deletes/reschedules all of them.
+	 */
+	private static void notifyInboxStyle(
+			final Context context,
+			final NotificationManager notificationManager,
+			final NotificationCompat.Builder builder,
+			final long listId,
+			final List<com.nononsenseapps.notepad.database.Notification> notifications) {
+		final long[] ids = new long[notifications.size()];
+		for (int i = 0; i < ids.length; i++) {
+			ids[i] = notifications.get(i)._id;
+		}
+
+		// Delete intent must delete all notifications
+		final Intent delIntent = new Intent(ACTION_DISMISS_LIST,
+				TaskList.getUri(listId)).putExtra(ARG_IDS, ids).setClass(
+				context, NotificationHelper.class);
+		PendingIntent deleteIntent = PendingIntent.getBroadcast(context, 0,
+				delIntent, PendingIntent.FLAG_UPDATE_CURRENT);
+
+		// Open intent should open the list
+		final Intent openIntent = new Intent(Intent.ACTION_VIEW,
+				TaskList.getUri(listId));
+		openIntent.setFlags(Intent.FLAG_ACTIVITY_CLEAR_TASK
+				| Intent.FLAG_ACTIVITY_NEW_TASK);
+		openIntent.putExtra(ActivityMain.NOTIFICATION_DELETE_IDS_ARG, ids);
+		PendingIntent clickIntent = PendingIntent.getActivity(context, 0,
+				openIntent, PendingIntent.FLAG_UPDATE_CURRENT);
+
+		final String title = notifications.get(0).listTitle + " ("
+				+ notifications.size() + ")";
+		// Build notification
+		builder.setContentTitle(title).setNumber(notifications.size())
+				.setContentText(notifications.get(0).taskTitle)
+				.setContentIntent(clickIntent).setDeleteIntent(deleteIntent);
+
+		NotificationCompat.InboxStyle ib = new NotificationCompat.InboxStyle()
+				.setBigContentTitle(title);
+		// Only room for a few lines
+		final int maxLines = 6;
+		if (notifications.size() > maxLines) {
+			ib.setSummaryText("+" + (notifications.size() - maxLines));
+		}
+		for (int i = 0; i < notifications.size() && i < maxLines; i++) {
+			ib.addLine(notifications.get(i).taskTitle);
+		}
+
+		final Notification noti = builder.setStyle(ib).build();
+		notificationManager.notify(getListNotificationId(listId), noti);
+	}
+
+	/**
+	 * Notification ids are the notification's database id. Grouped ones use
+	 * the negative list id to not collide with those.
+	 */
+	private static int getListNotificationId(final long listId) {
+		return -(int) listId;
+	}
 
 	private static long getLatestTime(
 			final List<com.nononsenseapps.notepad.database.Notification> notifications) {
@@ -557,26 +552,36 @@ public class NotificationHelper extends BroadcastReceiver {
 	 * Schedules to be woken up at the next notification time.
 	 */
 	private static void scheduleNext(Context context) {
-		// Get first future notification
-		final Calendar now = Calendar.getInstance();
-		final List<com.nononsenseapps.notepad.database.Notification> notifications = com.nononsenseapps.notepad.database.Notification
-				.getNotificationsWithTime(context, now.getTimeInMillis(), false);
+		updateAlarm(context);
+		monitorUri(context);
+	}
+
+	/**
+	 * Sets the alarm to the first future notification. The alarm manager is
+	 * only touched if that time differs from what was last scheduled.
+	 */
+	private static void updateAlarm(final Context context) {
+		final Long next = com.nononsenseapps.notepad.database.Notification
+				.getNextTime(context, Calendar.getInstance().getTimeInMillis());
+
+		synchronized (alarmLock) {
+			if (next == null ? nextWakeUp == null : next.equals(nextWakeUp)) {
+				// Already scheduled
+				return;
+			}
 
-		// if not empty, schedule alarm wake up
-		if (!notifications.isEmpty()) {
-			// at first's time
-			// Create a new PendingIntent and add it to the AlarmManager
 			Intent intent = new Intent(Intent.ACTION_RUN);
 			PendingIntent pendingIntent = PendingIntent.getBroadcast(context,
 					1, intent, PendingIntent.FLAG_CANCEL_CURRENT);
 			AlarmManager am = (AlarmManager) context
 					.getSystemService(Context.ALARM_SERVICE);
 			am.cancel(pendingIntent);
-			am.set(AlarmManager.RTC_WAKEUP, notifications.get(0).time,
-					pendingIntent);
+			// if not empty, schedule alarm wake up at first's time
+			if (next != null) {
+				am.set(AlarmManager.RTC_WAKEUP, next, pendingIntent);
+			}
+			nextWakeUp = next;
 		}
-
-		monitorUri(context);
 	}
 
 	/**
@@ -666,34 +671,23 @@ public class NotificationHelper extends BroadcastReceiver {
 	// }
 
 	/**
-	 * Given a list of notifications, returns a list of the lists the notes
-	 * belong to.
-	 */
-	private static Collection<Long> getRelatedLists(
-			final List<com.nononsenseapps.notepad.database.Notification> notifications) {
-		final HashSet<Long> lists = new HashSet<Long>();
-		for (com.nononsenseapps.notepad.database.Notification not : notifications) {
-			lists.add(not.listID);
-		}
-
-		return lists;
-	}
-
-	/**
-	 * Returns a list of those notifications that are associated to notes in the
-	 * specified list.
+	 * Groups the notifications by the list their notes belong to, keeping
+	 * the order of both.
 	 */
-	private static List<com.nononsenseapps.notepad.database.Notification> getSubList(
-			final long listId,
+	private static Map<Long, List<com.nononsenseapps.notepad.database.Notification>> groupByList(
 			final List<com.nononsenseapps.notepad.database.Notification> notifications) {
-		final ArrayList<com.nononsenseapps.notepad.database.Notification> subList = new ArrayList<com.nononsenseapps.notepad.database.Notification>();
+		final LinkedHashMap<Long, List<com.nononsenseapps.notepad.database.Notification>> lists = new LinkedHashMap<Long, List<com.nononsenseapps.notepad.database.Notification>>();
 		for (com.nononsenseapps.notepad.database.Notification not : notifications) {
-			if (not.listID == listId) {
-				subList.add(not);
+			List<com.nononsenseapps.notepad.database.Notification> subList = lists
+					.get(not.listID);
+			if (subList == null) {
+				subList = new ArrayList<com.nononsenseapps.notepad.database.Notification>();
+				lists.put(not.listID, subList);
 			}
+			subList.add(not);
 		}
 
-		return subList;
+		return lists;
 	}
 
 	private static class ContextObserver extends ContentObserver {
@@ -720,6 +714,8 @@ public class NotificationHelper extends BroadcastReceiver {
 		public void onChange(boolean selfChange, Uri uri) {
 			// Handle change but don't spam
 			notifyPast(context, true);
+			// Cheap unless the earliest time changed
+			updateAlarm(context);
 		}
 	}
 }
@@ -27,6 +27,9 @@ import com.nononsenseapps.notepad.database.Task;
 import com.nononsenseapps.notepad.database.TaskList;
 import com.nononsenseapps.notepad.widget.ListWidgetProvider;
 import com.nononsenseapps.notepad.widget.WidgetPrefs;
+import com.nononsenseapps.notepad.widget.WidgetQueryCache;
+
+import java.util.Collections;
 
 /**
  * The purpose here is to make it easy for other classes to notify that
@@ -104,6 +107,9 @@ public class UpdateNotifier {
 				.getAppWidgetIds(new ComponentName(context,
 						ListWidgetProvider.class));
 		if (appWidgetIds.length > 0) {
+			// Whatever changed, the shared queries are stale
+			WidgetQueryCache.getInstance().invalidate(
+					Collections.<Long> emptySet(), true);
 			/*
 			 * Tell the widgets that the list items should be invalidated and
 			 * refreshed! Will call onDatasetChanged in ListWidgetService, doing
@@ -18,6 +18,7 @@ package com.nononsenseapps.notepad;
 
 import android.annotation.SuppressLint;
 import android.annotation.TargetApi;
+import android.app.ProgressDialog;
 import android.content.Intent;
 import android.content.SharedPreferences;
 import android.content.SharedPreferences.OnSharedPreferenceChangeListener;
@@ -59,8 +60,10 @@ import com.nononsenseapps.helpers.NotificationHelper;
 import com.nononsenseapps.helpers.SyncHelper;
 import com.nononsenseapps.helpers.SyncStatusMonitor;
 import com.nononsenseapps.helpers.SyncStatusMonitor.OnSyncStartStopListener;
+import com.nononsenseapps.notepad.database.DatabaseHandler;
 import com.nononsenseapps.notepad.database.LegacyDBHelper;
 import com.nononsenseapps.notepad.database.LegacyDBHelper.NotePad;
+import com.nononsenseapps.notepad.database.LegacyMigration;
 import com.nononsenseapps.notepad.database.Notification;
 import com.nononsenseapps.notepad.database.Task;
 import com.nononsenseapps.notepad.database.TaskList;
@@ -83,6 +86,7 @@ import com.nononsenseapps.ui.ExtraTypesCursorAdapter;
 import com.nononsenseapps.utils.ViewsHelper;
 
 import org.androidannotations.annotations.AfterViews;
+import org.androidannotations.annotations.Background;
 import org.androidannotations.annotations.EActivity;
 import org.androidannotations.annotations.InstanceState;
 import org.androidannotations.annotations.OnActivityResult;
@@ -106,6 +110,9 @@ public class ActivityMain extends FragmentActivity
             "notification_cancel_arg";
     public static final String NOTIFICATION_DELETE_ARG =
             "notification_delete_arg";
+    // Array of ids, used by notifications grouping several reminders
+    public static final String NOTIFICATION_DELETE_IDS_ARG =
+            "notification_delete_ids_arg";
     // If donate version has been migrated
     public static final String MIGRATED = "donate_inapp_or_oldversion";
     // Set to true in bundle if exits should be animated
@@ -799,8 +806,13 @@ public class ActivityMain extends FragmentActivity
     private void clearNotification(final Intent intent) {
         if (intent != null &&
             intent.getLongExtra(NOTIFICATION_DELETE_ARG, -1) > 0) {
-            Notification.deleteOrReschedule(this, Notification
-                    .getUri(intent.getLongExtra(NOTIFICATION_DELETE_ARG, -1)));
+            deleteOrReschedule(new long[] {
+                    intent.getLongExtra(NOTIFICATION_DELETE_ARG, -1) });
+        }
+        if (intent != null &&
+            intent.getLongArrayExtra(NOTIFICATION_DELETE_IDS_ARG) != null) {
+            deleteOrReschedule(
+                    intent.getLongArrayExtra(NOTIFICATION_DELETE_IDS_ARG));
         }
         if (intent != null &&
             intent.getLongExtra(NOTIFICATION_CANCEL_ARG, -1) > 0) {
@@ -810,11 +822,25 @@ public class ActivityMain extends FragmentActivity
 
     }
 
+    /**
+     * Deletes, or reschedules, the reminders the user dismissed. Queries and
+     * writes the database so keep it off the UI thread.
+     */
+    @Background
+    void deleteOrReschedule(final long[] ids) {
+        Notification.deleteOrReschedule(this, ids);
+    }
+
     /**
      * Loads the appropriate fragments depending on state and intent.
      */
     @AfterViews
     protected void loadContent() {
+        if (LegacyMigration.isPending(this)) {
+            // Loads when the old database has been copied
+            migrateLegacyDatabase();
+            return;
+        }
         loadLeftDrawer();
         loadFragments();
 
@@ -823,6 +849,53 @@ public class ActivityMain extends FragmentActivity
         }
     }
 
+    /**
+     * Copies the database of the old app, showing the progress, then loads
+     * the content.
+     */
+    private void migrateLegacyDatabase() {
+        final ProgressDialog dialog = new ProgressDialog(this);
+        dialog.setMessage(getString(R.string.migrating_legacy_database));
+        dialog.setProgressStyle(ProgressDialog.STYLE_HORIZONTAL);
+        dialog.setCancelable(false);
+        dialog.show();
+
+        new AsyncTask<Void, Integer, Void>() {
+
+            @Override
+            protected Void doInBackground(Void... params) {
+                LegacyMigration.setProgressListener(
+                        new LegacyMigration.ProgressListener() {
+                            @Override
+                            public void onProgress(int done, int total) {
+                                publishProgress(done, total);
+                            }
+                        });
+                try {
+                    DatabaseHandler.getInstance(ActivityMain.this)
+                            .migrateLegacyDatabase();
+                } finally {
+                    LegacyMigration.setProgressListener(null);
+                }
+                return null;
+            }
+
+            @Override
+            protected void onProgressUpdate(Integer... progress) {
+                dialog.setMax(progress[1]);
+                dialog.setProgress(progress[0]);
+            }
+
+            @Override
+            protected void onPostExecute(Void result) {
+                dialog.dismiss();
+                if (!isFinishing()) {
+                    loadContent();
+                }
+            }
+        }.execute();
+    }
+
     /**
      * Load a list of lists in the left
      */
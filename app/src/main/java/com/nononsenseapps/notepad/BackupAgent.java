@@ -17,6 +17,7 @@
 package com.nononsenseapps.notepad;
 
 import com.nononsenseapps.notepad.prefs.SyncPrefs;
+import com.nononsenseapps.notepad.sync.files.TaskBackupHelper;
 import com.nononsenseapps.notepad.sync.googleapi.GoogleTaskSync;
 
 import android.app.backup.BackupAgentHelper;
@@ -26,10 +27,11 @@ import android.content.Context;
 import android.preference.PreferenceManager;
 
 /**
- * Backs up the user's preferences
+ * Backs up the user's preferences, and lists and tasks
  */
 public class BackupAgent extends BackupAgentHelper {
 	private static final String PREFS_BACKUP_KEY = "prefs";
+	private static final String TASKS_BACKUP_KEY = "tasks";
 
 	// Allocate a helper and add it to the backup agent
 	@Override
@@ -38,6 +40,7 @@ public class BackupAgent extends BackupAgentHelper {
 		String defaultPrefsFilename = getPackageName() + "_preferences";
 		addHelper(PREFS_BACKUP_KEY, new PrefBackupHelper(this,
 				defaultPrefsFilename));
+		addHelper(TASKS_BACKUP_KEY, new TaskBackupHelper(this));
 	}
 
 	public static class PrefBackupHelper extends SharedPreferencesBackupHelper {
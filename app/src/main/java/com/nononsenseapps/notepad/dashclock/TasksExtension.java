@@ -1,6 +1,5 @@
 package com.nononsenseapps.notepad.dashclock;
 
-import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.GregorianCalendar;
 
@@ -14,6 +13,8 @@ import com.google.android.apps.dashclock.api.ExtensionData;
 import com.nononsenseapps.notepad.R;
 import com.nononsenseapps.notepad.database.Task;
 import com.nononsenseapps.notepad.database.TaskList;
+import com.nononsenseapps.notepad.database.TaskListCache;
+import com.nononsenseapps.notepad.database.TaskReader;
 
 public class TasksExtension extends DashClockExtension {
 
@@ -78,26 +79,16 @@ public class TasksExtension extends DashClockExtension {
 
 		final boolean showHeader = prefs.getBoolean("show_header", true);
 
-		final ArrayList<Task> notes = getNotesFromDB(listId, upperLimit);
+		final Notes notes = getNotesFromDB(listId, upperLimit, showOverdue,
+				showSingle, showHeader);
 
-		// Show overdue?
-		if (!showOverdue) {
-			removeOverdue(notes);
-		}
-
-		if (showSingle && notes.size() > 1) {
-			final Task first = notes.get(0);
-			notes.clear();
-			notes.add(first);
-		}
-
-		if (notes.isEmpty()) {
+		if (notes.count == 0) {
 			publishUpdate(null);
 		}
 		else {
 
 			final String short_header = getString(
-					R.string.dashclock_tasks_count, notes.size());
+					R.string.dashclock_tasks_count, notes.count);
 
 			final String long_header;
 
@@ -106,23 +97,19 @@ public class TasksExtension extends DashClockExtension {
 				long_header = getHeader(listId);
 			}
 			else {
-				long_header = notes.get(0).title;
+				long_header = notes.firstTitle;
 			}
 
 			final Intent noteIntent = new Intent();
-			if (notes.size() > 1) {
-				noteIntent
-						.setAction(Intent.ACTION_VIEW)
-						.setData(
-								TaskList.getUri(notes.get(0).dblist.longValue()))
-						.putExtra(Task.TABLE_NAME, notes.get(0)._id);
+			if (notes.count > 1) {
+				noteIntent.setAction(Intent.ACTION_VIEW)
+						.setData(TaskList.getUri(notes.firstList))
+						.putExtra(Task.TABLE_NAME, notes.firstId);
 			}
 			else {
-				noteIntent
-						.setAction(Intent.ACTION_EDIT)
-						.setData(Task.getUri(notes.get(0)._id))
-						.putExtra(Task.Columns.DBLIST,
-								notes.get(0).dblist.longValue());
+				noteIntent.setAction(Intent.ACTION_EDIT)
+						.setData(Task.getUri(notes.firstId))
+						.putExtra(Task.Columns.DBLIST, notes.firstList);
 			}
 
 			// Publish the extension data update.
@@ -135,47 +122,35 @@ public class TasksExtension extends DashClockExtension {
 
 	}
 
-	@SuppressWarnings("unchecked")
-	private void removeOverdue(final ArrayList<Task> notes) {
-		for (Task note : (ArrayList<Task>) notes.clone()) {
-			if (note.due != null
-					&& note.due < Calendar.getInstance().getTimeInMillis())
-				notes.remove(note);
-		}
+	/**
+	 * What is shown of the notes. Only the first is kept whole.
+	 */
+	private static class Notes {
+		int count = 0;
+		long firstId;
+		long firstList;
+		String firstTitle;
+		String firstNote;
+		// Titles to list when there are several, one per line
+		final StringBuilder titles = new StringBuilder();
 	}
 
-	private String getBody(final ArrayList<Task> notes, final boolean showHeader) {
-		String result = "";
-		if (notes.size() == 1) {
-			if (showHeader) {
-				// Skip title if no header as the title is the header
-				result += notes.get(0).title;
-				result += "\n";
-			}
-			result += notes.get(0).note;
-		}
-		else {
-			boolean first = true;
-			boolean skippable = true;
-			for (Task note : notes) {
-				if (!showHeader && skippable) {
-					// Skip first
-					skippable = false;
-					continue;
-				}
-				if (!first) result += "\n";
-				result += note.title;
-				first = false;
-			}
+	private String getBody(final Notes notes, final boolean showHeader) {
+		if (notes.count == 1) {
+			// Skip title if no header as the title is the header
+			return (showHeader ? notes.firstTitle + "\n" : "")
+					+ notes.firstNote;
 		}
-		return result;
+		return notes.titles.toString();
 	}
 
 	/**
-	 * Return a list of notes respecting the constraints set in preferences.
+	 * Reads the notes respecting the constraints set in preferences. The
+	 * rows are read without making a task of each.
 	 */
-	private ArrayList<Task> getNotesFromDB(final long list,
-			final String upperLimit) {
+	private Notes getNotesFromDB(final long list, final String upperLimit,
+			final boolean showOverdue, final boolean showSingle,
+			final boolean showHeader) {
 		// WHERE_LIST_IS, toA(list)
 		String where = "";
 		String[] whereArgs = new String[0];
@@ -188,17 +163,39 @@ public class TasksExtension extends DashClockExtension {
 		whereArgs = getUpperQueryLimitWhereArgs(whereArgs, upperLimit);
 
 		final Cursor cursor = getContentResolver().query(Task.URI,
-				Task.Columns.FIELDS, where, whereArgs, DUEDATE_SORT_TYPE);
+				Task.Columns.LIST_FIELDS, where, whereArgs, DUEDATE_SORT_TYPE);
 
-		final ArrayList<Task> result = new ArrayList<Task>();
+		final Notes notes = new Notes();
 		if (cursor != null) {
-			while (cursor.moveToNext()) {
-				result.add(new Task(cursor));
+			final long now = Calendar.getInstance().getTimeInMillis();
+			final TaskReader reader = new TaskReader(cursor);
+			while (reader.moveToNext()) {
+				if (!showOverdue && reader.hasDue() && reader.due < now) {
+					continue;
+				}
+				if (notes.count == 0) {
+					notes.firstId = reader.id;
+					notes.firstList = reader.dblist;
+					notes.firstTitle = reader.getTitle();
+					notes.firstNote = reader.getNote();
+				}
+				else if (showSingle) {
+					break;
+				}
+				// The first title is the header if there is no header
+				if (notes.count > 0 || showHeader) {
+					if (notes.titles.length() > 0) {
+						notes.titles.append('\n');
+					}
+					notes.titles.append(notes.count == 0 ? notes.firstTitle
+							: reader.getTitle());
+				}
+				notes.count++;
 			}
 			cursor.close();
 		}
 
-		return result;
+		return notes;
 	}
 
 	/**
@@ -208,17 +205,10 @@ public class TasksExtension extends DashClockExtension {
 		String header = getString(R.string.dashclock_tasks);
 
 		if (list > -1) {
-			final Cursor cursor = getContentResolver().query(TaskList.URI,
-					TaskList.Columns.FIELDS, TaskList.Columns._ID + " IS ?",
-					new String[] { Long.toString(list) }, null);
-			if (cursor != null) {
-				if (!cursor.isClosed() && !cursor.isAfterLast()) {
-					if (cursor.moveToNext()) {
-						header = cursor.getString(1);
-					}
-				}
-
-				cursor.close();
+			final String title = TaskListCache.getInstance().getTitle(this,
+					list);
+			if (title != null) {
+				header = title;
 			}
 		}
 
@@ -0,0 +1,254 @@
+/*
+ * Copyright (c) 2014 Jonas Kalderstam.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.nononsenseapps.notepad.database;
+
+import android.app.backup.BackupManager;
+import android.content.Context;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+
+import com.nononsenseapps.notepad.widget.WidgetRefreshCoordinator;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+
+/**
+ * Collects the change notifications of the provider, so a burst of writes
+ * results in one notification per URI. Notifications are sent when no more
+ * changes have been made for the length of the window, but never later
+ * than the maximum delay after the first of them.
+ * <p/>
+ * Wrap bursts of writes in a scope:
+ * <pre>
+ * final ChangeCoalescer changes = ChangeCoalescer.getInstance(context);
+ * changes.beginScope();
+ * try {
+ *     ...
+ * } finally {
+ *     changes.endScope();
+ * }
+ * </pre>
+ * The changes made by the thread in the scope are held until its last
+ * scope is closed, and then sent at once. Other threads are not affected.
+ * Scopes only work in the process of the provider.
+ */
+public class ChangeCoalescer {
+
+    /**
+     * Time to wait for more changes, in milliseconds
+     */
+    public static final long DEFAULT_WINDOW_MS = 100;
+    /**
+     * Longest time a change waits for the window to close, in milliseconds
+     */
+    public static final long MAX_DELAY_MS = 1000;
+
+    private static ChangeCoalescer instance = null;
+
+    public static synchronized ChangeCoalescer getInstance(
+            final Context context) {
+        if (instance == null) {
+            instance = new ChangeCoalescer(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    /**
+     * Changes held by the scopes of one thread
+     */
+    private static class Scope {
+        int depth = 0;
+        final LinkedHashSet<Uri> uris = new LinkedHashSet<Uri>();
+        final HashSet<Long> lists = new HashSet<Long>();
+    }
+
+    private final Context context;
+    private final Handler handler;
+    private final Runnable flushRunnable = new Runnable() {
+        @Override
+        public void run() {
+            flush(false);
+        }
+    };
+    private final ThreadLocal<Scope> scopes = new ThreadLocal<Scope>() {
+        @Override
+        protected Scope initialValue() {
+            return new Scope();
+        }
+    };
+
+    // All below guarded by this
+    private final LinkedHashSet<Uri> pendingUris = new LinkedHashSet<Uri>();
+    private final HashSet<Long> pendingLists = new HashSet<Long>();
+    // When the oldest pending change was made, or -1 if none
+    private long firstPendingAt = -1;
+    private long delivered = 0;
+    private long suppressed = 0;
+
+    private ChangeCoalescer(final Context context) {
+        this.context = context;
+        this.handler = new Handler(Looper.getMainLooper());
+    }
+
+    /**
+     * Observers of the uri will be notified
+     */
+    public void notifyChange(final Uri uri) {
+        final Scope scope = scopes.get();
+        final boolean now;
+        synchronized (this) {
+            if (scope.depth > 0) {
+                // Sent when scope ends
+                if (!scope.uris.add(uri)) {
+                    suppressed++;
+                }
+                return;
+            }
+            if (!pendingUris.add(uri)) {
+                suppressed++;
+            }
+            now = reschedule();
+        }
+        if (now) {
+            flush(false);
+        }
+    }
+
+    /**
+     * Widgets showing any of the lists will be refreshed
+     */
+    public void refreshWidgets(final Collection<Long> listIds) {
+        if (listIds.isEmpty()) {
+            return;
+        }
+        final Scope scope = scopes.get();
+        if (scope.depth > 0) {
+            scope.lists.addAll(listIds);
+            return;
+        }
+        final boolean now;
+        synchronized (this) {
+            pendingLists.addAll(listIds);
+            now = reschedule();
+        }
+        if (now) {
+            flush(false);
+        }
+    }
+
+    /**
+     * Restarts the window, unless that would pass the maximum delay. Returns
+     * true if the changes should be sent right away instead.
+     */
+    private boolean reschedule() {
+        final long now = SystemClock.uptimeMillis();
+        if (firstPendingAt < 0) {
+            firstPendingAt = now;
+        }
+        final long delay = Math.min(DEFAULT_WINDOW_MS, firstPendingAt
+                + MAX_DELAY_MS - now);
+        if (delay <= 0) {
+            return true;
+        }
+        handler.removeCallbacks(flushRunnable);
+        handler.postDelayed(flushRunnable, delay);
+        return false;
+    }
+
+    /**
+     * Hold the notifications of this thread until the matching
+     * {@link #endScope()}. Scopes can be nested.
+     */
+    public void beginScope() {
+        scopes.get().depth++;
+    }
+
+    /**
+     * Closes a scope. When the last one of the thread is closed, all changes
+     * made in it are sent at once.
+     */
+    public void endScope() {
+        final Scope scope = scopes.get();
+        if (scope.depth > 0) {
+            scope.depth--;
+        }
+        if (scope.depth > 0) {
+            return;
+        }
+        synchronized (this) {
+            pendingUris.addAll(scope.uris);
+            pendingLists.addAll(scope.lists);
+        }
+        scope.uris.clear();
+        scope.lists.clear();
+        // Done, no need to wait for the widget throttle either
+        flush(true);
+    }
+
+    private void flush(final boolean refreshWidgetsNow) {
+        final ArrayList<Uri> uris;
+        final ArrayList<Long> lists;
+        synchronized (this) {
+            handler.removeCallbacks(flushRunnable);
+            uris = new ArrayList<Uri>(pendingUris);
+            lists = new ArrayList<Long>(pendingLists);
+            pendingUris.clear();
+            pendingLists.clear();
+            firstPendingAt = -1;
+            delivered += uris.size();
+        }
+
+        for (Uri uri : uris) {
+            DAO.notifyProviderOnChange(context, uri);
+        }
+        if (!uris.isEmpty()) {
+            // The backup service then backs up the changed lists
+            new BackupManager(context).dataChanged();
+        }
+
+        final WidgetRefreshCoordinator widgets = WidgetRefreshCoordinator
+                .getInstance(context);
+        widgets.onListsChanged(lists);
+        if (refreshWidgetsNow) {
+            widgets.flush();
+        }
+    }
+
+    /**
+     * @return number of notifications sent to observers
+     */
+    public synchronized long getDeliveredCount() {
+        return delivered;
+    }
+
+    /**
+     * @return number of notifications dropped because the same URI was
+     * already waiting to be notified
+     */
+    public synchronized long getSuppressedCount() {
+        return suppressed;
+    }
+
+    public synchronized void resetCounters() {
+        delivered = 0;
+        suppressed = 0;
+    }
+}
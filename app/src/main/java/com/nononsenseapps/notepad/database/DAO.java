@@ -14,8 +14,6 @@ import android.util.Log;
 
 public abstract class DAO {
 
-	private static final String whereIdIs = "" + BaseColumns._ID + " IS ?";
-
 	/**
 	 * Append where is id ? to string
 	 */
@@ -30,6 +28,43 @@ public abstract class DAO {
 		return sb.toString();
 	}
 
+	/**
+	 * Most ids bound in one statement, well below the limit of 999 arguments
+	 * SQLite is compiled with.
+	 */
+	public static final int MAX_BOUND_IDS = 500;
+
+	/**
+	 * Returns "_id IN (?,?,...)" with count arguments.
+	 */
+	public static String whereIdIn(final int count) {
+		return whereIn(BaseColumns._ID, count);
+	}
+
+	/**
+	 * Returns "column IN (?,?,...)" with count arguments.
+	 */
+	public static String whereIn(final String column, final int count) {
+		final StringBuilder sb = new StringBuilder(column).append(" IN (");
+		for (int i = 0; i < count; i++) {
+			if (i > 0) sb.append(",");
+			sb.append("?");
+		}
+		return sb.append(")").toString();
+	}
+
+	/**
+	 * The arguments to whereIdIn for ids[from] to ids[from + count - 1].
+	 */
+	public static String[] whereIdInArgs(final long[] ids, final int from,
+			final int count) {
+		final String[] args = new String[count];
+		for (int i = 0; i < count; i++) {
+			args[i] = Long.toString(ids[from + i]);
+		}
+		return args;
+	}
+
 	public String[] whereIdArg() {
 		return new String[] { Long.toString(_id) };
 	}
@@ -196,7 +231,19 @@ public abstract class DAO {
 
 	public long _id = -1;
 
-	public synchronized boolean update(final Context context,
+	/**
+	 * The compiled statements writing rows of this table. Writes of one
+	 * table are serialized by it, across instances.
+	 */
+	StatementCache getStatements() {
+		return StatementCache.forTable(getTableName(), getFieldsNoId());
+	}
+
+	/**
+	 * Writes the row directly. Like insert and remove, it does not notify
+	 * observers, the provider does that for all its writes.
+	 */
+	public boolean update(final Context context,
 			final SQLiteDatabase db) {
 		int result = 0;
 		db.beginTransaction();
@@ -204,8 +251,7 @@ public abstract class DAO {
 		try {
 
 			if (_id > 0) {
-				result += db.update(getTableName(), getContent(), whereIdIs,
-						whereIdArg());
+				result += getStatements().update(db, getContent(), _id);
 			}
 
 			if (result > 0) {
@@ -220,21 +266,17 @@ public abstract class DAO {
 			db.endTransaction();
 		}
 
-		if (result > 0) {
-			notifyProviderOnChange(context);
-		}
-
 		return result > 0;
 	}
 
-	public synchronized Uri insert(final Context context,
+	public Uri insert(final Context context,
 			final SQLiteDatabase db) {
 		Uri retval = null;
 		db.beginTransaction();
 		try {
 			beforeInsert(context, db);
 
-			final long id = db.insert(getTableName(), null, getContent());
+			final long id = getStatements().insert(db, getContent());
 
 			if (id == -1) {
 				throw new SQLException("Insert failed in " + getTableName());
@@ -253,22 +295,12 @@ public abstract class DAO {
 			db.endTransaction();
 		}
 
-		if (retval != null) {
-			notifyProviderOnChange(context);
-		}
 		return retval;
 	}
 
-	public synchronized int remove(final Context context,
+	public int remove(final Context context,
 			final SQLiteDatabase db) {
-		final int result = db.delete(getTableName(), BaseColumns._ID + " IS ?",
-				new String[] { Long.toString(_id) });
-
-		if (result > 1) {
-			notifyProviderOnChange(context);
-		}
-
-		return result;
+		return getStatements().delete(db, _id);
 	}
 
 	public static void notifyProviderOnChange(final Context context,
@@ -281,10 +313,6 @@ public abstract class DAO {
 		}
 	}
 
-	protected void notifyProviderOnChange(final Context context) {
-		notifyProviderOnChange(context, getUri());
-	}
-
 	public void setId(final Uri uri) {
 		_id = Long.parseLong(uri.getLastPathSegment());
 	}
@@ -328,6 +356,11 @@ public abstract class DAO {
 
 	protected abstract String getTableName();
 
+	/**
+	 * The columns of the table which are written, without the id
+	 */
+	protected abstract String[] getFieldsNoId();
+
 	public abstract String getContentType();
 
 	/**
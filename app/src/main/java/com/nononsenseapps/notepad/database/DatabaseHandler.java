@@ -1,21 +1,12 @@
 package com.nononsenseapps.notepad.database;
 
-import java.text.ParseException;
-import java.util.Calendar;
-import java.util.HashMap;
-
 import com.nononsenseapps.notepad.R;
 import com.nononsenseapps.notepad.prefs.SyncPrefs;
-import com.nononsenseapps.notepad.sync.googleapi.GoogleTask;
-import com.nononsenseapps.notepad.sync.googleapi.GoogleTaskList;
-
-import com.nononsenseapps.utils.time.RFC3339Date;
 
 import android.content.Context;
 import android.database.Cursor;
-import android.database.SQLException;
+import android.database.DatabaseUtils;
 import android.database.sqlite.SQLiteDatabase;
-import android.database.sqlite.SQLiteException;
 import android.database.sqlite.SQLiteOpenHelper;
 import android.preference.PreferenceManager;
 import android.provider.BaseColumns;
@@ -31,7 +22,7 @@ public class DatabaseHandler extends SQLiteOpenHelper {
 		return singleton;
 	}
 
-	private static final int DATABASE_VERSION = 15;
+	private static final int DATABASE_VERSION = 19;
 	public static final String DATABASE_NAME = "nononsense_notes.db";
 
 	private final Context context;
@@ -48,7 +39,8 @@ public class DatabaseHandler extends SQLiteOpenHelper {
 	 * Use only for JUNIT tests
 	 */
 	public DatabaseHandler(Context context, String testPrefix) {
-		super(context, testPrefix + DATABASE_NAME, null, DATABASE_VERSION);
+		super(context, testPrefix + DATABASE_NAME, QueryProfiler.CURSOR_FACTORY,
+				DATABASE_VERSION);
 		// Good idea to have the context that doesn't die with the window
 		this.context = context.getApplicationContext();
 		this.testPrefix = testPrefix;
@@ -66,13 +58,32 @@ public class DatabaseHandler extends SQLiteOpenHelper {
 		}
 	}
 
+	/**
+	 * Copies what is left of the old database, and marks the migration as
+	 * done. Can take a while, so do not call on the UI thread.
+	 */
+	public synchronized void migrateLegacyDatabase() {
+		final SQLiteDatabase db = getWritableDatabase();
+		if (LegacyMigration.isPending(db)) {
+			new LegacyMigration(context, testPrefix).run(db);
+		}
+		else {
+			// Copied before, or the old file appeared later
+			LegacyMigration.markDone(context, testPrefix);
+		}
+	}
+
 	@Override
 	public void onCreate(SQLiteDatabase db) {
 		db.execSQL(TaskList.CREATE_TABLE);
 		db.execSQL(Task.CREATE_TABLE);
+		for (String index : Task.CREATE_LIST_INDEXES) {
+			db.execSQL(index);
+		}
 		db.execSQL(Task.CREATE_DELETE_TABLE);
 		db.execSQL(Task.CREATE_HISTORY_TABLE);
 		db.execSQL(Notification.CREATE_TABLE);
+		db.execSQL(Notification.CREATE_TIME_INDEX);
 		db.execSQL(RemoteTaskList.CREATE_TABLE);
 		db.execSQL(RemoteTask.CREATE_TABLE);
 
@@ -84,6 +95,8 @@ public class DatabaseHandler extends SQLiteOpenHelper {
 		db.execSQL(Task.TRIGGER_MOVE_LIST);
 		db.execSQL(Task.CREATE_HISTORY_INSERT_TRIGGER);
 		db.execSQL(Task.CREATE_HISTORY_UPDATE_TRIGGER);
+		db.execSQL(Task.CREATE_PREVIEW_INSERT_TRIGGER);
+		db.execSQL(Task.CREATE_PREVIEW_UPDATE_TRIGGER);
 
 		db.execSQL(RemoteTask.TRIGGER_LISTDELETE_CASCADE);
 		// Mark as deleted when real item deleted
@@ -104,7 +117,13 @@ public class DatabaseHandler extends SQLiteOpenHelper {
 		db.execSQL(Task.CREATE_FTS3_DELETED_UPDATE_TRIGGER);
 		db.execSQL(Task.CREATE_FTS3_DELETED_DELETE_TRIGGER);
 
-		initializedDB(db);
+		if (LegacyMigration.hasLegacyDatabase(context, testPrefix)) {
+			// Copied by migrateLegacyDatabase, outside of this transaction
+			LegacyMigration.prepare(db);
+		}
+		else {
+			insertDefaultList(context, db);
+		}
 	}
 
 	public static Cursor getLegacyLists(final SQLiteDatabase legacyDB) {
@@ -121,25 +140,59 @@ public class DatabaseHandler extends SQLiteOpenHelper {
 										+ " WHERE lists.deleted IS NOT 1", null);
 	}
 
+	private static final String LEGACY_NOTES_WHERE = " WHERE notes.deleted IS NOT 1 AND notes.hiddenflag IS NOT 1";
+	private static final String LEGACY_NOTES_QUERY = "SELECT notes."
+									+ BaseColumns._ID
+									+ ",notes.title,notes.note,notes.duedate,notes.gtaskstatus,notes.list,notes.modified,gtasks.googleid,gtasks.googleaccount"
+									+ " FROM "
+									+ LegacyDBHelper.NotePad.Notes.TABLE_NAME
+									+ " LEFT OUTER JOIN "
+									+ LegacyDBHelper.NotePad.GTasks.TABLE_NAME
+									+ " ON ("
+									+ LegacyDBHelper.NotePad.Notes.TABLE_NAME
+									+ "."
+									+ LegacyDBHelper.NotePad.Notes._ID
+									+ " = "
+									+ LegacyDBHelper.NotePad.GTasks.TABLE_NAME
+									+ "."
+									+ LegacyDBHelper.NotePad.GTasks.COLUMN_NAME_DB_ID
+									+ ")"
+									+ LEGACY_NOTES_WHERE;
+
 	public static Cursor getLegacyNotes(final SQLiteDatabase legacyDB) {
-		return legacyDB.rawQuery("SELECT notes."
-										+ BaseColumns._ID
-										+ ",notes.title,notes.note,notes.duedate,notes.gtaskstatus,notes.list,notes.modified,gtasks.googleid,gtasks.googleaccount"
-										+ " FROM "
-										+ LegacyDBHelper.NotePad.Notes.TABLE_NAME
-										+ " LEFT OUTER JOIN "
-										+ LegacyDBHelper.NotePad.GTasks.TABLE_NAME
-										+ " ON ("
-										+ LegacyDBHelper.NotePad.Notes.TABLE_NAME
-										+ "."
-										+ LegacyDBHelper.NotePad.Notes._ID
-										+ " = "
-										+ LegacyDBHelper.NotePad.GTasks.TABLE_NAME
-										+ "."
-										+ LegacyDBHelper.NotePad.GTasks.COLUMN_NAME_DB_ID
-										+ ")"
-										+ " WHERE notes.deleted IS NOT 1 AND notes.hiddenflag IS NOT 1",
-										null);
+		return legacyDB.rawQuery(LEGACY_NOTES_QUERY, null);
+	}
+
+	// Old notes were locked by a marker in the text
+	private static final String LEGACY_LOCKED = "[locked]";
+	private static final String LEGACY_NOTES_BATCH_QUERY = "SELECT notes."
+									+ BaseColumns._ID
+									+ ",notes.title,replace(notes.note,'" + LEGACY_LOCKED + "','')"
+									+ ",notes.duedate,notes.gtaskstatus,notes.list,notes.modified,gtasks.googleid,gtasks.googleaccount"
+									+ ",notes.note <> replace(notes.note,'" + LEGACY_LOCKED + "','')"
+									+ LEGACY_NOTES_QUERY.substring(LEGACY_NOTES_QUERY
+											.indexOf(" FROM "));
+
+	/**
+	 * Like getLegacyNotes, but only up to limit notes with ids above afterId,
+	 * in order of id. The note comes without the lock marker, and column 9
+	 * is 1 if it had one.
+	 */
+	static Cursor getLegacyNotes(final SQLiteDatabase legacyDB,
+			final long afterId, final int limit) {
+		return legacyDB.rawQuery(LEGACY_NOTES_BATCH_QUERY
+				+ " AND notes._id > ? ORDER BY notes._id LIMIT " + limit,
+				new String[] { Long.toString(afterId) });
+	}
+
+	/**
+	 * Number of notes getLegacyNotes returns with ids above afterId
+	 */
+	static long countLegacyNotes(final SQLiteDatabase legacyDB,
+			final long afterId) {
+		return DatabaseUtils.longForQuery(legacyDB, "SELECT COUNT(*) FROM "
+				+ LegacyDBHelper.NotePad.Notes.TABLE_NAME + LEGACY_NOTES_WHERE
+				+ " AND notes._id > ?", new String[] { Long.toString(afterId) });
 	}
 
 	public static Cursor getLegacyNotifications(final SQLiteDatabase legacyDB) {
@@ -148,120 +201,11 @@ public class DatabaseHandler extends SQLiteOpenHelper {
 										null);
 	}
 
-	private void initializedDB(final SQLiteDatabase db) throws SQLiteException {
-		// Load legacy DB if it exists
-		// Open database and copy information
-		// Remember to do try except
-
-		db.beginTransaction();
-		try {
-			final HashMap<Long, Long> listIDMap = new HashMap<Long, Long>();
-			final HashMap<Long, Long> taskIDMap = new HashMap<Long, Long>();
-			final LegacyDBHelper legacyDBHelper = new LegacyDBHelper(context, testPrefix);
-			final SQLiteDatabase legacyDB = legacyDBHelper.getReadableDatabase();
-
-			// First copy lists
-			Cursor c = getLegacyLists(legacyDB);
-
-			while (!c.isClosed() && c.moveToNext()) {
-				TaskList tl = new TaskList();
-				tl.title = c.getString(1);
-				tl.updated = Calendar.getInstance().getTimeInMillis();
-
-				// insert into db
-				tl.insert(context, db);
-				// remember id
-				listIDMap.put(c.getLong(0), tl._id);
-
-				// handle gtask info
-				GoogleTaskList rl = null;
-				if (c.getString(2) != null && !c.getString(2).isEmpty() && c.getString(3) != null
-												&& !c.getString(3).isEmpty()) {
-					rl = new GoogleTaskList(tl._id, c.getString(2), tl.updated, c.getString(3));
-					rl.insert(context, db);
-				}
-			}
-			c.close();
-
-			// Then notes
-			if (!listIDMap.isEmpty()) {
-				// query
-				c = getLegacyNotes(legacyDB);
-
-				// iterate over notes
-				while (!c.isClosed() && c.moveToNext()) {
-					Task t = new Task();
-					t.title = c.getString(1);
-					t.note = c.getString(2);
-
-					if (t.note.contains("[locked]")) {
-						t.locked = true;
-						t.note = t.note.replace("[locked]", "");
-					}
-
-					try {
-						t.due = RFC3339Date.parseRFC3339Date(c.getString(3)).getTime();
-					} catch (Exception e) {
-					}
-
-					// completed must be converted
-					if (c.getString(4) != null && "completed".equals(c.getString(4))) {
-						t.setAsCompleted();
-					}
-					t.dblist = listIDMap.get(c.getLong(5));
-
-					t.updated = c.getLong(6);
-
-					// insert
-					// Just make extra sure list exists
-					if (t.dblist != null) {
-						t.insert(context, db);
-
-						// put in idmap
-						taskIDMap.put(c.getLong(0), t._id);
-					}
-
-					// gtask
-					GoogleTask gt = null;
-					if (!c.isNull(7) && !c.getString(7).isEmpty() && !c.isNull(8)
-													&& !c.getString(8).isEmpty()) {
-						gt = new GoogleTask(t, c.getString(8));
-						gt.remoteId = c.getString(7);
-						gt.updated = t.updated;
-						gt.insert(context, db);
-					}
-
-				}
-				c.close();
-			}
-
-			// Then notifications
-			if (!taskIDMap.isEmpty()) {
-				c = getLegacyNotifications(legacyDB);
-
-				while (!c.isClosed() && c.moveToNext()) {
-					// Make sure id exists
-					if (taskIDMap.containsValue(c.getLong(2))) {
-						Notification n = new Notification(taskIDMap.get(c.getLong(2)));
-						n.time = c.getLong(0);
-						// permanent was not supported at the time
-						// insert
-						n.insert(context, db);
-					}
-				}
-				c.close();
-			}
-
-			// Complete, close the legacy db
-			legacyDB.close();
-		} catch (SQLException e) {
-			// Database must have been empty. Ignore it
-			// Test reasons, throw it!
-			// throw e;
-		}
-
-		// If no lists, insert a list and example note.
-
+	/**
+	 * If there are no lists, inserts one to start with
+	 */
+	static void insertDefaultList(final Context context,
+			final SQLiteDatabase db) {
 		Cursor c = db.query(TaskList.TABLE_NAME, TaskList.Columns.FIELDS, null, null, null, null,
 										null);
 
@@ -288,8 +232,6 @@ public class DatabaseHandler extends SQLiteOpenHelper {
 			}
 		}
 		c.close();
-		db.setTransactionSuccessful();
-		db.endTransaction();
 	}
 
 	@Override
@@ -304,10 +246,10 @@ public class DatabaseHandler extends SQLiteOpenHelper {
 			db.execSQL(preName + Notification.Columns.LATITUDE + postReal);
 			db.execSQL(preName + Notification.Columns.LONGITUDE + postReal);
 			db.execSQL(preName + Notification.Columns.RADIUS + postReal);
-			// Drop view
+			// Drop view. Not recreated here since the view now includes
+			// columns added in later versions, and since version 15 it is a
+			// temporary view created on demand.
 			db.execSQL("DROP VIEW IF EXISTS " + Notification.WITH_TASK_VIEW_NAME);
-			// Recreate view with additional tables
-			db.execSQL(Notification.CREATE_JOINED_VIEW);
 		}
 		if (oldVersion < 11) {
 			// Mark as deleted when real item deleted
@@ -334,6 +276,30 @@ public class DatabaseHandler extends SQLiteOpenHelper {
 			// Drop view, changing to temporary view instead
 			db.execSQL("DROP VIEW IF EXISTS " + Notification.WITH_TASK_VIEW_NAME);
 		}
+		if (oldVersion < 16) {
+			// Index used to find the next notification to schedule
+			db.execSQL(Notification.CREATE_TIME_INDEX);
+		}
+		if (oldVersion < 17) {
+			// Precomputed next occurrence of repeating reminders
+			db.execSQL("ALTER TABLE " + Notification.TABLE_NAME + " ADD COLUMN "
+					+ Notification.Columns.NEXT_FIRE + " INTEGER");
+			Notification.recomputeNextFire(db);
+		}
+		if (oldVersion < 18) {
+			// Start of the note, read by lists instead of the whole note
+			db.execSQL("ALTER TABLE " + Task.TABLE_NAME + " ADD COLUMN "
+					+ Task.Columns.PREVIEW + " TEXT NOT NULL DEFAULT ''");
+			db.execSQL(Task.CREATE_PREVIEW_INSERT_TRIGGER);
+			db.execSQL(Task.CREATE_PREVIEW_UPDATE_TRIGGER);
+			db.execSQL(Task.BACKFILL_PREVIEW);
+		}
+		if (oldVersion < 19) {
+			// Indexes backing the pages of lists
+			for (String index : Task.CREATE_LIST_INDEXES) {
+				db.execSQL(index);
+			}
+		}
 	}
 
 }
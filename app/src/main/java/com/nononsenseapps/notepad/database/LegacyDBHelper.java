@@ -3,7 +3,6 @@ package com.nononsenseapps.notepad.database;
 import android.app.SearchManager;
 import android.content.ContentValues;
 import android.content.Context;
-import android.database.Cursor;
 import android.database.SQLException;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
@@ -11,7 +10,6 @@ import android.net.Uri;
 import android.provider.BaseColumns;
 
 import com.nononsenseapps.helpers.Log;
-import com.nononsenseapps.utils.time.RFC3339Date;
 
 /**
  * This class contains the code that has been called over the versions to
@@ -924,45 +922,4 @@ public class LegacyDBHelper extends SQLiteOpenHelper {
 		}
 		return newCols;
 	}
-
-	/** 
-	 * Convert new values to old, but using old or new column names
-	 * 
-	 * TaskProjection: new String[] { "_id", "title", "note", "list", "duedate",
-	 * "gtaskstatus"};
-	 */
-	public static Object[] convertLegacyTaskValues(final Cursor cursor) {
-		Object[] retval = new Object[cursor.getColumnCount()];
-		for (int i = 0; i < cursor.getColumnCount(); i++) {
-			final String colName = cursor.getColumnName(i);
-			final Object val;
-			if (NotePad.Notes.COLUMN_NAME_DUE_DATE.equals(colName) ||
-					Task.Columns.DUE.equals(colName)) {
-				val = cursor.isNull(i) ? "" : RFC3339Date.asRFC3339(cursor.getLong(i));
-			}
-			else if (NotePad.Notes.COLUMN_NAME_GTASKS_STATUS.equals(colName) ||
-					Task.Columns.COMPLETED.equals(colName)) {
-				val = cursor.isNull(i) ? "needsAction" : "completed";
-			}
-			else {
-				switch (cursor.getType(i)) {
-				case Cursor.FIELD_TYPE_FLOAT:
-					val = cursor.getFloat(i);
-					break;
-				case Cursor.FIELD_TYPE_INTEGER:
-					val = cursor.getLong(i);
-					break;
-				case Cursor.FIELD_TYPE_STRING:
-					val = cursor.getString(i);
-					break;
-				case Cursor.FIELD_TYPE_NULL:
-				default:
-					val = null;
-				}
-			}
-			//Log.d("nononsenseapps db", "legacy notes col: " + val);
-			retval[i] = val;
-		}
-		return retval;
-	}
 }
@@ -0,0 +1,527 @@
+/*
+ * Copyright (c) 2014 Jonas Kalderstam.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.nononsenseapps.notepad.database;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteDatabaseLockedException;
+import android.database.sqlite.SQLiteDiskIOException;
+import android.database.sqlite.SQLiteException;
+import android.database.sqlite.SQLiteFullException;
+import android.database.sqlite.SQLiteStatement;
+import android.preference.PreferenceManager;
+import android.util.Log;
+
+import com.nononsenseapps.notepad.sync.googleapi.GoogleTaskList;
+import com.nononsenseapps.utils.time.RFC3339Date;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Copies the database of the old app into a new database. The notes are
+ * copied in batches, each in its own transaction, with compiled statements.
+ * The insert triggers are dropped while copying: tasks get their positions
+ * and previews directly, and search and history rows are added for all
+ * tasks at the end.
+ * <p/>
+ * Progress is kept in the new database, so if the process is killed the
+ * migration continues after the last batch the next time it is run. Until then the database only holds part of the notes.
+ */
+public class LegacyMigration {
+
+    /**
+     * Receives the progress of the migration, on the thread running it
+     */
+    public interface ProgressListener {
+        void onProgress(int done, int total);
+    }
+
+    // Notes copied per transaction
+    static final int BATCH_SIZE = 500;
+
+    private static final String TAG = "nononsenseapps db";
+    // Set once the migration is done, to know without opening the database.
+    // Tests prefix it like the database names.
+    public static final String PREF_DONE = "legacy_migration_done";
+
+    // Id of the last copied note. No row until the lists are copied.
+    private static final String STATE_TABLE_NAME = "legacy_migration";
+    private static final String LIST_MAP_TABLE_NAME = "legacy_list_map";
+    private static final String TASK_MAP_TABLE_NAME = "legacy_task_map";
+    private static final String COL_LAST_NOTE = "last_note";
+    private static final String COL_LEGACY_ID = "legacy_id";
+    private static final String COL_NEW_ID = "new_id";
+
+    private static final String INSERT_TASK = "INSERT INTO "
+            + Task.TABLE_NAME + " (" + DAO.arrayToCommaString(Task.Columns
+            .TITLE, Task.Columns.NOTE, Task.Columns.PREVIEW, Task.Columns
+            .COMPLETED, Task.Columns.UPDATED, Task.Columns.DUE, Task.Columns
+            .LOCKED, Task.Columns.LEFT, Task.Columns.RIGHT, Task.Columns
+            .DBLIST) + ") VALUES (?1, ?2, substr(?2, 1, "
+            + Task.PREVIEW_LENGTH + "), ?3, ?4, ?5, ?6, ?7, ?8, ?9)";
+    private static final String INSERT_REMOTE = "INSERT INTO "
+            + RemoteTask.TABLE_NAME + " (" + DAO.arrayToCommaString
+            (RemoteTask.Columns.DBID, RemoteTask.Columns.LISTDBID, RemoteTask
+                    .Columns.REMOTEID, RemoteTask.Columns.UPDATED, RemoteTask
+                    .Columns.ACCOUNT, RemoteTask.Columns.SERVICE) + ") VALUES " +
+            "(?, ?, ?, ?, ?, ?)";
+
+    private static volatile ProgressListener progressListener = null;
+
+    private final Context context;
+    private final String testPrefix;
+
+    LegacyMigration(final Context context, final String testPrefix) {
+        this.context = context;
+        this.testPrefix = testPrefix;
+    }
+
+    /**
+     * Listener for the progress of migrations, or null for none
+     */
+    public static void setProgressListener(final ProgressListener listener) {
+        progressListener = listener;
+    }
+
+    /**
+     * True if the old database has not been copied yet. See
+     * {@link DatabaseHandler#migrateLegacyDatabase()}, which can take a
+     * while.
+     */
+    public static boolean isPending(final Context context) {
+        return isPending(context, "");
+    }
+
+    public static boolean isPending(final Context context,
+            final String testPrefix) {
+        return hasLegacyDatabase(context, testPrefix) && !PreferenceManager
+                .getDefaultSharedPreferences(context).getBoolean(testPrefix +
+                        PREF_DONE, false);
+    }
+
+    /**
+     * Remembers that nothing is left to copy
+     */
+    static void markDone(final Context context, final String testPrefix) {
+        PreferenceManager.getDefaultSharedPreferences(context).edit()
+                .putBoolean(testPrefix + PREF_DONE, true).commit();
+    }
+
+    static boolean hasLegacyDatabase(final Context context,
+            final String testPrefix) {
+        return context.getDatabasePath(testPrefix + LegacyDBHelper
+                .LEGACY_DATABASE_NAME).exists();
+    }
+
+    static boolean isPending(final SQLiteDatabase db) {
+        return DatabaseUtils.longForQuery(db, "SELECT COUNT(*) FROM " +
+                "sqlite_master WHERE type IS 'table' AND name IS ?",
+                new String[] { STATE_TABLE_NAME }) > 0;
+    }
+
+    /**
+     * Marks a new database to be filled from the old one
+     */
+    static void prepare(final SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE " + STATE_TABLE_NAME + " (" + COL_LAST_NOTE
+                + " INTEGER NOT NULL)");
+        db.execSQL("CREATE TABLE " + LIST_MAP_TABLE_NAME + " ("
+                + COL_LEGACY_ID + " INTEGER PRIMARY KEY, " + COL_NEW_ID
+                + " INTEGER NOT NULL)");
+        db.execSQL("CREATE TABLE " + TASK_MAP_TABLE_NAME + " ("
+                + COL_LEGACY_ID + " INTEGER PRIMARY KEY, " + COL_NEW_ID
+                + " INTEGER NOT NULL)");
+    }
+
+    /**
+     * Copies what is left to copy of the old database
+     */
+    void run(final SQLiteDatabase db) {
+        final SQLiteDatabase legacyDB = openLegacyDatabase();
+        if (legacyDB == null) {
+            // Nothing more can be copied. Keep what could be read.
+            finish(db, null);
+            return;
+        }
+        try {
+            long lastNote = getLastNote(db);
+            if (lastNote < 0) {
+                copyLists(db, legacyDB);
+                lastNote = 0;
+            }
+
+            final int total = (int) DatabaseHandler.countLegacyNotes(
+                    legacyDB, 0);
+            int done = total - (int) DatabaseHandler.countLegacyNotes(
+                    legacyDB, lastNote);
+            publishProgress(done, total);
+
+            final Map<Long, Long> lists = readMap(db, LIST_MAP_TABLE_NAME);
+            final Map<Long, Integer> counts = countTasks(db);
+            while (true) {
+                final Cursor c = DatabaseHandler.getLegacyNotes(legacyDB,
+                        lastNote, BATCH_SIZE);
+                try {
+                    if (c.getCount() == 0) {
+                        break;
+                    }
+                    lastNote = copyNotes(db, c, lists, counts);
+                    done += c.getCount();
+                }
+                finally {
+                    c.close();
+                }
+                publishProgress(done, total);
+            }
+
+            finish(db, legacyDB);
+        }
+        finally {
+            // On errors the state is kept, and the next run continues
+            // after the last copied note
+            legacyDB.close();
+        }
+    }
+
+    /**
+     * @return the old database, or null if it can not be opened or its
+     * tables can not be read
+     */
+    private SQLiteDatabase openLegacyDatabase() {
+        SQLiteDatabase legacyDB = null;
+        try {
+            legacyDB = new LegacyDBHelper(context, testPrefix)
+                    .getReadableDatabase();
+            // Fail here if the tables are missing or broken
+            DatabaseHandler.countLegacyNotes(legacyDB, 0);
+            DatabaseHandler.getLegacyLists(legacyDB).close();
+            DatabaseHandler.getLegacyNotifications(legacyDB).close();
+            return legacyDB;
+        } catch (SQLiteFullException e) {
+            closeQuietly(legacyDB);
+            throw e;
+        } catch (SQLiteDatabaseLockedException e) {
+            closeQuietly(legacyDB);
+            throw e;
+        } catch (SQLiteDiskIOException e) {
+            closeQuietly(legacyDB);
+            throw e;
+        } catch (SQLiteException e) {
+            Log.e(TAG, "Legacy database can not be read", e);
+            closeQuietly(legacyDB);
+            return null;
+        }
+    }
+
+    private static void closeQuietly(final SQLiteDatabase db) {
+        if (db != null) {
+            db.close();
+        }
+    }
+
+    private static void publishProgress(final int done, final int total) {
+        final ProgressListener listener = progressListener;
+        if (listener != null) {
+            listener.onProgress(done, total);
+        }
+    }
+
+    /**
+     * @return id of the last copied note, or -1 if the lists are not copied
+     */
+    private static long getLastNote(final SQLiteDatabase db) {
+        final Cursor c = db.query(STATE_TABLE_NAME, new String[] {
+                COL_LAST_NOTE }, null, null, null, null, null);
+        try {
+            return c.moveToFirst() ? c.getLong(0) : -1;
+        }
+        finally {
+            c.close();
+        }
+    }
+
+    private void copyLists(final SQLiteDatabase db,
+            final SQLiteDatabase legacyDB) {
+        final long now = System.currentTimeMillis();
+        db.beginTransaction();
+        try {
+            final Cursor c = DatabaseHandler.getLegacyLists(legacyDB);
+            try {
+                while (c.moveToNext()) {
+                    final TaskList tl = new TaskList();
+                    tl.title = c.getString(1);
+                    tl.updated = now;
+                    tl._id = db.insertOrThrow(TaskList.TABLE_NAME, null, tl
+                            .getContent());
+                    insertMapping(db, LIST_MAP_TABLE_NAME, c.getLong(0),
+                            tl._id);
+
+                    if (!isEmpty(c, 2) && !isEmpty(c, 3)) {
+                        db.insertOrThrow(RemoteTaskList.TABLE_NAME, null, new
+                                GoogleTaskList(tl._id, c.getString(2), tl
+                                .updated, c.getString(3)).getContent());
+                    }
+                }
+            }
+            finally {
+                c.close();
+            }
+            db.execSQL("INSERT INTO " + STATE_TABLE_NAME + " ("
+                    + COL_LAST_NOTE + ") VALUES (0)");
+            db.setTransactionSuccessful();
+        }
+        finally {
+            db.endTransaction();
+        }
+        TaskListCache.getInstance().invalidateAll();
+    }
+
+    /**
+     * Copies the notes of the cursor in one transaction. Tasks are put
+     * below the ones already copied to their list, and the order is
+     * reversed in the end.
+     *
+     * @param counts number of tasks in each list, updated
+     * @return the id of the last note in the cursor
+     */
+    private static long copyNotes(final SQLiteDatabase db, final Cursor c,
+            final Map<Long, Long> lists, final Map<Long, Integer> counts) {
+        long lastNote = 0;
+        db.beginTransaction();
+        try {
+            Task.beginBulkInsert(db);
+            final SQLiteStatement insertTask = db.compileStatement
+                    (INSERT_TASK);
+            final SQLiteStatement insertRemote = db.compileStatement
+                    (INSERT_REMOTE);
+            final SQLiteStatement insertMapping = compileInsertMapping(db,
+                    TASK_MAP_TABLE_NAME);
+            try {
+                while (c.moveToNext()) {
+                    lastNote = c.getLong(0);
+                    final Long listId = lists.get(c.getLong(5));
+                    if (listId == null) {
+                        continue;
+                    }
+
+                    // Null columns get the defaults of the task table
+                    final long updated = c.getLong(6);
+
+                    insertTask.bindString(1, c.isNull(1) ? "" : c
+                            .getString(1));
+                    insertTask.bindString(2, c.isNull(2) ? "" : c
+                            .getString(2));
+                    // completed must be converted
+                    if ("completed".equals(c.getString(4))) {
+                        insertTask.bindLong(3, System.currentTimeMillis());
+                    } else {
+                        insertTask.bindNull(3);
+                    }
+                    insertTask.bindLong(4, updated);
+                    bindDue(insertTask, 5, c.getString(3));
+                    insertTask.bindLong(6, c.getInt(9));
+                    final Integer count = counts.get(listId);
+                    final int position = count == null ? 0 : count;
+                    counts.put(listId, position + 1);
+                    insertTask.bindLong(7, 2 * position + 1);
+                    insertTask.bindLong(8, 2 * position + 2);
+                    insertTask.bindLong(9, listId);
+                    final long taskId = insertTask.executeInsert();
+
+                    insertMapping.bindLong(1, lastNote);
+                    insertMapping.bindLong(2, taskId);
+                    insertMapping.executeInsert();
+
+                    if (!isEmpty(c, 7) && !isEmpty(c, 8)) {
+                        insertRemote.bindLong(1, taskId);
+                        insertRemote.bindLong(2, listId);
+                        insertRemote.bindString(3, c.getString(7));
+                        insertRemote.bindLong(4, updated);
+                        insertRemote.bindString(5, c.getString(8));
+                        insertRemote.bindString(6, GoogleTaskList.SERVICENAME);
+                        insertRemote.executeInsert();
+                    }
+                }
+            }
+            finally {
+                insertTask.close();
+                insertRemote.close();
+                insertMapping.close();
+            }
+
+            final ContentValues state = new ContentValues();
+            state.put(COL_LAST_NOTE, lastNote);
+            db.update(STATE_TABLE_NAME, state, null, null);
+            Task.endBulkInsert(db);
+            db.setTransactionSuccessful();
+        }
+        finally {
+            db.endTransaction();
+        }
+        return lastNote;
+    }
+
+    private static void bindDue(final SQLiteStatement statement,
+            final int index, final String due) {
+        if (due != null && !due.isEmpty()) {
+            try {
+                statement.bindLong(index, RFC3339Date.parseRFC3339Date(due)
+                        .getTime());
+                return;
+            } catch (Exception e) {
+                // Not a date
+            }
+        }
+        statement.bindNull(index);
+    }
+
+    /**
+     * Copies the reminders, puts the tasks in the order the old app had
+     * them, and adds what the dropped triggers would have. Then removes the
+     * progress tables, in the same transaction.
+     *
+     * @param legacyDB null if the old database can't be read
+     */
+    private void finish(final SQLiteDatabase db,
+            final SQLiteDatabase legacyDB) {
+        db.beginTransaction();
+        try {
+            if (legacyDB != null) {
+                copyReminders(db, legacyDB);
+            }
+            reversePositions(db);
+            Task.indexBulkInserted(db);
+            DatabaseHandler.insertDefaultList(context, db);
+
+            db.execSQL("DROP TABLE " + STATE_TABLE_NAME);
+            db.execSQL("DROP TABLE " + LIST_MAP_TABLE_NAME);
+            db.execSQL("DROP TABLE " + TASK_MAP_TABLE_NAME);
+            db.setTransactionSuccessful();
+        }
+        finally {
+            db.endTransaction();
+        }
+
+        markDone(context, testPrefix);
+    }
+
+    private void copyReminders(final SQLiteDatabase db,
+            final SQLiteDatabase legacyDB) {
+        final Map<Long, Long> tasks = readMap(db, TASK_MAP_TABLE_NAME);
+        if (tasks.isEmpty()) {
+            return;
+        }
+        final Cursor c = DatabaseHandler.getLegacyNotifications(legacyDB);
+        try {
+            while (c.moveToNext()) {
+                final Long taskId = tasks.get(c.getLong(2));
+                if (taskId != null) {
+                    final Notification n = new Notification(taskId);
+                    n.time = c.getLong(0);
+                    // permanent was not supported at the time
+                    db.insertOrThrow(Notification.TABLE_NAME, null, n
+                            .getContent());
+                }
+            }
+        }
+        finally {
+            c.close();
+        }
+    }
+
+    /**
+     * The first task copied to a list was the first in the old app, but got
+     * the lowest position. Flips the positions of every list, one statement
+     * per list.
+     */
+    private static void reversePositions(final SQLiteDatabase db) {
+        final Cursor c = db.rawQuery("SELECT " + Task.Columns.DBLIST
+                + ", MAX(" + Task.Columns.RIGHT + ") FROM " + Task.TABLE_NAME
+                + " GROUP BY " + Task.Columns.DBLIST, null);
+        final SQLiteStatement reverse = db.compileStatement(String.format(
+                "UPDATE %1$s SET %2$s = ? - %3$s, %3$s = ? - %2$s WHERE %4$s IS ?",
+                Task.TABLE_NAME, Task.Columns.LEFT, Task.Columns.RIGHT,
+                Task.Columns.DBLIST));
+        try {
+            while (c.moveToNext()) {
+                final long end = c.getLong(1) + 1;
+                reverse.bindLong(1, end);
+                reverse.bindLong(2, end);
+                reverse.bindLong(3, c.getLong(0));
+                reverse.executeUpdateDelete();
+            }
+        }
+        finally {
+            reverse.close();
+            c.close();
+        }
+    }
+
+    private static Map<Long, Integer> countTasks(final SQLiteDatabase db) {
+        final Map<Long, Integer> counts = new HashMap<Long, Integer>();
+        final Cursor c = db.rawQuery("SELECT " + Task.Columns.DBLIST
+                + ", COUNT(*) FROM " + Task.TABLE_NAME + " GROUP BY "
+                + Task.Columns.DBLIST, null);
+        try {
+            while (c.moveToNext()) {
+                counts.put(c.getLong(0), c.getInt(1));
+            }
+        }
+        finally {
+            c.close();
+        }
+        return counts;
+    }
+
+    private static Map<Long, Long> readMap(final SQLiteDatabase db,
+            final String table) {
+        final Map<Long, Long> map = new HashMap<Long, Long>();
+        final Cursor c = db.query(table, new String[] { COL_LEGACY_ID,
+                COL_NEW_ID }, null, null, null, null, null);
+        try {
+            while (c.moveToNext()) {
+                map.put(c.getLong(0), c.getLong(1));
+            }
+        }
+        finally {
+            c.close();
+        }
+        return map;
+    }
+
+    private static SQLiteStatement compileInsertMapping(
+            final SQLiteDatabase db, final String table) {
+        return db.compileStatement("INSERT INTO " + table + " ("
+                + COL_LEGACY_ID + ", " + COL_NEW_ID + ") VALUES (?, ?)");
+    }
+
+    private static void insertMapping(final SQLiteDatabase db,
+            final String table, final long legacyId, final long newId) {
+        final ContentValues values = new ContentValues();
+        values.put(COL_LEGACY_ID, legacyId);
+        values.put(COL_NEW_ID, newId);
+        db.insertOrThrow(table, null, values);
+    }
+
+    private static boolean isEmpty(final Cursor c, final int column) {
+        return c.isNull(column) || c.getString(column).isEmpty();
+    }
+}
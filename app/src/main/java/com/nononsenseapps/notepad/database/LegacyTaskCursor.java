@@ -0,0 +1,110 @@
+/*
+ * Copyright (c) 2014 Jonas Kalderstam.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.nononsenseapps.notepad.database;
+
+import android.database.CharArrayBuffer;
+import android.database.Cursor;
+import android.database.CursorWrapper;
+
+import com.nononsenseapps.notepad.database.LegacyDBHelper.NotePad;
+import com.nononsenseapps.utils.time.RFC3339Date;
+
+/**
+ * Tasks as the notes of the old app, for the legacy URIs. Query TABLE, which
+ * has the columns of the old notes table, and wrap the result. Due dates
+ * are converted to the strings of the old app as they are read.
+ */
+class LegacyTaskCursor extends CursorWrapper {
+
+    /**
+     * The task table with the old column names added
+     */
+    static final String TABLE = "(SELECT *, "
+            + Task.Columns.DBLIST + " AS " + NotePad.Notes.COLUMN_NAME_LIST
+            + ", " + Task.Columns.DUE + " AS "
+            + NotePad.Notes.COLUMN_NAME_DUE_DATE + ", CASE WHEN "
+            + Task.Columns.COMPLETED + " IS NULL THEN 'needsAction' ELSE " +
+            "'completed' END AS " + NotePad.Notes.COLUMN_NAME_GTASKS_STATUS
+            + ", " + Task.Columns.UPDATED + " AS "
+            + NotePad.Notes.COLUMN_NAME_MODIFICATION_DATE + ", 0 AS "
+            + NotePad.Notes.COLUMN_NAME_DELETED + ", 0 AS "
+            + NotePad.Notes.COLUMN_NAME_HIDDEN + " FROM " + Task.TABLE_NAME
+            + ")";
+
+    /**
+     * Used when the query has no projection
+     */
+    static final String[] DEFAULT_PROJECTION = { NotePad.Notes._ID,
+            NotePad.Notes.COLUMN_NAME_TITLE, NotePad.Notes.COLUMN_NAME_NOTE,
+            NotePad.Notes.COLUMN_NAME_LIST,
+            NotePad.Notes.COLUMN_NAME_DUE_DATE,
+            NotePad.Notes.COLUMN_NAME_GTASKS_STATUS };
+
+    static final String DEFAULT_SORT_ORDER = NotePad.Notes
+            .COLUMN_NAME_DUE_DATE;
+
+    // Columns holding due dates, in milliseconds in the database
+    private final boolean[] dates;
+
+    LegacyTaskCursor(final Cursor cursor) {
+        super(cursor);
+        dates = new boolean[cursor.getColumnCount()];
+        for (int i = 0; i < dates.length; i++) {
+            final String name = cursor.getColumnName(i);
+            dates[i] = NotePad.Notes.COLUMN_NAME_DUE_DATE.equals(name) ||
+                    Task.Columns.DUE.equals(name);
+        }
+    }
+
+    /**
+     * Due dates are RFC 3339 strings, empty if there is none
+     */
+    @Override
+    public String getString(final int column) {
+        if (!dates[column]) {
+            return super.getString(column);
+        }
+        return super.isNull(column) ? "" : RFC3339Date.asRFC3339(super
+                .getLong(column));
+    }
+
+    @Override
+    public void copyStringToBuffer(final int column,
+            final CharArrayBuffer buffer) {
+        if (!dates[column]) {
+            super.copyStringToBuffer(column, buffer);
+            return;
+        }
+        final String value = getString(column);
+        if (buffer.data == null || buffer.data.length < value.length()) {
+            buffer.data = value.toCharArray();
+        } else {
+            value.getChars(0, value.length(), buffer.data, 0);
+        }
+        buffer.sizeCopied = value.length();
+    }
+
+    @Override
+    public boolean isNull(final int column) {
+        return !dates[column] && super.isNull(column);
+    }
+
+    @Override
+    public int getType(final int column) {
+        return dates[column] ? FIELD_TYPE_STRING : super.getType(column);
+    }
+}
@@ -2,25 +2,39 @@ package com.nononsenseapps.notepad.database;
 
 import android.app.SearchManager;
 import android.content.ContentProvider;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
 import android.content.ContentValues;
+import android.content.OperationApplicationException;
 import android.content.UriMatcher;
 import android.database.Cursor;
-import android.database.MatrixCursor;
+import android.database.DatabaseUtils;
 import android.database.SQLException;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteDoneException;
 import android.database.sqlite.SQLiteStatement;
 import android.net.Uri;
+import android.os.Bundle;
+import android.preference.PreferenceManager;
 import android.util.Log;
 
-import com.nononsenseapps.helpers.UpdateNotifier;
+import com.nononsenseapps.notepad.prefs.DebugPrefs;
+import com.nononsenseapps.notepad.widget.WidgetQueryCache;
+import com.nononsenseapps.notepad.widget.WidgetRefreshCoordinator;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Collection;
+import java.util.HashSet;
 
 public class MyContentProvider extends ContentProvider {
 	public static final String AUTHORITY = "com.nononsenseapps.NotePad";
 	public static final String SCHEME = "content://";
 	private static final UriMatcher sURIMatcher = new UriMatcher(
 			UriMatcher.NO_MATCH);
+	// Bulk writes notify single tasks up to this many, else all tasks
+	private static final int MAX_ITEM_NOTIFICATIONS = 20;
 
     static {
         TaskList.addMatcherUris(sURIMatcher);
@@ -40,6 +54,8 @@ public class MyContentProvider extends ContentProvider {
 		case Notification.BASEURICODE:
 		case Notification.WITHTASKQUERYCODE:
 		case Notification.WITHTASKQUERYITEMCODE:
+		case Notification.NEXTTIMEQUERYCODE:
+		case Notification.RECOMPUTECODE:
 			return Notification.CONTENT_TYPE;
 		case TaskList.BASEITEMCODE:
 		case TaskList.BASEURICODE:
@@ -52,6 +68,9 @@ public class MyContentProvider extends ContentProvider {
 		case Task.BASEURICODE:
 		case Task.SECTIONEDDATEITEMCODE:
 		case Task.SECTIONEDDATEQUERYCODE:
+		case Task.LISTQUERYCODE:
+		case Task.PAGEQUERYCODE:
+		case Task.PURGECOMPLETEDCODE:
 		case Task.LEGACYBASEITEMCODE:
 		case Task.LEGACYBASEURICODE:
 		case Task.LEGACYVISIBLEITEMCODE:
@@ -84,15 +103,143 @@ public class MyContentProvider extends ContentProvider {
 
 	@Override
 	public boolean onCreate() {
+		QueryProfiler.setEnabled(PreferenceManager
+				.getDefaultSharedPreferences(getContext()).getBoolean(
+						DebugPrefs.KEY_PROFILER, false));
 		return true;
 	}
 
+	/**
+	 * Applies all operations in a single transaction. Observers and widgets
+	 * are notified once when the batch is done, instead of once per
+	 * operation.
+	 */
 	@Override
-	synchronized public Uri insert(Uri uri, ContentValues values) {
+	synchronized public ContentProviderResult[] applyBatch(
+			ArrayList<ContentProviderOperation> operations)
+			throws OperationApplicationException {
+		final SQLiteDatabase db = DatabaseHandler.getInstance(getContext())
+				.getWritableDatabase();
+		final ChangeCoalescer changes = ChangeCoalescer
+				.getInstance(getContext());
+		changes.beginScope();
+		try {
+			db.beginTransaction();
+			try {
+				final ContentProviderResult[] results = super
+						.applyBatch(operations);
+				db.setTransactionSuccessful();
+				return results;
+			}
+			finally {
+				db.endTransaction();
+			}
+		}
+		finally {
+			changes.endScope();
+		}
+	}
+
+	/**
+	 * Observers are notified once the burst of writes is over. The task
+	 * cache drops stale rows at once.
+	 */
+	private void notifyChange(final Uri uri) {
+		TaskCache.getInstance().onChange(uri);
+		ChangeCoalescer.getInstance(getContext()).notifyChange(uri);
+	}
+
+	/**
+	 * Widgets showing any of the lists will be refreshed. Their shared
+	 * queries are dropped at once, so a widget loading before the refresh
+	 * does not get the old rows.
+	 */
+	private void refreshWidgets(final Collection<Long> listIds) {
+		WidgetQueryCache.getInstance().invalidate(listIds,
+				listIds.contains(WidgetRefreshCoordinator.ALL_LISTS));
+		ChangeCoalescer.getInstance(getContext()).refreshWidgets(listIds);
+	}
+
+	/**
+	 * Returns the list the task belongs to, or ALL_LISTS if not known.
+	 */
+	private static long getListOf(final SQLiteDatabase db, final long taskId) {
+		try {
+			return DatabaseUtils.longForQuery(db, "SELECT "
+					+ Task.Columns.DBLIST + " FROM " + Task.TABLE_NAME
+					+ " WHERE " + Task.Columns._ID + " IS ?",
+					new String[] { Long.toString(taskId) });
+		}
+		catch (SQLiteDoneException e) {
+			return WidgetRefreshCoordinator.ALL_LISTS;
+		}
+	}
+
+	/**
+	 * Adds the URIs of the tasks in the lists. An unknown list means all of
+	 * them.
+	 */
+	private static void addListUris(final Collection<Uri> uris,
+			final Collection<Long> listIds) {
+		for (Long listId : listIds) {
+			if (listId == null
+					|| listId == WidgetRefreshCoordinator.ALL_LISTS) {
+				uris.add(Task.URI_LIST);
+			}
+			else {
+				uris.add(Task.getListUri(listId));
+			}
+		}
+	}
+
+	/**
+	 * Reads a page of the tasks in a list, see {@link TaskPaging}. The sort
+	 * order is given by the uri, and any sort order argument is ignored.
+	 * Without a projection, the columns of Task.Columns.LIST_FIELDS are
+	 * read.
+	 */
+	private Cursor queryPage(final Uri uri, final long listId,
+			final String[] projection, final String selection,
+			final String[] selectionArgs) {
+		final String sort = uri.getQueryParameter(TaskPaging.PARAM_SORT);
+		final String after = uri.getQueryParameter(TaskPaging.PARAM_AFTER);
+		final String limit = uri.getQueryParameter(TaskPaging.PARAM_LIMIT);
+
+		String where = Task.whereListIs(selection);
+		String[] whereArgs = Task.joinArrays(selectionArgs,
+				new String[] { Long.toString(listId) });
+		if (after != null) {
+			where = "(" + where + ") AND " + TaskPaging.getAfterWhere(sort);
+			whereArgs = Task.joinArrays(whereArgs, new String[] { after,
+					after, uri.getQueryParameter(TaskPaging.PARAM_AFTER_ID) });
+		}
+
+		return DatabaseHandler
+				.getInstance(getContext())
+				.getReadableDatabase()
+				.query(Task.TABLE_NAME,
+						projection == null ? Task.Columns.LIST_FIELDS
+								: projection, where, whereArgs, null, null,
+						TaskPaging.getOrderBy(sort),
+						Integer.toString(TaskPaging.parseLimit(limit)));
+	}
+
+	@Override
+	public Uri insert(Uri uri, ContentValues values) {
+		final long start = QueryProfiler.start();
+		final Uri result = doInsert(uri, values);
+		QueryProfiler.recordWrite(QueryProfiler.INSERT,
+				sURIMatcher.match(uri), uri, start, result == null ? 0 : 1);
+		return result;
+	}
+
+	synchronized private Uri doInsert(Uri uri, ContentValues values) {
 		final SQLiteDatabase db = DatabaseHandler.getInstance(getContext())
 				.getWritableDatabase();
 
 		Uri result = null;
+		// Lists shown by widgets which are affected
+		final HashSet<Long> lists = new HashSet<Long>();
 
 		db.beginTransaction();
 		// Do not add legacy URIs
@@ -121,6 +268,12 @@ public class MyContentProvider extends ContentProvider {
 			}
 
 			result = item.insert(getContext(), db);
+			if (item instanceof Task) {
+				lists.add(((Task) item).dblist);
+			}
+			else if (item instanceof TaskList) {
+				lists.add(item._id);
+			}
 			db.setTransactionSuccessful();
 		}
 		catch (SQLException e) {
@@ -131,16 +284,247 @@ public class MyContentProvider extends ContentProvider {
 		}
 
 		if (result != null) {
-			DAO.notifyProviderOnChange(getContext(), uri);
-			DAO.notifyProviderOnChange(getContext(), TaskList.URI_WITH_COUNT);
-			UpdateNotifier.updateWidgets(getContext());
+			notifyChange(result);
+			if (sURIMatcher.match(uri) == Task.BASEURICODE) {
+				// Only the list of the task
+				final ArrayList<Uri> uris = new ArrayList<Uri>();
+				addListUris(uris, lists);
+				for (Uri u : uris) {
+					notifyChange(u);
+				}
+			}
+			else {
+				notifyChange(uri);
+			}
+			if (sURIMatcher.match(uri) == TaskList.BASEURICODE) {
+				TaskListCache.getInstance().invalidate(
+						Long.parseLong(result.getLastPathSegment()));
+			}
+			notifyChange(TaskList.URI_WITH_COUNT);
+			refreshWidgets(lists);
 		}
 
 		return result;
 	}
 
 	@Override
-	synchronized public int update(Uri uri, ContentValues values,
+	public int update(Uri uri, ContentValues values, String selection,
+			String[] selectionArgs) {
+		final long start = QueryProfiler.start();
+		final int result = doUpdate(uri, values, selection, selectionArgs);
+		QueryProfiler.recordWrite(QueryProfiler.UPDATE,
+				sURIMatcher.match(uri), uri, start, result);
+		return result;
+	}
+
+	@Override
+	public Bundle call(String method, String arg, Bundle extras) {
+		if ((Task.METHOD_SET_COMPLETED.equals(method) || Task.METHOD_MOVE_TO_LIST
+				.equals(method))
+				&& (extras == null || extras.getLongArray(Task.EXTRA_IDS) == null)) {
+			throw new IllegalArgumentException("Ids must be given to " + method);
+		}
+		if (Task.METHOD_SET_COMPLETED.equals(method)) {
+			final long start = QueryProfiler.start();
+			final Bundle result = doSetCompleted(
+					extras.getLongArray(Task.EXTRA_IDS),
+					extras.getBoolean(Task.EXTRA_COMPLETED));
+			QueryProfiler.recordWrite(QueryProfiler.UPDATE,
+					Task.BASEURICODE, Task.URI, start, result
+							.getLongArray(Task.EXTRA_IDS).length);
+			return result;
+		}
+		else if (Task.METHOD_MOVE_TO_LIST.equals(method)) {
+			final long start = QueryProfiler.start();
+			final Bundle result = doMoveToList(
+					extras.getLong(Task.EXTRA_TO_LIST),
+					extras.getLongArray(Task.EXTRA_IDS));
+			QueryProfiler.recordWrite(QueryProfiler.UPDATE,
+					Task.BASEURICODE, Task.URI, start, result
+							.getLongArray(Task.EXTRA_IDS).length);
+			return result;
+		}
+		return super.call(method, arg, extras);
+	}
+
+	/**
+	 * Moves the tasks to the top of the list, see Task.moveToList.
+	 *
+	 * @return the ids of the tasks moved, and the list each came from
+	 */
+	synchronized private Bundle doMoveToList(final long toListId,
+			final long[] ids) {
+		final SQLiteDatabase db = DatabaseHandler.getInstance(getContext())
+				.getWritableDatabase();
+		final long[] movedIds = new long[ids.length];
+		final long[] fromLists = new long[ids.length];
+		final int moved;
+		db.beginTransaction();
+		try {
+			moved = Task.moveToList(db, toListId, ids, movedIds, fromLists);
+			db.setTransactionSuccessful();
+		}
+		finally {
+			db.endTransaction();
+		}
+
+		final Bundle result = new Bundle();
+		result.putLongArray(Task.EXTRA_IDS, Arrays.copyOf(movedIds, moved));
+		result.putLongArray(Task.EXTRA_LISTS, Arrays.copyOf(fromLists, moved));
+		if (moved > 0) {
+			final HashSet<Long> lists = new HashSet<Long>();
+			lists.add(toListId);
+			for (int i = 0; i < moved; i++) {
+				lists.add(fromLists[i]);
+			}
+			notifyTaskChanges(movedIds, moved, lists);
+		}
+		return result;
+	}
+
+	/**
+	 * Deletes the completed tasks matching the selection, see
+	 * Task.purgeCompleted.
+	 */
+	private int purgeCompleted(final SQLiteDatabase db,
+			final String selection, final String[] selectionArgs) {
+		final HashSet<Long> lists = new HashSet<Long>();
+		final long[] ids;
+		db.beginTransaction();
+		try {
+			ids = Task.purgeCompleted(db, selection, selectionArgs, lists);
+			db.setTransactionSuccessful();
+		}
+		finally {
+			db.endTransaction();
+		}
+
+		if (ids.length > 0) {
+			notifyChange(Task.URI_DELETED_QUERY);
+			notifyTaskChanges(ids, ids.length, lists);
+		}
+		return ids.length;
+	}
+
+	/**
+	 * Notifications after a bulk write of tasks: counts and history once,
+	 * the tasks, and the lists they are in.
+	 */
+	private void notifyTaskChanges(final long[] ids, final int count,
+			final Collection<Long> lists) {
+		final ArrayList<Uri> uris = new ArrayList<Uri>();
+		uris.add(TaskList.URI_WITH_COUNT);
+		uris.add(Task.URI_TASK_HISTORY);
+		if (count <= MAX_ITEM_NOTIFICATIONS) {
+			for (int i = 0; i < count; i++) {
+				uris.add(Task.getUri(ids[i]));
+			}
+		}
+		else {
+			// Everything about tasks
+			uris.add(Task.URI);
+		}
+		addListUris(uris, lists);
+		for (Uri u : uris) {
+			notifyChange(u);
+		}
+		refreshWidgets(lists);
+	}
+
+	/**
+	 * Completes, or uncompletes, the tasks in one transaction. The ids are
+	 * bound in chunks, so any number of them can be given. Tasks already in
+	 * that state are left alone.
+	 *
+	 * @return the ids of the tasks which changed, and the list of each
+	 */
+	synchronized private Bundle doSetCompleted(final long[] ids,
+			final boolean completed) {
+		final SQLiteDatabase db = DatabaseHandler.getInstance(getContext())
+				.getWritableDatabase();
+		final long now = Calendar.getInstance().getTimeInMillis();
+		final String unchanged = Task.Columns.COMPLETED
+				+ (completed ? " IS NULL" : " IS NOT NULL");
+		final long[] changedIds = new long[ids.length];
+		final long[] changedLists = new long[ids.length];
+		int changed = 0;
+
+		// All full chunks use the same statement
+		SQLiteStatement fullStmt = null;
+		db.beginTransaction();
+		try {
+			for (int from = 0; from < ids.length; from += DAO.MAX_BOUND_IDS) {
+				final int count = Math.min(DAO.MAX_BOUND_IDS, ids.length
+						- from);
+				final String where = DAO.whereIdIn(count) + " AND "
+						+ unchanged;
+
+				// Lists to notify
+				final Cursor c = db.query(Task.TABLE_NAME, new String[] {
+						Task.Columns._ID, Task.Columns.DBLIST }, where,
+						DAO.whereIdInArgs(ids, from, count), null, null, null);
+				try {
+					while (c.moveToNext()) {
+						changedIds[changed] = c.getLong(0);
+						changedLists[changed] = c.getLong(1);
+						changed++;
+					}
+				}
+				finally {
+					c.close();
+				}
+
+				final SQLiteStatement stmt;
+				if (count == DAO.MAX_BOUND_IDS && fullStmt != null) {
+					stmt = fullStmt;
+				}
+				else {
+					stmt = db.compileStatement("UPDATE " + Task.TABLE_NAME
+							+ " SET " + Task.Columns.COMPLETED + " = ?, "
+							+ Task.Columns.UPDATED + " = ? WHERE " + where);
+					if (count == DAO.MAX_BOUND_IDS) {
+						fullStmt = stmt;
+					}
+				}
+				if (completed) {
+					stmt.bindLong(1, now);
+				}
+				else {
+					stmt.bindNull(1);
+				}
+				stmt.bindLong(2, now);
+				for (int i = 0; i < count; i++) {
+					stmt.bindLong(3 + i, ids[from + i]);
+				}
+				stmt.executeUpdateDelete();
+				if (stmt != fullStmt) {
+					stmt.close();
+				}
+			}
+			db.setTransactionSuccessful();
+		}
+		finally {
+			db.endTransaction();
+			if (fullStmt != null) {
+				fullStmt.close();
+			}
+		}
+
+		final Bundle result = new Bundle();
+		result.putLongArray(Task.EXTRA_IDS, Arrays.copyOf(changedIds, changed));
+		result.putLongArray(Task.EXTRA_LISTS,
+				Arrays.copyOf(changedLists, changed));
+		if (changed > 0) {
+			final HashSet<Long> lists = new HashSet<Long>();
+			for (int i = 0; i < changed; i++) {
+				lists.add(changedLists[i]);
+			}
+			notifyTaskChanges(changedIds, changed, lists);
+		}
+		return result;
+	}
+
+	synchronized private int doUpdate(Uri uri, ContentValues values,
 			String selection, String[] selectionArgs) {
 		final SQLiteDatabase db = DatabaseHandler.getInstance(getContext())
 				.getWritableDatabase();
@@ -149,6 +533,7 @@ public class MyContentProvider extends ContentProvider {
 		final SQLiteStatement stmt;
 		final String sql;
         final ArrayList<Uri> updateUris = new ArrayList<Uri>();
+		final HashSet<Long> lists = new HashSet<Long>();
 		db.beginTransaction();
 
 		try {
@@ -158,13 +543,13 @@ public class MyContentProvider extends ContentProvider {
                 updateUris.add(TaskList.URI);
                 updateUris.add(TaskList.URI_WITH_COUNT);
 				final TaskList list = new TaskList(uri, values);
-				result += db.update(TaskList.TABLE_NAME, list.getContent(),
-						TaskList.whereIdIs(selection),
-						TaskList.whereIdArg(list._id, selectionArgs));
+				lists.add(list._id);
+				result += updateItem(db, list.getStatements(),
+						list.getContent(), list._id, selection, selectionArgs);
 				break;
 			case Task.MOVEITEMLEFTCODE:
-                updateUris.add(Task.URI);
 				t = new Task(values);
+				lists.add(t.dblist);
 				sql = t.getSQLMoveItemLeft(values);
 				if (sql != null) {
 					stmt = db.compileStatement(sql);
@@ -172,8 +557,8 @@ public class MyContentProvider extends ContentProvider {
 				}
 				break;
 			case Task.MOVEITEMRIGHTCODE:
-                updateUris.add(Task.URI);
 				t = new Task(values);
+				lists.add(t.dblist);
 				sql = t.getSQLMoveItemRight(values);
 				if (sql != null) {
 					stmt = db.compileStatement(sql);
@@ -181,19 +566,22 @@ public class MyContentProvider extends ContentProvider {
 				}
 				break;
 			case Task.BASEITEMCODE:
-                updateUris.add(Task.URI);
-                updateUris.add(Task.URI_SECTIONED_BY_DATE);
+				// The task and its lists, not the other lists
+				updateUris.add(uri);
                 updateUris.add(Task.URI_TASK_HISTORY);
-                updateUris.add(TaskList.URI);
                 updateUris.add(TaskList.URI_WITH_COUNT);
 				// regular update
 				t = new Task(uri, values);
 				if (t.getContent().size() > 0) {
 					// Something changed in task
+					// Both lists if moved
+					lists.add(getListOf(db, t._id));
+					if (t.dblist != null) {
+						lists.add(t.dblist);
+					}
 
-					result += db.update(Task.TABLE_NAME, t.getContent(),
-							Task.whereIdIs(selection),
-							Task.whereIdArg(t._id, selectionArgs));
+					result += updateItem(db, t.getStatements(),
+							t.getContent(), t._id, selection, selectionArgs);
 				}
 				break;
 			case Task.BASEURICODE:
@@ -201,6 +589,7 @@ public class MyContentProvider extends ContentProvider {
                 updateUris.add(TaskList.URI);
                 updateUris.add(TaskList.URI_WITH_COUNT);
 				// Batch. No checks made
+				lists.add(WidgetRefreshCoordinator.ALL_LISTS);
 				result += db.update(Task.TABLE_NAME, values, selection,
 						selectionArgs);
 				break;
@@ -209,33 +598,41 @@ public class MyContentProvider extends ContentProvider {
                 updateUris.add(Notification.URI);
                 updateUris.add(Notification.URI_WITH_TASK_PATH);
 				// final Notification n = new Notification(uri, values);
-				result += db.update(Notification.TABLE_NAME, values,
-						Notification.whereIdIs(selection), Notification
-								.whereIdArg(Long.parseLong(uri
-										.getLastPathSegment()), selectionArgs));
+				Notification.invalidateNextFire(values);
+				result += updateItem(db, StatementCache.forTable(
+						Notification.TABLE_NAME, Notification.Columns.FIELDS_NO_ID),
+						values, Long.parseLong(uri.getLastPathSegment()),
+						selection, selectionArgs);
 				break;
 			case Notification.BASEURICODE:
                 updateUris.add(Notification.URI);
                 updateUris.add(Notification.URI_WITH_TASK_PATH);
 				// No checks
+				Notification.invalidateNextFire(values);
 				result += db.update(Notification.TABLE_NAME, values, selection,
 						selectionArgs);
 				break;
+			case Notification.RECOMPUTECODE:
+                updateUris.add(Notification.URI);
+                updateUris.add(Notification.URI_WITH_TASK_PATH);
+				// Values are ignored
+				result += Notification.recomputeNextFire(db);
+				break;
 			case RemoteTaskList.BASEITEMCODE:
                 updateUris.add(RemoteTaskList.URI);
-				result += db.update(RemoteTaskList.TABLE_NAME, values,
-                        RemoteTaskList.whereIdIs(selection),
-                        RemoteTaskList.whereIdArg(Long.parseLong(uri
-                                .getLastPathSegment()), selectionArgs)
-                );
+				result += updateItem(db, StatementCache.forTable(
+                        RemoteTaskList.TABLE_NAME,
+                        RemoteTaskList.Columns.FIELDS_NO_ID), values,
+                        Long.parseLong(uri.getLastPathSegment()), selection,
+                        selectionArgs);
                 break;
                 case RemoteTask.BASEITEMCODE:
                     updateUris.add(RemoteTask.URI);
-                    result += db.update(RemoteTask.TABLE_NAME, values,
-                            RemoteTask.whereIdIs(selection),
-                            RemoteTask.whereIdArg(Long.parseLong(uri
-                                    .getLastPathSegment()), selectionArgs)
-                    );
+                    result += updateItem(db, StatementCache.forTable(
+                            RemoteTask.TABLE_NAME,
+                            RemoteTask.Columns.FIELDS_NO_ID), values,
+                            Long.parseLong(uri.getLastPathSegment()),
+                            selection, selectionArgs);
                     break;
                 default:
 				throw new IllegalArgumentException("Faulty URI provided: "
@@ -251,26 +648,64 @@ public class MyContentProvider extends ContentProvider {
 		}
 
 		if (result >= 0) {
+			switch (sURIMatcher.match(uri)) {
+			case TaskList.BASEITEMCODE:
+				TaskListCache.getInstance().invalidate(
+						Long.parseLong(uri.getLastPathSegment()));
+				break;
+			case Task.MOVEITEMLEFTCODE:
+			case Task.MOVEITEMRIGHTCODE:
+			case Task.BASEITEMCODE:
+				addListUris(updateUris, lists);
+				break;
+			default:
+				break;
+			}
             for (Uri u: updateUris) {
-                DAO.notifyProviderOnChange(getContext(), u);
+                notifyChange(u);
             }
-			UpdateNotifier.updateWidgets(getContext());
+			refreshWidgets(lists);
 		}
 
 		return result;
 	}
 
+	/**
+	 * Updates the row with the id. Without a selection, the compiled
+	 * statements of the table are used.
+	 */
+	private static int updateItem(final SQLiteDatabase db,
+			final StatementCache statements, final ContentValues values,
+			final long id, final String selection,
+			final String[] selectionArgs) {
+		if (selection == null) {
+			return statements.update(db, values, id);
+		}
+		return db.update(statements.getTable(), values,
+				DAO.whereIdIs(selection), DAO.whereIdArg(id, selectionArgs));
+	}
+
+	/**
+	 * Deletes the row of the uri. Without a selection, and with statements,
+	 * the compiled statement of the table is used.
+	 */
 	synchronized private int safeDeleteItem(final SQLiteDatabase db,
-			final String tableName, final Uri uri, final String selection,
+			final String tableName, final StatementCache statements,
+			final Uri uri, final String selection,
 			final String[] selectionArgs) {
 		db.beginTransaction();
 		int result = 0;
 		try {
-			result += db.delete(
-					tableName,
-					DAO.whereIdIs(selection),
-					DAO.joinArrays(selectionArgs,
-							new String[] { uri.getLastPathSegment() }));
+			if (selection == null && statements != null) {
+				result += statements.delete(db,
+						Long.parseLong(uri.getLastPathSegment()));
+			} else {
+				result += db.delete(
+						tableName,
+						DAO.whereIdIs(selection),
+						DAO.joinArrays(selectionArgs,
+								new String[] { uri.getLastPathSegment() }));
+			}
 			db.setTransactionSuccessful();
 		}
 		finally {
@@ -281,50 +716,76 @@ public class MyContentProvider extends ContentProvider {
 	}
 
 	@Override
-	synchronized public int delete(Uri uri, String selection,
+	public int delete(Uri uri, String selection, String[] selectionArgs) {
+		final long start = QueryProfiler.start();
+		final int result = doDelete(uri, selection, selectionArgs);
+		QueryProfiler.recordWrite(QueryProfiler.DELETE,
+				sURIMatcher.match(uri), uri, start, result);
+		return result;
+	}
+
+	synchronized private int doDelete(Uri uri, String selection,
 			String[] selectionArgs) {
 		final SQLiteDatabase db = DatabaseHandler.getInstance(getContext())
 				.getWritableDatabase();
 		int result = 0;
+		final HashSet<Long> lists = new HashSet<Long>();
 		// Do not add legacy URIs
 		switch (sURIMatcher.match(uri)) {
 		case TaskList.BASEITEMCODE:
-			result += safeDeleteItem(db, TaskList.TABLE_NAME, uri, selection,
+			lists.add(Long.parseLong(uri.getLastPathSegment()));
+			result += safeDeleteItem(db, TaskList.TABLE_NAME,
+					StatementCache.forTable(TaskList.TABLE_NAME,
+							TaskList.Columns.FIELDS_NO_ID), uri, selection,
 					selectionArgs);
 			break;
 		case TaskList.BASEURICODE:
+			lists.add(WidgetRefreshCoordinator.ALL_LISTS);
 			result += db.delete(TaskList.TABLE_NAME, selection, selectionArgs);
 			break;
 		case Task.BASEITEMCODE:
-			result += safeDeleteItem(db, Task.TABLE_NAME, uri, selection,
+			lists.add(getListOf(db, Long.parseLong(uri.getLastPathSegment())));
+			result += safeDeleteItem(db, Task.TABLE_NAME,
+					StatementCache.forTable(Task.TABLE_NAME,
+							Task.Columns.FIELDS_NO_ID), uri, selection,
 					selectionArgs);
 			break;
 		case Task.BASEURICODE:
+			lists.add(WidgetRefreshCoordinator.ALL_LISTS);
 			result += db.delete(Task.TABLE_NAME, selection, selectionArgs);
 			break;
+		case Task.PURGECOMPLETEDCODE:
+			// Notifies on its own
+			return purgeCompleted(db, selection, selectionArgs);
 		case Notification.BASEURICODE:
 			result += db.delete(Notification.TABLE_NAME, selection,
 					selectionArgs);
 			break;
 		case Notification.BASEITEMCODE:
 		case Notification.WITHTASKQUERYITEMCODE:
-			result += safeDeleteItem(db, Notification.TABLE_NAME, uri,
-					selection, selectionArgs);
+			result += safeDeleteItem(db, Notification.TABLE_NAME,
+					StatementCache.forTable(Notification.TABLE_NAME,
+							Notification.Columns.FIELDS_NO_ID), uri, selection,
+					selectionArgs);
 			break;
 		case RemoteTaskList.BASEURICODE:
 			result += db.delete(RemoteTaskList.TABLE_NAME, selection,
 					selectionArgs);
 			break;
 		case RemoteTaskList.BASEITEMCODE:
-			result += safeDeleteItem(db, RemoteTaskList.TABLE_NAME, uri,
-					selection, selectionArgs);
+			result += safeDeleteItem(db, RemoteTaskList.TABLE_NAME,
+					StatementCache.forTable(RemoteTaskList.TABLE_NAME,
+							RemoteTaskList.Columns.FIELDS_NO_ID), uri, selection,
+					selectionArgs);
 			break;
 		case RemoteTask.BASEURICODE:
 			result += db
 					.delete(RemoteTask.TABLE_NAME, selection, selectionArgs);
 			break;
 		case RemoteTask.BASEITEMCODE:
-			result += safeDeleteItem(db, RemoteTask.TABLE_NAME, uri, selection,
+			result += safeDeleteItem(db, RemoteTask.TABLE_NAME,
+					StatementCache.forTable(RemoteTask.TABLE_NAME,
+							RemoteTask.Columns.FIELDS_NO_ID), uri, selection,
 					selectionArgs);
 			break;
 		case Task.DELETEDQUERYCODE:
@@ -332,7 +793,7 @@ public class MyContentProvider extends ContentProvider {
 					selectionArgs);
 			break;
 		case Task.DELETEDITEMCODE:
-			result += safeDeleteItem(db, Task.DELETE_TABLE_NAME, uri,
+			result += safeDeleteItem(db, Task.DELETE_TABLE_NAME, null, uri,
 					selection, selectionArgs);
 			break;
 		default:
@@ -341,15 +802,46 @@ public class MyContentProvider extends ContentProvider {
 		}
 
 		if (result > 0) {
-			DAO.notifyProviderOnChange(getContext(), uri);
-			DAO.notifyProviderOnChange(getContext(), TaskList.URI_WITH_COUNT);
-			UpdateNotifier.updateWidgets(getContext());
+			notifyChange(uri);
+			notifyChange(TaskList.URI_WITH_COUNT);
+			switch (sURIMatcher.match(uri)) {
+			case TaskList.BASEITEMCODE:
+				TaskListCache.getInstance().invalidate(
+						Long.parseLong(uri.getLastPathSegment()));
+				TaskCache.getInstance().invalidateAll();
+				// Fall through
+			case Task.BASEITEMCODE:
+				// Tasks of the list are gone too
+				final ArrayList<Uri> uris = new ArrayList<Uri>();
+				addListUris(uris, lists);
+				for (Uri u : uris) {
+					notifyChange(u);
+				}
+				break;
+			case TaskList.BASEURICODE:
+				TaskListCache.getInstance().invalidateAll();
+				notifyChange(Task.URI);
+				break;
+			default:
+				break;
+			}
+			refreshWidgets(lists);
 		}
 		return result;
 	}
 
 	@Override
-	synchronized public Cursor query(Uri uri, String[] projection,
+	public Cursor query(Uri uri, String[] projection, String selection,
+			String[] selectionArgs, String sortOrder) {
+		final long start = QueryProfiler.start();
+		final Cursor result = doQuery(uri, projection, selection,
+				selectionArgs, sortOrder);
+		QueryProfiler.recordQuery(getContext(), sURIMatcher.match(uri), uri,
+				start, result);
+		return result;
+	}
+
+	synchronized private Cursor doQuery(Uri uri, String[] projection,
 			String selection, String[] selectionArgs, String sortOrder) {
 		Cursor result = null;
 		final long id;
@@ -423,6 +915,28 @@ public class MyContentProvider extends ContentProvider {
 			result.setNotificationUri(getContext().getContentResolver(),
 					Task.URI);
 			break;
+		case Task.LISTQUERYCODE:
+			id = Long.parseLong(uri.getLastPathSegment());
+			result = DatabaseHandler
+					.getInstance(getContext())
+					.getReadableDatabase()
+					.query(Task.TABLE_NAME,
+							projection,
+							Task.whereListIs(selection),
+							Task.joinArrays(selectionArgs,
+									new String[] { String.valueOf(id) }), null,
+							null, sortOrder);
+			// Only changes in this list
+			result.setNotificationUri(getContext().getContentResolver(), uri);
+			break;
+		case Task.PAGEQUERYCODE:
+			// task/list/#/page
+			id = Long.parseLong(uri.getPathSegments().get(2));
+			result = queryPage(uri, id, projection, selection, selectionArgs);
+			// Any change in the list
+			result.setNotificationUri(getContext().getContentResolver(),
+					Task.getListUri(id));
+			break;
 		case Task.BASEITEMCODE:
 			id = Long.parseLong(uri.getLastPathSegment());
 			result = DatabaseHandler
@@ -451,11 +965,15 @@ public class MyContentProvider extends ContentProvider {
 			DatabaseHandler.getInstance(getContext()).getWritableDatabase()
 					.execSQL(Task.CREATE_SECTIONED_DATE_VIEW(listId));
 
+			// The view only has the preview, already named note
+			final String[] viewProjection = Arrays.equals(projection,
+					Task.Columns.LIST_FIELDS) ? Task.Columns.FIELDS
+					: projection;
 			result = DatabaseHandler
 					.getInstance(getContext())
 					.getReadableDatabase()
 					.query(Task.getSECTION_DATE_VIEW_NAME(listId),
-							projection,
+							viewProjection,
 							selection,
 							selectionArgs,
 							null,
@@ -463,8 +981,10 @@ public class MyContentProvider extends ContentProvider {
 							Task.SECRET_TYPEID + "," + Task.Columns.DUE + ","
 									+ Task.SECRET_TYPEID2);
 
+			// Only changes in the shown list, or any list if all are shown
 			result.setNotificationUri(getContext().getContentResolver(),
-					Task.URI);
+					listId == null ? Task.URI_LIST : Uri.withAppendedPath(
+							Task.URI_LIST, listId));
 			break;
 		case Task.HISTORYQUERYCODE:
 			result = DatabaseHandler
@@ -525,6 +1045,19 @@ public class MyContentProvider extends ContentProvider {
 							selection, selectionArgs, null, null, sortOrder);
 			result.setNotificationUri(getContext().getContentResolver(), uri);
 			break;
+		case Notification.NEXTTIMEQUERYCODE:
+			// Selection is fixed, only the time argument is used.
+			// Uses the time index, so no need to read the whole table.
+			result = DatabaseHandler
+					.getInstance(getContext())
+					.getReadableDatabase()
+					.query(Notification.TABLE_NAME,
+							new String[] { Notification.Columns.TIME },
+							Notification.NEXT_TIME_WHERE, selectionArgs, null,
+							null, Notification.Columns.TIME, "1");
+			result.setNotificationUri(getContext().getContentResolver(),
+					Notification.URI);
+			break;
 		case RemoteTaskList.BASEURICODE:
 			result = DatabaseHandler
 					.getInstance(getContext())
@@ -546,7 +1079,7 @@ public class MyContentProvider extends ContentProvider {
 					.getInstance(getContext())
 					.getReadableDatabase()
 					.query(Task.TABLE_NAME,
-							Task.Columns.FIELDS,
+							Task.Columns.LIST_FIELDS,
 							Task.Columns._ID + " IN (SELECT "
 									+ Task.Columns._ID + " FROM "
 									+ Task.FTS3_TABLE_NAME + " WHERE "
@@ -584,19 +1117,16 @@ public class MyContentProvider extends ContentProvider {
 			break;
 		case Task.LEGACYBASEURICODE:
 		case Task.LEGACYVISIBLEURICODE:
-			final Cursor c = DatabaseHandler
+			// Converted as rows are read
+			result = new LegacyTaskCursor(DatabaseHandler
 					.getInstance(getContext())
 					.getReadableDatabase()
-					.query(Task.TABLE_NAME,
-							LegacyDBHelper.convertLegacyColumns(projection),
-							null, null, null, null, Task.Columns.DUE);
-			result = new MatrixCursor(projection);
-			while (c.moveToNext()) {
-				((MatrixCursor) result).addRow(LegacyDBHelper
-						.convertLegacyTaskValues(c));
-			}
-			c.close();
-
+					.query(LegacyTaskCursor.TABLE,
+							projection != null ? projection
+									: LegacyTaskCursor.DEFAULT_PROJECTION,
+							selection, selectionArgs, null, null,
+							sortOrder != null ? sortOrder
+									: LegacyTaskCursor.DEFAULT_SORT_ORDER));
 			result.setNotificationUri(getContext().getContentResolver(),
 					Task.URI);
 			break;
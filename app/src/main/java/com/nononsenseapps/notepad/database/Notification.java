@@ -3,6 +3,7 @@ package com.nononsenseapps.notepad.database;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Calendar;
+import java.util.Collection;
 import java.util.Date;
 import java.util.GregorianCalendar;
 import java.util.List;
@@ -17,13 +18,18 @@ import com.nononsenseapps.ui.WeekDaysView;
 import com.nononsenseapps.util.GeofenceRemover;
 import com.nononsenseapps.utils.views.GreyableToggleButton;
 
+import android.content.ContentProviderOperation;
 import android.content.ContentValues;
 import android.content.Context;
+import android.content.OperationApplicationException;
 import android.content.SharedPreferences;
 import android.content.UriMatcher;
 import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
 import android.net.Uri;
 import android.os.AsyncTask;
+import android.os.RemoteException;
 import android.preference.PreferenceManager;
 import android.provider.BaseColumns;
 import android.text.format.DateFormat;
@@ -48,6 +54,8 @@ public class Notification extends DAO {
 	public static final String TABLE_NAME = "notification";
 	public static final String WITH_TASK_VIEW_NAME = "notification_with_tasks";
 	public static final String WITH_TASK_PATH = TABLE_NAME + "/with_task_info";
+	public static final String NEXT_TIME_PATH = TABLE_NAME + "/next_time";
+	public static final String RECOMPUTE_PATH = TABLE_NAME + "/recompute_next_fire";
 
 	public static final String CONTENT_TYPE = "vnd.android.cursor.item/vnd.nononsenseapps."
 									+ TABLE_NAME;
@@ -61,10 +69,24 @@ public class Notification extends DAO {
 																	+ MyContentProvider.AUTHORITY),
 									WITH_TASK_PATH);
 
+	// Returns the time of the next notification to fire, if any
+	public static final Uri URI_NEXT_TIME = Uri.withAppendedPath(
+									Uri.parse(MyContentProvider.SCHEME
+																	+ MyContentProvider.AUTHORITY),
+									NEXT_TIME_PATH);
+
+	// Update this to recompute next_fire of all repeating notifications
+	public static final Uri URI_RECOMPUTE_NEXT_FIRE = Uri.withAppendedPath(
+									Uri.parse(MyContentProvider.SCHEME
+																	+ MyContentProvider.AUTHORITY),
+									RECOMPUTE_PATH);
+
 	public static final int BASEURICODE = 301;
 	public static final int BASEITEMCODE = 302;
 	public static final int WITHTASKQUERYCODE = 303;
 	public static final int WITHTASKQUERYITEMCODE = 304;
+	public static final int NEXTTIMEQUERYCODE = 305;
+	public static final int RECOMPUTECODE = 306;
 
 	public static void addMatcherUris(UriMatcher sURIMatcher) {
 		sURIMatcher.addURI(MyContentProvider.AUTHORITY, TABLE_NAME, BASEURICODE);
@@ -72,6 +94,8 @@ public class Notification extends DAO {
 		sURIMatcher.addURI(MyContentProvider.AUTHORITY, WITH_TASK_PATH, WITHTASKQUERYCODE);
 		sURIMatcher.addURI(MyContentProvider.AUTHORITY, WITH_TASK_PATH + "/#",
 										WITHTASKQUERYITEMCODE);
+		sURIMatcher.addURI(MyContentProvider.AUTHORITY, NEXT_TIME_PATH, NEXTTIMEQUERYCODE);
+		sURIMatcher.addURI(MyContentProvider.AUTHORITY, RECOMPUTE_PATH, RECOMPUTECODE);
 	}
 
 	public static Uri getUri(final long id) {
@@ -91,9 +115,13 @@ public class Notification extends DAO {
 		public static final String LONGITUDE = "longitude";
 		public static final String RADIUS = "radius";
 		public static final String LOCATIONNAME = "locationname";
+		// Occurrence following time, for repeating notifications
+		public static final String NEXT_FIRE = "next_fire";
 
 		public static final String[] FIELDS = { _ID, TIME, PERMANENT, TASKID, REPEATS,
-										LOCATIONNAME, LATITUDE, LONGITUDE, RADIUS };
+										LOCATIONNAME, LATITUDE, LONGITUDE, RADIUS, NEXT_FIRE };
+		public static final String[] FIELDS_NO_ID = { TIME, PERMANENT, TASKID, REPEATS,
+										LOCATIONNAME, LATITUDE, LONGITUDE, RADIUS, NEXT_FIRE };
 	}
 
 	public static class ColumnsWithTask extends Columns {
@@ -137,12 +165,35 @@ public class Notification extends DAO {
 									.append(" REAL, ")
 									.append(Columns.RADIUS)
 									.append(" REAL, ")
+									.append(Columns.NEXT_FIRE)
+									.append(" INTEGER, ")
 									// Foreign key for task
 									.append("FOREIGN KEY(").append(Columns.TASKID)
 									.append(") REFERENCES ").append(Task.TABLE_NAME).append("(")
 									.append(Task.Columns._ID).append(") ON DELETE CASCADE")
 									.append(")").toString();
 
+	/**
+	 * Makes finding the next notification to schedule a quick lookup
+	 */
+	public static final String CREATE_TIME_INDEX = new StringBuilder(
+									"CREATE INDEX IF NOT EXISTS ").append(TABLE_NAME)
+									.append("_time_index ON ").append(TABLE_NAME).append("(")
+									.append(Columns.TIME).append(")").toString();
+
+	/**
+	 * Selection used by URI_NEXT_TIME. First (and only) argument is the
+	 * time after which to look. Reminders whose task is gone are skipped,
+	 * like the joined view does, so they can't schedule an alarm.
+	 */
+	public static final String NEXT_TIME_WHERE = new StringBuilder()
+									.append(Columns.TIME).append(" > ? AND ")
+									.append(Columns.RADIUS).append(" IS NULL AND EXISTS (SELECT 1 FROM ")
+									.append(Task.TABLE_NAME).append(" WHERE ")
+									.append(Task.TABLE_NAME).append(".").append(Task.Columns._ID)
+									.append(" = ").append(TABLE_NAME).append(".")
+									.append(Columns.TASKID).append(")").toString();
+
 	/**
 	 * View that joins relevant data from tasks and lists tables
 	 */
@@ -186,6 +237,9 @@ public class Notification extends DAO {
 	public Double longitude = null;
 	public Double radius = null;
 
+	// Precomputed, see Columns.NEXT_FIRE
+	public Long nextFire = null;
+
 	// Read only, fetched from VIEW
 	public String listTitle = null;
 	public Long listID = null;
@@ -212,9 +266,10 @@ public class Notification extends DAO {
 		latitude = c.isNull(6) ? null : c.getDouble(6);
 		longitude = c.isNull(7) ? null : c.getDouble(7);
 		radius = c.isNull(8) ? null : c.getDouble(8);
+		nextFire = c.isNull(9) ? null : c.getLong(9);
 		// if cursor has more fields, then assume it was constructed with
 		// the WITH_TASKS view query
-		if (c.getColumnCount() > 9) {
+		if (c.getColumnCount() > Columns.FIELDS.length) {
 			listTitle = c.getString(c.getColumnIndex(ColumnsWithTask.listPrefix
 											+ TaskList.Columns.TITLE));
 			listID = c.getLong(c.getColumnIndex(ColumnsWithTask.listPrefix + TaskList.Columns._ID));
@@ -261,6 +316,7 @@ public class Notification extends DAO {
 		latitude = values.getAsDouble(Columns.LATITUDE);
 		longitude = values.getAsDouble(Columns.LONGITUDE);
 		radius = values.getAsDouble(Columns.RADIUS);
+		nextFire = values.getAsLong(Columns.NEXT_FIRE);
 	}
 
 	@Override
@@ -275,6 +331,7 @@ public class Notification extends DAO {
 		values.put(Columns.LATITUDE, latitude);
 		values.put(Columns.LONGITUDE, longitude);
 		values.put(Columns.RADIUS, radius);
+		values.put(Columns.NEXT_FIRE, getNextFire(new GregorianCalendar()));
 
 		return values;
 
@@ -285,6 +342,11 @@ public class Notification extends DAO {
 		return TABLE_NAME;
 	}
 
+	@Override
+	protected String[] getFieldsNoId() {
+		return Columns.FIELDS_NO_ID;
+	}
+
 	@Override
 	public String getContentType() {
 		return CONTENT_TYPE;
@@ -414,11 +476,18 @@ public class Notification extends DAO {
                         + idStrings,
                         null, null);
 
-        while (c.moveToNext()) {
-            // Yes dont just call delete in database
-            // We have to remove geofences (in delete)
-            Notification n = new Notification(c);
-            n.delete(context);
+        // One notification of observers for all of them
+        final ChangeCoalescer changes = ChangeCoalescer.getInstance(context);
+        changes.beginScope();
+        try {
+            while (c.moveToNext()) {
+                // Yes dont just call delete in database
+                // We have to remove geofences (in delete)
+                Notification n = new Notification(c);
+                n.delete(context);
+            }
+        } finally {
+            changes.endScope();
         }
         c.close();
     }
@@ -436,6 +505,72 @@ public class Notification extends DAO {
 		c.close();
 	}
 
+	/**
+	 * Delete or reschedule the notifications with the given ids.
+	 */
+	public static void deleteOrReschedule(final Context context, final long... ids) {
+		if (ids.length == 0) {
+			return;
+		}
+		final ArrayList<Notification> notifications = new ArrayList<Notification>();
+		for (int from = 0; from < ids.length; from += MAX_BOUND_IDS) {
+			final int count = Math.min(MAX_BOUND_IDS, ids.length - from);
+			final Cursor c = context.getContentResolver().query(URI, Columns.FIELDS,
+											whereIdIn(count), whereIdInArgs(ids, from, count), null);
+			while (c.moveToNext()) {
+				notifications.add(new Notification(c));
+			}
+			c.close();
+		}
+
+		deleteOrReschedule(context, notifications);
+	}
+
+	/**
+	 * Delete or reschedule all the notifications in one batch, which the
+	 * provider applies in a single transaction.
+	 */
+	public static void deleteOrReschedule(final Context context,
+									final Collection<Notification> notifications) {
+		final ArrayList<ContentProviderOperation> ops = new ArrayList<ContentProviderOperation>();
+		final ArrayList<String> idsToClear = new ArrayList<String>();
+		final Calendar cal = Calendar.getInstance();
+		final long now = cal.getTimeInMillis();
+
+		for (Notification n : notifications) {
+			if (n.isLocationRepeat()) {
+				continue;
+			}
+			NotificationHelper.cancelNotification(context, n);
+
+			final long next = n.getRescheduleTime(cal, now);
+			if (next < 0) {
+				idsToClear.add(Long.toString(n._id));
+				ops.add(ContentProviderOperation.newDelete(n.getUri()).build());
+			} else {
+				n.time = next;
+				ops.add(ContentProviderOperation.newUpdate(n.getUri())
+												.withValues(n.getContent()).build());
+			}
+		}
+
+		if (ops.isEmpty()) {
+			return;
+		}
+		try {
+			context.getContentResolver().applyBatch(MyContentProvider.AUTHORITY, ops);
+		} catch (RemoteException e) {
+			Log.e("nononsenseapps db", "Failed to reschedule notifications", e);
+		} catch (OperationApplicationException e) {
+			Log.e("nononsenseapps db", "Failed to reschedule notifications", e);
+		}
+
+		if (idsToClear.size() > 0) {
+			// Same as delete does
+			GeofenceRemover.removeFences(context, idsToClear);
+		}
+	}
+
 	/**
 	 * Starts a background task that removes all notifications associated with
 	 * the specified tasks up to the specified time.
@@ -562,6 +697,83 @@ public class Notification extends DAO {
 																		.toString());
 	}
 
+	/**
+	 * Returns the time of the first notification occurring after specified
+	 * time, and which does not have a location (radius == null). Null if
+	 * there is no such notification.
+	 */
+	public static Long getNextTime(final Context context, final long time) {
+		Long result = null;
+		final Cursor c = context.getContentResolver().query(URI_NEXT_TIME,
+										new String[] { Columns.TIME }, null,
+										new String[] { Long.toString(time) }, null);
+
+		if (c != null) {
+			if (c.moveToFirst() && !c.isNull(0)) {
+				result = c.getLong(0);
+			}
+			c.close();
+		}
+		return result;
+	}
+
+	/**
+	 * Recomputes next_fire of all repeating notifications. Needed when the
+	 * time zone has changed.
+	 */
+	public static int recomputeNextFire(final Context context) {
+		return context.getContentResolver().update(URI_RECOMPUTE_NEXT_FIRE,
+										new ContentValues(), null, null);
+	}
+
+	/**
+	 * Recomputes next_fire of all repeating notifications, using a single
+	 * statement and calendar. Caller handles the transaction.
+	 */
+	static int recomputeNextFire(final SQLiteDatabase db) {
+		final Calendar cal = Calendar.getInstance();
+		final SQLiteStatement stmt = db.compileStatement(new StringBuilder("UPDATE ")
+										.append(TABLE_NAME).append(" SET ").append(Columns.NEXT_FIRE)
+										.append(" = ? WHERE ").append(Columns._ID).append(" IS ?")
+										.toString());
+		final Cursor c = db.query(TABLE_NAME, new String[] { Columns._ID, Columns.TIME,
+										Columns.REPEATS }, new StringBuilder(Columns.TIME)
+										.append(" IS NOT NULL AND ").append(Columns.REPEATS)
+										.append(" != 0 AND (").append(Columns.REPEATS).append(" & ")
+										.append(locationRepeat).append(") = 0").toString(), null,
+										null, null, null);
+		int result = 0;
+		try {
+			while (c.moveToNext()) {
+				final long next = getNextOccurrence(cal, c.getLong(1), c.getLong(2),
+												c.getLong(1));
+				if (next < 0) {
+					stmt.bindNull(1);
+				} else {
+					stmt.bindLong(1, next);
+				}
+				stmt.bindLong(2, c.getLong(0));
+				result += stmt.executeUpdateDelete();
+			}
+		} finally {
+			c.close();
+			stmt.close();
+		}
+		return result;
+	}
+
+	/**
+	 * A partial update of time or repeats makes next_fire stale. Clear it
+	 * so it is computed when needed instead.
+	 */
+	static void invalidateNextFire(final ContentValues values) {
+		if (!values.containsKey(Columns.NEXT_FIRE)
+										&& (values.containsKey(Columns.TIME) || values
+																		.containsKey(Columns.REPEATS))) {
+			values.putNull(Columns.NEXT_FIRE);
+		}
+	}
+
 	public static List<Notification> getNotificationsWithTasks(final Context context,
 									final String where, final String[] whereArgs,
 									final String sortOrder) {
@@ -644,35 +856,78 @@ public class Notification extends DAO {
 	 * week as given by Calendar.getField(DayOfWeek)
 	 */
 	public boolean repeatsOn(final int calendarDay) {
-		int day;
-
-		switch (calendarDay) {
-		case Calendar.MONDAY:
-			day = WeekDaysView.mon;
-			break;
-		case Calendar.TUESDAY:
-			day = WeekDaysView.tue;
-			break;
-		case Calendar.WEDNESDAY:
-			day = WeekDaysView.wed;
-			break;
-		case Calendar.THURSDAY:
-			day = WeekDaysView.thu;
-			break;
-		case Calendar.FRIDAY:
-			day = WeekDaysView.fri;
-			break;
-		case Calendar.SATURDAY:
-			day = WeekDaysView.sat;
-			break;
-		case Calendar.SUNDAY:
-			day = WeekDaysView.sun;
-			break;
-		default:
-			day = 0;
+		return (0 < (getDayBit(calendarDay) & repeats));
+	}
+
+	/**
+	 * Returns the bit used in repeats for the given day of the week, as given
+	 * by Calendar.get(DAY_OF_WEEK). Same values as {@link WeekDaysView}.
+	 */
+	public static int getDayBit(final int calendarDay) {
+		if (calendarDay < Calendar.SUNDAY || calendarDay > Calendar.SATURDAY) {
+			return 0;
 		}
+		// Four bits per day, starting at monday
+		return 1 << (4 * ((calendarDay + 5) % 7));
+	}
 
-		return (0 < (day & repeats));
+	/**
+	 * Returns the number of days, at least minDays, from the given day of the
+	 * week until a day which is set in repeats. -1 if no days are set.
+	 * Does not allocate anything.
+	 */
+	public static int daysUntilRepeat(final long repeats, final int calendarDay,
+									final int minDays) {
+		for (int i = minDays; i < minDays + 7; i++) {
+			// Calendar days are 1-7
+			if (0 < (repeats & getDayBit((calendarDay - 1 + i) % 7 + 1))) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Returns the first time after the specified time which has the same
+	 * time of day as time, and falls on a day set in repeats. -1 if no days
+	 * are set. The calendar is reused so bulk updates don't allocate one per
+	 * row.
+	 */
+	public static long getNextOccurrence(final Calendar cal, final long time,
+									final long repeats, final long after) {
+		cal.setTimeInMillis(time);
+		final int hour = cal.get(Calendar.HOUR_OF_DAY);
+		final int minute = cal.get(Calendar.MINUTE);
+		final int second = cal.get(Calendar.SECOND);
+		final int milli = cal.get(Calendar.MILLISECOND);
+
+		cal.setTimeInMillis(after);
+		cal.set(Calendar.HOUR_OF_DAY, hour);
+		cal.set(Calendar.MINUTE, minute);
+		cal.set(Calendar.SECOND, second);
+		cal.set(Calendar.MILLISECOND, milli);
+
+		// Today only if the time is actually later
+		final int days = daysUntilRepeat(repeats, cal.get(Calendar.DAY_OF_WEEK),
+										cal.getTimeInMillis() > after ? 0 : 1);
+		if (days < 0) {
+			return -1;
+		}
+		// Keeps time of day across daylight savings changes
+		cal.add(Calendar.DAY_OF_MONTH, days);
+		return cal.getTimeInMillis();
+	}
+
+	/**
+	 * Returns the occurrence following this notification's time, or null
+	 * if it does not repeat on any days.
+	 */
+	private Long getNextFire(final Calendar cal) {
+		if (time == null || repeats == 0 || isLocationRepeat()) {
+			return null;
+		}
+		final long next = getNextOccurrence(cal, time, repeats, time);
+		return next < 0 ? null : next;
 	}
 
 	public void deleteOrReschedule(final Context context) {
@@ -680,42 +935,32 @@ public class Notification extends DAO {
 			return;
 		}
 
-		if (repeats == 0 || time == null) {
+		final long next = getRescheduleTime(new GregorianCalendar(), Calendar
+										.getInstance().getTimeInMillis());
+		// Just in case of faulty repeat codes
+		if (next < 0) {
 			delete(context);
 		} else {
-			// Need to set the correct time, but using today as the date
-			// Because no sense in setting reminders in the past
-			GregorianCalendar gcOrgTime = new GregorianCalendar();
-			gcOrgTime.setTimeInMillis(time);
-			// Use today's date
-			GregorianCalendar gc = new GregorianCalendar();
-			final long now = gc.getTimeInMillis();
-			// With original time
-			gc.set(GregorianCalendar.HOUR_OF_DAY, gcOrgTime.get(GregorianCalendar.HOUR_OF_DAY));
-			gc.set(GregorianCalendar.MINUTE, gcOrgTime.get(GregorianCalendar.MINUTE));
-			// Save as base
-			final long base = gc.getTimeInMillis();
-
-			// Check today if the time is actually in the future
-			final int start = now < base ? 0 : 1;
-			final long oneDay = 24 * 60 * 60 * 1000;
-			boolean done = false;
-			for (int i = start; i <= 7; i++) {
-				gc.setTimeInMillis(base + i * oneDay);
-
-				if (repeatsOn(gc.get(GregorianCalendar.DAY_OF_WEEK))) {
-					done = true;
-					time = gc.getTimeInMillis();
-					save(context);
-					break;
-				}
+			time = next;
+			save(context);
+		}
+	}
 
-			}
-			// Just in case of faulty repeat codes
-			if (!done) {
-				delete(context);
-			}
+	/**
+	 * Returns the time a shown notification should be moved to, or -1 if it
+	 * should be deleted.
+	 */
+	private long getRescheduleTime(final Calendar cal, final long now) {
+		if (repeats == 0 || time == null) {
+			return -1;
+		}
+		// Normally precomputed
+		long next = nextFire == null ? -1 : nextFire;
+		if (next <= now) {
+			// No sense in setting reminders in the past
+			next = getNextOccurrence(cal, time, repeats, now);
 		}
+		return next;
 	}
 
 	public String getRepeatAsText(final Context context) {
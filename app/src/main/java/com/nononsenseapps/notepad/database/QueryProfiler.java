@@ -0,0 +1,375 @@
+/*
+ * Copyright (c) 2014 Jonas Kalderstam.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.nononsenseapps.notepad.database;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteCursor;
+import android.database.sqlite.SQLiteCursorDriver;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteException;
+import android.database.sqlite.SQLiteQuery;
+import android.net.Uri;
+import android.os.Looper;
+import android.util.Log;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.Locale;
+import java.util.TreeMap;
+
+/**
+ * Optional instrumentation of the provider. Records the latency, row counts
+ * and calling thread of every provider call, per operation and URI code.
+ * Queries slower than the threshold are logged with their query plan.
+ * <p/>
+ * Disabled by default, in which case it costs a volatile read per call.
+ */
+public class QueryProfiler {
+
+    private static final String TAG = "nononsenseapps profiler";
+
+    public static final String QUERY = "query";
+    public static final String INSERT = "insert";
+    public static final String UPDATE = "update";
+    public static final String DELETE = "delete";
+
+    /**
+     * Returned by {@link #start()} when profiling is disabled
+     */
+    public static final long DISABLED = 0;
+    public static final long DEFAULT_SLOW_MS = 50;
+    // Upper limits of the histogram buckets. The last bucket has no limit.
+    static final long[] BUCKET_LIMITS_MS = {1, 2, 5, 10, 20, 50, 100, 200,
+            500, 1000};
+    private static final int MAX_SLOW_QUERIES = 20;
+
+    private static volatile boolean enabled = false;
+    private static volatile long slowMs = DEFAULT_SLOW_MS;
+
+    // Statement of the last cursor created on this thread
+    private static final ThreadLocal<String> lastSql = new
+            ThreadLocal<String>();
+
+    // Guarded by the class
+    private static final TreeMap<String, Stats> stats = new TreeMap<String,
+            Stats>();
+    private static final LinkedList<SlowQuery> slowQueries = new
+            LinkedList<SlowQuery>();
+
+    /**
+     * Creates the cursors of the database, and remembers their statements
+     * while profiling.
+     */
+    public static final SQLiteDatabase.CursorFactory CURSOR_FACTORY = new
+            SQLiteDatabase.CursorFactory() {
+        @Override
+        public Cursor newCursor(final SQLiteDatabase db,
+                final SQLiteCursorDriver driver, final String editTable,
+                final SQLiteQuery query) {
+            if (enabled) {
+                // "SQLiteQuery: SELECT ..."
+                final String s = query.toString();
+                final int i = s.indexOf(": ");
+                lastSql.set(i < 0 ? s : s.substring(i + 2));
+            }
+            return new SQLiteCursor(driver, editTable, query);
+        }
+    };
+
+    private static class Stats {
+        final String operation;
+        final int code;
+        final String path;
+        long calls = 0;
+        long mainThreadCalls = 0;
+        long totalNanos = 0;
+        long maxNanos = 0;
+        long rows = 0;
+        final long[] histogram = new long[BUCKET_LIMITS_MS.length + 1];
+
+        Stats(final String operation, final int code, final String path) {
+            this.operation = operation;
+            this.code = code;
+            this.path = path;
+        }
+    }
+
+    private static class SlowQuery {
+        final int code;
+        final String sql;
+        final long ms;
+        final boolean mainThread;
+        final ArrayList<String> plan;
+
+        SlowQuery(final int code, final String sql, final long ms,
+                final boolean mainThread, final ArrayList<String> plan) {
+            this.code = code;
+            this.sql = sql;
+            this.ms = ms;
+            this.mainThread = mainThread;
+            this.plan = plan;
+        }
+    }
+
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    public static void setEnabled(final boolean enabled) {
+        QueryProfiler.enabled = enabled;
+    }
+
+    /**
+     * @param ms calls slower than this are logged
+     */
+    public static void setSlowThreshold(final long ms) {
+        slowMs = ms;
+    }
+
+    /**
+     * Call before the operation.
+     *
+     * @return start time, or {@link #DISABLED}
+     */
+    public static long start() {
+        if (!enabled) {
+            return DISABLED;
+        }
+        lastSql.set(null);
+        return System.nanoTime();
+    }
+
+    /**
+     * Records a query. Counting the rows runs the query, which the caller
+     * would have done anyway.
+     */
+    public static void recordQuery(final Context context, final int code,
+            final Uri uri, final long start, final Cursor result) {
+        if (start == DISABLED) {
+            return;
+        }
+        final int rows = result == null ? 0 : result.getCount();
+        final long nanos = record(QUERY, code, uri, start, rows);
+
+        final long ms = nanos / 1000000;
+        if (ms >= slowMs) {
+            final String sql = lastSql.get();
+            final ArrayList<String> plan = explain(context, sql);
+            final boolean mainThread = isMainThread();
+            Log.w(TAG, "Slow query (" + ms + " ms" + (mainThread ?
+                    ", main thread" : "") + "): " + uri + "\n" + sql + "\n" +
+                    plan);
+            synchronized (QueryProfiler.class) {
+                slowQueries.addLast(new SlowQuery(code, sql, ms,
+                        mainThread, plan));
+                if (slowQueries.size() > MAX_SLOW_QUERIES) {
+                    slowQueries.removeFirst();
+                }
+            }
+        }
+    }
+
+    /**
+     * Records an insert, update or delete.
+     *
+     * @param rows number of affected rows
+     */
+    public static void recordWrite(final String operation, final int code,
+            final Uri uri, final long start, final int rows) {
+        if (start == DISABLED) {
+            return;
+        }
+        final long nanos = record(operation, code, uri, start, rows);
+        if (nanos / 1000000 >= slowMs) {
+            Log.w(TAG, "Slow " + operation + " (" + nanos / 1000000 + " ms" +
+                    (isMainThread() ? ", main thread" : "") + "): " + uri);
+        }
+    }
+
+    private static long record(final String operation, final int code,
+            final Uri uri, final long start, final int rows) {
+        final long nanos = System.nanoTime() - start;
+        final boolean mainThread = isMainThread();
+        final String key = operation + " " + code;
+        synchronized (QueryProfiler.class) {
+            Stats s = stats.get(key);
+            if (s == null) {
+                s = new Stats(operation, code, getPath(uri));
+                stats.put(key, s);
+            }
+            s.calls++;
+            if (mainThread) {
+                s.mainThreadCalls++;
+            }
+            s.totalNanos += nanos;
+            s.maxNanos = Math.max(s.maxNanos, nanos);
+            s.rows += rows;
+            s.histogram[getBucket(nanos / 1000000)]++;
+        }
+        return nanos;
+    }
+
+    static int getBucket(final long ms) {
+        for (int i = 0; i < BUCKET_LIMITS_MS.length; i++) {
+            if (ms < BUCKET_LIMITS_MS[i]) {
+                return i;
+            }
+        }
+        return BUCKET_LIMITS_MS.length;
+    }
+
+    /**
+     * Path of the uri with ids replaced by #, as in the URI matcher
+     */
+    static String getPath(final Uri uri) {
+        if (uri == null || uri.getPath() == null) {
+            return "";
+        }
+        return uri.getPath().replaceAll("/\\d+", "/#");
+    }
+
+    private static boolean isMainThread() {
+        return Looper.myLooper() == Looper.getMainLooper();
+    }
+
+    private static ArrayList<String> explain(final Context context,
+            final String sql) {
+        final ArrayList<String> plan = new ArrayList<String>();
+        if (sql == null) {
+            return plan;
+        }
+        try {
+            // Unbound arguments are null, which is fine for the plan
+            final Cursor c = DatabaseHandler.getInstance(context)
+                    .getReadableDatabase().rawQuery("EXPLAIN QUERY PLAN " +
+                            sql, null);
+            try {
+                final int detail = c.getColumnIndex("detail");
+                while (c.moveToNext()) {
+                    plan.add(c.getString(detail < 0 ? c.getColumnCount() - 1
+                            : detail));
+                }
+            } finally {
+                c.close();
+            }
+        } catch (SQLiteException e) {
+            plan.add("Could not explain: " + e.getMessage());
+        }
+        return plan;
+    }
+
+    public static synchronized void reset() {
+        stats.clear();
+        slowQueries.clear();
+    }
+
+    /**
+     * @return number of recorded calls of the operation on the code
+     */
+    public static synchronized long getCalls(final String operation,
+            final int code) {
+        final Stats s = stats.get(operation + " " + code);
+        return s == null ? 0 : s.calls;
+    }
+
+    /**
+     * @return a human readable summary of all recorded calls
+     */
+    public static synchronized String getReport() {
+        final StringBuilder sb = new StringBuilder();
+        for (Stats s : stats.values()) {
+            sb.append(String.format(Locale.US,
+                    "%s %s (%d): %d calls, %d on main thread, avg %.1f ms, " +
+                            "max %.1f ms, %d rows\n", s.operation, s.path,
+                    s.code, s.calls, s.mainThreadCalls, s.totalNanos / 1e6 /
+                            Math.max(1, s.calls), s.maxNanos / 1e6, s.rows));
+            for (int i = 0; i < s.histogram.length; i++) {
+                if (s.histogram[i] == 0) {
+                    continue;
+                }
+                sb.append("  ").append(i < BUCKET_LIMITS_MS.length ? "<" +
+                        BUCKET_LIMITS_MS[i] : ">=" +
+                        BUCKET_LIMITS_MS[BUCKET_LIMITS_MS.length - 1])
+                        .append(" ms: ").append(s.histogram[i]).append("\n");
+            }
+        }
+        if (!slowQueries.isEmpty()) {
+            sb.append("\nSlow queries:\n");
+            for (SlowQuery q : slowQueries) {
+                sb.append(q.ms).append(" ms (").append(q.code).append("): ")
+                        .append(q.sql).append("\n");
+                for (String step : q.plan) {
+                    sb.append("  ").append(step).append("\n");
+                }
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * @return all recorded calls, for attaching to bug reports
+     */
+    public static synchronized JSONObject toJSON() throws JSONException {
+        final JSONObject json = new JSONObject();
+        json.put("enabled", enabled);
+        json.put("slowThresholdMs", slowMs);
+
+        final JSONArray limits = new JSONArray();
+        for (long limit : BUCKET_LIMITS_MS) {
+            limits.put(limit);
+        }
+        json.put("bucketLimitsMs", limits);
+
+        final JSONArray calls = new JSONArray();
+        for (Stats s : stats.values()) {
+            final JSONObject o = new JSONObject();
+            o.put("operation", s.operation);
+            o.put("code", s.code);
+            o.put("path", s.path);
+            o.put("calls", s.calls);
+            o.put("mainThreadCalls", s.mainThreadCalls);
+            o.put("totalMs", s.totalNanos / 1e6);
+            o.put("maxMs", s.maxNanos / 1e6);
+            o.put("rows", s.rows);
+            final JSONArray histogram = new JSONArray();
+            for (long count : s.histogram) {
+                histogram.put(count);
+            }
+            o.put("histogram", histogram);
+            calls.put(o);
+        }
+        json.put("calls", calls);
+
+        final JSONArray slow = new JSONArray();
+        for (SlowQuery q : slowQueries) {
+            final JSONObject o = new JSONObject();
+            o.put("code", q.code);
+            o.put("sql", q.sql);
+            o.put("ms", q.ms);
+            o.put("mainThread", q.mainThread);
+            o.put("plan", new JSONArray(q.plan));
+            slow.put(o);
+        }
+        json.put("slowQueries", slow);
+        return json;
+    }
+}
@@ -9,6 +9,7 @@ import android.content.ContentValues;
 import android.content.Context;
 import android.content.UriMatcher;
 import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
 import android.net.Uri;
 import android.provider.BaseColumns;
 
@@ -58,6 +59,8 @@ public class RemoteTask extends DAO {
 
 		public static final String[] FIELDS = { _ID, DBID, REMOTEID, UPDATED,
 				ACCOUNT, LISTDBID, DELETED, FIELD2, FIELD3, FIELD4, FIELD5, SERVICE };
+		public static final String[] FIELDS_NO_ID = { DBID, REMOTEID, UPDATED,
+				ACCOUNT, LISTDBID, DELETED, FIELD2, FIELD3, FIELD4, FIELD5, SERVICE };
 	}
 
 	/**
@@ -98,9 +101,11 @@ public class RemoteTask extends DAO {
 	/*
 	 * Trigger to delete items when their real items are deleted
 	 */
+	static final String TRIGGER_REALDELETE_MARK_NAME = "trigger_real_deletemark_"
+			+ TABLE_NAME;
 	public static final String TRIGGER_REALDELETE_MARK = new StringBuilder()
-			.append("CREATE TRIGGER trigger_real_deletemark_")
-			.append(TABLE_NAME).append(" AFTER DELETE ON ")
+			.append("CREATE TRIGGER ").append(TRIGGER_REALDELETE_MARK_NAME)
+			.append(" AFTER DELETE ON ")
 			.append(Task.TABLE_NAME).append(" BEGIN ").append(" UPDATE ")
 			.append(TABLE_NAME).append(" SET ").append(Columns.DELETED)
 			.append(" = 'deleted' ").append(" WHERE ").append(Columns.DBID)
@@ -110,8 +115,10 @@ public class RemoteTask extends DAO {
 	/*
 	 * Trigger to move between lists
 	 */
+	static final String TRIGGER_MOVE_LIST_NAME = "trigger_move_list_"
+			+ TABLE_NAME;
 	public static final String TRIGGER_MOVE_LIST = new StringBuilder()
-			.append("CREATE TRIGGER trigger_move_list_").append(TABLE_NAME)
+			.append("CREATE TRIGGER ").append(TRIGGER_MOVE_LIST_NAME)
 			.append(" AFTER UPDATE OF ").append(Task.Columns.DBLIST)
 			.append(" ON ").append(Task.TABLE_NAME).append(" WHEN old.")
 			.append(Task.Columns.DBLIST).append(" IS NOT new.")
@@ -121,6 +128,22 @@ public class RemoteTask extends DAO {
 			.append(" WHERE ").append(Columns.DBID).append(" IS old.")
 			.append(Task.Columns._ID).append(";").append(" END;").toString();
 
+	/**
+	 * Does what TRIGGER_MOVE_LIST does, for the first count task ids.
+	 */
+	static void markMoved(final SQLiteDatabase db, final long[] taskIds,
+			final int count) {
+		for (int from = 0; from < count; from += MAX_BOUND_IDS) {
+			final int chunk = Math.min(MAX_BOUND_IDS, count - from);
+			db.execSQL(new StringBuilder("UPDATE ").append(TABLE_NAME)
+					.append(" SET ").append(Columns.DELETED)
+					.append(" = 'deleted', ").append(Columns.DBID)
+					.append(" = -99 WHERE ")
+					.append(whereIn(Columns.DBID, chunk)).toString(),
+					whereIdInArgs(taskIds, from, chunk));
+		}
+	}
+
 	// milliseconds since 1970-01-01 UTC
 	public Long updated = null;
 
@@ -257,6 +280,11 @@ public class RemoteTask extends DAO {
 		return TABLE_NAME;
 	}
 
+	@Override
+	protected String[] getFieldsNoId() {
+		return Columns.FIELDS_NO_ID;
+	}
+
 	@Override
 	public String getContentType() {
 		return CONTENT_TYPE;
@@ -58,6 +58,9 @@ public class RemoteTaskList extends DAO {
 		public static final String[] FIELDS = { _ID, DBID, REMOTEID, 
 			UPDATED, ACCOUNT, DELETED, FIELD2,
 			FIELD3, FIELD4, FIELD5, SERVICE };
+		public static final String[] FIELDS_NO_ID = { DBID, REMOTEID,
+			UPDATED, ACCOUNT, DELETED, FIELD2,
+			FIELD3, FIELD4, FIELD5, SERVICE };
 	}
 
 	/**
@@ -205,6 +208,11 @@ public class RemoteTaskList extends DAO {
 		return TABLE_NAME;
 	}
 
+	@Override
+	protected String[] getFieldsNoId() {
+		return Columns.FIELDS_NO_ID;
+	}
+
 	@Override
 	public String getContentType() {
 		return CONTENT_TYPE;
@@ -0,0 +1,216 @@
+/*
+ * Copyright (c) 2014 Jonas Kalderstam.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.nononsenseapps.notepad.database;
+
+import android.content.ContentValues;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.util.SparseArray;
+
+import java.util.HashMap;
+
+/**
+ * Compiled statements writing single rows of one table, by id. The
+ * statements are generated from the columns of the table, with the values
+ * bound by position, and compiled once for every combination of columns
+ * written instead of on every write.
+ * <p/>
+ * Values with columns not in the table's list are written without the
+ * cache. The statements belong to one database, and are compiled again if
+ * another one is used. Writes are serialized per table, as the statements
+ * hold their arguments.
+ */
+class StatementCache {
+
+    private static final HashMap<String, StatementCache> caches = new
+            HashMap<String, StatementCache>();
+
+    /**
+     * The cache of the table
+     *
+     * @param columns every column which can be written, without the id
+     */
+    static StatementCache forTable(final String table,
+            final String[] columns) {
+        synchronized (caches) {
+            StatementCache cache = caches.get(table);
+            if (cache == null) {
+                cache = new StatementCache(table, columns);
+                caches.put(table, cache);
+            }
+            return cache;
+        }
+    }
+
+    private final String table;
+    private final String[] columns;
+    // By the columns written, as a bit mask of their indices
+    private final SparseArray<SQLiteStatement> inserts = new
+            SparseArray<SQLiteStatement>();
+    private final SparseArray<SQLiteStatement> updates = new
+            SparseArray<SQLiteStatement>();
+    private SQLiteStatement delete = null;
+    private SQLiteDatabase db = null;
+
+    private StatementCache(final String table, final String[] columns) {
+        if (columns.length > 31) {
+            throw new IllegalArgumentException("Too many columns in " + table);
+        }
+        this.table = table;
+        this.columns = columns;
+    }
+
+    String getTable() {
+        return table;
+    }
+
+    /**
+     * Inserts a row, and returns its id. Throws if the insert fails.
+     */
+    synchronized long insert(final SQLiteDatabase db,
+            final ContentValues values) {
+        final int mask = getMask(values);
+        if (mask <= 0) {
+            return db.insertOrThrow(table, null, values);
+        }
+        use(db);
+        SQLiteStatement insert = inserts.get(mask);
+        if (insert == null) {
+            final StringBuilder sql = new StringBuilder("INSERT INTO ")
+                    .append(table).append(" (");
+            final StringBuilder args = new StringBuilder();
+            for (int i = 0; i < columns.length; i++) {
+                if ((mask & (1 << i)) != 0) {
+                    if (args.length() > 0) {
+                        sql.append(",");
+                        args.append(",");
+                    }
+                    sql.append(columns[i]);
+                    args.append("?");
+                }
+            }
+            sql.append(") VALUES (").append(args).append(")");
+            insert = db.compileStatement(sql.toString());
+            inserts.put(mask, insert);
+        }
+        bind(insert, mask, values);
+        return insert.executeInsert();
+    }
+
+    /**
+     * Updates the row with the id, and returns the number of rows changed
+     */
+    synchronized int update(final SQLiteDatabase db,
+            final ContentValues values, final long id) {
+        final int mask = getMask(values);
+        if (mask <= 0) {
+            return db.update(table, values, DAO.whereIdIs(null), DAO
+                    .whereIdArg(id));
+        }
+        use(db);
+        SQLiteStatement update = updates.get(mask);
+        if (update == null) {
+            final StringBuilder sql = new StringBuilder("UPDATE ").append
+                    (table).append(" SET ");
+            boolean first = true;
+            for (int i = 0; i < columns.length; i++) {
+                if ((mask & (1 << i)) != 0) {
+                    if (!first) {
+                        sql.append(",");
+                    }
+                    sql.append(columns[i]).append(" = ?");
+                    first = false;
+                }
+            }
+            sql.append(" WHERE ").append(DAO.whereIdIs(null));
+            update = db.compileStatement(sql.toString());
+            updates.put(mask, update);
+        }
+        final int count = bind(update, mask, values);
+        update.bindLong(count + 1, id);
+        return update.executeUpdateDelete();
+    }
+
+    /**
+     * Deletes the row with the id, and returns the number of rows deleted
+     */
+    synchronized int delete(final SQLiteDatabase db, final long id) {
+        use(db);
+        if (delete == null) {
+            delete = db.compileStatement("DELETE FROM " + table + " WHERE "
+                    + DAO.whereIdIs(null));
+        }
+        delete.bindLong(1, id);
+        return delete.executeUpdateDelete();
+    }
+
+    /**
+     * Returns the columns of values as a bit mask of their indices, or -1
+     * if a column is not in the list. 0 if values are empty.
+     */
+    private int getMask(final ContentValues values) {
+        int mask = 0;
+        int found = 0;
+        for (int i = 0; i < columns.length; i++) {
+            if (values.containsKey(columns[i])) {
+                mask |= 1 << i;
+                found++;
+            }
+        }
+        return found == values.size() ? mask : -1;
+    }
+
+    /**
+     * Binds the values of the columns in mask, in order of the columns.
+     * Returns the number of arguments bound.
+     */
+    private int bind(final SQLiteStatement statement, final int mask,
+            final ContentValues values) {
+        statement.clearBindings();
+        int index = 0;
+        for (int i = 0; i < columns.length; i++) {
+            if ((mask & (1 << i)) != 0) {
+                DatabaseUtils.bindObjectToProgram(statement, ++index, values
+                        .get(columns[i]));
+            }
+        }
+        return index;
+    }
+
+    /**
+     * Drops the statements of another database
+     */
+    private void use(final SQLiteDatabase db) {
+        if (this.db == db) {
+            return;
+        }
+        for (int i = 0; i < inserts.size(); i++) {
+            inserts.valueAt(i).close();
+        }
+        for (int i = 0; i < updates.size(); i++) {
+            updates.valueAt(i).close();
+        }
+        inserts.clear();
+        updates.clear();
+        if (delete != null) {
+            delete.close();
+            delete = null;
+        }
+        this.db = db;
+    }
+}
@@ -1,7 +1,12 @@
 package com.nononsenseapps.notepad.database;
 
 import java.security.InvalidParameterException;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Calendar;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
 
 import org.json.JSONException;
 import org.json.JSONObject;
@@ -12,8 +17,11 @@ import android.content.ContentValues;
 import android.content.Context;
 import android.content.UriMatcher;
 import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
 import android.net.Uri;
 import android.os.AsyncTask;
+import android.os.Bundle;
 import android.provider.BaseColumns;
 import android.text.format.Time;
 import android.util.Log;
@@ -78,6 +86,31 @@ public class Task extends DAO {
 		return Uri.withAppendedPath(URI, Long.toString(id));
 	}
 
+	// Tasks of a single list. Loaders showing one list register on it, so
+	// changes in other lists do not requery them.
+	private static final String LIST_PATH = "list";
+	public static final Uri URI_LIST = Uri.withAppendedPath(URI, LIST_PATH);
+
+	public static Uri getListUri(final long listId) {
+		return Uri.withAppendedPath(URI_LIST, Long.toString(listId));
+	}
+
+	/**
+	 * Append where list is ? to string
+	 */
+	public static String whereListIs(final String orgWhere) {
+		final StringBuilder sb = new StringBuilder();
+		if (orgWhere != null) {
+			sb.append("(");
+			sb.append(orgWhere);
+			sb.append(") AND ");
+		}
+		// Not IS, older SQLite versions do not use indexes for it. The list
+		// is never null.
+		sb.append(Columns.DBLIST).append(" = ?");
+		return sb.toString();
+	}
+
 	public static final int BASEURICODE = 201;
 	public static final int BASEITEMCODE = 202;
 	public static final int DELETEDQUERYCODE = 209;
@@ -87,6 +120,9 @@ public class Task extends DAO {
 	public static final int HISTORYQUERYCODE = 213;
 	public static final int MOVEITEMLEFTCODE = 214;
 	public static final int MOVEITEMRIGHTCODE = 215;
+	public static final int LISTQUERYCODE = 216;
+	public static final int PAGEQUERYCODE = 217;
+	public static final int PURGECOMPLETEDCODE = 218;
 	// Legacy support, these also need to use legacy projections
 	public static final int LEGACYBASEURICODE = 221;
 	public static final int LEGACYBASEITEMCODE = 222;
@@ -102,6 +138,11 @@ public class Task extends DAO {
 		sURIMatcher.addURI(MyContentProvider.AUTHORITY, TABLE_NAME + "/#",
 				BASEITEMCODE);
 
+		sURIMatcher.addURI(MyContentProvider.AUTHORITY, TABLE_NAME + "/"
+				+ LIST_PATH + "/#", LISTQUERYCODE);
+		sURIMatcher.addURI(MyContentProvider.AUTHORITY, TABLE_NAME + "/"
+				+ LIST_PATH + "/#/" + TaskPaging.PAGE_PATH, PAGEQUERYCODE);
+
 		sURIMatcher.addURI(MyContentProvider.AUTHORITY, TABLE_NAME + "/"
 				+ MOVEITEMLEFT + "/#", MOVEITEMLEFTCODE);
 		sURIMatcher.addURI(MyContentProvider.AUTHORITY, TABLE_NAME + "/"
@@ -109,6 +150,8 @@ public class Task extends DAO {
 
 		sURIMatcher.addURI(MyContentProvider.AUTHORITY, TABLE_NAME + "/"
 				+ DELETEDQUERY, DELETEDQUERYCODE);
+		sURIMatcher.addURI(MyContentProvider.AUTHORITY, TABLE_NAME + "/"
+				+ PURGECOMPLETED, PURGECOMPLETEDCODE);
 		sURIMatcher.addURI(MyContentProvider.AUTHORITY, TABLE_NAME + "/"
 				+ DELETEDQUERY + "/#", DELETEDITEMCODE);
 
@@ -147,15 +190,33 @@ public class Task extends DAO {
 	private static final String MOVEITEMLEFT = "moveitemleft";
 	private static final String MOVEITEMRIGHT = "moveitemright";
 	private static final String DELETEDQUERY = "deletedquery";
+	private static final String PURGECOMPLETED = "purgecompleted";
+	// Temporary table of the tasks being purged
+	private static final String PURGE_TABLE_NAME = "temp.purge_task";
 
 	// Special URI to look at backup table
 	public static final Uri URI_DELETED_QUERY = Uri.withAppendedPath(URI,
 			DELETEDQUERY);
 
+	// Delete here to remove completed tasks matching the selection, see
+	// purgeCompleted
+	public static final Uri URI_PURGE_COMPLETED = Uri.withAppendedPath(URI,
+			PURGECOMPLETED);
+
 	// Query the view with date section headers
 	public static final Uri URI_SECTIONED_BY_DATE = Uri.withAppendedPath(URI,
 			SECTIONED_DATE_VIEW);
 
+	// Provider method completing tasks, see setCompletedSynced
+	public static final String METHOD_SET_COMPLETED = "set_completed";
+	// Its arguments. The result has the ids which changed, and their lists.
+	public static final String EXTRA_IDS = "ids";
+	public static final String EXTRA_COMPLETED = "completed";
+	public static final String EXTRA_LISTS = "lists";
+	// Provider method moving tasks, see moveToListSynced. Takes EXTRA_IDS.
+	public static final String METHOD_MOVE_TO_LIST = "move_to_list";
+	public static final String EXTRA_TO_LIST = "to_list";
+
 	// Query for history of tasks
 	public static final Uri URI_TASK_HISTORY = Uri.withAppendedPath(URI,
 			HISTORY_TABLE_NAME);
@@ -204,6 +265,8 @@ public class Task extends DAO {
 
 		public static final String TITLE = "title";
 		public static final String NOTE = "note";
+		// Start of the note, set by triggers
+		public static final String PREVIEW = "preview";
 		public static final String DBLIST = "dblist";
 		public static final String COMPLETED = "completed";
 		public static final String DUE = "due";
@@ -219,6 +282,12 @@ public class Task extends DAO {
 				DUE, UPDATED, LEFT, RIGHT, DBLIST, LOCKED };
 		public static final String[] SHALLOWFIELDS = { _ID, TITLE, NOTE,
 				DBLIST, COMPLETED, DUE, UPDATED, LOCKED };
+		// Same as FIELDS, but only the preview is read as the note. For lists,
+		// where a few lines are shown. Tasks read with it should not be
+		// saved.
+		public static final String[] LIST_FIELDS = { _ID, TITLE,
+				PREVIEW + " AS " + NOTE, COMPLETED, DUE, UPDATED, LEFT, RIGHT,
+				DBLIST, LOCKED };
 		public static final String TRIG_DELETED = "deletedtime";
 		public static final String HIST_TASK_ID = "taskid";
 		// Used to read the table. Deleted field set by database
@@ -245,6 +314,8 @@ public class Task extends DAO {
 			.append(" TEXT NOT NULL DEFAULT '',")
 			.append(Columns.NOTE)
 			.append(" TEXT NOT NULL DEFAULT '',")
+			.append(Columns.PREVIEW)
+			.append(" TEXT NOT NULL DEFAULT '',")
 			// These are all msec times
 			.append(Columns.COMPLETED)
 			.append(" INTEGER DEFAULT NULL,")
@@ -284,6 +355,26 @@ public class Task extends DAO {
 
 			.toString();
 
+	/**
+	 * Indexes backing the pages of a list, one per sort order of TaskPaging.
+	 * Rows of a list are found, and read in order, without scanning and
+	 * sorting the whole table.
+	 */
+	public static final String[] CREATE_LIST_INDEXES = {
+			createListIndex("position", Columns.LEFT),
+			createListIndex("updated", Columns.UPDATED),
+			createListIndex("due", Columns.DUE),
+			createListIndex("title", Columns.TITLE + " COLLATE NOCASE") };
+
+	private static String createListIndex(final String name,
+			final String key) {
+		return new StringBuilder("CREATE INDEX IF NOT EXISTS ")
+				.append(TABLE_NAME).append("_list_").append(name)
+				.append("_index ON ").append(TABLE_NAME).append("(")
+				.append(Columns.DBLIST).append(",").append(key).append(",")
+				.append(Columns._ID).append(")").toString();
+	}
+
 	// Delete table has no constraints. In fact, list values and positions
 	// should not even be thought of as valid.
 	public static final String CREATE_DELETE_TABLE = new StringBuilder(
@@ -335,8 +426,10 @@ public class Task extends DAO {
 			
 			.append(" BEGIN ").append(HISTORY_TRIGGER_BODY).append(" END;")
 			.toString();
+	static final String HISTORY_INSERT_TRIGGER_NAME = "trigger_insert_"
+			+ HISTORY_TABLE_NAME;
 	public static final String CREATE_HISTORY_INSERT_TRIGGER = new StringBuilder(
-			"CREATE TRIGGER trigger_insert_").append(HISTORY_TABLE_NAME)
+			"CREATE TRIGGER ").append(HISTORY_INSERT_TRIGGER_NAME)
 			.append(" AFTER INSERT ON ").append(TABLE_NAME).append(" BEGIN ")
 			.append(HISTORY_TRIGGER_BODY).append(" END;").toString();
 
@@ -383,8 +476,10 @@ public class Task extends DAO {
 			+ FTS3_TABLE_NAME + " USING FTS3(" + Columns._ID + ", "
 			+ Columns.TITLE + ", " + Columns.NOTE + ");";
 
+	static final String FTS3_INSERT_TRIGGER_NAME = "task_fts3_insert";
 	public static final String CREATE_FTS3_INSERT_TRIGGER = new StringBuilder()
-			.append("CREATE TRIGGER task_fts3_insert AFTER INSERT ON ")
+			.append("CREATE TRIGGER ").append(FTS3_INSERT_TRIGGER_NAME)
+			.append(" AFTER INSERT ON ")
 			.append(TABLE_NAME)
 			.append(" BEGIN ")
 			.append(" INSERT INTO ")
@@ -407,13 +502,43 @@ public class Task extends DAO {
 			.append(Columns._ID).append(" IS new.").append(Columns._ID)
 			.append(";").append(" END;").toString();
 
+	static final String FTS3_DELETE_TRIGGER_NAME = "task_fts3_delete";
 	public static final String CREATE_FTS3_DELETE_TRIGGER = new StringBuilder()
-			.append("CREATE TRIGGER task_fts3_delete AFTER DELETE ON ")
+			.append("CREATE TRIGGER ").append(FTS3_DELETE_TRIGGER_NAME)
+			.append(" AFTER DELETE ON ")
 			.append(TABLE_NAME).append(" BEGIN ").append(" DELETE FROM ")
 			.append(FTS3_TABLE_NAME).append(" WHERE ").append(Columns._ID)
 			.append(" IS old.").append(Columns._ID).append(";").append(" END;")
 			.toString();
 
+	/**
+	 * Number of characters of the note kept in the preview. More than the
+	 * lists show at their largest row height.
+	 */
+	public static final int PREVIEW_LENGTH = 400;
+	static final String PREVIEW_TRIGGER_BODY = new StringBuilder(" UPDATE ")
+			.append(TABLE_NAME).append(" SET ").append(Columns.PREVIEW)
+			.append(" = substr(new.").append(Columns.NOTE).append(", 1, ")
+			.append(PREVIEW_LENGTH).append(") WHERE ").append(Columns._ID)
+			.append(" IS new.").append(Columns._ID).append(";").toString();
+	static final String PREVIEW_INSERT_TRIGGER_NAME = "task_preview_insert";
+	public static final String CREATE_PREVIEW_INSERT_TRIGGER = new StringBuilder()
+			.append("CREATE TRIGGER ").append(PREVIEW_INSERT_TRIGGER_NAME)
+			.append(" AFTER INSERT ON ")
+			.append(TABLE_NAME).append(" BEGIN ").append(PREVIEW_TRIGGER_BODY)
+			.append(" END;").toString();
+	public static final String CREATE_PREVIEW_UPDATE_TRIGGER = new StringBuilder()
+			.append("CREATE TRIGGER task_preview_update AFTER UPDATE OF ")
+			.append(Columns.NOTE).append(" ON ").append(TABLE_NAME)
+			.append(" BEGIN ").append(PREVIEW_TRIGGER_BODY).append(" END;")
+			.toString();
+	// Fills in the preview of existing tasks
+	public static final String BACKFILL_PREVIEW = new StringBuilder(
+			"UPDATE ").append(TABLE_NAME).append(" SET ")
+			.append(Columns.PREVIEW).append(" = substr(")
+			.append(Columns.NOTE).append(", 1, ").append(PREVIEW_LENGTH)
+			.append(")").toString();
+
 	/**
 	 * This is a view which returns the tasks in the specified list with headers
 	 * suitable for dates, if any tasks would be sorted under them. Provider
@@ -429,7 +554,7 @@ public class Task extends DAO {
 				.append(getSECTION_DATE_VIEW_NAME(listId))
 				// Tasks WITH dates NOT completed, secret 0
 				.append(" AS SELECT ")
-				.append(arrayToCommaString(Columns.FIELDS))
+				.append(arrayToCommaString(Columns.LIST_FIELDS))
 				.append(",0")
 				.append(" AS ")
 				.append(SECRET_TYPEID)
@@ -447,7 +572,7 @@ public class Task extends DAO {
 				.append(" UNION ALL ")
 				// Tasks NO dates NOT completed, secret 1
 				.append(" SELECT ")
-				.append(arrayToCommaString(Columns.FIELDS))
+				.append(arrayToCommaString(Columns.LIST_FIELDS))
 				.append(",1")
 				.append(" AS ")
 				.append(SECRET_TYPEID)
@@ -465,7 +590,7 @@ public class Task extends DAO {
 				.append(" UNION ALL ")
 				// Tasks completed, secret 2 + 1
 				.append(" SELECT ")
-				.append(arrayToCommaString(Columns.FIELDS))
+				.append(arrayToCommaString(Columns.LIST_FIELDS))
 				.append(",3")
 				.append(" AS ")
 				.append(SECRET_TYPEID)
@@ -928,46 +1053,424 @@ public class Task extends DAO {
 	 * asynctask to do the operation in the background.
 	 */
 	public static void setCompleted(final Context context,
-			final boolean completed, final Long... ids) {
+			final boolean completed, final long... ids) {
 		if (ids.length > 0) {
-			final AsyncTask<Long, Void, Void> task = new AsyncTask<Long, Void, Void>() {
+			final AsyncTask<Void, Void, Void> task = new AsyncTask<Void, Void, Void>() {
 				@Override
-				protected Void doInBackground(final Long... ids) {
+				protected Void doInBackground(final Void... params) {
 					setCompletedSynced(context, completed, ids);
 					return null;
 				}
 			};
-			task.execute(ids);
+			task.execute();
 		}
 	}
 
     /**
      * Convenience method to complete tasks. Runs on the thread that called it.
+     * All tasks are written in one transaction by the provider, and only the
+     * lists they are in are notified.
      * @param context
      * @param completed
      * @param ids
+     * @return the ids of the tasks which changed, by list
      */
-    public static void setCompletedSynced(final Context context,
-            final boolean completed, final Long... ids) {
+    public static HashMap<Long, ArrayList<Long>> setCompletedSynced(
+            final Context context, final boolean completed,
+            final long... ids) {
+        final HashMap<Long, ArrayList<Long>> changes = new HashMap<Long,
+                ArrayList<Long>>();
         if (ids.length < 1) {
-            return;
+            return changes;
+        }
+
+        final Bundle extras = new Bundle();
+        extras.putLongArray(EXTRA_IDS, ids);
+        extras.putBoolean(EXTRA_COMPLETED, completed);
+        final Bundle result = context.getContentResolver().call(URI,
+                METHOD_SET_COMPLETED, null, extras);
+        if (result == null) {
+            return changes;
         }
 
-        final ContentValues values = new ContentValues();
-        values.put(Columns.COMPLETED, completed ? Calendar
-                .getInstance().getTimeInMillis() : null);
-        values.put(Columns.UPDATED, Calendar.getInstance()
-                .getTimeInMillis());
-        String idStrings = "(";
-        for (Long id : ids) {
-            idStrings += id + ",";
+        final long[] changedIds = result.getLongArray(EXTRA_IDS);
+        final long[] changedLists = result.getLongArray(EXTRA_LISTS);
+        for (int i = 0; i < changedIds.length; i++) {
+            ArrayList<Long> listChanges = changes.get(changedLists[i]);
+            if (listChanges == null) {
+                listChanges = new ArrayList<Long>();
+                changes.put(changedLists[i], listChanges);
+            }
+            listChanges.add(changedIds[i]);
         }
-        idStrings = idStrings.substring(0, idStrings.length() - 1);
-        idStrings += ")";
-        context.getContentResolver().update(URI, values,
-                Columns._ID + " IN " + idStrings, null);
+        return changes;
     }
 
+	/**
+	 * Moves tasks to the top of another list, in one transaction. Runs on the
+	 * thread that called it.
+	 *
+	 * @return number of tasks moved
+	 */
+	public static int moveToListSynced(final Context context,
+			final long toListId, final long... ids) {
+		if (ids.length < 1) {
+			return 0;
+		}
+		final Bundle extras = new Bundle();
+		extras.putLongArray(EXTRA_IDS, ids);
+		extras.putLong(EXTRA_TO_LIST, toListId);
+		final Bundle result = context.getContentResolver().call(URI,
+				METHOD_MOVE_TO_LIST, null, extras);
+		return result == null ? 0 : result.getLongArray(EXTRA_IDS).length;
+	}
+
+	/**
+	 * Does what TRIGGER_MOVE_LIST and RemoteTask.TRIGGER_MOVE_LIST do, for
+	 * many tasks at once. The triggers would shift both lists once per task,
+	 * so they are dropped for the duration. Instead the target list is
+	 * shifted once, the tasks are placed at its top in their previous order,
+	 * and each list they came from is compacted once. Caller handles the
+	 * transaction, which also restores the triggers if anything fails.
+	 *
+	 * @param movedIds filled with the ids of the tasks moved
+	 * @param fromLists filled with the list each of them was moved from
+	 * @return number of tasks moved
+	 */
+	static int moveToList(final SQLiteDatabase db, final long toListId,
+			final long[] ids, final long[] movedIds, final long[] fromLists) {
+		final long[] lefts = new long[ids.length];
+		int moved = 0;
+		for (int from = 0; from < ids.length; from += MAX_BOUND_IDS) {
+			final int count = Math.min(MAX_BOUND_IDS, ids.length - from);
+			final Cursor c = db.query(TABLE_NAME, new String[] { Columns._ID,
+					Columns.DBLIST, Columns.LEFT }, whereIdIn(count) + " AND "
+					+ Columns.DBLIST + " IS NOT ?", joinArrays(
+					whereIdInArgs(ids, from, count),
+					new String[] { Long.toString(toListId) }), null, null,
+					null);
+			try {
+				while (c.moveToNext()) {
+					movedIds[moved] = c.getLong(0);
+					fromLists[moved] = c.getLong(1);
+					lefts[moved] = c.getLong(2);
+					moved++;
+				}
+			}
+			finally {
+				c.close();
+			}
+		}
+		if (moved == 0) {
+			return 0;
+		}
+
+		// Keep the order they had, list by list
+		final Integer[] order = new Integer[moved];
+		for (int i = 0; i < moved; i++) {
+			order[i] = i;
+		}
+		Arrays.sort(order, new Comparator<Integer>() {
+			@Override
+			public int compare(final Integer a, final Integer b) {
+				if (fromLists[a] != fromLists[b]) {
+					return fromLists[a] < fromLists[b] ? -1 : 1;
+				}
+				return lefts[a] < lefts[b] ? -1 : (lefts[a] == lefts[b] ? 0
+						: 1);
+			}
+		});
+
+		db.execSQL("DROP TRIGGER IF EXISTS " + TRIGGER_MOVE_LIST_NAME);
+		db.execSQL("DROP TRIGGER IF EXISTS "
+				+ RemoteTask.TRIGGER_MOVE_LIST_NAME);
+
+		// Make room at the top of the target list
+		db.execSQL(String.format(
+				"UPDATE %1$s SET %2$s = %2$s + ?, %3$s = %3$s + ? WHERE %4$s IS ?",
+				TABLE_NAME, Columns.LEFT, Columns.RIGHT, Columns.DBLIST),
+				new Object[] { 2 * moved, 2 * moved, toListId });
+		final SQLiteStatement place = db.compileStatement(String.format(
+				"UPDATE %1$s SET %2$s = ?, %3$s = ?, %4$s = ? WHERE %5$s IS ?",
+				TABLE_NAME, Columns.DBLIST, Columns.LEFT, Columns.RIGHT,
+				Columns._ID));
+		try {
+			for (int i = 0; i < moved; i++) {
+				place.bindLong(1, toListId);
+				place.bindLong(2, 2 * i + 1);
+				place.bindLong(3, 2 * i + 2);
+				place.bindLong(4, movedIds[order[i]]);
+				place.executeUpdateDelete();
+			}
+		}
+		finally {
+			place.close();
+		}
+
+		// Close the gaps left behind, one list at a time
+		final SQLiteStatement shift = compileShift(db);
+		try {
+			int start = 0;
+			while (start < moved) {
+				int end = start;
+				while (end < moved
+						&& fromLists[order[end]] == fromLists[order[start]]) {
+					end++;
+				}
+				final long[] gaps = new long[end - start];
+				for (int i = start; i < end; i++) {
+					gaps[i - start] = lefts[order[i]];
+				}
+				compactList(db, shift, fromLists[order[start]], gaps);
+				start = end;
+			}
+		}
+		finally {
+			shift.close();
+		}
+
+		RemoteTask.markMoved(db, movedIds, moved);
+
+		db.execSQL(TRIGGER_MOVE_LIST);
+		db.execSQL(RemoteTask.TRIGGER_MOVE_LIST);
+
+		// Tell the caller in the order they were placed
+		final long[] ordered = new long[moved];
+		final long[] orderedLists = new long[moved];
+		for (int i = 0; i < moved; i++) {
+			ordered[i] = movedIds[order[i]];
+			orderedLists[i] = fromLists[order[i]];
+		}
+		System.arraycopy(ordered, 0, movedIds, 0, moved);
+		System.arraycopy(orderedLists, 0, fromLists, 0, moved);
+		return moved;
+	}
+
+	/**
+	 * Deletes the completed tasks matching the selection. Does what the
+	 * delete triggers do for one task, for all of them at once: they are
+	 * archived with one statement, removed from search and marked deleted
+	 * for sync with one each, deleted with one, and each list is compacted
+	 * once. The triggers are dropped for the duration. Caller handles the
+	 * transaction, which also restores the triggers if anything fails.
+	 *
+	 * @param lists filled with the lists tasks were deleted from
+	 * @return the ids of the deleted tasks
+	 */
+	static long[] purgeCompleted(final SQLiteDatabase db,
+			final String selection, final String[] selectionArgs,
+			final Collection<Long> lists) {
+		// Decide once which tasks go. Due date selections depend on the time.
+		db.execSQL("CREATE TEMP TABLE IF NOT EXISTS " + PURGE_TABLE_NAME + "("
+				+ Columns._ID + " INTEGER PRIMARY KEY)");
+		db.execSQL("DELETE FROM " + PURGE_TABLE_NAME);
+		final String insert = "INSERT INTO " + PURGE_TABLE_NAME + " SELECT "
+				+ Columns._ID + " FROM " + TABLE_NAME + " WHERE "
+				+ Columns.COMPLETED + " IS NOT NULL"
+				+ (selection == null ? "" : " AND (" + selection + ")");
+		if (selectionArgs == null) {
+			db.execSQL(insert);
+		}
+		else {
+			db.execSQL(insert, selectionArgs);
+		}
+		final String purged = " IN (SELECT " + Columns._ID + " FROM "
+				+ PURGE_TABLE_NAME + ")";
+
+		final long[] ids;
+		final long[] listIds;
+		final long[] lefts;
+		final Cursor c = db.query(TABLE_NAME, new String[] { Columns._ID,
+				Columns.DBLIST, Columns.LEFT }, Columns._ID + purged, null,
+				null, null, Columns.DBLIST + "," + Columns.LEFT);
+		try {
+			ids = new long[c.getCount()];
+			listIds = new long[ids.length];
+			lefts = new long[ids.length];
+			for (int i = 0; c.moveToNext(); i++) {
+				ids[i] = c.getLong(0);
+				listIds[i] = c.getLong(1);
+				lefts[i] = c.getLong(2);
+			}
+		}
+		finally {
+			c.close();
+		}
+		if (ids.length == 0) {
+			return ids;
+		}
+
+		dropDeleteTriggers(db);
+
+		archive(db, Columns._ID + purged);
+		// CREATE_FTS3_DELETE_TRIGGER
+		db.execSQL("DELETE FROM " + FTS3_TABLE_NAME + " WHERE " + Columns._ID
+				+ purged);
+		// RemoteTask.TRIGGER_REALDELETE_MARK
+		db.execSQL("UPDATE " + RemoteTask.TABLE_NAME + " SET "
+				+ RemoteTask.Columns.DELETED + " = 'deleted' WHERE "
+				+ RemoteTask.Columns.DBID + purged);
+		// Reminders and history go by foreign key
+		db.delete(TABLE_NAME, Columns._ID + purged, null);
+
+		// TRIGGER_POST_DELETE, once per list
+		final SQLiteStatement shift = compileShift(db);
+		try {
+			int start = 0;
+			while (start < ids.length) {
+				int end = start;
+				while (end < ids.length && listIds[end] == listIds[start]) {
+					end++;
+				}
+				compactList(db, shift, listIds[start],
+						Arrays.copyOfRange(lefts, start, end));
+				lists.add(listIds[start]);
+				start = end;
+			}
+		}
+		finally {
+			shift.close();
+		}
+
+		createDeleteTriggers(db);
+		db.execSQL("DELETE FROM " + PURGE_TABLE_NAME);
+		return ids;
+	}
+
+	/**
+	 * Prepares a restore. The trigger making room for inserted tasks is
+	 * dropped, so the restored tasks must be given their final positions. If
+	 * replace is true, all lists, tasks, remotes and reminders are deleted
+	 * first. The tasks are archived, like the delete triggers would. Call
+	 * endRestore in the same transaction when done.
+	 */
+	public static void beginRestore(final SQLiteDatabase db,
+			final boolean replace) {
+		dropDeleteTriggers(db);
+		db.execSQL("DROP TRIGGER IF EXISTS " + TRIGGER_PRE_INSERT_NAME);
+		if (!replace) {
+			return;
+		}
+
+		archive(db, null);
+		db.execSQL("DELETE FROM " + FTS3_TABLE_NAME);
+		db.delete(RemoteTask.TABLE_NAME, null, null);
+		db.delete(RemoteTaskList.TABLE_NAME, null, null);
+		// Reminders and history go by foreign key
+		db.delete(TABLE_NAME, null, null);
+		db.delete(TaskList.TABLE_NAME, null, null);
+	}
+
+	/**
+	 * Restores the triggers dropped by beginRestore
+	 */
+	public static void endRestore(final SQLiteDatabase db) {
+		db.execSQL(TRIGGER_PRE_INSERT);
+		createDeleteTriggers(db);
+	}
+
+	/**
+	 * Copies the tasks to the deleted table, what TRIGGER_PRE_DELETE does for
+	 * one task. Deleted search is still filled by its trigger.
+	 */
+	private static void archive(final SQLiteDatabase db, final String where) {
+		final String archived = arrayToCommaString(Columns.DELETEFIELDS_TRIGGER);
+		db.execSQL("INSERT INTO " + DELETE_TABLE_NAME + " (" + archived
+				+ ") SELECT " + archived + " FROM " + TABLE_NAME
+				+ (where == null ? "" : " WHERE " + where) + " ORDER BY "
+				+ Columns._ID);
+	}
+
+	/**
+	 * Drops the triggers run for every deleted task, for deletes which do
+	 * their work with set statements.
+	 */
+	private static void dropDeleteTriggers(final SQLiteDatabase db) {
+		db.execSQL("DROP TRIGGER IF EXISTS " + TRIGGER_PRE_DELETE_NAME);
+		db.execSQL("DROP TRIGGER IF EXISTS " + TRIGGER_POST_DELETE_NAME);
+		db.execSQL("DROP TRIGGER IF EXISTS " + FTS3_DELETE_TRIGGER_NAME);
+		db.execSQL("DROP TRIGGER IF EXISTS "
+				+ RemoteTask.TRIGGER_REALDELETE_MARK_NAME);
+	}
+
+	private static void createDeleteTriggers(final SQLiteDatabase db) {
+		db.execSQL(TRIGGER_PRE_DELETE);
+		db.execSQL(TRIGGER_POST_DELETE);
+		db.execSQL(CREATE_FTS3_DELETE_TRIGGER);
+		db.execSQL(RemoteTask.TRIGGER_REALDELETE_MARK);
+	}
+
+	/**
+	 * Drops the triggers which run for every inserted task, for inserting
+	 * many. Positions and previews must then be set by the inserts. Call
+	 * endBulkInsert in the same transaction when done.
+	 */
+	static void beginBulkInsert(final SQLiteDatabase db) {
+		db.execSQL("DROP TRIGGER IF EXISTS " + TRIGGER_PRE_INSERT_NAME);
+		db.execSQL("DROP TRIGGER IF EXISTS " + PREVIEW_INSERT_TRIGGER_NAME);
+		db.execSQL("DROP TRIGGER IF EXISTS " + FTS3_INSERT_TRIGGER_NAME);
+		db.execSQL("DROP TRIGGER IF EXISTS " + HISTORY_INSERT_TRIGGER_NAME);
+	}
+
+	/**
+	 * Restores the triggers dropped by beginBulkInsert
+	 */
+	static void endBulkInsert(final SQLiteDatabase db) {
+		db.execSQL(TRIGGER_PRE_INSERT);
+		db.execSQL(CREATE_PREVIEW_INSERT_TRIGGER);
+		db.execSQL(CREATE_FTS3_INSERT_TRIGGER);
+		db.execSQL(CREATE_HISTORY_INSERT_TRIGGER);
+	}
+
+	/**
+	 * Adds the search and history rows the insert triggers would have added
+	 * for every task, all at once. Only for filling a new database, as tasks
+	 * inserted with the triggers would get them twice.
+	 */
+	static void indexBulkInserted(final SQLiteDatabase db) {
+		final String columns = arrayToCommaString(Columns._ID, Columns.TITLE,
+				Columns.NOTE);
+		db.execSQL("INSERT INTO " + FTS3_TABLE_NAME + " (" + columns
+				+ ") SELECT " + columns + " FROM " + TABLE_NAME);
+		db.execSQL("INSERT INTO " + HISTORY_TABLE_NAME + " ("
+				+ arrayToCommaString(Columns.HISTORY_COLUMNS) + ") SELECT "
+				+ columns + " FROM " + TABLE_NAME);
+	}
+
+	private static SQLiteStatement compileShift(final SQLiteDatabase db) {
+		return db.compileStatement(String.format(
+				"UPDATE %1$s SET %2$s = %2$s - ?, %3$s = %3$s - ? WHERE %4$s IS ?",
+				TABLE_NAME, Columns.LEFT, Columns.RIGHT, Columns._ID));
+	}
+
+	/**
+	 * Shifts the tasks of a list left by two for every removed task
+	 * positioned before them, like the delete trigger does for one.
+	 *
+	 * @param gaps left positions of the removed tasks, ascending
+	 */
+	private static void compactList(final SQLiteDatabase db,
+			final SQLiteStatement shift, final long listId, final long[] gaps) {
+		final Cursor c = db.query(TABLE_NAME, new String[] { Columns._ID,
+				Columns.LEFT }, Columns.DBLIST + " IS ? AND " + Columns.LEFT
+				+ " > ?", new String[] { Long.toString(listId),
+				Long.toString(gaps[0]) }, null, null, null);
+		try {
+			while (c.moveToNext()) {
+				int before = Arrays.binarySearch(gaps, c.getLong(1));
+				// Not found, so it is (-(insertion point) - 1)
+				before = before < 0 ? -before - 1 : before;
+				shift.bindLong(1, 2 * before);
+				shift.bindLong(2, 2 * before);
+				shift.bindLong(3, c.getLong(0));
+				shift.executeUpdateDelete();
+			}
+		}
+		finally {
+			c.close();
+		}
+	}
+
 	public int moveTo(final ContentResolver resolver, final Task targetTask) {
 		if (targetTask.dblist == dblist) {
 			if (targetTask.left < left) {
@@ -989,6 +1492,11 @@ public class Task extends DAO {
 		return TABLE_NAME;
 	}
 
+	@Override
+	protected String[] getFieldsNoId() {
+		return Columns.FIELDS_NO_ID;
+	}
+
 	/**
 	 * Can't use unique constraint on positions because SQLite checks
 	 * constraints after every row is updated an not after each statement like
@@ -1018,9 +1526,10 @@ public class Task extends DAO {
 
 	// Makes a gap in the list where the task is being inserted
 	private static final String BUMP_TO_RIGHT = " UPDATE %1$s SET %2$s = %2$s + 2, %3$s = %3$s + 2 WHERE %3$s >= new.%3$s AND %4$s IS new.%4$s;";
+	static final String TRIGGER_PRE_INSERT_NAME = "task_pre_insert";
 	public static final String TRIGGER_PRE_INSERT = String.format(
-			"CREATE TRIGGER task_pre_insert BEFORE INSERT ON %s BEGIN ",
-			TABLE_NAME)
+			"CREATE TRIGGER %s BEFORE INSERT ON %s BEGIN ",
+			TRIGGER_PRE_INSERT_NAME, TABLE_NAME)
 			+ String.format(BUMP_TO_RIGHT, TABLE_NAME, Columns.RIGHT,
 					Columns.LEFT, Columns.DBLIST) + " END;";
 
@@ -1036,9 +1545,10 @@ public class Task extends DAO {
 	private static final String BUMP_TO_LEFT = " UPDATE %1$s SET %2$s = %2$s - 2 WHERE %2$s > old.%3$s AND %4$s IS old.%4$s;";
 	// private static final String UPGRADE_CHILDREN =
 	// " UPDATE %1$s SET %2$s = %2$s - 1, %3$s = %3$s - 1 WHERE %4$s IS old.%4$s AND %2$s BETWEEN old.%2$s AND old.%3$s;";
+	static final String TRIGGER_POST_DELETE_NAME = "task_post_delete";
 	public static final String TRIGGER_POST_DELETE = String.format(
-			"CREATE TRIGGER task_post_delete AFTER DELETE ON %s BEGIN ",
-			TABLE_NAME)
+			"CREATE TRIGGER %s AFTER DELETE ON %s BEGIN ",
+			TRIGGER_POST_DELETE_NAME, TABLE_NAME)
 			// + String.format(UPGRADE_CHILDREN, TABLE_NAME, Columns.LEFT,
 			// Columns.RIGHT, Columns.DBLIST)
 			+ String.format(BUMP_TO_LEFT, TABLE_NAME, Columns.LEFT,
@@ -1051,8 +1561,10 @@ public class Task extends DAO {
 
 			+ " END;";
 
+	static final String TRIGGER_PRE_DELETE_NAME = "task_pre_delete";
 	public static final String TRIGGER_PRE_DELETE = String.format(
-			"CREATE TRIGGER task_pre_delete BEFORE DELETE ON %1$s BEGIN "
+			"CREATE TRIGGER " + TRIGGER_PRE_DELETE_NAME
+					+ " BEFORE DELETE ON %1$s BEGIN "
 					+ " INSERT INTO %2$s ("
 					+ arrayToCommaString("", Columns.DELETEFIELDS_TRIGGER, "")
 					+ ") "
@@ -1081,9 +1593,10 @@ public class Task extends DAO {
 	/*
 	 * Trigger to move between lists
 	 */
+	static final String TRIGGER_MOVE_LIST_NAME = "trigger_post_move_list_"
+			+ TABLE_NAME;
 	public static final String TRIGGER_MOVE_LIST = new StringBuilder()
-			.append("CREATE TRIGGER trigger_post_move_list_")
-			.append(TABLE_NAME)
+			.append("CREATE TRIGGER ").append(TRIGGER_MOVE_LIST_NAME)
 			.append(" AFTER UPDATE OF ")
 			.append(Task.Columns.DBLIST)
 			.append(" ON ")
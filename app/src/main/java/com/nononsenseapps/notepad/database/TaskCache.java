@@ -0,0 +1,232 @@
+/*
+ * Copyright (c) 2014 Jonas Kalderstam.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.nononsenseapps.notepad.database;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.net.Uri;
+import android.util.LruCache;
+
+import java.util.List;
+
+/**
+ * The rows of the tasks opened last, and of their reminders, so the editor
+ * can show a task before its loaders return. Rows are kept as read, and
+ * handed out as cursors with the columns of Task.Columns.FIELDS and
+ * Notification.Columns.FIELDS.
+ * <p/>
+ * The provider passes every uri it notifies to {@link #onChange(Uri)}. A
+ * task is dropped when its uri is notified, and all reminders when any
+ * reminder changes. Rows read before a change are not kept, see
+ * {@link #getGeneration()}.
+ */
+public class TaskCache {
+
+    public static final int MAX_TASKS = 32;
+
+    private static final TaskCache instance = new TaskCache();
+
+    public static TaskCache getInstance() {
+        return instance;
+    }
+
+    private final LruCache<Long, Object[]> tasks = new LruCache<Long,
+            Object[]>(MAX_TASKS);
+    // Reminders of a task, by task id
+    private final LruCache<Long, Object[][]> reminders = new LruCache<Long,
+            Object[][]>(MAX_TASKS);
+    // Bumped by every change, guarded by this
+    private int generation = 0;
+
+    private TaskCache() {
+    }
+
+    /**
+     * Read before querying rows to put. If anything changes before they
+     * are put, they are not kept.
+     */
+    public synchronized int getGeneration() {
+        return generation;
+    }
+
+    /**
+     * Returns the task as a cursor of one row, or null if not cached
+     */
+    public Cursor getTask(final long id) {
+        final Object[] row = tasks.get(id);
+        if (row == null) {
+            return null;
+        }
+        final MatrixCursor c = new MatrixCursor(Task.Columns.FIELDS, 1);
+        c.addRow(row);
+        return c;
+    }
+
+    /**
+     * Returns the reminders of the task as a cursor, or null if not cached
+     */
+    public Cursor getReminders(final long taskId) {
+        final Object[][] rows = reminders.get(taskId);
+        if (rows == null) {
+            return null;
+        }
+        final MatrixCursor c = new MatrixCursor(Notification.Columns.FIELDS,
+                rows.length);
+        for (Object[] row : rows) {
+            c.addRow(row);
+        }
+        return c;
+    }
+
+    /**
+     * Keeps the current row of c, which has the columns of
+     * Task.Columns.FIELDS
+     */
+    public void putTask(final long id, final Cursor c, final int generation) {
+        final Object[] row = readRow(c);
+        synchronized (this) {
+            if (generation == this.generation) {
+                tasks.put(id, row);
+            }
+        }
+    }
+
+    /**
+     * Keeps all rows of c, which has the columns of
+     * Notification.Columns.FIELDS. The position of c is kept.
+     */
+    public void putReminders(final long taskId, final Cursor c,
+            final int generation) {
+        final int position = c.getPosition();
+        final Object[][] rows = new Object[c.getCount()][];
+        c.moveToPosition(-1);
+        for (int i = 0; i < rows.length && c.moveToNext(); i++) {
+            rows[i] = readRow(c);
+        }
+        c.moveToPosition(position);
+        synchronized (this) {
+            if (generation == this.generation) {
+                reminders.put(taskId, rows);
+            }
+        }
+    }
+
+    /**
+     * Reads the tasks and their reminders which are not cached. Queries the
+     * database, so do not call on the UI thread.
+     */
+    public void prefetch(final Context context, final List<Long> ids) {
+        for (Long id : ids) {
+            if (id == null || id < 1) {
+                continue;
+            }
+            final int gen = getGeneration();
+            if (tasks.get(id) == null) {
+                final Cursor c = context.getContentResolver().query(
+                        Task.getUri(id), Task.Columns.FIELDS, null, null,
+                        null);
+                if (c != null) {
+                    if (c.moveToFirst()) {
+                        putTask(id, c, gen);
+                    }
+                    c.close();
+                }
+            }
+            if (reminders.get(id) == null) {
+                final Cursor c = context.getContentResolver().query(
+                        Notification.URI, Notification.Columns.FIELDS,
+                        Notification.Columns.TASKID + " IS ?",
+                        new String[] { Long.toString(id) },
+                        Notification.Columns.TIME);
+                if (c != null) {
+                    putReminders(id, c, gen);
+                    c.close();
+                }
+            }
+        }
+    }
+
+    /**
+     * Drops what the change of uri makes stale
+     */
+    public void onChange(final Uri uri) {
+        final List<String> segments = uri.getPathSegments();
+        if (segments.isEmpty()) {
+            return;
+        }
+        final String table = segments.get(0);
+        if (Task.TABLE_NAME.equals(table)) {
+            if (segments.size() == 1) {
+                invalidateAll();
+            } else if (isId(segments.get(1))) {
+                synchronized (this) {
+                    generation++;
+                    tasks.remove(Long.parseLong(segments.get(1)));
+                }
+            }
+            // Lists of tasks, history and the like are notified along with
+            // the tasks, or with Task.URI
+        } else if (Notification.URI.getLastPathSegment().equals(table)
+                || Notification.URI_WITH_TASK_PATH.getLastPathSegment()
+                .equals(table)) {
+            synchronized (this) {
+                generation++;
+                reminders.evictAll();
+            }
+        }
+    }
+
+    public synchronized void invalidateAll() {
+        generation++;
+        tasks.evictAll();
+        reminders.evictAll();
+    }
+
+    private static boolean isId(final String segment) {
+        for (int i = 0; i < segment.length(); i++) {
+            if (!Character.isDigit(segment.charAt(i))) {
+                return false;
+            }
+        }
+        return segment.length() > 0;
+    }
+
+    private static Object[] readRow(final Cursor c) {
+        final Object[] row = new Object[c.getColumnCount()];
+        for (int i = 0; i < row.length; i++) {
+            switch (c.getType(i)) {
+            case Cursor.FIELD_TYPE_NULL:
+                row[i] = null;
+                break;
+            case Cursor.FIELD_TYPE_INTEGER:
+                row[i] = c.getLong(i);
+                break;
+            case Cursor.FIELD_TYPE_FLOAT:
+                row[i] = c.getDouble(i);
+                break;
+            case Cursor.FIELD_TYPE_BLOB:
+                row[i] = c.getBlob(i);
+                break;
+            default:
+                row[i] = c.getString(i);
+                break;
+            }
+        }
+        return row;
+    }
+}
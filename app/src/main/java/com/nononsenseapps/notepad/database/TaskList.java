@@ -84,6 +84,8 @@ public class TaskList extends DAO {
 
 		public static final String[] FIELDS = { _ID, TITLE, UPDATED, LISTTYPE,
 				SORTING };
+		public static final String[] FIELDS_NO_ID = { TITLE, UPDATED,
+				LISTTYPE, SORTING };
 		// GTASKACCOUNT, GTASKID, DROPBOXACCOUNT, DROPBOXID };
 		public static final String[] SHALLOWFIELDS = { _ID, TITLE, UPDATED };
 	}
@@ -199,6 +201,11 @@ public class TaskList extends DAO {
 		return TABLE_NAME;
 	}
 
+	@Override
+	protected String[] getFieldsNoId() {
+		return Columns.FIELDS_NO_ID;
+	}
+
 	@Override
 	public String getContentType() {
 		return CONTENT_TYPE;
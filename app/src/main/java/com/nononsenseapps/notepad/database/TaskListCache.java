@@ -0,0 +1,283 @@
+/*
+ * Copyright (c) 2014 Jonas Kalderstam.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.nononsenseapps.notepad.database;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.MatrixCursor;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The lists of the database, without task counts, kept in memory for the
+ * whole process. Titles, list types and sort orders are read by many
+ * screens, and change rarely.
+ * <p/>
+ * The provider invalidates the lists it writes, so a change is seen by the
+ * next read. Writes to the list table outside the provider must call
+ * {@link #invalidateAll()}.
+ * <p/>
+ * Reads which hit the cache take no lock, they read an immutable snapshot.
+ * Misses query the database, so do not call the methods taking a context
+ * on the UI thread. Lists returned are copies, and can be changed freely.
+ */
+public class TaskListCache {
+
+    private static final TaskListCache instance = new TaskListCache();
+
+    public static TaskListCache getInstance() {
+        return instance;
+    }
+
+    /**
+     * The lists known at one point. Immutable.
+     */
+    private static final class Snapshot {
+        static final Snapshot EMPTY = new Snapshot(new HashMap<Long,
+                TaskList>(), null);
+
+        final HashMap<Long, TaskList> byId;
+        // All lists by title, null unless every list is known
+        final TaskList[] sorted;
+
+        Snapshot(final HashMap<Long, TaskList> byId, final TaskList[] sorted) {
+            this.byId = byId;
+            this.sorted = sorted;
+        }
+
+        Snapshot with(final TaskList list) {
+            final HashMap<Long, TaskList> map = new HashMap<Long, TaskList>
+                    (byId);
+            map.put(list._id, list);
+            return new Snapshot(map, null);
+        }
+
+        Snapshot without(final long id) {
+            final HashMap<Long, TaskList> map = new HashMap<Long, TaskList>
+                    (byId);
+            map.remove(id);
+            return new Snapshot(map, null);
+        }
+    }
+
+    private volatile Snapshot snapshot = Snapshot.EMPTY;
+    // Bumped by every invalidation, guarded by this. Loads which started
+    // before an invalidation are not kept.
+    private int generation = 0;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    private TaskListCache() {
+    }
+
+    /**
+     * Returns the list, or null if there is no such list
+     */
+    public TaskList get(final Context context, final long id) {
+        final Snapshot s = snapshot;
+        TaskList list = s.byId.get(id);
+        if (list != null || s.sorted != null) {
+            hits.incrementAndGet();
+        } else {
+            misses.incrementAndGet();
+            list = load(context, id);
+        }
+        return list == null ? null : copy(list);
+    }
+
+    /**
+     * Returns the list if it is cached, null otherwise. Never reads the
+     * database, so it can be called on the UI thread.
+     */
+    public TaskList peek(final long id) {
+        final TaskList list = snapshot.byId.get(id);
+        if (list == null) {
+            return null;
+        }
+        hits.incrementAndGet();
+        return copy(list);
+    }
+
+    /**
+     * Returns the title of the list, or null if there is no such list
+     */
+    public String getTitle(final Context context, final long id) {
+        final Snapshot s = snapshot;
+        TaskList list = s.byId.get(id);
+        if (list != null || s.sorted != null) {
+            hits.incrementAndGet();
+        } else {
+            misses.incrementAndGet();
+            list = load(context, id);
+        }
+        return list == null ? null : list.title;
+    }
+
+    /**
+     * Returns all lists, sorted by title ignoring case
+     */
+    public List<TaskList> getAll(final Context context) {
+        final TaskList[] sorted = getSorted(context);
+        final ArrayList<TaskList> lists = new ArrayList<TaskList>(sorted
+                .length);
+        for (TaskList list : sorted) {
+            lists.add(copy(list));
+        }
+        return lists;
+    }
+
+    /**
+     * Returns all lists as a cursor with the columns of
+     * TaskList.Columns.FIELDS, sorted by title ignoring case.
+     */
+    public Cursor getCursor(final Context context) {
+        final TaskList[] sorted = getSorted(context);
+        final MatrixCursor c = new MatrixCursor(TaskList.Columns.FIELDS,
+                sorted.length);
+        for (TaskList list : sorted) {
+            addRow(c, list);
+        }
+        return c;
+    }
+
+    /**
+     * Returns the list as a cursor with the columns of
+     * TaskList.Columns.FIELDS, empty if there is no such list.
+     */
+    public Cursor getCursor(final Context context, final long id) {
+        final MatrixCursor c = new MatrixCursor(TaskList.Columns.FIELDS, 1);
+        final TaskList list = get(context, id);
+        if (list != null) {
+            addRow(c, list);
+        }
+        return c;
+    }
+
+    private static void addRow(final MatrixCursor c, final TaskList list) {
+        c.addRow(new Object[] { list._id, list.title, list.updated,
+                list.listtype, list.sorting });
+    }
+
+    private TaskList[] getSorted(final Context context) {
+        final TaskList[] sorted = snapshot.sorted;
+        if (sorted != null) {
+            hits.incrementAndGet();
+            return sorted;
+        }
+        misses.incrementAndGet();
+        return loadAll(context);
+    }
+
+    /**
+     * The list has changed, or was added or deleted
+     */
+    public synchronized void invalidate(final long id) {
+        generation++;
+        snapshot = snapshot.without(id);
+    }
+
+    /**
+     * Any list may have changed
+     */
+    public synchronized void invalidateAll() {
+        generation++;
+        snapshot = Snapshot.EMPTY;
+    }
+
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    public void resetCounters() {
+        hits.set(0);
+        misses.set(0);
+    }
+
+    private synchronized int getGeneration() {
+        return generation;
+    }
+
+    private TaskList load(final Context context, final long id) {
+        final int gen = getGeneration();
+        final Cursor c = context.getContentResolver().query(
+                TaskList.getUri(id), TaskList.Columns.FIELDS, null, null,
+                null);
+        TaskList list = null;
+        try {
+            if (c != null && c.moveToFirst()) {
+                list = new TaskList(c);
+            }
+        }
+        finally {
+            if (c != null) {
+                c.close();
+            }
+        }
+        if (list != null) {
+            synchronized (this) {
+                if (gen == generation) {
+                    snapshot = snapshot.with(list);
+                }
+            }
+        }
+        return list;
+    }
+
+    private TaskList[] loadAll(final Context context) {
+        final int gen = getGeneration();
+        final Cursor c = context.getContentResolver().query(TaskList.URI,
+                TaskList.Columns.FIELDS, null, null, TaskList.Columns.TITLE
+                        + " COLLATE NOCASE");
+        final HashMap<Long, TaskList> byId = new HashMap<Long, TaskList>();
+        final TaskList[] sorted;
+        try {
+            sorted = new TaskList[c == null ? 0 : c.getCount()];
+            for (int i = 0; i < sorted.length && c.moveToNext(); i++) {
+                sorted[i] = new TaskList(c);
+                byId.put(sorted[i]._id, sorted[i]);
+            }
+        }
+        finally {
+            if (c != null) {
+                c.close();
+            }
+        }
+        synchronized (this) {
+            if (gen == generation) {
+                snapshot = new Snapshot(byId, sorted);
+            }
+        }
+        return sorted;
+    }
+
+    private static TaskList copy(final TaskList list) {
+        final TaskList copy = new TaskList();
+        copy._id = list._id;
+        copy.title = list.title;
+        copy.updated = list.updated;
+        copy.listtype = list.listtype;
+        copy.sorting = list.sorting;
+        return copy;
+    }
+}
@@ -0,0 +1,161 @@
+/*
+ * Copyright (c) 2014 Jonas Kalderstam.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.nononsenseapps.notepad.database;
+
+import android.database.Cursor;
+import android.net.Uri;
+
+/**
+ * Keyset paging of the tasks in a list. A page continues after the sort key
+ * and id of the last row of the previous page, so reading a page costs the
+ * same no matter how far into the list it is. The id breaks ties, so rows
+ * with equal keys are neither skipped nor repeated.
+ */
+public class TaskPaging {
+
+    /**
+     * Manual order
+     */
+    public static final String SORT_POSITION = Task.Columns.LEFT;
+    /**
+     * Due date, tasks without one last
+     */
+    public static final String SORT_DUE = Task.Columns.DUE;
+    /**
+     * Last modified first
+     */
+    public static final String SORT_UPDATED = Task.Columns.UPDATED;
+    /**
+     * Alphabetic, ignoring case
+     */
+    public static final String SORT_TITLE = Task.Columns.TITLE;
+
+    // Query parameters of the page URI
+    public static final String PARAM_SORT = "sort";
+    public static final String PARAM_AFTER = "after";
+    public static final String PARAM_AFTER_ID = "after_id";
+    public static final String PARAM_LIMIT = "limit";
+    /**
+     * Rows in a page when the limit is missing or not a positive number
+     */
+    public static final int DEFAULT_LIMIT = 50;
+
+    static final String PAGE_PATH = "page";
+    // Due date of tasks without one, sorts them last
+    static final long NO_DUE = Long.MAX_VALUE;
+    // Same for tasks never modified
+    static final long NO_UPDATED = 0;
+
+    /**
+     * Returns the URI of a page of the list.
+     *
+     * @param listId   list to read
+     * @param sort     one of the SORT constants
+     * @param afterKey sort key of the last row of the previous page, null for
+     *                 the first page
+     * @param afterId  id of the last row of the previous page
+     * @param limit    maximum number of rows
+     */
+    public static Uri getPageUri(final long listId, final String sort,
+            final String afterKey, final long afterId, final int limit) {
+        final Uri.Builder builder = Task.getListUri(listId).buildUpon()
+                .appendPath(PAGE_PATH)
+                .appendQueryParameter(PARAM_SORT, sort)
+                .appendQueryParameter(PARAM_LIMIT, Integer.toString(limit));
+        if (afterKey != null) {
+            builder.appendQueryParameter(PARAM_AFTER, afterKey)
+                    .appendQueryParameter(PARAM_AFTER_ID, Long.toString
+                            (afterId));
+        }
+        return builder.build();
+    }
+
+    /**
+     * Returns the limit parameter, or DEFAULT_LIMIT if it is not valid
+     */
+    static int parseLimit(final String limit) {
+        if (limit != null) {
+            try {
+                final int rows = Integer.parseInt(limit);
+                if (rows > 0) {
+                    return rows;
+                }
+            } catch (NumberFormatException e) {
+                // Use the default
+            }
+        }
+        return DEFAULT_LIMIT;
+    }
+
+    /**
+     * Expression the rows are ordered on, before the id
+     */
+    static String getKeyExpression(final String sort) {
+        if (SORT_POSITION.equals(sort)) {
+            return sort;
+        } else if (SORT_UPDATED.equals(sort)) {
+            return "IFNULL(" + Task.Columns.UPDATED + "," + NO_UPDATED + ")";
+        } else if (SORT_DUE.equals(sort)) {
+            return "IFNULL(" + Task.Columns.DUE + "," + NO_DUE + ")";
+        } else if (SORT_TITLE.equals(sort)) {
+            return Task.Columns.TITLE + " COLLATE NOCASE";
+        } else {
+            throw new IllegalArgumentException("Unknown sort: " + sort);
+        }
+    }
+
+    static boolean isDescending(final String sort) {
+        return SORT_UPDATED.equals(sort);
+    }
+
+    /**
+     * Order by clause of the pages
+     */
+    public static String getOrderBy(final String sort) {
+        final String dir = isDescending(sort) ? " DESC" : "";
+        return getKeyExpression(sort) + dir + "," + Task.Columns._ID + dir;
+    }
+
+    /**
+     * Where clause selecting the rows after the previous page. Takes the key
+     * twice, and then the id, as arguments.
+     */
+    public static String getAfterWhere(final String sort) {
+        final String key = getKeyExpression(sort);
+        final String op = isDescending(sort) ? " < " : " > ";
+        // Text arguments must be numbers to compare with numbers
+        final String arg = SORT_TITLE.equals(sort) ? "?" : "CAST(? AS " +
+                "INTEGER)";
+        return "(" + key + op + arg + " OR (" + key + " = " + arg + " AND " +
+                Task.Columns._ID + op + "?))";
+    }
+
+    /**
+     * Returns the sort key of the current row, to use as afterKey.
+     */
+    public static String getKey(final Cursor c, final String sort) {
+        final int col = c.getColumnIndexOrThrow(sort);
+        if (c.isNull(col)) {
+            if (SORT_DUE.equals(sort)) {
+                return Long.toString(NO_DUE);
+            } else if (SORT_UPDATED.equals(sort)) {
+                return Long.toString(NO_UPDATED);
+            }
+        }
+        return c.getString(col);
+    }
+}
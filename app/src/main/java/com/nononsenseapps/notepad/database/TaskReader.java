@@ -0,0 +1,177 @@
+/*
+ * Copyright (c) 2014 Jonas Kalderstam.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.nononsenseapps.notepad.database;
+
+import android.database.Cursor;
+
+/**
+ * Reads the rows of a task cursor into one reused object, for loops which
+ * only look at a few values of every row. The indices of the columns are
+ * looked up once, by name, so any projection with the columns of Task works.
+ * Columns not in the projection read as null.
+ * <p/>
+ * Numbers are kept as primitives, with a bit for every column which is
+ * null. Title and note are read from the cursor when asked for, so rows
+ * which are skipped allocate nothing.
+ * <p/>
+ * Not thread safe. The cursor is not closed.
+ */
+public class TaskReader {
+
+    // Bits of the null mask
+    public static final int ID = 1;
+    public static final int COMPLETED = 1 << 1;
+    public static final int DUE = 1 << 2;
+    public static final int UPDATED = 1 << 3;
+    public static final int LEFT = 1 << 4;
+    public static final int RIGHT = 1 << 5;
+    public static final int DBLIST = 1 << 6;
+
+    private final Cursor cursor;
+    private final int idCol;
+    private final int titleCol;
+    private final int noteCol;
+    private final int completedCol;
+    private final int dueCol;
+    private final int updatedCol;
+    private final int leftCol;
+    private final int rightCol;
+    private final int dblistCol;
+    private final int lockedCol;
+
+    // Values of the current row, 0 if null
+    public long id;
+    public long completed;
+    public long due;
+    public long updated;
+    public long left;
+    public long right;
+    public long dblist;
+    public boolean locked;
+    private int nulls;
+
+    public TaskReader(final Cursor cursor) {
+        this.cursor = cursor;
+        idCol = cursor.getColumnIndex(Task.Columns._ID);
+        titleCol = cursor.getColumnIndex(Task.Columns.TITLE);
+        noteCol = cursor.getColumnIndex(Task.Columns.NOTE);
+        completedCol = cursor.getColumnIndex(Task.Columns.COMPLETED);
+        dueCol = cursor.getColumnIndex(Task.Columns.DUE);
+        updatedCol = cursor.getColumnIndex(Task.Columns.UPDATED);
+        leftCol = cursor.getColumnIndex(Task.Columns.LEFT);
+        rightCol = cursor.getColumnIndex(Task.Columns.RIGHT);
+        dblistCol = cursor.getColumnIndex(Task.Columns.DBLIST);
+        lockedCol = cursor.getColumnIndex(Task.Columns.LOCKED);
+    }
+
+    public Cursor getCursor() {
+        return cursor;
+    }
+
+    /**
+     * Moves to the next row and reads it. Returns false after the last row.
+     */
+    public boolean moveToNext() {
+        if (!cursor.moveToNext()) {
+            return false;
+        }
+        read();
+        return true;
+    }
+
+    /**
+     * Moves to the row and reads it. Returns false if there is no such row.
+     */
+    public boolean moveToPosition(final int position) {
+        if (!cursor.moveToPosition(position)) {
+            return false;
+        }
+        read();
+        return true;
+    }
+
+    /**
+     * Reads the row the cursor is at
+     */
+    public void read() {
+        nulls = 0;
+        id = readLong(idCol, ID);
+        completed = readLong(completedCol, COMPLETED);
+        due = readLong(dueCol, DUE);
+        updated = readLong(updatedCol, UPDATED);
+        left = readLong(leftCol, LEFT);
+        right = readLong(rightCol, RIGHT);
+        dblist = readLong(dblistCol, DBLIST);
+        locked = lockedCol >= 0 && cursor.getInt(lockedCol) == 1;
+    }
+
+    private long readLong(final int col, final int bit) {
+        if (col < 0 || cursor.isNull(col)) {
+            nulls |= bit;
+            return 0;
+        }
+        return cursor.getLong(col);
+    }
+
+    /**
+     * True if all the columns of bits are null in the current row
+     */
+    public boolean isNull(final int bits) {
+        return (nulls & bits) == bits;
+    }
+
+    public boolean isCompleted() {
+        return !isNull(COMPLETED);
+    }
+
+    public boolean hasDue() {
+        return !isNull(DUE);
+    }
+
+    /**
+     * The null mask of the current row
+     */
+    public int getNulls() {
+        return nulls;
+    }
+
+    public String getTitle() {
+        return titleCol < 0 ? null : cursor.getString(titleCol);
+    }
+
+    public String getNote() {
+        return noteCol < 0 ? null : cursor.getString(noteCol);
+    }
+
+    /**
+     * A new task with the values of the current row
+     */
+    public Task toTask() {
+        final Task task = new Task();
+        task._id = isNull(ID) ? -1 : id;
+        task.title = getTitle();
+        task.note = getNote();
+        task.completed = isNull(COMPLETED) ? null : completed;
+        task.due = isNull(DUE) ? null : due;
+        task.updated = isNull(UPDATED) ? null : updated;
+        task.left = isNull(LEFT) ? null : left;
+        task.right = isNull(RIGHT) ? null : right;
+        task.dblist = isNull(DBLIST) ? null : dblist;
+        task.locked = locked;
+        return task;
+    }
+}
@@ -50,7 +50,7 @@ public class DialogDeleteCompletedTasks extends DialogDeleteTask {
 		}
 		
 		if (0 < getActivity().getContentResolver().delete(
-				Task.URI,
+				Task.URI_PURGE_COMPLETED,
 				where,
 				whereArgs)) {
 			Toast.makeText(getActivity(), R.string.deleted,
@@ -6,7 +6,7 @@ import android.widget.Toast;
 
 import com.nononsenseapps.notepad.R;
 import com.nononsenseapps.notepad.database.TaskList;
-import com.nononsenseapps.notepad.sync.files.JSONBackup;
+import com.nononsenseapps.notepad.prefs.BackupPrefs;
 
 public class DialogExportBackup extends DialogConfirmBaseV11 {
 	static final String ID = "id";
@@ -26,7 +26,8 @@ public class DialogExportBackup extends DialogConfirmBaseV11 {
 
 	@Override
 	public CharSequence getMessage() {
-		return getString(R.string.backup_export_msg, JSONBackup.DEFAULT_BACKUP_FILEPATH);
+		return getString(R.string.backup_export_msg,
+				BackupPrefs.getBackupPath(getActivity()));
 	}
 
 	@Override
@@ -11,19 +11,16 @@ import org.androidannotations.annotations.UiThread;
 import org.androidannotations.annotations.ViewById;
 import com.nononsenseapps.notepad.ActivityMain;
 import com.nononsenseapps.notepad.R;
-import com.nononsenseapps.notepad.database.DAO;
 import com.nononsenseapps.notepad.database.Task;
 import com.nononsenseapps.notepad.database.TaskList;
 import com.nononsenseapps.notepad.fragments.DialogConfirmBase.DialogConfirmedListener;
 
-import android.content.ContentValues;
 import android.database.Cursor;
 import android.net.Uri;
 import android.os.Bundle;
 import android.preference.PreferenceManager;
 import android.support.v4.app.DialogFragment;
 import android.support.v4.app.LoaderManager.LoaderCallbacks;
-import android.support.v4.content.CursorLoader;
 import android.support.v4.content.Loader;
 import android.support.v4.widget.SimpleCursorAdapter;
 import android.text.Editable;
@@ -129,11 +126,7 @@ public class DialogMoveToList extends DialogFragment {
 
 					@Override
 					public Loader<Cursor> onCreateLoader(int arg0, Bundle arg1) {
-						return new CursorLoader(getActivity(), TaskList.URI,
-								TaskList.Columns.FIELDS, null, null,
-								getResources().getString(
-										R.string.const_as_alphabetic,
-										TaskList.Columns.TITLE));
+						return new TaskListsLoader(getActivity());
 					}
 
 					@Override
@@ -170,15 +163,7 @@ public class DialogMoveToList extends DialogFragment {
 		// c.close();
 		// }
 
-		final ContentValues val = new ContentValues();
-		val.put(Task.Columns.DBLIST, toListId);
-
-		// where _ID in (1, 2, 3)
-		final String whereId = new StringBuilder(Task.Columns._ID)
-				.append(" IN (").append(DAO.arrayToCommaString(taskIds))
-				.append(")").toString();
-
-		getActivity().getContentResolver().update(Task.URI, val, whereId, null);
+		Task.moveToListSynced(getActivity(), toListId, taskIds);
 	}
 
 	@Click(resName="dialog_no")
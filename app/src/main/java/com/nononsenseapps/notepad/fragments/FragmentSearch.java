@@ -159,7 +159,7 @@ public class FragmentSearch extends Fragment {
 	 * Override to give different search behaviour
 	 */
 	protected String[] getFields() {
-		return Task.Columns.FIELDS;
+		return Task.Columns.LIST_FIELDS;
 	}
 
 	/**
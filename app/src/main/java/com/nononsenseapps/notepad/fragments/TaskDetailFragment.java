@@ -17,6 +17,7 @@
 package com.nononsenseapps.notepad.fragments;
 
 import android.app.Activity;
+import android.content.Context;
 import android.content.Intent;
 import android.content.SharedPreferences;
 import android.database.Cursor;
@@ -28,6 +29,7 @@ import android.support.v4.app.LoaderManager.LoaderCallbacks;
 import android.support.v4.content.CursorLoader;
 import android.support.v4.content.Loader;
 import android.text.Editable;
+import android.text.TextUtils;
 import android.text.TextWatcher;
 import android.util.Log;
 import android.view.LayoutInflater;
@@ -62,7 +64,9 @@ import com.nononsenseapps.notepad.R;
 import com.nononsenseapps.notepad.R.layout;
 import com.nononsenseapps.notepad.database.Notification;
 import com.nononsenseapps.notepad.database.Task;
+import com.nononsenseapps.notepad.database.TaskCache;
 import com.nononsenseapps.notepad.database.TaskList;
+import com.nononsenseapps.notepad.database.TaskListCache;
 import com.nononsenseapps.notepad.fragments.DialogConfirmBase.DialogConfirmedListener;
 import com.nononsenseapps.notepad.fragments.DialogPassword.PasswordConfirmedListener;
 import com.nononsenseapps.notepad.interfaces.MenuStateController;
@@ -93,23 +97,43 @@ public class TaskDetailFragment extends Fragment implements OnDateSetListener {
 	public static int LOADER_EDITOR_TASKLISTS = 3002;
 	public static int LOADER_EDITOR_NOTIFICATIONS = 3003;
 
+	/**
+	 * Remembers the generation of the task cache when it started loading,
+	 * so the rows it loads can be cached
+	 */
+	private static class GenerationLoader extends CursorLoader {
+		volatile int generation;
+
+		GenerationLoader(final Context context, final Uri uri,
+				final String[] projection, final String selection,
+				final String[] selectionArgs, final String sortOrder) {
+			super(context, uri, projection, selection, selectionArgs,
+					sortOrder);
+		}
+
+		@Override
+		public Cursor loadInBackground() {
+			generation = TaskCache.getInstance().getGeneration();
+			return super.loadInBackground();
+		}
+	}
+
 	LoaderCallbacks<Cursor> loaderCallbacks = new LoaderCallbacks<Cursor>() {
 		@Override
 		public Loader<Cursor> onCreateLoader(final int id, final Bundle args) {
 			if (LOADER_EDITOR_NOTIFICATIONS == id) {
-				return new CursorLoader(getActivity(), Notification.URI,
+				return new GenerationLoader(getActivity(), Notification.URI,
 						Notification.Columns.FIELDS,
 						Notification.Columns.TASKID + " IS ?",
 						new String[] { Long.toString(args.getLong(ARG_ITEM_ID,
 								-1)) }, Notification.Columns.TIME);
 			} else if (LOADER_EDITOR_TASK == id) {
-				return new CursorLoader(getActivity(), Task.getUri(args
+				return new GenerationLoader(getActivity(), Task.getUri(args
 						.getLong(ARG_ITEM_ID, -1)), Task.Columns.FIELDS, null,
 						null, null);
 			} else if (LOADER_EDITOR_TASKLISTS == id) {
-				return new CursorLoader(getActivity(), TaskList.getUri(args
-						.getLong(ARG_ITEM_LIST_ID)), TaskList.Columns.FIELDS,
-						null, null, null);
+				return new TaskListsLoader(getActivity(),
+						args.getLong(ARG_ITEM_LIST_ID));
 			} else {
 				return null;
 			}
@@ -119,14 +143,18 @@ public class TaskDetailFragment extends Fragment implements OnDateSetListener {
 		public void onLoadFinished(Loader<Cursor> ldr, Cursor c) {
 			if (LOADER_EDITOR_TASK == ldr.getId()) {
 				if (c != null && c.moveToFirst()) {
+					TaskCache.getInstance().putTask(
+							c.getLong(c.getColumnIndex(Task.Columns._ID)), c,
+							((GenerationLoader) ldr).generation);
 					if (mTask == null) {
-						mTask = new Task(c);
-						if (mTaskOrg == null) {
-							mTaskOrg = new Task(c);
-						}
-						fillUIFromTask();
+						showTask(c);
 						// Don't want updates while editing
 						// getLoaderManager().destroyLoader(LOADER_EDITOR_TASK);
+					} else if (taskFromCache) {
+						taskFromCache = false;
+						// Shown from the cache. Show what was loaded instead,
+						// keeping what the user got to edit already.
+						reconcileTask(c);
 					} else {
 						// Don't want updates while editing
 						// getLoaderManager().destroyLoader(LOADER_EDITOR_TASK);
@@ -140,7 +168,13 @@ public class TaskDetailFragment extends Fragment implements OnDateSetListener {
 							mTaskOrg.dblist = mTask.dblist;
 						}
 					}
-					// Load the list to see if we should hide task bits
+					// Load the list to see if we should hide task bits. Use
+					// the cached list until it is loaded.
+					final TaskList cached = TaskListCache.getInstance().peek(
+							mTask.dblist);
+					if (cached != null) {
+						hideTaskParts(cached);
+					}
 					Bundle args = new Bundle();
 					args.putLong(ARG_ITEM_LIST_ID, mTask.dblist);
 					getLoaderManager().restartLoader(LOADER_EDITOR_TASKLISTS,
@@ -155,6 +189,16 @@ public class TaskDetailFragment extends Fragment implements OnDateSetListener {
 					// Should kill myself maybe?
 				}
 			} else if (LOADER_EDITOR_NOTIFICATIONS == ldr.getId()) {
+				if (c != null) {
+					TaskCache.getInstance().putReminders(
+							getArguments().getLong(ARG_ITEM_ID, stateId), c,
+							((GenerationLoader) ldr).generation);
+				}
+				if (remindersFromCache) {
+					// Replace the cached ones
+					remindersFromCache = false;
+					notificationList.removeAllViews();
+				}
 				while (c != null && c.moveToNext()) {
 					addNotification(new Notification(c));
 				}
@@ -215,6 +259,10 @@ public class TaskDetailFragment extends Fragment implements OnDateSetListener {
 	private Task mTask;
 	// Version when task was opened
 	private Task mTaskOrg;
+	// True while showing a task, or its reminders, from the cache. They are
+	// replaced by what the loaders return.
+	private boolean taskFromCache = false;
+	private boolean remindersFromCache = false;
 	// To save orgState
 	// TODO
 	// AND with task.locked. If result is true, note is locked and has not been
@@ -305,9 +353,11 @@ public class TaskDetailFragment extends Fragment implements OnDateSetListener {
 
 		final Bundle args = new Bundle();
 		if (getArguments().getLong(ARG_ITEM_ID, stateId) > 0) {
+			final long id = getArguments().getLong(ARG_ITEM_ID, stateId);
+			// Show the task at once if it was opened recently
+			showCachedTask(id);
 			// Load data from database
-			args.putLong(ARG_ITEM_ID,
-					getArguments().getLong(ARG_ITEM_ID, stateId));
+			args.putLong(ARG_ITEM_ID, id);
 			getLoaderManager().restartLoader(LOADER_EDITOR_TASK, args,
 					loaderCallbacks);
 		} else {
@@ -559,6 +609,95 @@ public class TaskDetailFragment extends Fragment implements OnDateSetListener {
 		return false;
 	}
 
+	/**
+	 * Shows the task the cursor points at
+	 */
+	void showTask(final Cursor c) {
+		mTask = new Task(c);
+		if (mTaskOrg == null) {
+			mTaskOrg = new Task(c);
+		}
+		fillUIFromTask();
+	}
+
+	/**
+	 * Shows the task, and its reminders, if they are in the task cache. Both
+	 * are reconciled with the database when the loaders return.
+	 */
+	void showCachedTask(final long id) {
+		if (mTask != null) {
+			return;
+		}
+		final Cursor c = TaskCache.getInstance().getTask(id);
+		if (c == null) {
+			return;
+		}
+		if (c.moveToFirst()) {
+			showTask(c);
+			taskFromCache = true;
+			final TaskList cached = TaskListCache.getInstance().peek(
+					mTask.dblist);
+			if (cached != null) {
+				hideTaskParts(cached);
+			}
+		}
+		c.close();
+
+		final Cursor r = TaskCache.getInstance().getReminders(id);
+		if (mTask != null && r != null) {
+			while (r.moveToNext()) {
+				addNotification(new Notification(r));
+			}
+			remindersFromCache = true;
+		}
+		if (r != null) {
+			r.close();
+		}
+	}
+
+	private static boolean isSameTask(final Task a, final Task b) {
+		return TextUtils.equals(a.title, b.title)
+				&& TextUtils.equals(a.note, b.note) && isSame(a.due, b.due)
+				&& isSame(a.completed, b.completed) && a.locked == b.locked
+				&& isSame(a.dblist, b.dblist);
+	}
+
+	private static boolean isSame(final Long a, final Long b) {
+		return a == null ? b == null : a.equals(b);
+	}
+
+	/**
+	 * Replaces the task shown from the cache with the loaded row. Fields the
+	 * user has changed in the meantime are kept, and the loaded row becomes
+	 * the original that saving compares against.
+	 */
+	void reconcileTask(final Cursor c) {
+		final Task loaded = new Task(c);
+		if (isSameTask(loaded, mTaskOrg)) {
+			return;
+		}
+		final Task merged = new Task(c);
+		if (!isLocked()
+				&& !taskText.getText().toString().equals(mTaskOrg.getText())) {
+			merged.setText(taskText.getText().toString());
+		}
+		if (!isSame(mTask.due, mTaskOrg.due)) {
+			merged.due = mTask.due;
+		}
+		if (!isSame(mTask.completed, mTaskOrg.completed)) {
+			merged.completed = mTask.completed;
+		}
+		if (mTask.locked != mTaskOrg.locked) {
+			merged.locked = mTask.locked;
+		}
+		if (!isSame(mTask.dblist, mTaskOrg.dblist)) {
+			merged.dblist = mTask.dblist;
+		}
+		mTask = merged;
+		mTaskOrg = loaded;
+		fillUIFromTask();
+	}
+
 	@UiThread(propagation = Propagation.ENQUEUE)
 	void fillUIFromTask() {
 		Log.d("nononsenseapps editor", "fillUI, act: " + getActivity());
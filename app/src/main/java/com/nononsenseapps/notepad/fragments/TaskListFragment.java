@@ -2,13 +2,16 @@ package com.nononsenseapps.notepad.fragments;
 
 import java.security.InvalidParameterException;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.List;
 
 import org.androidannotations.annotations.AfterViews;
 import org.androidannotations.annotations.Background;
 import org.androidannotations.annotations.EFragment;
 import org.androidannotations.annotations.SystemService;
+import org.androidannotations.annotations.UiThread;
 import org.androidannotations.annotations.ViewById;
 
 import com.mobeta.android.dslv.DragSortListView.DropListener;
@@ -19,8 +22,11 @@ import com.mobeta.android.dslv.SimpleDragSortCursorAdapter.ViewBinder;
 import com.nononsenseapps.helpers.TimeFormatter;
 import com.nononsenseapps.notepad.ActivityMain;
 import com.nononsenseapps.notepad.R;
+import com.nononsenseapps.notepad.database.ChangeCoalescer;
 import com.nononsenseapps.notepad.database.Task;
+import com.nononsenseapps.notepad.database.TaskCache;
 import com.nononsenseapps.notepad.database.TaskList;
+import com.nononsenseapps.notepad.database.TaskPaging;
 import com.nononsenseapps.notepad.fragments.DialogConfirmBase.DialogConfirmedListener;
 import com.nononsenseapps.notepad.fragments.DialogPassword.PasswordConfirmedListener;
 import com.nononsenseapps.notepad.interfaces.MenuStateController;
@@ -133,6 +139,17 @@ public class TaskListFragment extends Fragment implements
 						android.R.id.text1, android.R.id.text1, R.id.date,
 						R.id.checkbox, R.id.drag_handle, R.id.dragpadding }, 0);
 
+		// Read the next page before the end of the list is reached
+		mAdapter.setNearEndListener(new Runnable() {
+			@Override
+			public void run() {
+				final Loader<Cursor> loader = getLoaderManager().getLoader(1);
+				if (loader instanceof TaskPageLoader) {
+					((TaskPageLoader) loader).loadMore();
+				}
+			}
+		});
+
 		// Set a drag listener
 		mAdapter.setDropListener(new DropListener() {
 			@Override
@@ -333,6 +350,7 @@ public class TaskListFragment extends Fragment implements
 					// What sorting to use
 					Uri targetUri;
 					String sortSpec;
+					String pageSort = null;
 					if (mListType == null) {
 						mListType = prefs.getString(
 								getString(R.string.pref_listtype),
@@ -348,6 +366,7 @@ public class TaskListFragment extends Fragment implements
 						targetUri = Task.URI;
 						sortSpec = getString(R.string.const_as_alphabetic,
 								Task.Columns.TITLE);
+						pageSort = TaskPaging.SORT_TITLE;
 					}
 					else if (mSortType
 							.equals(getString(R.string.const_duedate))) {
@@ -358,19 +377,30 @@ public class TaskListFragment extends Fragment implements
 							.equals(getString(R.string.const_modified))) {
 						targetUri = Task.URI;
 						sortSpec = Task.Columns.UPDATED + " DESC";
+						pageSort = TaskPaging.SORT_UPDATED;
 					}
 					// manual sorting
 					else {
 						targetUri = Task.URI;
 						sortSpec = Task.Columns.LEFT;
+						pageSort = TaskPaging.SORT_POSITION;
 					}
 
 					String where = null;
 					String[] whereArgs = null;
 
 					if (mListId > 0) {
-						where = Task.Columns.DBLIST + " IS ?";
-						whereArgs = new String[] { Long.toString(mListId) };
+						if (Task.URI.equals(targetUri)) {
+							// Read large lists a page at a time
+							return new TaskPageLoader(getActivity(), mListId,
+									pageSort, Task.Columns.LIST_FIELDS, null,
+									null);
+						}
+						else {
+							where = Task.Columns.DBLIST + " IS ?";
+							whereArgs = new String[] { Long
+									.toString(mListId) };
+						}
 					}
 					else {
 						targetUri = Task.URI;
@@ -396,7 +426,8 @@ public class TaskListFragment extends Fragment implements
 					}
 
 					return new CursorLoader(getActivity(), targetUri,
-							Task.Columns.FIELDS, where, whereArgs, sortSpec);
+							Task.Columns.LIST_FIELDS, where, whereArgs,
+							sortSpec);
 				}
 			}
 
@@ -473,6 +504,109 @@ public class TaskListFragment extends Fragment implements
 			.addRefreshableView(listView);
 	}
 
+	/**
+	 * Puts the tasks in the task cache, so the editor can show them at once
+	 */
+	@Background
+	void prefetchTasks(final List<Long> ids) {
+		final Activity activity = getActivity();
+		if (activity != null && !ids.isEmpty()) {
+			TaskCache.getInstance().prefetch(activity, ids);
+		}
+	}
+
+	/**
+	 * Shares, or copies, the text of the tasks. The list only holds the
+	 * preview of the notes, so the notes are read first, in one query.
+	 */
+	@Background
+	void shareTasks(final List<Task> tasks, final boolean copy) {
+		final Activity activity = getActivity();
+		if (activity == null) {
+			return;
+		}
+		readNotes(activity, tasks);
+		final StringBuilder text = new StringBuilder();
+		final StringBuilder subject = new StringBuilder();
+		for (Task t : tasks) {
+			if (text.length() > 0) {
+				text.append("\n\n");
+			}
+			text.append(t.locked ? t.title : t.getText());
+			if (subject.length() > 0) {
+				subject.append(", ");
+			}
+			subject.append(t.title);
+		}
+		onShareText(text.toString(), subject.toString(), tasks.size(), copy);
+	}
+
+	/**
+	 * Replaces the note previews with the full notes
+	 */
+	private static void readNotes(final Context context, final List<Task> tasks) {
+		final HashMap<Long, Task> byId = new HashMap<Long, Task>();
+		final long[] ids = new long[tasks.size()];
+		for (int i = 0; i < ids.length; i++) {
+			ids[i] = tasks.get(i)._id;
+			byId.put(ids[i], tasks.get(i));
+		}
+		for (int from = 0; from < ids.length; from += Task.MAX_BOUND_IDS) {
+			final int count = Math.min(Task.MAX_BOUND_IDS, ids.length - from);
+			final Cursor c = context.getContentResolver().query(Task.URI,
+					new String[] { Task.Columns._ID, Task.Columns.NOTE },
+					Task.whereIdIn(count), Task.whereIdInArgs(ids, from, count),
+					null);
+			if (c == null) {
+				continue;
+			}
+			try {
+				while (c.moveToNext()) {
+					final Task t = byId.get(c.getLong(0));
+					if (t != null) {
+						t.note = c.getString(1);
+					}
+				}
+			}
+			finally {
+				c.close();
+			}
+		}
+	}
+
+	@UiThread
+	void onShareText(final String text, final String subject, final int count,
+			final boolean copy) {
+		final Activity activity = getActivity();
+		if (activity == null) {
+			return;
+		}
+		if (copy) {
+			final ClipboardManager clipboard = (ClipboardManager) activity
+					.getSystemService(Context.CLIPBOARD_SERVICE);
+			clipboard.setPrimaryClip(ClipData.newPlainText(
+					getString(R.string.app_name), text));
+			try {
+				Toast.makeText(
+						activity,
+						getResources().getQuantityString(
+								R.plurals.notecopied_msg, count, count),
+						Toast.LENGTH_SHORT).show();
+			}
+			catch (Exception e) {
+				// Protect against faulty translations
+			}
+		}
+		else {
+			final Intent shareIntent = new Intent(Intent.ACTION_SEND);
+			shareIntent.setType("text/plain");
+			shareIntent.putExtra(Intent.EXTRA_TEXT, text);
+			shareIntent.putExtra(Intent.EXTRA_SUBJECT, subject);
+			shareIntent.addFlags(Intent.FLAG_ACTIVITY_CLEAR_WHEN_TASK_RESET);
+			startActivity(shareIntent);
+		}
+	}
+
 	@AfterViews
 	void loadList() {
 		listView.setAdapter(mAdapter);
@@ -484,6 +618,15 @@ public class TaskListFragment extends Fragment implements
 				if (mListener != null && id > 0) {
 					mListener.onFragmentInteraction(Task.getUri(id), mListId,
 							origin);
+					// Likely to be opened next
+					final ArrayList<Long> neighbours = new ArrayList<Long>(2);
+					for (int i = pos - 1; i <= pos + 1; i += 2) {
+						if (i >= 0 && i < mAdapter.getCount()
+								&& mAdapter.getItemId(i) > 0) {
+							neighbours.add(mAdapter.getItemId(i));
+						}
+					}
+					prefetchTasks(neighbours);
 				}
 			}
 		});
@@ -506,13 +649,22 @@ public class TaskListFragment extends Fragment implements
 				@Override
 				@Background
 				public void onPasswordConfirmed() {
-					for (final Task t : tasks.values()) {
-						try {
-							t.delete(getActivity());
-						}
-						catch (Exception e) {
+					// Notify observers once, not once per task
+					final ChangeCoalescer changes = ChangeCoalescer
+							.getInstance(getActivity());
+					changes.beginScope();
+					try {
+						for (final Task t : tasks.values()) {
+							try {
+								t.delete(getActivity());
+							}
+							catch (Exception e) {
+							}
 						}
 					}
+					finally {
+						changes.endScope();
+					}
 					try {
 						Toast.makeText(
 								getActivity(),
@@ -565,21 +717,7 @@ public class TaskListFragment extends Fragment implements
 				boolean finish = false;
 				int itemId = item.getItemId();
 				if (itemId == R.id.menu_copy) {
-					final ClipboardManager clipboard = (ClipboardManager) getActivity()
-							.getSystemService(Context.CLIPBOARD_SERVICE);
-					clipboard.setPrimaryClip(ClipData.newPlainText(
-							getString(R.string.app_name), getShareText()));
-					try {
-						Toast.makeText(
-								getActivity(),
-								getResources().getQuantityString(
-										R.plurals.notecopied_msg, tasks.size(),
-										tasks.size()), Toast.LENGTH_SHORT)
-								.show();
-					}
-					catch (Exception e) {
-						// Protect against faulty translations
-					}
+					shareTasks(new ArrayList<Task>(tasks.values()), true);
 					finish = true;
 				} else if (itemId == R.id.menu_delete) {
 					boolean locked = false;
@@ -610,7 +748,7 @@ public class TaskListFragment extends Fragment implements
 							.show(getFragmentManager(), "move_to_list_dialog");
 					finish = true;
 				} else if (itemId == R.id.menu_share) {
-					startActivity(getShareIntent());
+					shareTasks(new ArrayList<Task>(tasks.values()), false);
 					finish = true;
 				} else {
 					finish = false;
@@ -648,40 +786,6 @@ public class TaskListFragment extends Fragment implements
 					// Protect against faulty translations
 				}
 			}
-
-			String getShareText() {
-				final StringBuilder sb = new StringBuilder();
-				for (Task t : tasks.values()) {
-					if (sb.length() > 0) {
-						sb.append("\n\n");
-					}
-					if (t.locked) {
-						sb.append(t.title);
-					}
-					else {
-						sb.append(t.getText());
-					}
-				}
-				return sb.toString();
-			}
-			
-			String getShareSubject() {
-				String result = "";
-				for (Task t: tasks.values()) {
-					result += ", " + t.title;
-				}
-				return result.length() > 0 ? result.substring(2) : result;
-			}
-
-			Intent getShareIntent() {
-				final Intent shareIntent = new Intent(Intent.ACTION_SEND);
-				shareIntent.setType("text/plain");
-				shareIntent.putExtra(Intent.EXTRA_TEXT, getShareText());
-				shareIntent.putExtra(Intent.EXTRA_SUBJECT, getShareSubject());
-				shareIntent
-						.addFlags(Intent.FLAG_ACTIVITY_CLEAR_WHEN_TASK_RESET);
-				return shareIntent;
-			}
 		});
 	}
 
@@ -766,6 +870,7 @@ public class TaskListFragment extends Fragment implements
 	static class SimpleSectionsAdapter extends SimpleDragSortCursorAdapter {
 		DropListener dropListener = null;
 		RemoveListener removeListener = null;
+		Runnable nearEndListener = null;
 		final int mItemLayout;
 		final int mHeaderLayout;
 		final static int itemType = 0;
@@ -814,6 +919,13 @@ public class TaskListFragment extends Fragment implements
 			this.removeListener = removeListener;
 		}
 
+		/**
+		 * Called when a row close to the end of the list is shown
+		 */
+		public void setNearEndListener(Runnable nearEndListener) {
+			this.nearEndListener = nearEndListener;
+		}
+
 		@Override
 		public int getViewTypeCount() {
 			return 2;
@@ -833,6 +945,10 @@ public class TaskListFragment extends Fragment implements
 
 		@Override
 		public View getView(int position, View convertView, ViewGroup parent) {
+			if (nearEndListener != null
+					&& position >= getCount() - TaskPageLoader.PAGE_SIZE / 2) {
+				nearEndListener.run();
+			}
 			if (convertView == null) {
 				final LayoutInflater inflater = LayoutInflater.from(mContext);
 				convertView = inflater.inflate(getViewLayout(position), parent,
@@ -0,0 +1,125 @@
+/*
+ * Copyright (c) 2014 Jonas Kalderstam.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.nononsenseapps.notepad.fragments;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.support.v4.content.AsyncTaskLoader;
+
+import com.nononsenseapps.notepad.database.TaskList;
+import com.nononsenseapps.notepad.database.TaskListCache;
+
+/**
+ * Loads lists from the {@link TaskListCache}, in place of a CursorLoader on
+ * TaskList.URI. The cursor has the columns of TaskList.Columns.FIELDS,
+ * sorted by title. Reloads when the lists change.
+ */
+public class TaskListsLoader extends AsyncTaskLoader<Cursor> {
+
+    private final ForceLoadContentObserver observer = new
+            ForceLoadContentObserver();
+    // Less than 1 for all lists
+    private final long listId;
+    private Cursor cursor = null;
+    private boolean observing = false;
+
+    /**
+     * Loads all lists
+     */
+    public TaskListsLoader(final Context context) {
+        this(context, -1);
+    }
+
+    /**
+     * Loads the one list, or all lists if listId is less than 1
+     */
+    public TaskListsLoader(final Context context, final long listId) {
+        super(context);
+        this.listId = listId;
+    }
+
+    @Override
+    public Cursor loadInBackground() {
+        final TaskListCache cache = TaskListCache.getInstance();
+        if (listId > 0) {
+            return cache.getCursor(getContext(), listId);
+        } else {
+            return cache.getCursor(getContext());
+        }
+    }
+
+    @Override
+    public void deliverResult(final Cursor c) {
+        if (isReset()) {
+            if (c != null) {
+                c.close();
+            }
+            return;
+        }
+        final Cursor old = cursor;
+        cursor = c;
+        if (isStarted()) {
+            super.deliverResult(c);
+        }
+        if (old != null && old != c && !old.isClosed()) {
+            old.close();
+        }
+    }
+
+    @Override
+    protected void onStartLoading() {
+        if (!observing) {
+            // The cache is invalidated before observers are notified
+            getContext().getContentResolver().registerContentObserver(
+                    TaskList.URI, true, observer);
+            observing = true;
+        }
+        if (cursor != null) {
+            deliverResult(cursor);
+        }
+        if (takeContentChanged() || cursor == null) {
+            forceLoad();
+        }
+    }
+
+    @Override
+    protected void onStopLoading() {
+        cancelLoad();
+    }
+
+    @Override
+    public void onCanceled(final Cursor c) {
+        if (c != null && !c.isClosed()) {
+            c.close();
+        }
+    }
+
+    @Override
+    protected void onReset() {
+        super.onReset();
+        onStopLoading();
+        if (observing) {
+            getContext().getContentResolver().unregisterContentObserver(
+                    observer);
+            observing = false;
+        }
+        if (cursor != null && !cursor.isClosed()) {
+            cursor.close();
+        }
+        cursor = null;
+    }
+}
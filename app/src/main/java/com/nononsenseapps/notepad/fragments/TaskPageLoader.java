@@ -0,0 +1,232 @@
+/*
+ * Copyright (c) 2014 Jonas Kalderstam.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.nononsenseapps.notepad.fragments;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.MergeCursor;
+import android.support.v4.content.AsyncTaskLoader;
+
+import com.nononsenseapps.notepad.database.Task;
+import com.nononsenseapps.notepad.database.TaskPaging;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Loads the tasks of a list one page at a time. The first page is delivered
+ * as soon as it has been read, and the next one when {@link #loadMore()} is
+ * called, typically when the user scrolls close to the end. Pages already
+ * read are not read again. When the list changes, as many rows as were
+ * shown are reloaded, so the scroll position is kept.
+ */
+public class TaskPageLoader extends AsyncTaskLoader<Cursor> {
+
+    public static final int PAGE_SIZE = 50;
+
+    /**
+     * The pages read so far, merged
+     */
+    static class PagedCursor extends MergeCursor {
+        final List<Cursor> pages;
+        // True if there are no more rows to read
+        final boolean complete;
+        // Sort key and id of the last row, where the next page starts.
+        // Read before the pages are shared with the UI thread.
+        final String lastKey;
+        final long lastId;
+
+        PagedCursor(final List<Cursor> pages, final boolean complete,
+                final String lastKey, final long lastId) {
+            super(pages.toArray(new Cursor[pages.size()]));
+            this.pages = pages;
+            this.complete = complete;
+            this.lastKey = lastKey;
+            this.lastId = lastId;
+        }
+    }
+
+    private final ForceLoadContentObserver observer = new
+            ForceLoadContentObserver();
+    private final long listId;
+    private final String sort;
+    private final String[] projection;
+    private final String selection;
+    private final String[] selectionArgs;
+
+    // Last delivered result
+    private volatile PagedCursor cursor = null;
+    // Set when the next load should read another page
+    private volatile boolean loadMore = false;
+
+    /**
+     * @param sort one of the TaskPaging.SORT constants
+     */
+    public TaskPageLoader(final Context context, final long listId,
+            final String sort, final String[] projection,
+            final String selection, final String[] selectionArgs) {
+        super(context);
+        this.listId = listId;
+        this.sort = sort;
+        this.projection = projection;
+        this.selection = selection;
+        this.selectionArgs = selectionArgs;
+    }
+
+    /**
+     * Read the next page, unless all rows have been read or a page is
+     * already being read.
+     */
+    public void loadMore() {
+        final PagedCursor current = cursor;
+        if (current == null || current.complete || loadMore) {
+            return;
+        }
+        loadMore = true;
+        forceLoad();
+    }
+
+    @Override
+    public Cursor loadInBackground() {
+        final PagedCursor current = cursor;
+        if (loadMore && current != null && !current.complete) {
+            return readNextPage(current);
+        } else {
+            return readFirstPage(current == null ? 0 : current.getCount());
+        }
+    }
+
+    private PagedCursor readFirstPage(final int shown) {
+        final int limit = Math.max(PAGE_SIZE, shown);
+        final Cursor page = query(null, -1, limit);
+        if (page == null) {
+            return null;
+        }
+        // All pages are notified on the same uri
+        page.registerContentObserver(observer);
+
+        final ArrayList<Cursor> pages = new ArrayList<Cursor>();
+        pages.add(page);
+        return newPagedCursor(pages, page, limit);
+    }
+
+    private PagedCursor readNextPage(final PagedCursor current) {
+        final Cursor page = query(current.lastKey, current.lastId, PAGE_SIZE);
+        final ArrayList<Cursor> pages = new ArrayList<Cursor>(current.pages);
+        if (page == null || page.getCount() == 0) {
+            if (page != null) {
+                page.close();
+            }
+            return new PagedCursor(pages, true, current.lastKey,
+                    current.lastId);
+        }
+        pages.add(page);
+        return newPagedCursor(pages, page, PAGE_SIZE);
+    }
+
+    private PagedCursor newPagedCursor(final List<Cursor> pages,
+            final Cursor lastPage, final int limit) {
+        String lastKey = null;
+        long lastId = -1;
+        if (lastPage.moveToLast()) {
+            lastKey = TaskPaging.getKey(lastPage, sort);
+            lastId = lastPage.getLong(lastPage.getColumnIndexOrThrow(Task
+                    .Columns._ID));
+        }
+        lastPage.moveToPosition(-1);
+        return new PagedCursor(pages, lastKey == null || lastPage.getCount()
+                < limit, lastKey, lastId);
+    }
+
+    private Cursor query(final String afterKey, final long afterId,
+            final int limit) {
+        final Cursor c = getContext().getContentResolver().query(TaskPaging
+                .getPageUri(listId, sort, afterKey, afterId, limit),
+                projection, selection, selectionArgs, null);
+        if (c != null) {
+            // Fill the window here, not on the UI thread
+            c.getCount();
+        }
+        return c;
+    }
+
+    @Override
+    public void deliverResult(final Cursor result) {
+        final PagedCursor c = (PagedCursor) result;
+        if (isReset()) {
+            // An async query came in while the loader is stopped
+            closeUnused(c, null);
+            return;
+        }
+        final PagedCursor old = cursor;
+        cursor = c;
+        loadMore = false;
+
+        if (isStarted()) {
+            super.deliverResult(c);
+        }
+
+        if (old != c) {
+            closeUnused(old, c);
+        }
+    }
+
+    @Override
+    public void onCanceled(final Cursor result) {
+        loadMore = false;
+        closeUnused((PagedCursor) result, cursor);
+    }
+
+    /**
+     * Closes the pages of c which are not part of keep
+     */
+    private static void closeUnused(final PagedCursor c,
+            final PagedCursor keep) {
+        if (c == null) {
+            return;
+        }
+        for (Cursor page : c.pages) {
+            if ((keep == null || !keep.pages.contains(page)) && !page
+                    .isClosed()) {
+                page.close();
+            }
+        }
+    }
+
+    @Override
+    protected void onStartLoading() {
+        if (cursor != null) {
+            deliverResult(cursor);
+        }
+        if (takeContentChanged() || cursor == null) {
+            forceLoad();
+        }
+    }
+
+    @Override
+    protected void onStopLoading() {
+        cancelLoad();
+    }
+
+    @Override
+    protected void onReset() {
+        super.onReset();
+        onStopLoading();
+        closeUnused(cursor, null);
+        cursor = null;
+    }
+}
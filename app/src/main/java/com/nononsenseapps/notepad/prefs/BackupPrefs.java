@@ -22,15 +22,20 @@ import android.os.Bundle;
 import android.preference.Preference;
 import android.preference.Preference.OnPreferenceClickListener;
 import android.preference.PreferenceFragment;
+import android.preference.PreferenceManager;
+import android.text.TextUtils;
 import android.widget.Toast;
 
 import com.nononsenseapps.notepad.R;
 import com.nononsenseapps.notepad.fragments.DialogConfirmBaseV11.DialogConfirmedListener;
 import com.nononsenseapps.notepad.fragments.DialogExportBackup;
 import com.nononsenseapps.notepad.fragments.DialogRestoreBackup;
+import com.nononsenseapps.notepad.sync.files.ChunkedBackup;
 import com.nononsenseapps.notepad.sync.files.JSONBackup;
 
 import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.List;
 
 // import com.nononsenseapps.notepad.NotePad;
 
@@ -38,19 +43,51 @@ public class BackupPrefs extends PreferenceFragment {
 
 	public static final String KEY_IMPORT = "backup_import";
 	public static final String KEY_EXPORT = "backup_export";
+	public static final String KEY_FORMAT = "backup_format";
+	public static final String KEY_VERIFY = "backup_verify";
 
 	private JSONBackup backupMaker;
+	private ChunkedBackup chunkedBackupMaker;
 	private RestoreBackupTask bgTask;
 
+	/**
+	 * True if backups should use the compressed format, one file per list
+	 */
+	public static boolean isChunkedFormat(final Context context) {
+		return context.getString(R.string.const_backup_format_chunked).equals(
+				PreferenceManager.getDefaultSharedPreferences(context)
+						.getString(KEY_FORMAT, context.getString(
+								R.string.const_backup_format_json)));
+	}
+
+	/**
+	 * Where backups of the selected format are
+	 */
+	public static String getBackupPath(final Context context) {
+		return isChunkedFormat(context) ? ChunkedBackup.DEFAULT_BACKUP_DIR
+				: JSONBackup.DEFAULT_BACKUP_FILEPATH;
+	}
+
 	/**
 	 * Run the backup in the background. Locking the UI-thread for up to a few
 	 * seconds is not nice...
 	 * 
 	 */
 	private class RestoreBackupTask extends AsyncTask<Void, Void, Integer> {
+		private final boolean chunked;
+
+		RestoreBackupTask(final boolean chunked) {
+			this.chunked = chunked;
+		}
+
 		protected Integer doInBackground(Void... params) {
 			try {
-				backupMaker.restoreBackup();
+				if (chunked) {
+					chunkedBackupMaker.restoreBackup();
+				}
+				else {
+					backupMaker.restoreBackup();
+				}
 				return 0;
 			} catch (FileNotFoundException e) {
 				return 1;
@@ -81,6 +118,73 @@ public class BackupPrefs extends PreferenceFragment {
 		}
 	}
 
+	/**
+	 * Writes the backup in the background, like the restore
+	 */
+	private class ExportBackupTask extends AsyncTask<Void, Void, Boolean> {
+		private final boolean chunked;
+
+		ExportBackupTask(final boolean chunked) {
+			this.chunked = chunked;
+		}
+
+		protected Boolean doInBackground(Void... params) {
+			try {
+				if (chunked) {
+					chunkedBackupMaker.writeBackup();
+				}
+				else {
+					backupMaker.writeBackup();
+				}
+				return true;
+			} catch (Exception e) {
+				return false;
+			}
+		}
+
+		protected void onPostExecute(final Boolean result) {
+			if (getActivity() == null) {
+				return;
+			}
+			Toast.makeText(getActivity(),
+					result ? R.string.backup_export_success
+							: R.string.backup_export_failed,
+					Toast.LENGTH_SHORT).show();
+		}
+	}
+
+	/**
+	 * Checks the compressed backup in the background
+	 */
+	private class VerifyBackupTask extends AsyncTask<Void, Void, List<String>> {
+		protected List<String> doInBackground(Void... params) {
+			try {
+				return chunkedBackupMaker.verify();
+			} catch (IOException e) {
+				// No manifest, or a damaged one
+				return null;
+			}
+		}
+
+		protected void onPostExecute(final List<String> damaged) {
+			if (getActivity() == null) {
+				return;
+			}
+			final String message;
+			if (damaged == null) {
+				message = getString(R.string.backup_file_not_found);
+			}
+			else if (damaged.isEmpty()) {
+				message = getString(R.string.backup_verify_ok);
+			}
+			else {
+				message = getString(R.string.backup_verify_damaged,
+						TextUtils.join(", ", damaged));
+			}
+			Toast.makeText(getActivity(), message, Toast.LENGTH_LONG).show();
+		}
+	}
+
 	@Override
 	public void onCreate(Bundle savedInstanceState) {
 		super.onCreate(savedInstanceState);
@@ -89,6 +193,7 @@ public class BackupPrefs extends PreferenceFragment {
 		addPreferencesFromResource(R.xml.app_pref_backup);
 
 		backupMaker = new JSONBackup(getActivity());
+		chunkedBackupMaker = new ChunkedBackup(getActivity());
 
 		findPreference(KEY_IMPORT).setOnPreferenceClickListener(
 				new OnPreferenceClickListener() {
@@ -101,7 +206,8 @@ public class BackupPrefs extends PreferenceFragment {
 
 									@Override
 									public void onConfirm() {
-										bgTask = new RestoreBackupTask();
+										bgTask = new RestoreBackupTask(
+												isChunkedFormat(getActivity()));
 										bgTask.execute();
 									}
 
@@ -120,22 +226,23 @@ public class BackupPrefs extends PreferenceFragment {
 							
 							@Override
 							public void onConfirm() {
-								try {
-									backupMaker.writeBackup();
-									Toast.makeText(getActivity(),
-											R.string.backup_export_success,
-											Toast.LENGTH_SHORT).show();
-								} catch (Exception e) {
-									Toast.makeText(getActivity(),
-											R.string.backup_export_failed,
-											Toast.LENGTH_SHORT).show();
-								}
+								new ExportBackupTask(
+										isChunkedFormat(getActivity()))
+										.execute();
 							}
 						});
 
 						return true;
 					}
 				});
+		findPreference(KEY_VERIFY).setOnPreferenceClickListener(
+				new OnPreferenceClickListener() {
 
+					@Override
+					public boolean onPreferenceClick(Preference preference) {
+						new VerifyBackupTask().execute();
+						return true;
+					}
+				});
 	}
 }
\ No newline at end of file
@@ -0,0 +1,144 @@
+/*
+ * Copyright (C) 2014 Jonas Kalderstam
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.nononsenseapps.notepad.prefs;
+
+import android.app.AlertDialog;
+import android.content.Context;
+import android.os.AsyncTask;
+import android.os.Bundle;
+import android.preference.Preference;
+import android.preference.Preference.OnPreferenceChangeListener;
+import android.preference.Preference.OnPreferenceClickListener;
+import android.preference.PreferenceFragment;
+import android.widget.Toast;
+
+import com.nononsenseapps.notepad.R;
+import com.nononsenseapps.notepad.database.QueryProfiler;
+import com.nononsenseapps.notepad.sync.files.JSONBackup;
+
+import java.io.File;
+import java.io.FileWriter;
+
+/**
+ * Tools for finding performance problems. Only shown when enabled in the
+ * main settings, see {@link #KEY_SHOW}.
+ */
+public class DebugPrefs extends PreferenceFragment {
+
+	public static final String KEY_SHOW = "debug_show_tools";
+	public static final String KEY_PROFILER = "debug_profiler";
+	public static final String KEY_REPORT = "debug_profiler_report";
+	public static final String KEY_EXPORT = "debug_profiler_export";
+	public static final String KEY_RESET = "debug_profiler_reset";
+
+	public static final String PROFILE_FILEPATH = JSONBackup.DEFAULT_BACKUP_DIR
+			+ "/provider_profile.json";
+
+	@Override
+	public void onCreate(Bundle savedInstanceState) {
+		super.onCreate(savedInstanceState);
+
+		// Load the preferences from an XML resource
+		addPreferencesFromResource(R.xml.app_pref_debug);
+
+		findPreference(KEY_PROFILER).setOnPreferenceChangeListener(
+				new OnPreferenceChangeListener() {
+					@Override
+					public boolean onPreferenceChange(Preference preference,
+							Object newValue) {
+						QueryProfiler.setEnabled((Boolean) newValue);
+						return true;
+					}
+				});
+
+		findPreference(KEY_REPORT).setOnPreferenceClickListener(
+				new OnPreferenceClickListener() {
+					@Override
+					public boolean onPreferenceClick(Preference preference) {
+						final String report = QueryProfiler.getReport();
+						new AlertDialog.Builder(getActivity())
+								.setTitle(R.string.debug_profiler_report)
+								.setMessage(
+										report.isEmpty() ? getString(R.string.debug_profiler_empty)
+												: report)
+								.setPositiveButton(android.R.string.ok, null)
+								.show();
+						return true;
+					}
+				});
+
+		findPreference(KEY_EXPORT).setOnPreferenceClickListener(
+				new OnPreferenceClickListener() {
+					@Override
+					public boolean onPreferenceClick(Preference preference) {
+						exportProfile();
+						return true;
+					}
+				});
+
+		findPreference(KEY_RESET).setOnPreferenceClickListener(
+				new OnPreferenceClickListener() {
+					@Override
+					public boolean onPreferenceClick(Preference preference) {
+						QueryProfiler.reset();
+						return true;
+					}
+				});
+	}
+
+	/**
+	 * Writes the profile in the background, and tells how it went
+	 */
+	private void exportProfile() {
+		final Context context = getActivity().getApplicationContext();
+		new AsyncTask<Void, Void, Boolean>() {
+			@Override
+			protected Boolean doInBackground(Void... params) {
+				try {
+					final File file = new File(PROFILE_FILEPATH);
+					file.getParentFile().mkdirs();
+					final FileWriter writer = new FileWriter(file);
+					try {
+						writer.write(QueryProfiler.toJSON().toString(2));
+					}
+					finally {
+						writer.close();
+					}
+					return true;
+				}
+				catch (Exception e) {
+					return false;
+				}
+			}
+
+			@Override
+			protected void onPostExecute(Boolean exported) {
+				if (exported) {
+					Toast.makeText(context,
+							context.getString(R.string.debug_profiler_exported,
+									PROFILE_FILEPATH), Toast.LENGTH_SHORT)
+							.show();
+				}
+				else {
+					Toast.makeText(context,
+							R.string.debug_profiler_export_failed,
+							Toast.LENGTH_SHORT).show();
+				}
+			}
+		}.execute();
+	}
+}
@@ -25,6 +25,9 @@ import com.nononsenseapps.helpers.TimeFormatter;
 
 import android.os.Bundle;
 import android.preference.ListPreference;
+import android.preference.Preference;
+import android.preference.Preference.OnPreferenceChangeListener;
+import android.preference.PreferenceActivity;
 import android.preference.PreferenceFragment;
 
 public class MainPrefs extends PreferenceFragment {
@@ -82,6 +85,18 @@ public class MainPrefs extends PreferenceFragment {
 		PrefsActivity
 				.bindPreferenceSummaryToValue(findPreference(getString(R.string.pref_editor_fontsize)));
         PrefsActivity.bindPreferenceSummaryToValue(findPreference(KEY_THEME));
+
+		// Show or hide the debug header
+		findPreference(DebugPrefs.KEY_SHOW).setOnPreferenceChangeListener(
+				new OnPreferenceChangeListener() {
+					@Override
+					public boolean onPreferenceChange(Preference preference,
+							Object newValue) {
+						// Rebuilt later, after the value is saved
+						((PreferenceActivity) getActivity()).invalidateHeaders();
+						return true;
+					}
+				});
 	}
 
 	private void setDateEntries(ListPreference prefDate, int array) {
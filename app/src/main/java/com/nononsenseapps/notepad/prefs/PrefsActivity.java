@@ -82,6 +82,10 @@ public class PrefsActivity extends PreferenceActivity {
 	@Override
 	public void onBuildHeaders(List<Header> target) {
 		loadHeadersFromResource(R.xml.app_pref_headers, target);
+		if (PreferenceManager.getDefaultSharedPreferences(this).getBoolean(
+				DebugPrefs.KEY_SHOW, false)) {
+			loadHeadersFromResource(R.xml.app_pref_headers_debug, target);
+		}
 		// When headers show, it is the root activity which should
 		// navigate up and not back.
 		mIsRoot = true;
@@ -29,6 +29,7 @@ import android.preference.PreferenceManager;
 import com.nononsenseapps.helpers.Log;
 import com.nononsenseapps.notepad.prefs.SyncPrefs;
 import com.nononsenseapps.notepad.sync.googleapi.GoogleTaskSync;
+import com.nononsenseapps.notepad.widget.WidgetRefreshCoordinator;
 
 /**
  * This adapter syncs with GoogleTasks API. Each sync is an incremental sync
@@ -122,6 +123,8 @@ public class SyncAdapter extends AbstractThreadedSyncAdapter {
 			}
 		}
 		finally {
+			// Widgets were throttled during sync
+			WidgetRefreshCoordinator.getInstance(mContext).flush();
 			mContext.sendBroadcast(doneIntent);
 		}
 	}
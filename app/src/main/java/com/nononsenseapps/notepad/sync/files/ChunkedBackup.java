@@ -0,0 +1,377 @@
+/*
+ * Copyright (c) 2014 Jonas Kalderstam.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.nononsenseapps.notepad.sync.files;
+
+import android.content.Context;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * A backup in a directory, with one gzipped file per list, in the format of
+ * JSONBackupWriter, and a manifest listing the files with their hashes.
+ * Only the lists whose contents changed since the previous backup are
+ * written again. New files never replace files of the previous backup, and
+ * the manifest is replaced last with a rename, so the previous backup stays
+ * whole until the new one is.
+ */
+public class ChunkedBackup {
+    public static final String DEFAULT_BACKUP_DIR = JSONBackup
+            .DEFAULT_BACKUP_DIR + "/backup";
+
+    static final String MANIFEST = "manifest.json";
+    private static final int VERSION = 1;
+    private static final String CHUNK_PREFIX = "list-";
+    private static final String CHUNK_SUFFIX = ".json.gz";
+    private static final String TMP_SUFFIX = ".tmp";
+    // Characters of the content hash in file names
+    private static final int NAME_HASH_LENGTH = 16;
+
+    // Manifest keys
+    private static final String KEY_VERSION = "version";
+    private static final String KEY_CHUNKS = "chunks";
+    private static final String KEY_LIST = "list";
+    private static final String KEY_FILE = "file";
+    private static final String KEY_SIZE = "size";
+    private static final String KEY_FILE_HASH = "sha256";
+    private static final String KEY_CONTENT_HASH = "content_sha256";
+
+    /**
+     * The file of one list
+     */
+    private static class Chunk {
+        final long listId;
+        final String file;
+        final long size;
+        // Of the file as stored, to verify it
+        final String fileHash;
+        // Of the uncompressed backup of the list, to see if it changed
+        final String contentHash;
+
+        Chunk(final long listId, final String file, final long size,
+                final String fileHash, final String contentHash) {
+            this.listId = listId;
+            this.file = file;
+            this.size = size;
+            this.fileHash = fileHash;
+            this.contentHash = contentHash;
+        }
+
+        Chunk(final JSONObject json) throws JSONException {
+            this(json.getLong(KEY_LIST), json.getString(KEY_FILE), json
+                    .getLong(KEY_SIZE), json.getString(KEY_FILE_HASH), json
+                    .getString(KEY_CONTENT_HASH));
+        }
+
+        JSONObject toJSON() throws JSONException {
+            final JSONObject json = new JSONObject();
+            json.put(KEY_LIST, listId);
+            json.put(KEY_FILE, file);
+            json.put(KEY_SIZE, size);
+            json.put(KEY_FILE_HASH, fileHash);
+            json.put(KEY_CONTENT_HASH, contentHash);
+            return json;
+        }
+    }
+
+    private final Context context;
+    private final File dir;
+
+    public ChunkedBackup(final Context context) {
+        this(context, new File(DEFAULT_BACKUP_DIR));
+    }
+
+    public ChunkedBackup(final Context context, final File dir) {
+        this.context = context;
+        this.dir = dir;
+    }
+
+    /**
+     * Backs up the database, writing the lists which changed since the last
+     * backup.
+     *
+     * @return the number of lists written
+     */
+    public int writeBackup() throws IOException {
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Can't create " + dir);
+        }
+        final Map<Long, Chunk> previous = new HashMap<Long, Chunk>();
+        try {
+            for (Chunk chunk : readManifest()) {
+                previous.put(chunk.listId, chunk);
+            }
+        } catch (IOException e) {
+            // No usable previous backup, write all of it
+        }
+
+        final JSONBackupWriter writer = new JSONBackupWriter(context);
+        final List<Chunk> chunks = new ArrayList<Chunk>();
+        int written = 0;
+        for (long listId : writer.getListIds()) {
+            // Serialized once, the bytes are both hashed and written
+            final ByteArrayOutputStream content = new ByteArrayOutputStream();
+            writer.writeList(listId, content);
+            final byte[] bytes = content.toByteArray();
+            final String contentHash = toHex(JSONBackupWriter.newDigest()
+                    .digest(bytes));
+
+            Chunk chunk = previous.get(listId);
+            if (chunk == null || new File(dir, chunk.file).length() != chunk
+                    .size || !chunk.contentHash.equals(contentHash)) {
+                chunk = writeChunk(listId, bytes, contentHash);
+                written++;
+            }
+            chunks.add(chunk);
+        }
+
+        writeManifest(chunks);
+        deleteUnused(chunks);
+        return written;
+    }
+
+    /**
+     * Checks the backup without restoring it: every file in the manifest
+     * must have the size and hash recorded there.
+     *
+     * @return the names of missing or damaged files, empty if the backup is
+     * whole
+     * @throws IOException if the manifest is missing or can't be read
+     */
+    public List<String> verify() throws IOException {
+        return verify(readManifest());
+    }
+
+    private List<String> verify(final List<Chunk> chunks) throws
+            IOException {
+        final ArrayList<String> damaged = new ArrayList<String>();
+        for (Chunk chunk : chunks) {
+            final File file = new File(dir, chunk.file);
+            if (file.length() != chunk.size || !chunk.fileHash.equals
+                    (hashFile(file))) {
+                damaged.add(chunk.file);
+            }
+        }
+        return damaged;
+    }
+
+    /**
+     * Verifies the backup, then replaces the database with it
+     */
+    public void restoreBackup() throws IOException, JSONException {
+        final List<Chunk> chunks = readManifest();
+        final List<String> damaged = verify(chunks);
+        if (!damaged.isEmpty()) {
+            throw new IOException("Damaged backup files: " + damaged);
+        }
+
+        final ArrayList<JSONBackupReader.Source> sources = new
+                ArrayList<JSONBackupReader.Source>();
+        for (Chunk chunk : chunks) {
+            final File file = new File(dir, chunk.file);
+            sources.add(new JSONBackupReader.Source() {
+                @Override
+                public InputStream open() throws IOException {
+                    return new GZIPInputStream(new FileInputStream(file));
+                }
+            });
+        }
+        new JSONBackupReader(context).restore(sources, true);
+    }
+
+    /**
+     * Writes the backup of a list, as read by JSONBackupWriter.writeList
+     */
+    private Chunk writeChunk(final long listId, final byte[] content,
+            final String contentHash) throws IOException {
+        final MessageDigest fileDigest = JSONBackupWriter.newDigest();
+        final File tmp = File.createTempFile(CHUNK_PREFIX, TMP_SUFFIX, dir);
+        try {
+            final FileOutputStream file = new FileOutputStream(tmp);
+            try {
+                final OutputStream hashedFile = new DigestOutputStream(new
+                        BufferedOutputStream(file), fileDigest);
+                final GZIPOutputStream gzip = new GZIPOutputStream(hashedFile);
+                gzip.write(content);
+                gzip.finish();
+                hashedFile.flush();
+                file.getFD().sync();
+            }
+            finally {
+                file.close();
+            }
+
+            final String name = CHUNK_PREFIX + listId + "-" + contentHash
+                    .substring(0, NAME_HASH_LENGTH) + CHUNK_SUFFIX;
+            final long size = tmp.length();
+            rename(tmp, new File(dir, name));
+            return new Chunk(listId, name, size, toHex(fileDigest.digest()),
+                    contentHash);
+        }
+        finally {
+            tmp.delete();
+        }
+    }
+
+    private void writeManifest(final List<Chunk> chunks) throws IOException {
+        final byte[] bytes;
+        try {
+            final JSONArray array = new JSONArray();
+            for (Chunk chunk : chunks) {
+                array.put(chunk.toJSON());
+            }
+            final JSONObject manifest = new JSONObject();
+            manifest.put(KEY_VERSION, VERSION);
+            manifest.put(KEY_CHUNKS, array);
+            bytes = manifest.toString(2).getBytes("UTF-8");
+        } catch (JSONException e) {
+            throw new IOException(e.getMessage());
+        }
+
+        final File tmp = File.createTempFile(MANIFEST, TMP_SUFFIX, dir);
+        try {
+            final FileOutputStream out = new FileOutputStream(tmp);
+            try {
+                out.write(bytes);
+                out.getFD().sync();
+            }
+            finally {
+                out.close();
+            }
+            rename(tmp, new File(dir, MANIFEST));
+        }
+        finally {
+            tmp.delete();
+        }
+    }
+
+    /**
+     * Reads the chunks of the manifest, in backup order
+     */
+    private List<Chunk> readManifest() throws IOException {
+        final File file = new File(dir, MANIFEST);
+        if (!file.exists()) {
+            throw new FileNotFoundException(file.toString());
+        }
+        final byte[] bytes = new byte[(int) file.length()];
+        final InputStream in = new FileInputStream(file);
+        try {
+            int read = 0;
+            while (read < bytes.length) {
+                final int n = in.read(bytes, read, bytes.length - read);
+                if (n < 0) {
+                    throw new IOException("Manifest truncated");
+                }
+                read += n;
+            }
+        }
+        finally {
+            in.close();
+        }
+
+        try {
+            final JSONObject manifest = new JSONObject(new String(bytes,
+                    "UTF-8"));
+            if (manifest.getInt(KEY_VERSION) > VERSION) {
+                throw new IOException("Backup is from a newer version");
+            }
+            final JSONArray array = manifest.getJSONArray(KEY_CHUNKS);
+            final ArrayList<Chunk> chunks = new ArrayList<Chunk>(array
+                    .length());
+            for (int i = 0; i < array.length(); i++) {
+                chunks.add(new Chunk(array.getJSONObject(i)));
+            }
+            return chunks;
+        } catch (JSONException e) {
+            throw new IOException("Manifest damaged: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Deletes the list files not in the manifest, and unfinished files
+     */
+    private void deleteUnused(final List<Chunk> chunks) {
+        final HashSet<String> used = new HashSet<String>();
+        for (Chunk chunk : chunks) {
+            used.add(chunk.file);
+        }
+        final File[] files = dir.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            final String name = file.getName();
+            if (name.endsWith(TMP_SUFFIX) || (name.startsWith(CHUNK_PREFIX)
+                    && !used.contains(name))) {
+                file.delete();
+            }
+        }
+    }
+
+    private static String hashFile(final File file) throws IOException {
+        final MessageDigest digest = JSONBackupWriter.newDigest();
+        final InputStream in = new BufferedInputStream(new FileInputStream
+                (file));
+        try {
+            final byte[] buffer = new byte[8192];
+            int n;
+            while ((n = in.read(buffer)) > 0) {
+                digest.update(buffer, 0, n);
+            }
+        }
+        finally {
+            in.close();
+        }
+        return toHex(digest.digest());
+    }
+
+    private static void rename(final File from, final File to) throws
+            IOException {
+        if (!from.renameTo(to)) {
+            throw new IOException("Can't rename " + from + " to " + to);
+        }
+    }
+
+    private static String toHex(final byte[] bytes) {
+        final StringBuilder sb = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            sb.append(String.format("%02x", b));
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,391 @@
+/*
+ * Copyright (c) 2014 Jonas Kalderstam.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.nononsenseapps.notepad.sync.files;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.sqlite.SQLiteDatabase;
+import android.util.JsonReader;
+import android.util.JsonToken;
+
+import com.nononsenseapps.helpers.NotificationHelper;
+import com.nononsenseapps.helpers.UpdateNotifier;
+import com.nononsenseapps.notepad.database.DatabaseHandler;
+import com.nononsenseapps.notepad.database.Notification;
+import com.nononsenseapps.notepad.database.RemoteTask;
+import com.nononsenseapps.notepad.database.RemoteTaskList;
+import com.nononsenseapps.notepad.database.Task;
+import com.nononsenseapps.notepad.database.TaskList;
+import com.nononsenseapps.notepad.database.TaskCache;
+import com.nononsenseapps.notepad.database.TaskListCache;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Restores a backup written by JSONBackupWriter, reading it one task at a
+ * time. The file is read twice: first to validate all of it, then to
+ * restore it in a single transaction. Nothing is changed unless the whole
+ * backup is valid, and a failure while restoring leaves the old data.
+ */
+public class JSONBackupReader {
+
+    /**
+     * A part of a backup, which can be read more than once. The parts of a
+     * backup are restored together.
+     */
+    interface Source {
+        InputStream open() throws IOException;
+    }
+
+    /**
+     * A list of the backup, without its tasks
+     */
+    private static class ListHeader {
+        final JSONObject json;
+        final int taskCount;
+
+        ListHeader(final JSONObject json, final int taskCount) {
+            this.json = json;
+            this.taskCount = taskCount;
+        }
+    }
+
+    private final Context context;
+
+    public JSONBackupReader(final Context context) {
+        this.context = context;
+    }
+
+    /**
+     * Replaces the database with the backup in file. Throws if the backup is
+     * not valid, in which case nothing has been changed.
+     */
+    public void restore(final File file) throws IOException, JSONException {
+        restore(Collections.<Source>singletonList(new Source() {
+            @Override
+            public InputStream open() throws IOException {
+                return new FileInputStream(file);
+            }
+        }), true);
+    }
+
+    /**
+     * Restores the lists of all sources. If replace is true, they replace
+     * the database, otherwise they are added to it.
+     */
+    void restore(final List<Source> sources, final boolean replace) throws
+            IOException, JSONException {
+        final List<ListHeader> lists = new ArrayList<ListHeader>();
+        for (Source source : sources) {
+            validate(source, lists);
+        }
+
+        final SQLiteDatabase db = DatabaseHandler.getInstance(context)
+                .getWritableDatabase();
+        db.beginTransaction();
+        try {
+            Task.beginRestore(db, replace);
+            final long now = System.currentTimeMillis();
+            int listIndex = 0;
+            for (Source source : sources) {
+                listIndex = apply(source, lists, listIndex, db, now);
+            }
+            if (listIndex != lists.size()) {
+                throw new IOException("Backup changed while restoring");
+            }
+            Task.endRestore(db);
+            db.setTransactionSuccessful();
+        }
+        finally {
+            db.endTransaction();
+        }
+
+        TaskListCache.getInstance().invalidateAll();
+        TaskCache.getInstance().invalidateAll();
+        UpdateNotifier.notifyChangeList(context);
+        UpdateNotifier.notifyChangeNote(context);
+        // Schedule notifications
+        NotificationHelper.schedule(context);
+
+        // TODO Add geofences
+    }
+
+    /**
+     * Reads the whole source and checks that every item in it can be
+     * restored. Adds its lists, with their number of tasks, to lists.
+     */
+    private static void validate(final Source source,
+            final List<ListHeader> lists) throws IOException, JSONException {
+        final JsonReader reader = open(source);
+        try {
+            beginLists(reader);
+            while (reader.hasNext()) {
+                final JSONObject json = new JSONObject();
+                int taskCount = 0;
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    final String name = reader.nextName();
+                    if (JSONBackup.KEY_TASKS.equals(name)) {
+                        reader.beginArray();
+                        while (reader.hasNext()) {
+                            validateTask(readObject(reader));
+                            taskCount++;
+                        }
+                        reader.endArray();
+                    } else {
+                        put(json, name, readValue(reader));
+                    }
+                }
+                reader.endObject();
+
+                if (new TaskList(json).title == null) {
+                    throw new JSONException("List without title");
+                }
+                final JSONArray remotes = json.optJSONArray(JSONBackup
+                        .KEY_REMOTES);
+                for (int i = 0; remotes != null && i < remotes.length(); i++) {
+                    new RemoteTaskList(remotes.getJSONObject(i));
+                }
+                lists.add(new ListHeader(json, taskCount));
+            }
+            endLists(reader);
+        } catch (IllegalStateException e) {
+            // Not the structure of a backup
+            throw new JSONException(e.getMessage());
+        }
+        finally {
+            reader.close();
+        }
+    }
+
+    private static void validateTask(final JSONObject json) throws
+            JSONException {
+        new Task(json);
+        final JSONArray remotes = json.optJSONArray(JSONBackup.KEY_REMOTES);
+        for (int i = 0; remotes != null && i < remotes.length(); i++) {
+            new RemoteTask(remotes.getJSONObject(i));
+        }
+        final JSONArray reminders = json.optJSONArray(JSONBackup
+                .KEY_REMINDERS);
+        for (int i = 0; reminders != null && i < reminders.length(); i++) {
+            new Notification(reminders.getJSONObject(i));
+        }
+    }
+
+    /**
+     * Inserts the lists of the source, which start at listIndex in lists.
+     * Each list is inserted when it starts, from its header, so that its
+     * tasks can be inserted as they are read. Tasks are in reverse order in
+     * the backup and get their positions directly. Returns the index of the
+     * next list.
+     */
+    private static int apply(final Source source,
+            final List<ListHeader> lists, int listIndex,
+            final SQLiteDatabase db, final long now) throws IOException,
+            JSONException {
+        final JsonReader reader = open(source);
+        try {
+            beginLists(reader);
+            while (reader.hasNext()) {
+                if (listIndex >= lists.size()) {
+                    throw new IOException("Backup changed while restoring");
+                }
+                final ListHeader header = lists.get(listIndex++);
+                final long listId = insertList(db, header.json, now);
+
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    if (!JSONBackup.KEY_TASKS.equals(reader.nextName())) {
+                        reader.skipValue();
+                        continue;
+                    }
+                    reader.beginArray();
+                    int taskIndex = 0;
+                    while (reader.hasNext()) {
+                        if (taskIndex >= header.taskCount) {
+                            throw new IOException("Backup changed while " +
+                                    "restoring");
+                        }
+                        final long left = 2 * (header.taskCount - 1 -
+                                taskIndex++) + 1;
+                        insertTask(db, readObject(reader), listId, left, now);
+                    }
+                    reader.endArray();
+                }
+                reader.endObject();
+            }
+            endLists(reader);
+        }
+        finally {
+            reader.close();
+        }
+        return listIndex;
+    }
+
+    private static long insertList(final SQLiteDatabase db,
+            final JSONObject json, final long now) throws JSONException {
+        final TaskList list = new TaskList(json);
+        if (list.updated == null) {
+            list.updated = now;
+        }
+        list._id = db.insertOrThrow(TaskList.TABLE_NAME, null, list
+                .getContent());
+
+        final JSONArray remotes = json.optJSONArray(JSONBackup.KEY_REMOTES);
+        for (int i = 0; remotes != null && i < remotes.length(); i++) {
+            final RemoteTaskList remote = new RemoteTaskList(remotes
+                    .getJSONObject(i));
+            remote.dbid = list._id;
+            db.insertOrThrow(RemoteTaskList.TABLE_NAME, null, remote
+                    .getContent());
+        }
+        return list._id;
+    }
+
+    private static void insertTask(final SQLiteDatabase db,
+            final JSONObject json, final long listId, final long left,
+            final long now) throws JSONException {
+        final Task task = new Task(json);
+        task.dblist = listId;
+        if (task.updated == null) {
+            task.updated = now;
+        }
+        final ContentValues values = task.getContent();
+        values.put(Task.Columns.LEFT, left);
+        values.put(Task.Columns.RIGHT, left + 1);
+        task._id = db.insertOrThrow(Task.TABLE_NAME, null, values);
+
+        final JSONArray remotes = json.optJSONArray(JSONBackup.KEY_REMOTES);
+        for (int i = 0; remotes != null && i < remotes.length(); i++) {
+            final RemoteTask remote = new RemoteTask(remotes.getJSONObject(i));
+            remote.dbid = task._id;
+            remote.listdbid = listId;
+            db.insertOrThrow(RemoteTask.TABLE_NAME, null, remote.getContent());
+        }
+        final JSONArray reminders = json.optJSONArray(JSONBackup
+                .KEY_REMINDERS);
+        for (int i = 0; reminders != null && i < reminders.length(); i++) {
+            final Notification reminder = new Notification(reminders
+                    .getJSONObject(i));
+            reminder.taskID = task._id;
+            db.insertOrThrow(Notification.TABLE_NAME, null, reminder
+                    .getContent());
+        }
+    }
+
+    private static JsonReader open(final Source source) throws IOException {
+        return new JsonReader(new InputStreamReader(new BufferedInputStream(
+                source.open()), "UTF-8"));
+    }
+
+    /**
+     * Moves the reader into the array of lists
+     */
+    private static void beginLists(final JsonReader reader) throws
+            IOException, JSONException {
+        reader.beginObject();
+        while (reader.hasNext()) {
+            if (JSONBackup.KEY_LISTS.equals(reader.nextName())) {
+                reader.beginArray();
+                return;
+            }
+            reader.skipValue();
+        }
+        throw new JSONException("No lists in backup");
+    }
+
+    private static void endLists(final JsonReader reader) throws
+            IOException {
+        reader.endArray();
+        while (reader.hasNext()) {
+            reader.nextName();
+            reader.skipValue();
+        }
+        reader.endObject();
+    }
+
+    private static JSONObject readObject(final JsonReader reader) throws
+            IOException, JSONException {
+        final JSONObject json = new JSONObject();
+        reader.beginObject();
+        while (reader.hasNext()) {
+            put(json, reader.nextName(), readValue(reader));
+        }
+        reader.endObject();
+        return json;
+    }
+
+    private static JSONArray readArray(final JsonReader reader) throws
+            IOException, JSONException {
+        final JSONArray json = new JSONArray();
+        reader.beginArray();
+        while (reader.hasNext()) {
+            json.put(readValue(reader));
+        }
+        reader.endArray();
+        return json;
+    }
+
+    private static Object readValue(final JsonReader reader) throws
+            IOException, JSONException {
+        final JsonToken token = reader.peek();
+        switch (token) {
+        case BEGIN_OBJECT:
+            return readObject(reader);
+        case BEGIN_ARRAY:
+            return readArray(reader);
+        case STRING:
+            return reader.nextString();
+        case NUMBER:
+            final String number = reader.nextString();
+            try {
+                return Long.parseLong(number);
+            } catch (NumberFormatException e) {
+                return Double.parseDouble(number);
+            }
+        case BOOLEAN:
+            return reader.nextBoolean();
+        case NULL:
+            reader.nextNull();
+            return null;
+        default:
+            throw new JSONException("Unexpected " + token);
+        }
+    }
+
+    /**
+     * Null values are left out, as the models treat missing and null alike
+     */
+    private static void put(final JSONObject json, final String name,
+            final Object value) throws JSONException {
+        if (value != null) {
+            json.put(name, value);
+        }
+    }
+}
@@ -0,0 +1,319 @@
+/*
+ * Copyright (c) 2014 Jonas Kalderstam.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.nononsenseapps.notepad.sync.files;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.util.JsonWriter;
+
+import com.nononsenseapps.notepad.database.DatabaseHandler;
+import com.nononsenseapps.notepad.database.Notification;
+import com.nononsenseapps.notepad.database.RemoteTask;
+import com.nononsenseapps.notepad.database.RemoteTaskList;
+import com.nononsenseapps.notepad.database.Task;
+import com.nononsenseapps.notepad.database.TaskList;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * Writes the backup while reading the database, one row at a time. Every
+ * table is read with a single query, sorted in the order of the lists and
+ * tasks in the backup, so the remotes and reminders of a task are the next
+ * rows of their cursors. The queries run in one transaction, so they see
+ * the same rows. Memory use does not grow with the database.
+ */
+public class JSONBackupWriter {
+
+    // Lists are sorted on id, so rows of other lists can be told apart,
+    // tasks reversed as adding is done at the top
+    private static final String LIST_ORDER = TaskList.TABLE_NAME + "." +
+            TaskList.Columns._ID;
+    private static final String TASK_ORDER = LIST_ORDER + "," + Task
+            .TABLE_NAME + "." + Task.Columns.LEFT + " DESC," + Task
+            .TABLE_NAME + "." + Task.Columns._ID;
+    private static final String HASH = "SHA-256";
+
+    private final Context context;
+
+    public JSONBackupWriter(final Context context) {
+        this.context = context;
+    }
+
+    /**
+     * Writes the backup to out, which is flushed but not closed.
+     */
+    public void write(final OutputStream out) throws IOException {
+        write(out, "", null);
+    }
+
+    /**
+     * Writes a backup of a single list, in the same format.
+     */
+    public void writeList(final long listId, final OutputStream out) throws
+            IOException {
+        write(out, " WHERE " + TaskList.TABLE_NAME + "." + TaskList.Columns
+                ._ID + " IS ?", new String[] { Long.toString(listId) });
+    }
+
+    /**
+     * The digest used for backup hashes
+     */
+    static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance(HASH);
+        } catch (NoSuchAlgorithmException e) {
+            // Always available
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Returns the ids of all lists, in backup order
+     */
+    long[] getListIds() {
+        final Cursor c = DatabaseHandler.getInstance(context)
+                .getReadableDatabase().rawQuery("SELECT " + TaskList
+                        .TABLE_NAME + "." + TaskList.Columns._ID + " FROM " +
+                        TaskList.TABLE_NAME + " ORDER BY " + LIST_ORDER, null);
+        try {
+            final long[] ids = new long[c.getCount()];
+            for (int i = 0; c.moveToNext(); i++) {
+                ids[i] = c.getLong(0);
+            }
+            return ids;
+        }
+        finally {
+            c.close();
+        }
+    }
+
+    /**
+     * Writes the lists matching where, which is applied to the list table
+     */
+    private void write(final OutputStream out, final String where,
+            final String[] whereArgs) throws IOException {
+        final SQLiteDatabase db = DatabaseHandler.getInstance(context)
+                .getReadableDatabase();
+        final JsonWriter writer = new JsonWriter(new OutputStreamWriter(out,
+                "UTF-8"));
+        writer.setIndent("  ");
+
+        Cursor lists = null;
+        Cursor remoteLists = null;
+        Cursor tasks = null;
+        Cursor remoteTasks = null;
+        Cursor reminders = null;
+        db.beginTransactionNonExclusive();
+        try {
+            lists = db.rawQuery(select(TaskList.TABLE_NAME, TaskList.Columns
+                    .FIELDS) + where + " ORDER BY " + LIST_ORDER, whereArgs);
+            remoteLists = db.rawQuery(select(RemoteTaskList.TABLE_NAME,
+                    RemoteTaskList.Columns.FIELDS) + joinList(RemoteTaskList
+                    .TABLE_NAME + "." + RemoteTaskList.Columns.DBID) + where +
+                    " ORDER BY " + LIST_ORDER + "," + RemoteTaskList.TABLE_NAME
+                    + "." + RemoteTaskList.Columns.SERVICE, whereArgs);
+            tasks = db.rawQuery(select(Task.TABLE_NAME, Task.Columns.FIELDS)
+                    + joinList(Task.TABLE_NAME + "." + Task.Columns.DBLIST) +
+                    where + " ORDER BY " + TASK_ORDER, whereArgs);
+            remoteTasks = db.rawQuery(select(RemoteTask.TABLE_NAME,
+                    RemoteTask.Columns.FIELDS) + joinTask(RemoteTask
+                    .TABLE_NAME + "." + RemoteTask.Columns.DBID) + where +
+                    " ORDER BY " + TASK_ORDER + "," + RemoteTask.TABLE_NAME +
+                    "." + RemoteTask.Columns.SERVICE, whereArgs);
+            reminders = db.rawQuery(select(Notification.TABLE_NAME,
+                    Notification.Columns.FIELDS) + joinTask(Notification
+                    .TABLE_NAME + "." + Notification.Columns.TASKID) + where +
+                    " ORDER BY " + TASK_ORDER + "," + Notification.TABLE_NAME
+                    + "." + Notification.Columns.TIME, whereArgs);
+
+            remoteLists.moveToFirst();
+            tasks.moveToFirst();
+            remoteTasks.moveToFirst();
+            reminders.moveToFirst();
+            final int remoteListCol = indexOf(RemoteTaskList.Columns.FIELDS,
+                    RemoteTaskList.Columns.DBID);
+            final int taskListCol = indexOf(Task.Columns.FIELDS, Task.Columns
+                    .DBLIST);
+            final int remoteTaskCol = indexOf(RemoteTask.Columns.FIELDS,
+                    RemoteTask.Columns.DBID);
+            final int reminderTaskCol = indexOf(Notification.Columns.FIELDS,
+                    Notification.Columns.TASKID);
+
+            writer.beginObject();
+            writer.name(JSONBackup.KEY_LISTS).beginArray();
+            while (lists.moveToNext()) {
+                final TaskList list = new TaskList(lists);
+                writer.beginObject();
+                writer.name(TaskList.Columns._ID).value(list._id);
+                writeContent(writer, list.getContent());
+
+                skipBelow(remoteLists, remoteListCol, list._id);
+                skipBelow(tasks, taskListCol, list._id);
+
+                writer.name(JSONBackup.KEY_REMOTES).beginArray();
+                while (isOf(remoteLists, remoteListCol, list._id)) {
+                    final RemoteTaskList remote = new RemoteTaskList
+                            (remoteLists);
+                    writer.beginObject();
+                    writer.name(RemoteTaskList.Columns._ID).value(remote._id);
+                    writeContent(writer, remote.getContent());
+                    writer.endObject();
+                    remoteLists.moveToNext();
+                }
+                writer.endArray();
+
+                writer.name(JSONBackup.KEY_TASKS).beginArray();
+                while (isOf(tasks, taskListCol, list._id)) {
+                    writeTask(writer, new Task(tasks), remoteTasks,
+                            remoteTaskCol, reminders, reminderTaskCol);
+                    tasks.moveToNext();
+                }
+                writer.endArray();
+
+                writer.endObject();
+            }
+            writer.endArray();
+            writer.endObject();
+            writer.flush();
+        }
+        finally {
+            close(lists);
+            close(remoteLists);
+            close(tasks);
+            close(remoteTasks);
+            close(reminders);
+            // Only read, nothing to commit
+            db.endTransaction();
+        }
+    }
+
+    private static void writeTask(final JsonWriter writer, final Task task,
+            final Cursor remoteTasks, final int remoteTaskCol,
+            final Cursor reminders, final int reminderTaskCol) throws
+            IOException {
+        writer.beginObject();
+        writer.name(Task.Columns._ID).value(task._id);
+        writeContent(writer, task.getContent());
+        writer.name(Task.Columns.LEFT).value(task.left);
+        writer.name(Task.Columns.RIGHT).value(task.right);
+
+        writer.name(JSONBackup.KEY_REMOTES).beginArray();
+        while (isOf(remoteTasks, remoteTaskCol, task._id)) {
+            final RemoteTask remote = new RemoteTask(remoteTasks);
+            writer.beginObject();
+            writer.name(RemoteTask.Columns._ID).value(remote._id);
+            writeContent(writer, remote.getContent());
+            writer.endObject();
+            remoteTasks.moveToNext();
+        }
+        writer.endArray();
+
+        writer.name(JSONBackup.KEY_REMINDERS).beginArray();
+        while (isOf(reminders, reminderTaskCol, task._id)) {
+            final Notification reminder = new Notification(reminders);
+            writer.beginObject();
+            writer.name(Notification.Columns._ID).value(reminder._id);
+            writeContent(writer, reminder.getContent());
+            writer.endObject();
+            reminders.moveToNext();
+        }
+        writer.endArray();
+
+        writer.endObject();
+    }
+
+    /**
+     * Writes the values as the members of the current object. Null values
+     * are left out, as JSONObject does.
+     */
+    private static void writeContent(final JsonWriter writer,
+            final ContentValues content) throws IOException {
+        for (Map.Entry<String, Object> entry : content.valueSet()) {
+            final Object value = entry.getValue();
+            if (value == null) {
+                continue;
+            }
+            writer.name(entry.getKey());
+            if (value instanceof Number) {
+                writer.value((Number) value);
+            } else if (value instanceof Boolean) {
+                writer.value((Boolean) value);
+            } else {
+                writer.value(value.toString());
+            }
+        }
+    }
+
+    /**
+     * True if the cursor is at a row whose column col is id
+     */
+    private static boolean isOf(final Cursor c, final int col, final long id) {
+        return !c.isAfterLast() && c.getLong(col) == id;
+    }
+
+    /**
+     * Moves the cursor past rows whose column col is below id. Those belong
+     * to lists which were not written, and would stop the cursor from
+     * reaching the rows of the lists after them.
+     */
+    private static void skipBelow(final Cursor c, final int col,
+            final long id) {
+        while (!c.isAfterLast() && c.getLong(col) < id) {
+            c.moveToNext();
+        }
+    }
+
+    private static String select(final String table, final String[] fields) {
+        final StringBuilder sb = new StringBuilder("SELECT ");
+        for (int i = 0; i < fields.length; i++) {
+            if (i > 0) {
+                sb.append(",");
+            }
+            sb.append(table).append(".").append(fields[i]);
+        }
+        return sb.append(" FROM ").append(table).toString();
+    }
+
+    private static String joinList(final String listIdColumn) {
+        return " JOIN " + TaskList.TABLE_NAME + " ON " + listIdColumn + " = "
+                + TaskList.TABLE_NAME + "." + TaskList.Columns._ID;
+    }
+
+    private static String joinTask(final String taskIdColumn) {
+        return " JOIN " + Task.TABLE_NAME + " ON " + taskIdColumn + " = " +
+                Task.TABLE_NAME + "." + Task.Columns._ID + joinList(Task
+                .TABLE_NAME + "." + Task.Columns.DBLIST);
+    }
+
+    private static int indexOf(final String[] fields, final String field) {
+        return Arrays.asList(fields).indexOf(field);
+    }
+
+    private static void close(final Cursor c) {
+        if (c != null) {
+            c.close();
+        }
+    }
+}
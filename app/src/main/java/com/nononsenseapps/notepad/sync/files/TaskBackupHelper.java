@@ -0,0 +1,294 @@
+/*
+ * Copyright (c) 2014 Jonas Kalderstam.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.nononsenseapps.notepad.sync.files;
+
+import android.app.backup.BackupDataInputStream;
+import android.app.backup.BackupDataOutput;
+import android.app.backup.BackupHelper;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.ParcelFileDescriptor;
+import android.util.Log;
+
+import com.nononsenseapps.notepad.R;
+import com.nononsenseapps.notepad.database.DatabaseHandler;
+import com.nononsenseapps.notepad.database.RemoteTaskList;
+import com.nononsenseapps.notepad.database.Task;
+import com.nononsenseapps.notepad.database.TaskList;
+
+import org.json.JSONException;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Backs up lists and tasks with the Android backup service. Every list is
+ * one entity, holding its gzipped backup in the format of JSONBackupWriter.
+ * The state keeps the hash of every entity sent, so that only the lists
+ * which changed since the last backup are sent again, and the entities of
+ * deleted lists are deleted.
+ * <p/>
+ * Restored entities are collected, and their lists added to the database
+ * in one pass once all have been received. The database is normally empty
+ * right after installing, apart from the default list, which is replaced.
+ */
+public class TaskBackupHelper implements BackupHelper {
+    private static final String TAG = "nononsenseapps backup";
+    private static final String KEY_PREFIX = "list-";
+    private static final int STATE_VERSION = 1;
+
+    /**
+     * Where the entities of a backup go
+     */
+    public interface EntityOutput {
+        /**
+         * Writes size bytes of data as the entity key. A size of -1 deletes
+         * the entity.
+         */
+        void writeEntity(String key, byte[] data, int size) throws
+                IOException;
+    }
+
+    private final Context context;
+    // Received entities, restored together by finishRestore
+    private final ArrayList<JSONBackupReader.Source> pendingSources = new
+            ArrayList<JSONBackupReader.Source>();
+    private final ArrayList<String> pendingKeys = new ArrayList<String>();
+    // Restored entities, kept in the state so the next backup replaces them
+    private final ArrayList<String> restoredKeys = new ArrayList<String>();
+
+    public TaskBackupHelper(final Context context) {
+        this.context = context;
+    }
+
+    @Override
+    public void performBackup(final ParcelFileDescriptor oldState,
+            final BackupDataOutput data, final ParcelFileDescriptor newState) {
+        // Not closed, the descriptors belong to the backup service
+        final InputStream old = oldState == null ? null : new
+                FileInputStream(oldState.getFileDescriptor());
+        try {
+            performBackup(old, new EntityOutput() {
+                @Override
+                public void writeEntity(final String key, final byte[] bytes,
+                        final int size) throws IOException {
+                    data.writeEntityHeader(key, size);
+                    if (size > 0) {
+                        data.writeEntityData(bytes, size);
+                    }
+                }
+            }, new FileOutputStream(newState.getFileDescriptor()));
+        } catch (IOException e) {
+            // Without a new state, the next backup sends all lists again
+            Log.e(TAG, "Failed to back up tasks", e);
+        }
+    }
+
+    /**
+     * Writes the lists which changed since oldState to out, and the state of
+     * this backup to newState.
+     *
+     * @param oldState state of the previous backup, or null if none
+     */
+    public void performBackup(final InputStream oldState,
+            final EntityOutput out, final OutputStream newState) throws
+            IOException {
+        final Map<String, byte[]> old = readState(oldState);
+        final Map<String, byte[]> state = new LinkedHashMap<String, byte[]>();
+        final JSONBackupWriter writer = new JSONBackupWriter(context);
+        for (long listId : writer.getListIds()) {
+            final String key = KEY_PREFIX + listId;
+            // Serialized once, the bytes are both hashed and sent
+            final ByteArrayOutputStream content = new ByteArrayOutputStream();
+            writer.writeList(listId, content);
+            final byte[] bytes = content.toByteArray();
+            final byte[] hash = JSONBackupWriter.newDigest().digest(bytes);
+            if (!Arrays.equals(hash, old.get(key))) {
+                writeEntity(bytes, key, out);
+            }
+            state.put(key, hash);
+        }
+        for (String key : old.keySet()) {
+            if (!state.containsKey(key)) {
+                out.writeEntity(key, null, -1);
+            }
+        }
+        writeState(newState, state);
+    }
+
+    /**
+     * Sends the backup of a list, as read by JSONBackupWriter.writeList
+     */
+    private static void writeEntity(final byte[] content, final String key,
+            final EntityOutput out) throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final GZIPOutputStream gzip = new GZIPOutputStream(bytes);
+        gzip.write(content);
+        gzip.finish();
+        out.writeEntity(key, bytes.toByteArray(), bytes.size());
+    }
+
+    @Override
+    public void restoreEntity(final BackupDataInputStream data) {
+        try {
+            final byte[] bytes = new byte[data.size()];
+            new DataInputStream(data).readFully(bytes);
+            restoreEntity(data.getKey(), bytes);
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to restore " + data.getKey(), e);
+        }
+    }
+
+    /**
+     * Keeps the list of a backed up entity, to be added to the database by
+     * {@link #finishRestore()}
+     */
+    public void restoreEntity(final String key, final byte[] data) {
+        if (!key.startsWith(KEY_PREFIX)) {
+            return;
+        }
+        pendingSources.add(new JSONBackupReader.Source() {
+            @Override
+            public InputStream open() throws IOException {
+                return new GZIPInputStream(new ByteArrayInputStream(data));
+            }
+        });
+        pendingKeys.add(key);
+    }
+
+    /**
+     * Adds the lists of all received entities to the database, in one
+     * transaction. If the database only holds the default list, made when
+     * it was created, that list is replaced.
+     */
+    public void finishRestore() throws IOException, JSONException {
+        if (pendingSources.isEmpty()) {
+            return;
+        }
+        new JSONBackupReader(context).restore(pendingSources,
+                hasOnlyDefaultList());
+        restoredKeys.addAll(pendingKeys);
+        pendingSources.clear();
+        pendingKeys.clear();
+    }
+
+    private boolean hasOnlyDefaultList() {
+        final SQLiteDatabase db = DatabaseHandler.getInstance(context)
+                .getReadableDatabase();
+        if (DatabaseUtils.queryNumEntries(db, Task.TABLE_NAME) > 0
+                || DatabaseUtils.queryNumEntries(db, RemoteTaskList
+                .TABLE_NAME) > 0) {
+            return false;
+        }
+        final Cursor c = db.query(TaskList.TABLE_NAME, new String[] {
+                TaskList.Columns.TITLE }, null, null, null, null, null);
+        try {
+            return c.getCount() == 1 && c.moveToFirst() && context.getString
+                    (R.string.tasks).equals(c.getString(0));
+        }
+        finally {
+            c.close();
+        }
+    }
+
+    @Override
+    public void writeNewStateDescription(final ParcelFileDescriptor newState) {
+        // Called once all entities have been received
+        try {
+            finishRestore();
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to restore tasks", e);
+        } catch (JSONException e) {
+            Log.e(TAG, "Failed to restore tasks", e);
+        }
+        try {
+            writeRestoredState(new FileOutputStream(newState
+                    .getFileDescriptor()));
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to write backup state", e);
+        }
+    }
+
+    /**
+     * Writes the state after a restore. Restored lists get new ids, so their
+     * entities are listed without hashes to be deleted or replaced by the
+     * next backup.
+     */
+    public void writeRestoredState(final OutputStream newState) throws
+            IOException {
+        final Map<String, byte[]> state = new LinkedHashMap<String, byte[]>();
+        for (String key : restoredKeys) {
+            state.put(key, new byte[0]);
+        }
+        writeState(newState, state);
+    }
+
+    private static Map<String, byte[]> readState(final InputStream in)
+            throws IOException {
+        final Map<String, byte[]> state = new HashMap<String, byte[]>();
+        if (in == null) {
+            return state;
+        }
+        final DataInputStream data = new DataInputStream(in);
+        try {
+            if (data.readInt() != STATE_VERSION) {
+                // Unknown state, back up everything
+                return state;
+            }
+            final int count = data.readInt();
+            for (int i = 0; i < count; i++) {
+                final String key = data.readUTF();
+                final byte[] hash = new byte[data.readInt()];
+                data.readFully(hash);
+                state.put(key, hash);
+            }
+        } catch (EOFException e) {
+            // No previous backup, or cut short. Use what could be read.
+        }
+        return state;
+    }
+
+    private static void writeState(final OutputStream out,
+            final Map<String, byte[]> state) throws IOException {
+        final DataOutputStream data = new DataOutputStream(out);
+        data.writeInt(STATE_VERSION);
+        data.writeInt(state.size());
+        for (Map.Entry<String, byte[]> entry : state.entrySet()) {
+            data.writeUTF(entry.getKey());
+            data.writeInt(entry.getValue().length);
+            data.write(entry.getValue());
+        }
+        data.flush();
+    }
+}
@@ -10,6 +10,7 @@ import com.nononsenseapps.notepad.database.RemoteTask;
 import com.nononsenseapps.notepad.database.RemoteTaskList;
 import com.nononsenseapps.notepad.database.Task;
 import com.nononsenseapps.notepad.database.TaskList;
+import com.nononsenseapps.notepad.database.TaskListCache;
 
 import org.cowboyprogrammer.org.OrgFile;
 import org.cowboyprogrammer.org.OrgNode;
@@ -19,6 +20,7 @@ import java.io.BufferedReader;
 import java.io.IOException;
 import java.text.ParseException;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
@@ -219,6 +221,7 @@ public abstract class DBSyncBase implements SynchronizerInterface {
         for (String filename : filenames) {
             Log.d(Synchronizer.TAG, "Get Filename: " + filename);
         }
+        final HashMap<String, OrgFile> files = getRemoteFiles(filenames);
 
         // Construct pairs from lists first. This removes entries as it goes.
         for (Long dbid : lists.keySet()) {
@@ -227,10 +230,7 @@ public abstract class DBSyncBase implements SynchronizerInterface {
             OrgFile file = null;
             // Can be null
             if (remote != null && filenames.remove(remote.remoteId)) {
-                final BufferedReader br = getRemoteFile(remote.remoteId);
-                if (br != null) {
-                    file = OrgFile.createFromBufferedReader(remote.remoteId, br);
-                }
+                file = files.get(remote.remoteId);
             }
             String l = list.title;
             String r = null;
@@ -250,10 +250,7 @@ public abstract class DBSyncBase implements SynchronizerInterface {
             OrgFile file = null;
             // Can be null
             if (remote != null && filenames.remove(remote.remoteId)) {
-                final BufferedReader br = getRemoteFile(remote.remoteId);
-                if (br != null) {
-                    file = OrgFile.createFromBufferedReader(remote.remoteId, br);
-                }
+                file = files.get(remote.remoteId);
             }
             String l = null;
             String r = null;
@@ -271,11 +268,7 @@ public abstract class DBSyncBase implements SynchronizerInterface {
         for (String filename : filenames) {
             TaskList list = null;
             RemoteTaskList remote = null;
-            OrgFile file = null;
-            final BufferedReader br = getRemoteFile(filename);
-            if (br != null) {
-                file = OrgFile.createFromBufferedReader(filename, br);
-            }
+            OrgFile file = files.get(filename);
             String l = null;
             String r = null;
             String f = null;
@@ -292,6 +285,31 @@ public abstract class DBSyncBase implements SynchronizerInterface {
         return result;
     }
 
+    /**
+     * Reads and parses the given remote files. Synchronizers whose files
+     * can take time to become available should override this and read them
+     * in whatever order they are ready.
+     *
+     * @param filenames Files to read, without path
+     * @return a map from filename to OrgFile. Files which could not be read
+     * are left out.
+     * @throws IOException
+     * @throws ParseException
+     */
+    protected HashMap<String, OrgFile> getRemoteFiles(
+            final Collection<String> filenames) throws IOException,
+            ParseException {
+        final HashMap<String, OrgFile> files = new HashMap<String, OrgFile>();
+        for (String filename : filenames) {
+            final BufferedReader br = getRemoteFile(filename);
+            if (br != null) {
+                files.put(filename, OrgFile.createFromBufferedReader(filename,
+                        br));
+            }
+        }
+        return files;
+    }
+
     /**
      * @return a map from list-dbid to RemoteTaskList
      */
@@ -320,17 +338,10 @@ public abstract class DBSyncBase implements SynchronizerInterface {
      */
     private HashMap<Long, TaskList> getLists() {
         final HashMap<Long, TaskList> map = new HashMap<Long, TaskList>();
-        final Cursor c = resolver.query(TaskList.URI, TaskList.Columns.FIELDS,
-                null, null, null);
-        try {
-            while (c.moveToNext()) {
-                TaskList list = new TaskList(c);
-                Log.d(Synchronizer.TAG, "Get list: " + list.title);
-                map.put(list._id, list);
-            }
-        } finally {
-            if (c != null)
-                c.close();
+        // Copies, so they can be changed while syncing
+        for (TaskList list : TaskListCache.getInstance().getAll(context)) {
+            Log.d(Synchronizer.TAG, "Get list: " + list.title);
+            map.put(list._id, list);
         }
 
         return map;
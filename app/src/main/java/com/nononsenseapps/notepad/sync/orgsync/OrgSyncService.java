@@ -40,6 +40,7 @@ import com.nononsenseapps.notepad.database.TaskList;
 import com.nononsenseapps.notepad.prefs.PrefsActivity;
 import com.nononsenseapps.notepad.prefs.SyncPrefs;
 import com.nononsenseapps.notepad.sync.SyncAdapter;
+import com.nononsenseapps.notepad.widget.WidgetRefreshCoordinator;
 
 import java.io.IOException;
 import java.text.ParseException;
@@ -268,6 +269,9 @@ public class OrgSyncService extends Service {
                         syncer.fullSync();
                         syncer.postSynchronize();
                     }
+                    // Widgets were throttled during sync
+                    WidgetRefreshCoordinator.getInstance(OrgSyncService.this)
+                            .flush();
                     sendBroadcast(new Intent(SyncAdapter.SYNC_FINISHED));
                     // Restart monitors
                     for (final Monitor monitor: monitors) {
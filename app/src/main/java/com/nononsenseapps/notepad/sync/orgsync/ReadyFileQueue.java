@@ -0,0 +1,111 @@
+/*
+ * Copyright (c) 2014 Jonas Kalderstam.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.nononsenseapps.notepad.sync.orgsync;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Hands out filenames in the order they can be read from a
+ * {@link RemoteFileCache}. Files which are already cached come first, the
+ * rest as their downloads finish. Files which are not ready when the
+ * timeout expires are handed out last, and the caller will have to make do
+ * with whatever version is cached.
+ * <p/>
+ * Not thread safe, meant to be consumed by the sync thread only. The
+ * listeners can be called on any thread.
+ */
+public class ReadyFileQueue implements RemoteFileCache.Listener {
+
+    private final LinkedBlockingQueue<String> ready = new
+            LinkedBlockingQueue<String>();
+    // Guarded by itself
+    private final LinkedHashSet<String> pending = new LinkedHashSet<String>();
+    private final long deadline;
+    private int remaining;
+
+    /**
+     * @param cache     File system to read from
+     * @param filenames Files that will be read
+     * @param timeout   Maximum time in milliseconds to wait for all files
+     */
+    public ReadyFileQueue(final RemoteFileCache cache,
+            final Collection<String> filenames, final long timeout)
+            throws IOException {
+        this.deadline = System.currentTimeMillis() + timeout;
+        this.remaining = filenames.size();
+
+        for (String filename : filenames) {
+            if (cache.isLatestCached(filename)) {
+                ready.add(filename);
+            } else {
+                synchronized (pending) {
+                    pending.add(filename);
+                }
+                // Must be pending before the listener can fire
+                cache.listen(filename, this);
+            }
+        }
+    }
+
+    @Override
+    public void onFileReady(final String filename) {
+        synchronized (pending) {
+            if (pending.remove(filename)) {
+                ready.add(filename);
+            }
+        }
+    }
+
+    /**
+     * Returns the next file to read, waiting for one to become ready if
+     * necessary.
+     *
+     * @return a filename, or null when all files have been returned.
+     * @throws InterruptedException
+     */
+    public String next() throws InterruptedException {
+        if (remaining <= 0) {
+            return null;
+        }
+
+        String filename = ready.poll(Math.max(0,
+                deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+
+        if (filename == null) {
+            // Timed out, hand out the slow ones as they are
+            synchronized (pending) {
+                final Iterator<String> it = pending.iterator();
+                if (it.hasNext()) {
+                    filename = it.next();
+                    it.remove();
+                }
+            }
+            if (filename == null) {
+                // A listener got there first
+                filename = ready.take();
+            }
+        }
+
+        remaining--;
+        return filename;
+    }
+}
@@ -0,0 +1,63 @@
+/*
+ * Copyright (c) 2014 Jonas Kalderstam.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.nononsenseapps.notepad.sync.orgsync;
+
+import java.io.IOException;
+
+/**
+ * A remote file system which keeps local copies of its files and downloads
+ * them in the background, like the Dropbox Sync API. Used by
+ * {@link ReadyFileQueue} to read files in the order they become available
+ * instead of blocking on each one in turn.
+ */
+public interface RemoteFileCache {
+
+    /**
+     * Notified when the latest version of a file is available locally.
+     */
+    public interface Listener {
+        /**
+         * May be called on any thread, and more than once for the same file.
+         *
+         * @param filename Name of the file, without path
+         */
+        public void onFileReady(final String filename);
+    }
+
+    /**
+     * @param filename Name of the file, without path
+     * @return true if the latest version of the file can be read without
+     * waiting on the network.
+     */
+    public boolean isLatestCached(final String filename) throws IOException;
+
+    /**
+     * Start listening for the file to become available. The listener must
+     * be called once the file is ready, even if the file was already ready
+     * when this method was called.
+     *
+     * @param filename Name of the file, without path
+     * @param listener To notify
+     */
+    public void listen(final String filename, final Listener listener)
+            throws IOException;
+
+    /**
+     * Remove all listeners added with {@link #listen(String, Listener)}.
+     */
+    public void stopListening();
+}
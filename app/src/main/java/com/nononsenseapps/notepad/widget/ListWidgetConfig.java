@@ -11,6 +11,7 @@ import com.nononsenseapps.helpers.TimeFormatter;
 import com.nononsenseapps.notepad.R;
 import com.nononsenseapps.notepad.database.Task;
 import com.nononsenseapps.notepad.database.TaskList;
+import com.nononsenseapps.notepad.fragments.TaskListsLoader;
 import com.nononsenseapps.ui.ExtrasCursorAdapter;
 import com.nononsenseapps.utils.views.TitleNoteTextView;
 
@@ -275,9 +276,7 @@ public class ListWidgetConfig extends FragmentActivity {
 			public Loader<Cursor> onCreateLoader(int id, Bundle arg1) {
 
 				if (id == 1) {
-					return new CursorLoader(ListWidgetConfig.this,
-							TaskList.URI, TaskList.Columns.FIELDS, null, null,
-							getString(R.string.const_as_alphabetic, TaskList.Columns.TITLE));
+					return new TaskListsLoader(ListWidgetConfig.this);
 				}
 				else {
 					final Uri targetUri;
@@ -323,7 +322,7 @@ public class ListWidgetConfig extends FragmentActivity {
 					}
 
 					return new CursorLoader(ListWidgetConfig.this, targetUri,
-							Task.Columns.FIELDS,
+							Task.Columns.LIST_FIELDS,
 							listWhere,
 							listArg, sortSpec);
 				}
@@ -378,6 +377,10 @@ public class ListWidgetConfig extends FragmentActivity {
 						// "Done"
 						// // Set success
 						widgetPrefs.setPresent();
+						WidgetRefreshCoordinator.getInstance(
+								getApplicationContext()).setWidgetList(
+								appWidgetId,
+								widgetPrefs.getLong(KEY_LIST, ALL_LISTS_ID));
 						Intent resultValue = new Intent();
 						resultValue.putExtra(
 								AppWidgetManager.EXTRA_APPWIDGET_ID,
@@ -118,6 +118,10 @@ public class ListWidgetProvider extends AppWidgetProvider {
 		for (int widgetId : appWidgetIds) {
 			WidgetPrefs.delete(context, widgetId);
 		}
+		WidgetRefreshCoordinator.getInstance(context).removeWidgets(
+				appWidgetIds);
+		// Frees the shared query results if no other widget uses them
+		WidgetQueryCache.getInstance().removeWidgets(appWidgetIds);
 	}
 
 	@Override
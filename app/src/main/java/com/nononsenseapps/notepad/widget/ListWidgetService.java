@@ -16,8 +16,7 @@
 
 package com.nononsenseapps.notepad.widget;
 
-import java.text.SimpleDateFormat;
-import java.util.Date;
+import java.util.HashMap;
 
 import com.nononsenseapps.helpers.Log;
 import com.nononsenseapps.helpers.TimeFormatter;
@@ -60,12 +59,33 @@ public class ListWidgetService extends RemoteViewsService {
 	 */
 	static class ListRemoteViewsFactory implements
 			RemoteViewsService.RemoteViewsFactory {
+		private static final WidgetRowModel[] NO_ROWS = new WidgetRowModel[0];
+
+		private static final WidgetRowModel.TextStyler STYLER = new WidgetRowModel.TextStyler() {
+			@Override
+			public CharSequence style(final String title, final String note) {
+				if (note == null) {
+					return TitleNoteTextView.getStyledText(title, 1.0f, 1, 0);
+				}
+				return TitleNoteTextView.getStyledText(title, note, 1.0f, 1,
+						0);
+			}
+		};
+
 		private Context mContext;
-		// private HeaderCursor mCursor;
-		private Cursor mCursor;
 		private int mAppWidgetId;
-		private SimpleDateFormat mDateFormatter = null;
-		private SimpleDateFormat weekdayFormatter;
+		// Computed in onDataSetChanged
+		private WidgetRowModel[] mRows = NO_ROWS;
+
+		// Widget settings, read in onDataSetChanged
+		private boolean mIsPresent;
+		private long mListId;
+		private int mTheme;
+		private int mPrimaryTextColor;
+		private int mTitleRows;
+		private boolean mIsCheckboxHidden;
+		private boolean mIsDateHidden;
+		private boolean mIsLockscreen;
 
 		// private static final String indent = "    ";
 		// private long listId = -1;
@@ -83,199 +103,109 @@ public class ListWidgetService extends RemoteViewsService {
 
 		@Override
 		public void onDestroy() {
-			if (mCursor != null) {
-				mCursor.close();
-			}
+			mRows = NO_ROWS;
 		}
 
 		@Override
 		public int getCount() {
-			if (mCursor != null)
-				return mCursor.getCount();
-			else
-				return 0;
+			return mRows.length;
 		}
 
 		@Override
 		public RemoteViews getViewAt(int position) {
-			// Get widget settings
-			final WidgetPrefs widgetPrefs = new WidgetPrefs(mContext,
-					mAppWidgetId);
-
-			if (!widgetPrefs.isPresent()) {
+			final WidgetRowModel[] rows = mRows;
+			if (!mIsPresent || position < 0 || position >= rows.length) {
 				return null;
 			}
-
-			// load date formatter if not present
-			if (mDateFormatter == null) {
-				mDateFormatter = TimeFormatter.getLocalFormatterMicro(mContext);
+			final WidgetRowModel row = rows[position];
+
+			RemoteViews rv;
+			if (row.isHeader()) {
+				// Header
+				final int itemId = R.layout.widgetlist_header;
+				rv = new RemoteViews(mContext.getPackageName(), itemId);
+				rv.setTextColor(android.R.id.text1, mPrimaryTextColor);
+				rv.setBoolean(itemId, "setClickable", false);
+				// Set text
+				rv.setTextViewText(android.R.id.text1, row.text);
 			}
+			else {
+				final int itemId = R.layout.widgetlist_item;
 
-			final long listId = widgetPrefs.getLong(ListWidgetConfig.KEY_LIST,
-					ListWidgetConfig.ALL_LISTS_ID);
-			final int theme = widgetPrefs.getInt(ListWidgetConfig.KEY_THEME,
-					ListWidgetConfig.DEFAULT_THEME);
-			final int primaryTextColor = widgetPrefs.getInt(
-					ListWidgetConfig.KEY_TEXTPRIMARY,
-					ListWidgetConfig.DEFAULT_TEXTPRIMARY);
-			final int rows = widgetPrefs.getInt(ListWidgetConfig.KEY_TITLEROWS,
-					ListWidgetConfig.DEFAULT_ROWS);
-			final boolean isCheckboxHidden = widgetPrefs.getBoolean(
-					ListWidgetConfig.KEY_HIDDENCHECKBOX, false);
-			boolean isDateHidden = widgetPrefs.getBoolean(
-					ListWidgetConfig.KEY_HIDDENDATE, false);
-
-			// TODO rest
+				rv = new RemoteViews(mContext.getPackageName(), itemId);
 
-			// boolean isHeader = false;
-			String sTemp = "";
-			if (weekdayFormatter == null) {
-				weekdayFormatter = TimeFormatter
-						.getLocalFormatterWeekday(mContext);
-			}
+				// Complete checkbox
+				final int visibleCheckBox;
+				final int hiddenCheckBox;
+				if (mTheme == ListWidgetConfig.THEME_LIGHT) {
+					hiddenCheckBox = R.id.completedCheckBoxDark;
+					visibleCheckBox = R.id.completedCheckBoxLight;
+				}
+				else {
+					hiddenCheckBox = R.id.completedCheckBoxLight;
+					visibleCheckBox = R.id.completedCheckBoxDark;
+				}
+				rv.setViewVisibility(hiddenCheckBox, View.GONE);
+				rv.setViewVisibility(visibleCheckBox,
+						mIsCheckboxHidden ? View.GONE : View.VISIBLE);
+				// Spacer
+				rv.setViewVisibility(R.id.itemSpacer,
+						mIsCheckboxHidden ? View.GONE : View.VISIBLE);
+
+				// Date
+				final boolean isDateHidden = mIsDateHidden || row.date == null;
+				rv.setTextViewText(R.id.dueDate, row.date == null ? ""
+						: row.date);
+				rv.setViewVisibility(R.id.dueDate, isDateHidden ? View.GONE
+						: View.VISIBLE);
+				rv.setTextColor(R.id.dueDate, mPrimaryTextColor);
+
+				// Text
+				rv.setTextColor(android.R.id.text1, mPrimaryTextColor);
+				rv.setInt(android.R.id.text1, "setMaxLines", mTitleRows);
+				rv.setTextViewText(android.R.id.text1, row.text);
+
+				// Set the click intent
+				if (mIsLockscreen) {
+					final Intent clickIntent = new Intent();
+					clickIntent
+							.setAction(Intent.ACTION_EDIT)
+							.setData(Task.getUri(row.id))
+							.putExtra(TaskDetailFragment.ARG_ITEM_LIST_ID,
+									mListId);
+					rv.setOnClickFillInIntent(R.id.widget_item, clickIntent);
+				}
+				else {
+					final Intent fillInIntent = new Intent();
+					fillInIntent.setAction(ListWidgetProvider.CLICK_ACTION);
+					fillInIntent.putExtra(ListWidgetProvider.EXTRA_NOTE_ID,
+							row.id);
+					fillInIntent.putExtra(ListWidgetProvider.EXTRA_LIST_ID,
+							mListId);
+					rv.setOnClickFillInIntent(R.id.widget_item, fillInIntent);
+				}
 
-			RemoteViews rv = null;
-			if (mCursor.moveToPosition(position)) {
-				if (mCursor.getLong(0) < 1) {
-					// Header
-					// if (mCursor.getViewType() == HeaderCursor.headerType) {
-					final int itemId = R.layout.widgetlist_header;
-					rv = new RemoteViews(mContext.getPackageName(), itemId);
-					rv.setTextColor(android.R.id.text1, primaryTextColor);
-					rv.setBoolean(itemId, "setClickable", false);
-
-					sTemp = mCursor.getString(1);
-					if (Task.HEADER_KEY_OVERDUE.equals(sTemp)) {
-						sTemp = mContext
-								.getString(R.string.date_header_overdue);
-					}
-					else if (Task.HEADER_KEY_TODAY.equals(sTemp)) {
-						sTemp = mContext.getString(R.string.date_header_today);
-					}
-					else if (Task.HEADER_KEY_PLUS1.equals(sTemp)) {
-						sTemp = mContext
-								.getString(R.string.date_header_tomorrow);
-					}
-					else if (Task.HEADER_KEY_PLUS2.equals(sTemp)
-							|| Task.HEADER_KEY_PLUS3.equals(sTemp)
-							|| Task.HEADER_KEY_PLUS4.equals(sTemp)) {
-						sTemp = weekdayFormatter.format(new Date(mCursor
-								.getLong(4)));
-					}
-					else if (Task.HEADER_KEY_LATER.equals(sTemp)) {
-						sTemp = mContext.getString(R.string.date_header_future);
-					}
-					else if (Task.HEADER_KEY_NODATE.equals(sTemp)) {
-						sTemp = mContext.getString(R.string.date_header_none);
-					}
-					else if (Task.HEADER_KEY_COMPLETE.equals(sTemp)) {
-						sTemp = mContext
-								.getString(R.string.date_header_completed);
-					}
-					// Set text
-					rv.setTextViewText(android.R.id.text1, sTemp);
+				// Set complete broadcast
+				// If not on lock screen, send broadcast to complete.
+				// Otherwise, have to open note
+				final Intent completeIntent = new Intent();
+				if (mIsLockscreen) {
+					completeIntent
+							.setAction(Intent.ACTION_EDIT)
+							.setData(Task.getUri(row.id))
+							.putExtra(TaskDetailFragment.ARG_ITEM_LIST_ID,
+									mListId);
 				}
 				else {
-					final int itemId = R.layout.widgetlist_item;
-
-					rv = new RemoteViews(mContext.getPackageName(), itemId);
-
-					// Complete checkbox
-					final int visibleCheckBox;
-					final int hiddenCheckBox;
-					if (theme == ListWidgetConfig.THEME_LIGHT) {
-						hiddenCheckBox = R.id.completedCheckBoxDark;
-						visibleCheckBox = R.id.completedCheckBoxLight;
-					}
-					else {
-						hiddenCheckBox = R.id.completedCheckBoxLight;
-						visibleCheckBox = R.id.completedCheckBoxDark;
-					}
-					rv.setViewVisibility(hiddenCheckBox, View.GONE);
-					rv.setViewVisibility(visibleCheckBox,
-							isCheckboxHidden ? View.GONE : View.VISIBLE);
-					// Spacer
-					rv.setViewVisibility(R.id.itemSpacer,
-							isCheckboxHidden ? View.GONE : View.VISIBLE);
-
-					// Date
-					if (mCursor.isNull(4)) {
-						rv.setTextViewText(R.id.dueDate, "");
-						isDateHidden = true;
-					}
-					else {
-						rv.setTextViewText(R.id.dueDate, mDateFormatter
-								.format(new Date(mCursor.getLong(4))));
-					}
-					rv.setViewVisibility(R.id.dueDate, isDateHidden ? View.GONE
-							: View.VISIBLE);
-					rv.setTextColor(R.id.dueDate, primaryTextColor);
-
-					// Text
-					rv.setTextColor(android.R.id.text1, primaryTextColor);
-					rv.setInt(android.R.id.text1, "setMaxLines", rows);
-					// Only if task it not locked
-					if (mCursor.getInt(9) != 1) {
-						rv.setTextViewText(
-								android.R.id.text1,
-								TitleNoteTextView.getStyledText(
-										mCursor.getString(1),
-										mCursor.getString(2), 1.0f, 1, 0));
-					}
-					else {
-						// Just title
-						rv.setTextViewText(
-								android.R.id.text1,
-								TitleNoteTextView.getStyledText(
-										mCursor.getString(1), 1.0f, 1, 0));
-					}
-
-					// Set the click intent
-					if (widgetPrefs.getBoolean(ListWidgetConfig.KEY_LOCKSCREEN,
-							false)) {
-						final Intent clickIntent = new Intent();
-						clickIntent
-								.setAction(Intent.ACTION_EDIT)
-								.setData(Task.getUri(mCursor.getLong(0)))
-								.putExtra(TaskDetailFragment.ARG_ITEM_LIST_ID,
-										listId);
-						rv.setOnClickFillInIntent(R.id.widget_item, clickIntent);
-					}
-					else {
-						final Intent fillInIntent = new Intent();
-						fillInIntent.setAction(ListWidgetProvider.CLICK_ACTION);
-						fillInIntent.putExtra(ListWidgetProvider.EXTRA_NOTE_ID,
-								mCursor.getLong(0));
-						fillInIntent.putExtra(ListWidgetProvider.EXTRA_LIST_ID,
-								listId);
-						rv.setOnClickFillInIntent(R.id.widget_item,
-								fillInIntent);
-					}
-
-					// Set complete broadcast
-					// If not on lock screen, send broadcast to complete.
-					// Otherwise, have to open note
-					final Intent completeIntent = new Intent();
-					if (widgetPrefs.getBoolean(ListWidgetConfig.KEY_LOCKSCREEN,
-							false)) {
-						completeIntent
-								.setAction(Intent.ACTION_EDIT)
-								.setData(Task.getUri(mCursor.getLong(0)))
-								.putExtra(TaskDetailFragment.ARG_ITEM_LIST_ID,
-										listId);
-					}
-					else {
-						completeIntent.setAction(
-								ListWidgetProvider.COMPLETE_ACTION).putExtra(
-								ListWidgetProvider.EXTRA_NOTE_ID,
-								mCursor.getLong(0));
-
-					}
-					rv.setOnClickFillInIntent(R.id.completedCheckBoxDark,
-							completeIntent);
-					rv.setOnClickFillInIntent(R.id.completedCheckBoxLight,
-							completeIntent);
+					completeIntent.setAction(
+							ListWidgetProvider.COMPLETE_ACTION).putExtra(
+							ListWidgetProvider.EXTRA_NOTE_ID, row.id);
+
 				}
+				rv.setOnClickFillInIntent(R.id.completedCheckBoxDark,
+						completeIntent);
+				rv.setOnClickFillInIntent(R.id.completedCheckBoxLight,
+						completeIntent);
 			}
 
 			return rv;
@@ -308,22 +238,29 @@ public class ListWidgetService extends RemoteViewsService {
 			// content provider
 			final long identityToken = Binder.clearCallingIdentity();
 
-			// Refresh the cursor
-			if (mCursor != null) {
-				mCursor.close();
-			}
-
-			// (re)load dateformatter in case preferences changed
-			mDateFormatter = TimeFormatter.getLocalFormatterMicro(mContext);
-
-			// Get widget settings
+			// Get widget settings once, instead of for every row
 			final WidgetPrefs widgetPrefs = new WidgetPrefs(mContext,
 					mAppWidgetId);
-			if (widgetPrefs != null) {
+			mIsPresent = widgetPrefs.isPresent();
+			mListId = widgetPrefs.getLong(ListWidgetConfig.KEY_LIST,
+					ListWidgetConfig.ALL_LISTS_ID);
+			mTheme = widgetPrefs.getInt(ListWidgetConfig.KEY_THEME,
+					ListWidgetConfig.DEFAULT_THEME);
+			mPrimaryTextColor = widgetPrefs.getInt(
+					ListWidgetConfig.KEY_TEXTPRIMARY,
+					ListWidgetConfig.DEFAULT_TEXTPRIMARY);
+			mTitleRows = widgetPrefs.getInt(ListWidgetConfig.KEY_TITLEROWS,
+					ListWidgetConfig.DEFAULT_ROWS);
+			mIsCheckboxHidden = widgetPrefs.getBoolean(
+					ListWidgetConfig.KEY_HIDDENCHECKBOX, false);
+			mIsDateHidden = widgetPrefs.getBoolean(
+					ListWidgetConfig.KEY_HIDDENDATE, false);
+			mIsLockscreen = widgetPrefs.getBoolean(
+					ListWidgetConfig.KEY_LOCKSCREEN, false);
+
+			if (mIsPresent) {
 				final Uri targetUri;
-				final long listId = widgetPrefs.getLong(
-						ListWidgetConfig.KEY_LIST,
-						ListWidgetConfig.ALL_LISTS_ID);
+				final long listId = mListId;
 				final String sortSpec;
 				final String sortType = widgetPrefs.getString(
 						ListWidgetConfig.KEY_SORT_TYPE,
@@ -365,13 +302,80 @@ public class ListWidgetService extends RemoteViewsService {
 					listArg = null;
 				}
 
-				mCursor = mContext.getContentResolver().query(targetUri,
-						Task.Columns.FIELDS, listWhere, listArg, sortSpec);
-
+				final String where = listWhere;
+				final String[] whereArgs = listArg;
+				// Widgets showing the same list share the query
+				final WidgetQueryCache.Snapshot snapshot = WidgetQueryCache
+						.getInstance().get(mAppWidgetId, listId,
+								WidgetQueryCache.getKey(listId, sortType,
+										WidgetQueryCache.today()),
+								new WidgetQueryCache.Loader() {
+									@Override
+									public WidgetQueryCache.Snapshot load() {
+										final Cursor c = mContext
+												.getContentResolver().query(
+														targetUri,
+														Task.Columns.LIST_FIELDS,
+														where, whereArgs,
+														sortSpec);
+										if (c == null) {
+											return WidgetQueryCache.Snapshot.EMPTY;
+										}
+										try {
+											return WidgetQueryCache.Snapshot
+													.fromCursor(c);
+										}
+										finally {
+											c.close();
+										}
+									}
+								});
+				mRows = buildRows(snapshot);
+			}
+			else {
+				mRows = NO_ROWS;
 			}
 			// Restore the identity - not sure if it's needed since we're going
 			// to return right here, but it just *seems* cleaner
 			Binder.restoreCallingIdentity(identityToken);
 		}
+
+		/**
+		 * Reads the cursor once into row models. Formatters are (re)loaded
+		 * in case preferences changed.
+		 */
+		private WidgetRowModel[] buildRows(
+				final WidgetQueryCache.Snapshot s) {
+			final HashMap<String, String> labels = new HashMap<String, String>();
+			labels.put(Task.HEADER_KEY_OVERDUE,
+					mContext.getString(R.string.date_header_overdue));
+			labels.put(Task.HEADER_KEY_TODAY,
+					mContext.getString(R.string.date_header_today));
+			labels.put(Task.HEADER_KEY_PLUS1,
+					mContext.getString(R.string.date_header_tomorrow));
+			labels.put(Task.HEADER_KEY_LATER,
+					mContext.getString(R.string.date_header_future));
+			labels.put(Task.HEADER_KEY_NODATE,
+					mContext.getString(R.string.date_header_none));
+			labels.put(Task.HEADER_KEY_COMPLETE,
+					mContext.getString(R.string.date_header_completed));
+
+			final WidgetRowModel.Builder builder = new WidgetRowModel.Builder(
+					labels, TimeFormatter.getLocalFormatterWeekday(mContext),
+					TimeFormatter.getLocalFormatterMicro(mContext), STYLER,
+					s.count);
+
+			for (int i = 0; i < s.count; i++) {
+				if (s.ids[i] < 1) {
+					builder.addHeader(s.titles[i], s.due[i]);
+				}
+				else {
+					// Only the title if task is locked
+					builder.addTask(s.ids[i], s.titles[i], s.notes[i],
+							s.hasDue[i], s.due[i], s.locked[i]);
+				}
+			}
+			return builder.build();
+		}
 	}
 }
\ No newline at end of file
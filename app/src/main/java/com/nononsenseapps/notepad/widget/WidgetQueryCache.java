@@ -0,0 +1,238 @@
+/*
+ * Copyright (c) 2014 Jonas Kalderstam.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.nononsenseapps.notepad.widget;
+
+import android.database.Cursor;
+
+import java.util.Calendar;
+import java.util.Collection;
+import java.util.HashMap;
+
+/**
+ * Query results shared by all widgets showing the same list with the same
+ * sort order, so several widgets on the same list only query the database
+ * once per change. Entries are reference counted by widget id, and freed
+ * when the last widget using them is removed.
+ */
+public class WidgetQueryCache {
+
+    private static WidgetQueryCache instance = null;
+
+    public static synchronized WidgetQueryCache getInstance() {
+        if (instance == null) {
+            instance = new WidgetQueryCache();
+        }
+        return instance;
+    }
+
+    /**
+     * Runs the query when there is no valid snapshot.
+     */
+    public interface Loader {
+        /**
+         * @return the result of the query, never null
+         */
+        public Snapshot load();
+    }
+
+    /**
+     * The rows of a query as read from the cursor. Immutable.
+     */
+    public static final class Snapshot {
+        public static final Snapshot EMPTY = new Snapshot(0);
+
+        public final int count;
+        // Task id, or less than 1 for headers
+        final long[] ids;
+        // Title of task, or header key
+        final String[] titles;
+        final String[] notes;
+        final boolean[] hasDue;
+        final long[] due;
+        final boolean[] locked;
+
+        private Snapshot(final int count) {
+            this.count = count;
+            ids = new long[count];
+            titles = new String[count];
+            notes = new String[count];
+            hasDue = new boolean[count];
+            due = new long[count];
+            locked = new boolean[count];
+        }
+
+        /**
+         * Reads all rows. The cursor must have the columns of
+         * Task.Columns.FIELDS, and is not closed.
+         */
+        public static Snapshot fromCursor(final Cursor c) {
+            final Snapshot s = new Snapshot(c.getCount());
+            int i = 0;
+            while (c.moveToNext() && i < s.count) {
+                s.ids[i] = c.getLong(0);
+                s.titles[i] = c.getString(1);
+                s.notes[i] = c.getString(2);
+                s.hasDue[i] = !c.isNull(4);
+                s.due[i] = c.getLong(4);
+                s.locked[i] = c.getInt(9) == 1;
+                i++;
+            }
+            return s;
+        }
+    }
+
+    private static final class Entry {
+        final long listId;
+        int refs = 0;
+        // Bumped on every invalidation, guarded by the cache
+        int generation = 0;
+        // Guarded by the cache
+        Snapshot snapshot = null;
+
+        Entry(final long listId) {
+            this.listId = listId;
+        }
+    }
+
+    // All guarded by this
+    private final HashMap<String, Entry> entries = new HashMap<String,
+            Entry>();
+    private final HashMap<Integer, String> widgetKeys = new HashMap<Integer,
+            String>();
+
+    private WidgetQueryCache() {
+    }
+
+    /**
+     * Completed tasks are never shown in widgets, so only the list and sort
+     * type pick the query. The day is part of the key, as the date sections
+     * and their headers depend on it: after midnight widgets get a new
+     * entry, and the old one is freed.
+     *
+     * @param listId   shown list, less than 1 for all lists
+     * @param sortType sort type of the widget
+     * @param day      from {@link #today()}
+     */
+    public static String getKey(final long listId, final String sortType,
+            final int day) {
+        return listId + "/" + sortType + "/" + day;
+    }
+
+    /**
+     * @return the current day in the local time zone
+     */
+    public static int today() {
+        final Calendar cal = Calendar.getInstance();
+        return cal.get(Calendar.YEAR) * 1000 + cal.get(Calendar.DAY_OF_YEAR);
+    }
+
+    /**
+     * Returns the snapshot of the query, loading it if no valid one is
+     * cached. Widgets showing the same query wait for a single load.
+     *
+     * @param widgetId the widget which will use the result
+     * @param listId   shown list, less than 1 for all lists
+     * @param key      from {@link #getKey(long, String, int)}
+     * @param loader   runs the query if needed
+     */
+    public Snapshot get(final int widgetId, final long listId,
+            final String key, final Loader loader) {
+        final Entry entry = acquire(widgetId, listId, key);
+        // One load per entry at a time
+        synchronized (entry) {
+            final int generation;
+            synchronized (this) {
+                if (entry.snapshot != null) {
+                    return entry.snapshot;
+                }
+                generation = entry.generation;
+            }
+
+            final Snapshot snapshot = loader.load();
+
+            synchronized (this) {
+                // Do not cache the result if it was invalidated while loading
+                if (generation == entry.generation) {
+                    entry.snapshot = snapshot;
+                }
+            }
+            return snapshot;
+        }
+    }
+
+    private synchronized Entry acquire(final int widgetId, final long listId,
+            final String key) {
+        final String oldKey = widgetKeys.put(widgetId, key);
+        Entry entry = entries.get(key);
+        if (key.equals(oldKey) && entry != null) {
+            return entry;
+        }
+        if (oldKey != null) {
+            // Widget was reconfigured
+            release(oldKey);
+        }
+        if (entry == null) {
+            entry = new Entry(listId);
+            entries.put(key, entry);
+        }
+        entry.refs++;
+        return entry;
+    }
+
+    /**
+     * Drop the snapshots of the lists. Snapshots of all lists are always
+     * dropped.
+     *
+     * @param listIds changed lists
+     * @param all     true if all snapshots should be dropped
+     */
+    public synchronized void invalidate(final Collection<Long> listIds,
+            final boolean all) {
+        for (Entry entry : entries.values()) {
+            if (all || entry.listId < 1 || listIds.contains(entry.listId)) {
+                entry.snapshot = null;
+                entry.generation++;
+            }
+        }
+    }
+
+    /**
+     * Call when widgets have been removed.
+     */
+    public synchronized void removeWidgets(final int[] widgetIds) {
+        for (int widgetId : widgetIds) {
+            final String key = widgetKeys.remove(widgetId);
+            if (key != null) {
+                release(key);
+            }
+        }
+    }
+
+    private void release(final String key) {
+        final Entry entry = entries.get(key);
+        if (entry != null && --entry.refs <= 0) {
+            entries.remove(key);
+        }
+    }
+
+    /**
+     * @return number of cached queries, for testing
+     */
+    public synchronized int size() {
+        return entries.size();
+    }
+}
@@ -0,0 +1,200 @@
+/*
+ * Copyright (c) 2014 Jonas Kalderstam.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.nononsenseapps.notepad.widget;
+
+import android.appwidget.AppWidgetManager;
+import android.content.ComponentName;
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+
+import com.nononsenseapps.notepad.R;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+
+/**
+ * Refreshes list widgets after the database has changed. Only widgets
+ * showing one of the changed lists are refreshed, and at most once per
+ * {@link #THROTTLE_MS}, so a sync writing thousands of tasks does not flood
+ * the launcher with refresh requests.
+ */
+public class WidgetRefreshCoordinator {
+
+    /**
+     * Use as list id when the changed lists are not known
+     */
+    public static final long ALL_LISTS = ListWidgetConfig.ALL_LISTS_ID;
+    /**
+     * Minimum time between two refreshes of the widgets
+     */
+    public static final long THROTTLE_MS = 1000;
+
+    private static WidgetRefreshCoordinator instance = null;
+
+    public static synchronized WidgetRefreshCoordinator getInstance(
+            final Context context) {
+        if (instance == null) {
+            instance = new WidgetRefreshCoordinator(context
+                    .getApplicationContext());
+        }
+        return instance;
+    }
+
+    private final Context context;
+    private final Handler handler;
+    private final Runnable flushRunnable = new Runnable() {
+        @Override
+        public void run() {
+            flush();
+        }
+    };
+
+    // All below guarded by this
+    private final HashSet<Long> pendingLists = new HashSet<Long>();
+    private boolean pendingAll = false;
+    private boolean flushScheduled = false;
+    private long lastFlush = 0;
+    // List shown by each widget, null if not configured. Loaded lazily.
+    private final HashMap<Integer, Long> widgetLists = new HashMap<Integer,
+            Long>();
+    // Refreshes sent per list, ALL_LISTS for all of them
+    private final HashMap<Long, Integer> refreshCounts = new HashMap<Long,
+            Integer>();
+
+    private WidgetRefreshCoordinator(final Context context) {
+        this.context = context;
+        this.handler = new Handler(Looper.getMainLooper());
+    }
+
+    /**
+     * Schedule a refresh of the widgets showing any of the lists.
+     *
+     * @param listIds Changed lists, may contain {@link #ALL_LISTS}
+     */
+    public synchronized void onListsChanged(final Collection<Long> listIds) {
+        if (listIds.isEmpty()) {
+            return;
+        }
+        for (Long listId : listIds) {
+            if (listId == null || listId == ALL_LISTS) {
+                pendingAll = true;
+            } else {
+                pendingLists.add(listId);
+            }
+        }
+        if (!flushScheduled) {
+            flushScheduled = true;
+            handler.postDelayed(flushRunnable, Math.max(0, lastFlush +
+                    THROTTLE_MS - SystemClock.uptimeMillis()));
+        }
+    }
+
+    /**
+     * Refresh the affected widgets right away, instead of waiting for the
+     * throttle. Call when a sync or batch has finished.
+     */
+    public void flush() {
+        final HashSet<Long> lists;
+        final boolean all;
+        synchronized (this) {
+            handler.removeCallbacks(flushRunnable);
+            flushScheduled = false;
+            if (!pendingAll && pendingLists.isEmpty()) {
+                return;
+            }
+            lists = new HashSet<Long>(pendingLists);
+            all = pendingAll;
+            pendingLists.clear();
+            pendingAll = false;
+            lastFlush = SystemClock.uptimeMillis();
+            for (Long listId : lists) {
+                countRefresh(listId);
+            }
+            if (all) {
+                countRefresh(ALL_LISTS);
+            }
+        }
+
+        // Widgets must not reuse the old query results
+        WidgetQueryCache.getInstance().invalidate(lists, all);
+
+        final AppWidgetManager appWidgetManager = AppWidgetManager
+                .getInstance(context);
+        final int[] appWidgetIds = appWidgetManager.getAppWidgetIds(new
+                ComponentName(context, ListWidgetProvider.class));
+        for (int widgetId : appWidgetIds) {
+            final Long listId = getWidgetList(widgetId);
+            if (listId == null) {
+                // Not configured yet
+                continue;
+            }
+            // Widgets showing all lists are always affected
+            if (all || listId < 1 || lists.contains(listId)) {
+                appWidgetManager.notifyAppWidgetViewDataChanged(widgetId,
+                        R.id.notesList);
+            }
+        }
+    }
+
+    /**
+     * Call when a widget has been configured to show a list.
+     */
+    public synchronized void setWidgetList(final int widgetId,
+            final long listId) {
+        widgetLists.put(widgetId, listId);
+    }
+
+    /**
+     * Call when widgets have been removed.
+     */
+    public synchronized void removeWidgets(final int[] widgetIds) {
+        for (int widgetId : widgetIds) {
+            widgetLists.remove(widgetId);
+        }
+    }
+
+    private void countRefresh(final long listId) {
+        final Integer count = refreshCounts.get(listId);
+        refreshCounts.put(listId, count == null ? 1 : count + 1);
+    }
+
+    /**
+     * @return number of refreshes sent to widgets showing the list, or to
+     * all widgets for {@link #ALL_LISTS}
+     */
+    public synchronized int getRefreshCount(final long listId) {
+        final Integer count = refreshCounts.get(listId);
+        return count == null ? 0 : count;
+    }
+
+    public synchronized void resetCounters() {
+        refreshCounts.clear();
+    }
+
+    private synchronized Long getWidgetList(final int widgetId) {
+        if (!widgetLists.containsKey(widgetId)) {
+            final WidgetPrefs prefs = new WidgetPrefs(context, widgetId);
+            widgetLists.put(widgetId, prefs.isPresent() ? prefs.getLong
+                    (ListWidgetConfig.KEY_LIST, ListWidgetConfig
+                            .ALL_LISTS_ID) : null);
+        }
+        return widgetLists.get(widgetId);
+    }
+}
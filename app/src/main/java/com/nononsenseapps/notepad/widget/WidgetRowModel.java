@@ -0,0 +1,144 @@
+/*
+ * Copyright (c) 2014 Jonas Kalderstam.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.nononsenseapps.notepad.widget;
+
+import com.nononsenseapps.notepad.database.Task;
+
+import java.text.DateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.Map;
+
+/**
+ * What a single row in the list widget displays. Computed for all rows when
+ * the data set changes, so the widget only has to fill in the views when a
+ * row is shown. Immutable.
+ */
+public final class WidgetRowModel {
+
+    /**
+     * Id of the task, or less than 1 for headers
+     */
+    public final long id;
+    /**
+     * Header label, or styled title and note for tasks
+     */
+    public final CharSequence text;
+    /**
+     * Formatted due date, null if the task has none. Always null for headers
+     */
+    public final String date;
+
+    private WidgetRowModel(final long id, final CharSequence text,
+            final String date) {
+        this.id = id;
+        this.text = text;
+        this.date = date;
+    }
+
+    public boolean isHeader() {
+        return id < 1;
+    }
+
+    /**
+     * Styles the text of a task row. Kept separate so the builder does not
+     * depend on Android classes.
+     */
+    public interface TextStyler {
+        /**
+         * @param title of the task
+         * @param note  of the task, null if the note should not be shown
+         */
+        public CharSequence style(final String title, final String note);
+    }
+
+    /**
+     * Builds the row models of a list in a single pass. Not thread safe.
+     */
+    public static class Builder {
+        private final Map<String, String> headerLabels;
+        private final DateFormat weekdayFormatter;
+        private final DateFormat dateFormatter;
+        private final TextStyler styler;
+        private final ArrayList<WidgetRowModel> rows;
+        // Reused for formatting
+        private final Date date = new Date();
+
+        /**
+         * @param headerLabels     Labels of headers, keyed on Task.HEADER_KEY_*
+         * @param weekdayFormatter Used for headers of the coming days
+         * @param dateFormatter    Used for due dates of tasks
+         * @param styler           Styles the text of tasks
+         * @param expectedRows     Capacity to allocate up front
+         */
+        public Builder(final Map<String, String> headerLabels,
+                final DateFormat weekdayFormatter,
+                final DateFormat dateFormatter, final TextStyler styler,
+                final int expectedRows) {
+            this.headerLabels = headerLabels;
+            this.weekdayFormatter = weekdayFormatter;
+            this.dateFormatter = dateFormatter;
+            this.styler = styler;
+            this.rows = new ArrayList<WidgetRowModel>(Math.max(0,
+                    expectedRows));
+        }
+
+        /**
+         * @param key Header key, one of Task.HEADER_KEY_*
+         * @param due Time of the header's day, used for the coming days
+         */
+        public Builder addHeader(final String key, final long due) {
+            final String label;
+            if (Task.HEADER_KEY_PLUS2.equals(key) || Task.HEADER_KEY_PLUS3
+                    .equals(key) || Task.HEADER_KEY_PLUS4.equals(key)) {
+                date.setTime(due);
+                label = weekdayFormatter.format(date);
+            } else if (headerLabels.containsKey(key)) {
+                label = headerLabels.get(key);
+            } else {
+                label = key;
+            }
+            rows.add(new WidgetRowModel(-1, label, null));
+            return this;
+        }
+
+        /**
+         * @param id     of the task
+         * @param title  of the task
+         * @param note   of the task
+         * @param hasDue false if due should be ignored
+         * @param due    date of the task
+         * @param locked if true, only the title is shown
+         */
+        public Builder addTask(final long id, final String title,
+                final String note, final boolean hasDue, final long due,
+                final boolean locked) {
+            String dueText = null;
+            if (hasDue) {
+                date.setTime(due);
+                dueText = dateFormatter.format(date);
+            }
+            rows.add(new WidgetRowModel(id, styler.style(title, locked ? null
+                    : note), dueText));
+            return this;
+        }
+
+        public WidgetRowModel[] build() {
+            return rows.toArray(new WidgetRowModel[rows.size()]);
+        }
+    }
+}
@@ -39,8 +39,13 @@ import org.cowboyprogrammer.org.OrgFile;
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.StringReader;
+import java.text.ParseException;
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 
 
 public class DropboxSynchronizer extends Synchronizer implements
@@ -51,6 +56,8 @@ public class DropboxSynchronizer extends Synchronizer implements
     public static final String PREF_DIR = SyncPrefs.KEY_DROPBOX_DIR;
     public static final String PREF_ENABLED = SyncPrefs.KEY_DROPBOX_ENABLE;
     public final static String SERVICENAME = "DROPBOXORG";
+    // Maximum time to wait on Dropbox, in milliseconds
+    private static final long MAXWAIT = 30 * 1000;
     protected final boolean enabled;
     protected DbxPath DIR;
     private DbxAccountManager accountManager = null;
@@ -307,29 +314,62 @@ public class DropboxSynchronizer extends Synchronizer implements
         return br;
     }
 
+    /**
+     * Reads the files in the order they become available. Files which are
+     * already cached are parsed while the others are still downloading.
+     */
+    @Override
+    protected HashMap<String, OrgFile> getRemoteFiles(
+            final Collection<String> filenames) throws IOException,
+            ParseException {
+        final HashMap<String, OrgFile> files = new HashMap<String, OrgFile>();
+        final DropboxFileCache cache = new DropboxFileCache(fs, DIR);
+        try {
+            final ReadyFileQueue queue = new ReadyFileQueue(cache, filenames,
+                    MAXWAIT);
+            String filename;
+            while ((filename = queue.next()) != null) {
+                final String content = cache.read(filename);
+                if (content != null) {
+                    files.put(filename, OrgFile.createFromBufferedReader
+                            (filename, new BufferedReader(new StringReader
+                                    (content))));
+                }
+            }
+        } catch (InterruptedException e) {
+            throw new IOException(e);
+        } finally {
+            cache.close();
+        }
+        return files;
+    }
+
     /**
      * Wait until the file has been synced to the newest state. Will wait a
      * maximum of 30s.
      * @param file
      */
     private void waitUntilSynced(final DbxFile file) {
-        final long MAXTIME = 30*1000;
-        final long STARTTIME = System.currentTimeMillis();
-        try {
-            DbxFileStatus status = file.getNewerStatus();
-
-            while (MAXTIME > (System.currentTimeMillis() - STARTTIME) &&
-                    status != null && !status.isCached && !status.isLatest) {
-                Log.d(TAG, "Waiting on latest version: " + status
-                        .bytesTransferred + " / " + status.bytesTotal);
-                try {
-                    Thread.sleep(1000);
-                } catch (InterruptedException ignored) {
+        final CountDownLatch latch = new CountDownLatch(1);
+        final DbxFile.Listener listener = new DbxFile.Listener() {
+            @Override
+            public void onFileChange(final DbxFile dbxFile) {
+                if (isLatestCached(dbxFile)) {
+                    latch.countDown();
                 }
-                // Check latest
-                file.update();
-                status = file.getNewerStatus();
             }
+        };
+        file.addListener(listener);
+        try {
+            if (!isLatestCached(file)) {
+                Log.d(TAG, "Waiting on latest version of " + file.getPath());
+                latch.await(MAXWAIT, TimeUnit.MILLISECONDS);
+            }
+        } catch (InterruptedException ignored) {
+        } finally {
+            file.removeListener(listener);
+        }
+        try {
             // Update
             file.update();
         } catch (DbxException e) {
@@ -337,6 +377,54 @@ public class DropboxSynchronizer extends Synchronizer implements
         }
     }
 
+    /**
+     * @return true if the newest version of the file is available locally.
+     * Does not update the file to that version.
+     */
+    private static boolean isLatestCached(final DbxFile file) {
+        try {
+            final DbxFileStatus newer = file.getNewerStatus();
+            if (newer != null) {
+                return newer.isCached;
+            }
+            return file.getSyncStatus().isCached;
+        } catch (DbxException e) {
+            // Nothing more will happen with this file
+            return true;
+        }
+    }
+
+    /**
+     * Wait until Dropbox is done downloading metadata. Will wait a maximum
+     * of 30s.
+     */
+    private void waitUntilFolderSynced() throws DbxException {
+        final CountDownLatch latch = new CountDownLatch(1);
+        final DbxFileSystem.SyncStatusListener listener = new DbxFileSystem
+                .SyncStatusListener() {
+            @Override
+            public void onSyncStatusChange(final DbxFileSystem dbxFileSystem) {
+                try {
+                    if (!dbxFileSystem.getSyncStatus().download.inProgress) {
+                        latch.countDown();
+                    }
+                } catch (DbxException e) {
+                    latch.countDown();
+                }
+            }
+        };
+        fs.addSyncStatusListener(listener);
+        try {
+            if (fs.getSyncStatus().download.inProgress) {
+                Log.d(TAG, "Waiting on Dropbox sync...");
+                latch.await(MAXWAIT, TimeUnit.MILLISECONDS);
+            }
+        } catch (InterruptedException ignored) {
+        } finally {
+            fs.removeSyncStatusListener(listener);
+        }
+    }
+
     /**
      * @return a set of all remote files.
      */
@@ -344,18 +432,11 @@ public class DropboxSynchronizer extends Synchronizer implements
     public HashSet<String> getRemoteFilenames() {
         final HashSet<String> filenames = new HashSet<String>();
         try {
-            while (fs.getSyncStatus().download.inProgress) {
-                Log.d(TAG, "Waiting on Dropbox sync...");
-                try {
-                    Thread.sleep(1000);
-                } catch (InterruptedException e) {
-                    //e.printStackTrace();
-                }
-            }
+            waitUntilFolderSynced();
             List<DbxFileInfo> fileInfos = fs.listFolder(DIR);
             for (DbxFileInfo fileInfo : fileInfos) {
                 if (fileInfo.path.getName().toLowerCase().endsWith((".org"))) {
-                    if (fs.isFile(fileInfo.path)) {
+                    if (!fileInfo.isFolder) {
                         Log.d(TAG, "Adding: " + fileInfo.path.getName());
                         filenames.add(fileInfo.path.getName());
                     } else {
@@ -428,4 +509,103 @@ public class DropboxSynchronizer extends Synchronizer implements
             }
         }
     }
+
+    /**
+     * Keeps the files open while they download, so they can be read as soon
+     * as they are ready. Dropbox only allows one open instance per path.
+     */
+    static final class DropboxFileCache implements RemoteFileCache {
+
+        private final DbxFileSystem fs;
+        private final DbxPath dir;
+        private final HashMap<String, DbxFile> openFiles = new HashMap<String,
+                DbxFile>();
+        private final HashMap<DbxFile, DbxFile.Listener> listeners = new
+                HashMap<DbxFile, DbxFile.Listener>();
+
+        DropboxFileCache(final DbxFileSystem fs, final DbxPath dir) {
+            this.fs = fs;
+            this.dir = dir;
+        }
+
+        private DbxFile open(final String filename) throws DbxException {
+            DbxFile file = openFiles.get(filename);
+            if (file == null) {
+                file = fs.open(new DbxPath(dir, filename));
+                openFiles.put(filename, file);
+            }
+            return file;
+        }
+
+        @Override
+        public boolean isLatestCached(final String filename) throws
+                IOException {
+            return DropboxSynchronizer.isLatestCached(open(filename));
+        }
+
+        @Override
+        public void listen(final String filename, final Listener listener)
+                throws IOException {
+            final DbxFile file = open(filename);
+            final DbxFile.Listener fileListener = new DbxFile.Listener() {
+                @Override
+                public void onFileChange(final DbxFile dbxFile) {
+                    if (DropboxSynchronizer.isLatestCached(dbxFile)) {
+                        listener.onFileReady(filename);
+                    }
+                }
+            };
+            listeners.put(file, fileListener);
+            file.addListener(fileListener);
+            // Might have finished before the listener was added
+            fileListener.onFileChange(file);
+        }
+
+        @Override
+        public void stopListening() {
+            for (DbxFile file : listeners.keySet()) {
+                file.removeListener(listeners.get(file));
+            }
+            listeners.clear();
+        }
+
+        /**
+         * Updates the file to the newest cached version and reads it. The
+         * file is closed afterwards.
+         *
+         * @return the contents, or null if the file doesn't exist.
+         */
+        String read(final String filename) {
+            try {
+                final DbxFile file = open(filename);
+                final DbxFile.Listener listener = listeners.remove(file);
+                if (listener != null) {
+                    file.removeListener(listener);
+                }
+                file.update();
+                final String content = file.readString();
+                openFiles.remove(filename);
+                file.close();
+                return content;
+            } catch (DbxException.NotFound e) {
+                return null;
+            } catch (IOException e) {
+                // In case of errors, throw null pointers. Trying to see if
+                // this the place that deletes files.
+                Log.d(TAG, e.getLocalizedMessage());
+                throw new NullPointerException(e.getLocalizedMessage());
+            }
+        }
+
+        /**
+         * Stop listening and close any files which were never read.
+         */
+        void close() {
+            stopListening();
+            for (DbxFile file : openFiles.values()) {
+                file.close();
+            }
+            openFiles.clear();
+        }
+    }
 }